@@ -0,0 +1,76 @@
+package bewater.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @file ConsultesBenchmark.java
+ * @brief Benchmarks de les consultes de GestorXarxes
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class ConsultesBenchmark
+ * @brief Mesura teCicles, cabalMinim i fluxMaxim, i cabalMinim després de canviar una demanda, a diverses mides
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsultesBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nombreNodes;
+
+    @Param({XarxaSintetica.ARBRE, XarxaSintetica.MALLA})
+    public String forma;
+
+    private XarxaSintetica xarxa;
+    private final Random aleatori = new Random(7);
+
+    @Setup(Level.Trial)
+    public void preparar() throws Throwable {
+        xarxa = new XarxaSintetica(nombreNodes, forma, 42);
+    }
+
+    @Benchmark
+    public boolean teCicles() throws Throwable {
+        return (boolean) Pont.TE_CICLES.invokeExact(xarxa.xarxa, xarxa.origen);
+    }
+
+    @Benchmark
+    public float cabalMinim() throws Throwable {
+        return (float) Pont.CABAL_MINIM.invokeExact(xarxa.xarxa, xarxa.nodeOrigen, 75f);
+    }
+
+    /**
+     * @brief Canvia la demanda d'un terminal i consulta el cabal mínim, com quan es demana després de cada canvi
+     */
+    @Benchmark
+    public float demandaICabalMinim() throws Throwable {
+        String terminal = xarxa.terminals[aleatori.nextInt(xarxa.terminals.length)];
+        Pont.ESTABLIR_DEMANDA.invokeExact(xarxa.xarxa, terminal, (float) (1 + aleatori.nextInt(50)));
+        return (float) Pont.CABAL_MINIM.invokeExact(xarxa.xarxa, xarxa.nodeOrigen, 75f);
+    }
+
+    @Benchmark
+    public float fluxMaxim() throws Throwable {
+        return (float) Pont.FLUX_MAXIM.invokeExact(xarxa.xarxa, xarxa.nodeOrigen, xarxa.terminal);
+    }
+}
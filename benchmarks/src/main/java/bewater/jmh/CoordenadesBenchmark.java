@@ -0,0 +1,57 @@
+package bewater.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @file CoordenadesBenchmark.java
+ * @brief Benchmark de la lectura de coordenades
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class CoordenadesBenchmark
+ * @brief Mesura el constructor Coordenades(CharSequence) sobre coordenades en format GG:MM:SS.ssN,GGG:MM:SS.ssE
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordenadesBenchmark {
+
+    private static final int MIDA = 1024; // potència de 2
+
+    private final String[] textos = new String[MIDA];
+    private int seguent;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        Random r = new Random(42);
+        for (int i = 0; i < MIDA; i++) {
+            textos[i] = String.format(Locale.ROOT, "%d:%d:%.2f%c,%d:%d:%.2f%c",
+                    r.nextInt(90), r.nextInt(60), r.nextFloat() * 59, r.nextBoolean() ? 'N' : 'S',
+                    r.nextInt(180), r.nextInt(60), r.nextFloat() * 59, r.nextBoolean() ? 'E' : 'W');
+        }
+    }
+
+    @Benchmark
+    public Object analitzar() throws Throwable {
+        return (Object) Pont.COORDENADES_TEXT.invokeExact((CharSequence) textos[seguent++ & (MIDA - 1)]);
+    }
+}
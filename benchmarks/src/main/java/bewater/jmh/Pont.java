@@ -0,0 +1,136 @@
+package bewater.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * @file Pont.java
+ * @brief Accés des dels benchmarks a les classes del simulador
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class Pont
+ * @brief Referències (MethodHandle) als constructors i mètodes del simulador que fan servir els benchmarks
+ * @details Les classes del simulador són al paquet per defecte, que no es pot importar des d'un paquet amb nom, i JMH
+ * no admet benchmarks al paquet per defecte. Per això els benchmarks hi accedeixen amb MethodHandle: cada referència
+ * es resol una sola vegada, es guarda en un camp static final i té un tipus on les classes del simulador són Object.
+ * El compilador JIT tracta aquestes referències com a constants i les crida directament, de manera que no afegeixen
+ * cost a les mesures.
+ */
+public final class Pont {
+    //Descripció general: Accés des dels benchmarks a les classes del simulador
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    public static final MethodHandle NOVA_XARXA = constructor("Xarxa");
+    public static final MethodHandle COORDENADES = constructor("Coordenades", float.class, float.class);
+    public static final MethodHandle COORDENADES_TEXT = constructor("Coordenades", CharSequence.class);
+    public static final MethodHandle ORIGEN = constructor("Origen", String.class, classe("Coordenades"));
+    public static final MethodHandle CONNEXIO = constructor("Connexio", String.class, classe("Coordenades"));
+    public static final MethodHandle TERMINAL = constructor("Terminal", String.class, classe("Coordenades"),
+            float.class);
+
+    public static final MethodHandle AFEGIR_ORIGEN = metode("Xarxa", "afegir", void.class, classe("Origen"));
+    public static final MethodHandle AFEGIR_CONNEXIO = metode("Xarxa", "afegir", void.class, classe("Connexio"));
+    public static final MethodHandle AFEGIR_TERMINAL = metode("Xarxa", "afegir", void.class, classe("Terminal"));
+    public static final MethodHandle OBTENIR_NODE = metode("Xarxa", "getNode", classe("NodeClass"), String.class);
+    public static final MethodHandle CONNECTAR = metode("Xarxa", "connectarAmbCanonada", void.class,
+            classe("NodeClass"), classe("NodeClass"), float.class);
+    public static final MethodHandle ESTABLIR_CABAL = metode("Xarxa", "establirCabal", void.class,
+            classe("Origen"), float.class);
+    public static final MethodHandle ESTABLIR_DEMANDA = metode("Xarxa", "establirDemanda", void.class,
+            String.class, float.class);
+    public static final MethodHandle CALCULAR_CABALS = metode("Xarxa", "calcularCabals", int.class);
+    public static final MethodHandle INICIAR_CARREGA = metode("Xarxa", "iniciarCarrega", void.class);
+    public static final MethodHandle CONFIRMAR_CARREGA = metode("Xarxa", "confirmarCarrega", int.class);
+    public static final MethodHandle BACKTRACK = metode("Xarxa", "backtrack", void.class, int.class);
+
+    public static final MethodHandle TE_CICLES = estatic("GestorXarxes", "teCicles", boolean.class,
+            classe("Xarxa"), classe("Origen"));
+    public static final MethodHandle CABAL_MINIM = estatic("GestorXarxes", "cabalMinim", float.class,
+            classe("Xarxa"), classe("NodeClass"), float.class);
+    public static final MethodHandle FLUX_MAXIM = estatic("GestorXarxes", "fluxMaxim", float.class,
+            classe("Xarxa"), classe("NodeClass"), classe("NodeClass"));
+
+    public static final MethodHandle NOU_SIMULADOR = constructor("SimuladorModeText");
+    public static final MethodHandle SIMULAR = metode("SimuladorModeText", "simular", void.class,
+            String.class, String.class);
+
+    public static final MethodHandle NOU_GENERADOR = constructor("GeneradorXarxes", long.class);
+    public static final MethodHandle GENERAR_XARXA = metode("GeneradorXarxes", "xarxa", void.class,
+            String.class, int.class, Appendable.class);
+    public static final MethodHandle GENERAR_OPERACIONS = metode("GeneradorXarxes", "operacions", void.class,
+            int.class, Appendable.class);
+
+    private Pont() {
+    }
+
+    /**
+     * @brief Retorna una classe del simulador
+     * @pre ---
+     * @post Retorna la classe amb nom nom del paquet per defecte
+     * @exception IllegalStateException si la classe no és al classpath
+     */
+    static Class<?> classe(String nom) {
+        try {
+            return Class.forName(nom);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("El simulador no és al classpath: falta la classe " + nom, e);
+        }
+    }
+
+    /**
+     * @brief Referència a un constructor públic, amb les classes del simulador com a Object
+     */
+    private static MethodHandle constructor(String nomClasse, Class<?>... parametres) {
+        try {
+            return generic(LOOKUP.findConstructor(classe(nomClasse), MethodType.methodType(void.class, parametres)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No es troba el constructor de " + nomClasse, e);
+        }
+    }
+
+    /**
+     * @brief Referència a un mètode públic d'instància; el primer paràmetre és l'objecte
+     */
+    private static MethodHandle metode(String nomClasse, String nom, Class<?> retorn, Class<?>... parametres) {
+        try {
+            MethodHandle h = LOOKUP.findVirtual(classe(nomClasse), nom, MethodType.methodType(retorn, parametres));
+            return generic(h);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No es troba el mètode " + nomClasse + "." + nom, e);
+        }
+    }
+
+    /**
+     * @brief Referència a un mètode públic estàtic
+     */
+    private static MethodHandle estatic(String nomClasse, String nom, Class<?> retorn, Class<?>... parametres) {
+        try {
+            MethodHandle h = LOOKUP.findStatic(classe(nomClasse), nom, MethodType.methodType(retorn, parametres));
+            return generic(h);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No es troba el mètode " + nomClasse + "." + nom, e);
+        }
+    }
+
+    /**
+     * @brief Canvia les classes del simulador del tipus d'una referència per Object
+     * @pre ---
+     * @post Els tipus primitius, String, CharSequence i Appendable es mantenen; la resta de classes passen a ser Object
+     */
+    private static MethodHandle generic(MethodHandle h) {
+        MethodType tipus = h.type();
+        for (int i = 0; i < tipus.parameterCount(); i++) {
+            tipus = tipus.changeParameterType(i, visible(tipus.parameterType(i)));
+        }
+        return h.asType(tipus.changeReturnType(visible(tipus.returnType())));
+    }
+
+    private static Class<?> visible(Class<?> c) {
+        return c.isPrimitive() || c == String.class || c == CharSequence.class || c == Appendable.class ? c : Object.class;
+    }
+}
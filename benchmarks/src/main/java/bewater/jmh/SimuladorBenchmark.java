@@ -0,0 +1,75 @@
+package bewater.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @file SimuladorBenchmark.java
+ * @brief Benchmark d'un guió sencer del simulador en mode text
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class SimuladorBenchmark
+ * @brief Mesura SimuladorModeText.simular sobre un guió de GeneradorXarxes que construeix una xarxa de nombreNodes
+ * nodes i hi fa una operació (demanda, obrir o tancar) per cada deu nodes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimuladorBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nombreNodes;
+
+    @Param({"arbre", "malla", "graella"})
+    public String forma;
+
+    private Path entrada;
+    private Path sortida;
+
+    @Setup(Level.Trial)
+    public void preparar() throws Throwable {
+        entrada = Files.createTempFile("bewater-guio", ".txt");
+        sortida = Files.createTempFile("bewater-sortida", ".txt");
+        try (BufferedWriter w = Files.newBufferedWriter(entrada, StandardCharsets.UTF_8)) {
+            Object generador = (Object) Pont.NOU_GENERADOR.invokeExact(42L);
+            Pont.GENERAR_XARXA.invokeExact(generador, forma, nombreNodes, (Appendable) w);
+            Pont.GENERAR_OPERACIONS.invokeExact(generador, nombreNodes / 10, (Appendable) w);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void netejar() throws IOException {
+        Files.deleteIfExists(entrada);
+        Files.deleteIfExists(sortida);
+    }
+
+    @Benchmark
+    public void simular() throws Throwable {
+        Object simulador = (Object) Pont.NOU_SIMULADOR.invokeExact();
+        Pont.SIMULAR.invokeExact(simulador, entrada.toString(), sortida.toString());
+    }
+}
@@ -0,0 +1,78 @@
+package bewater.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @file XarxaBenchmark.java
+ * @brief Benchmarks de construcció de la xarxa i de càlcul de cabals
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class XarxaBenchmark
+ * @brief Mesura connectarAmbCanonada, calcularCabals i la càrrega d'una xarxa sencera, a diverses mides
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XarxaBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nombreNodes;
+
+    @Param({XarxaSintetica.ARBRE, XarxaSintetica.MALLA})
+    public String forma;
+
+    private XarxaSintetica xarxa;
+    private Object terminalLliure;
+    private final Random aleatori = new Random(7);
+
+    @Setup(Level.Trial)
+    public void preparar() throws Throwable {
+        xarxa = new XarxaSintetica(nombreNodes, forma, 42);
+        Object c = (Object) Pont.COORDENADES.invokeExact(41.5f, 2.5f);
+        Object t = (Object) Pont.TERMINAL.invokeExact("TLLIURE", c, 10f);
+        Pont.AFEGIR_TERMINAL.invokeExact(xarxa.xarxa, t);
+        terminalLliure = (Object) Pont.OBTENIR_NODE.invokeExact(xarxa.xarxa, "TLLIURE");
+    }
+
+    /**
+     * @brief Connecta un terminal a una connexió qualsevol i ho desfà
+     * @details Cada connexió recalcula els cabals afectats, i desfer-la amb backtrack torna la xarxa a l'estat inicial
+     */
+    @Benchmark
+    public void connectarIDesfer() throws Throwable {
+        Object pare = xarxa.connexions.get(aleatori.nextInt(xarxa.connexions.size()));
+        Pont.CONNECTAR.invokeExact(xarxa.xarxa, pare, terminalLliure, 25f);
+        Pont.BACKTRACK.invokeExact(xarxa.xarxa, 1);
+    }
+
+    @Benchmark
+    public int calcularCabals() throws Throwable {
+        return (int) Pont.CALCULAR_CABALS.invokeExact(xarxa.xarxa);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object carregar() throws Throwable {
+        return new XarxaSintetica(nombreNodes, forma, 42);
+    }
+}
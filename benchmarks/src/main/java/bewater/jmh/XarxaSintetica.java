@@ -0,0 +1,112 @@
+package bewater.jmh;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @file XarxaSintetica.java
+ * @brief Xarxes generades per als benchmarks
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class XarxaSintetica
+ * @brief Xarxa del simulador generada de manera reproduïble a partir d'una mida, una forma i una llavor
+ * @details L'origen O0 és l'arrel. Cada node nou és un terminal o una connexió i penja d'una connexió (o de l'origen)
+ * triada entre les últimes afegides, de manera que l'arbre té branques llargues i ramificació variable. La forma
+ * "arbre" es queda així; la forma "malla" afegeix una canonada més per cada deu nodes entre dues connexions, cosa
+ * que hi crea cicles. La xarxa es construeix en mode de càrrega i els cabals es calculen una sola vegada al final.
+ */
+public final class XarxaSintetica {
+    //Descripció general: Xarxa del simulador generada per als benchmarks
+
+    public static final String ARBRE = "arbre";
+    public static final String MALLA = "malla";
+
+    private static final int FINESTRA_PARES = 1000; // connexions recents entre les quals es tria el pare
+
+    public final Object xarxa;        // Xarxa
+    public final Object origen;       // Origen amb l'identificador O0, com el que crea el simulador per consultar
+    public final Object nodeOrigen;   // vista de l'origen a la xarxa
+    public final Object terminal;     // vista de l'últim terminal afegit
+    public final String[] terminals;  // identificadors dels terminals
+    public final List<Object> connexions = new ArrayList<>(); // vistes de les connexions, en ordre
+
+    /**
+     * @brief Genera una xarxa
+     * @pre nombreNodes >= 2; forma és ARBRE o MALLA
+     * @post La xarxa té nombreNodes nodes i els cabals calculats; amb la mateixa llavor es genera la mateixa xarxa
+     * @param nombreNodes Nombre de nodes
+     * @param forma Forma de la xarxa
+     * @param llavor Llavor del generador aleatori
+     * @exception Throwable si el simulador llança una excepció
+     */
+    public XarxaSintetica(int nombreNodes, String forma, long llavor) throws Throwable {
+        Random r = new Random(llavor);
+        xarxa = (Object) Pont.NOVA_XARXA.invokeExact();
+        Pont.INICIAR_CARREGA.invokeExact(xarxa);
+
+        origen = (Object) Pont.ORIGEN.invokeExact("O0", coordenades(r));
+        Pont.AFEGIR_ORIGEN.invokeExact(xarxa, origen);
+        Pont.ESTABLIR_CABAL.invokeExact(xarxa, origen, 1e9f);
+        nodeOrigen = (Object) Pont.OBTENIR_NODE.invokeExact(xarxa, "O0");
+
+        List<Object> pares = new ArrayList<>();
+        List<Integer> connexioPare = new ArrayList<>(); // índex a connexions de cada pare, o -1 per a l'origen
+        Set<Long> parells = new HashSet<>();            // parells de connexions ja connectades
+        pares.add(nodeOrigen);
+        connexioPare.add(-1);
+        List<String> idsTerminals = new ArrayList<>();
+        Object ultimTerminal = null;
+        for (int i = 1; i < nombreNodes; i++) {
+            boolean esTerminal = i > 3 && r.nextInt(10) < 6;
+            String id = (esTerminal ? "T" : "C") + i;
+            if (esTerminal) {
+                Object t = (Object) Pont.TERMINAL.invokeExact(id, coordenades(r), (float) (1 + r.nextInt(50)));
+                Pont.AFEGIR_TERMINAL.invokeExact(xarxa, t);
+                idsTerminals.add(id);
+            } else {
+                Object c = (Object) Pont.CONNEXIO.invokeExact(id, coordenades(r));
+                Pont.AFEGIR_CONNEXIO.invokeExact(xarxa, c);
+            }
+            Object node = (Object) Pont.OBTENIR_NODE.invokeExact(xarxa, id);
+            int p = Math.max(0, pares.size() - FINESTRA_PARES) + r.nextInt(Math.min(pares.size(), FINESTRA_PARES));
+            Pont.CONNECTAR.invokeExact(xarxa, pares.get(p), node, (float) (10 + r.nextInt(91)));
+            if (esTerminal) {
+                ultimTerminal = node;
+            } else {
+                if (connexioPare.get(p) >= 0) {
+                    parells.add((long) connexioPare.get(p) << 32 | connexions.size());
+                }
+                pares.add(node);
+                connexioPare.add(connexions.size());
+                connexions.add(node);
+            }
+        }
+
+        if (MALLA.equals(forma) && connexions.size() > 1) {
+            for (int k = 0; k < nombreNodes / 10; k++) {
+                int a = r.nextInt(connexions.size());
+                int b = r.nextInt(connexions.size());
+                // Sempre d'una connexió antiga a una de més nova: la malla té cicles però no cicles dirigits
+                if (a == b || !parells.add((long) Math.min(a, b) << 32 | Math.max(a, b))) {
+                    continue;
+                }
+                Pont.CONNECTAR.invokeExact(xarxa, connexions.get(Math.min(a, b)), connexions.get(Math.max(a, b)),
+                        (float) (10 + r.nextInt(91)));
+            }
+        }
+
+        int passades = (int) Pont.CONFIRMAR_CARREGA.invokeExact(xarxa); // invokeExact demana el tipus de retorn
+        terminals = idsTerminals.toArray(new String[0]);
+        terminal = ultimTerminal;
+    }
+
+    private static Object coordenades(Random r) throws Throwable {
+        return (Object) Pont.COORDENADES.invokeExact(41 + r.nextFloat(), 2 + r.nextFloat());
+    }
+}
@@ -5,16 +5,108 @@
  * Pau Domenech Villahermosa
  */
 
-import java.util.Scanner;
-import org.graphstream.graph.Node;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public abstract class BeWater {
     //Descripció general: Programa principal de simulació de xarxes de distribució d'aigua
 
+    /**
+     * @brief Executa la simulació d'un fitxer d'operacions
+     * @pre args[0] és el fitxer d'entrada i args[1] el de sortida; la resta són opcions: "--dibuixar" dibuixa la xarxa
+     * en acabar, "--metriques fitxer" escriu les mètriques de la simulació a fitxer i "--interval-metriques s" les
+     * torna a escriure cada s segons durant la simulació, "--carregar fitxer" parteix de la xarxa d'una instantània
+     * en lloc d'una xarxa buida i "--registre directori" guarda les operacions que modifiquen la xarxa en un registre
+     * durable i, en tornar a començar, recupera la xarxa del darrer punt de control i les operacions registrades
+     * després; "--interval-registre ms" és el temps màxim que una operació espera a ser forçada a disc i
+     * "--punt-control n" fa un punt de control cada n operacions registrades; "--format f" escriu els resultats en
+     * text (per defecte), csv o jsonl. Amb "--servidor port" com a primers arguments, en lloc d'executar un fitxer
+     * manté la xarxa en memòria i executa les operacions que arriben per connexions locals al port, o per l'entrada
+     * estàndard si port és "-"; la resta d'opcions són les mateixes
+     * @post S'han realitzat les operacions del fitxer d'entrada; sense "--dibuixar" no es carrega cap interfície gràfica
+     * @param args Arguments del programa
+     */
     public static void main(String[] args) {
+        // Els missatges de diagnòstic s'acumulen en un buffer en lloc de fer una escriptura a la consola cadascun
+        System.setOut(new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                false));
+        try {
+            executar(args);
+        } finally {
+            System.out.flush();
+        }
+    }
+
+    private static void executar(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Ús: BeWater entrada sortida [opcions] | BeWater --servidor port [opcions]");
+            return;
+        }
+        boolean servidor = args[0].equals("--servidor");
         SimuladorModeText simulador = new SimuladorModeText();
         System.out.println("Be water, my friend");
-        simulador.simular(args[0], args[1]);
+        Path metriques = null;
+        long intervalMetriques = 0;
+        Path registre = null;
+        long intervalRegistre = RegistreOperacions.INTERVAL_PER_DEFECTE;
+        long puntControl = 0;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--dibuixar")) {
+                simulador.establirVisualitzador(Visualitzador.carregar(Visualitzador.GRAPHSTREAM));
+            } else if (args[i].equals("--metriques") && i + 1 < args.length) {
+                metriques = Paths.get(args[++i]);
+            } else if (args[i].equals("--interval-metriques") && i + 1 < args.length) {
+                intervalMetriques = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--carregar") && i + 1 < args.length) {
+                try {
+                    simulador.carregar(Paths.get(args[++i]));
+                } catch (IOException e) {
+                    System.out.println("No es pot carregar la xarxa: " + e.getMessage());
+                    return;
+                }
+            } else if (args[i].equals("--registre") && i + 1 < args.length) {
+                registre = Paths.get(args[++i]);
+            } else if (args[i].equals("--interval-registre") && i + 1 < args.length) {
+                intervalRegistre = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--punt-control") && i + 1 < args.length) {
+                puntControl = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--format") && i + 1 < args.length) {
+                try {
+                    simulador.establirFormatSortida(SortidaResultats.format(args[++i]));
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+            } else {
+                System.out.println("Opció no reconeguda: " + args[i]);
+            }
+        }
+        if (registre != null) {
+            try {
+                long recuperades = simulador.establirRegistre(registre, intervalRegistre, puntControl);
+                if (recuperades > 0) {
+                    System.out.println("Operacions recuperades del registre: " + recuperades);
+                }
+            } catch (IOException e) {
+                System.out.println("No es pot obrir el registre d'operacions: " + e.getMessage());
+                return;
+            }
+        }
+        simulador.establirMetriques(metriques, intervalMetriques);
+        if (servidor) {
+            try {
+                new ServidorXarxa(simulador, intervalRegistre).servir(args[1]);
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("No es pot iniciar el servidor: " + e.getMessage());
+            }
+        } else {
+            simulador.simular(args[0], args[1]);
+        }
     }
 
 }
@@ -0,0 +1,419 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * @file CanalOrdres.java
+ * @brief Lectura i anàlisi de les operacions d'un guió en un fil a part
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class CanalOrdres
+ * @brief Llegeix i analitza les operacions d'un LectorOrdres en un fil propi i les passa, ja convertides a valors, al
+ * fil que les executa
+ * @details És la primera etapa de la simulació: mentre el simulador aplica una operació a la xarxa, aquest fil ja
+ * llegeix i converteix les següents (números, coordenades, percentatges). Les operacions viatgen per una CuaAcotada
+ * en objectes Ordre que es reutilitzen: el simulador torna cada ordre quan demana la següent, de manera que la
+ * lectura no crea cap objecte per operació a part dels valors.
+ *
+ * Quins paràmetres té cada operació ho diu una funció que retorna una seqüència de tipus, un caràcter per paràmetre:
+ * 'T' text, 'C' coordenades, 'R' real, 'P' percentatge, 'E' enter, 'B' booleà. Un '*' indica que els tipus que el
+ * segueixen es repeteixen fins al final del fitxer. Si la lectura falla (un número mal escrit, un fitxer que s'acaba a
+ * mitja operació), l'error es llança al simulador quan arriba a aquesta operació, després d'haver aplicat totes les
+ * anteriors.
+ *
+ * Amb un sol processador no hi ha res a solapar i cada relleu entre fils és un canvi de context; llavors el canal no
+ * crea cap fil i seguent llegeix l'operació directament. Tampoc no en crea si qui el fa servir ja té un fil per a la
+ * lectura, com les connexions del servidor.
+ */
+public class CanalOrdres implements Closeable {
+    //Descripció general: Lectura i anàlisi de les operacions d'un guió en un fil a part
+
+    private static final int CAPACITAT = 1024;
+
+    private final LectorOrdres lector;
+    private final Function<String, String> parametres;
+    private final Predicate<String> ambText;
+    private final CuaAcotada<Ordre> plenes = new CuaAcotada<>(CAPACITAT);
+    private final CuaAcotada<Ordre> lliures = new CuaAcotada<>(CAPACITAT);
+    private final Thread fil;                       // null si es llegeix al fil del simulador
+    private volatile boolean aturat;
+    private Ordre actual;
+
+    /**
+     * @class Ordre
+     * @brief Una operació del guió: el nom, els paràmetres ja convertits i, si cal, el text original
+     * @details Els paràmetres es consulten en el mateix ordre en què apareixen al guió, com amb LectorOrdres.
+     */
+    public static final class Ordre {
+        private String operacio;
+        private Throwable error;
+        private boolean fi;
+
+        private String[] textos = new String[4];
+        private Coordenades[] coordenades = new Coordenades[1];
+        private float[] reals = new float[2];
+        private int[] enters = new int[1];
+        private boolean[] booleans = new boolean[1];
+        private int nTextos, nCoordenades, nReals, nEnters, nBooleans;
+        private int iTexts, iCoordenades, iReals, iEnters, iBooleans;
+
+        private byte[] text = new byte[0];
+        private int midaText = -1;
+
+        public String operacio() {
+            return operacio;
+        }
+
+        // Paràmetres, en ordre
+        public String text() {
+            return textos[iTexts++];
+        }
+
+        public Coordenades coordenades() {
+            return coordenades[iCoordenades++];
+        }
+
+        public float real() {
+            return reals[iReals++];
+        }
+
+        public int enter() {
+            return enters[iEnters++];
+        }
+
+        public boolean boolea() {
+            return booleans[iBooleans++];
+        }
+
+        /**
+         * @brief Diu si queden paràmetres de text per consultar
+         * @pre ---
+         * @post Retorna true si text() encara té algun paràmetre per retornar
+         * @return true si queden textos
+         */
+        public boolean quedenTextos() {
+            return iTexts < nTextos;
+        }
+
+        /**
+         * @brief Diu si l'ordre porta el text original
+         * @pre ---
+         * @post Retorna true si el canal ha guardat els bytes amb què l'operació era al guió
+         * @return true si hi ha text original
+         */
+        public boolean teText() {
+            return midaText >= 0;
+        }
+
+        /**
+         * @brief Retorna el text original de l'operació
+         * @pre teText()
+         * @post Retorna un vector amb els bytes del nom i els paràmetres, tal com eren al guió, al principi; només és
+         * vàlid fins que es demana l'ordre següent
+         * @return Bytes del text
+         */
+        public byte[] textGuio() {
+            return text;
+        }
+
+        public int midaTextGuio() {
+            return midaText;
+        }
+
+        /**
+         * @brief Retorna una còpia de l'ordre
+         * @pre ---
+         * @post Retorna una ordre amb el mateix nom i els paràmetres que queden per consultar, que el canal no recicla i
+         * que es pot fer servir des d'un altre fil. La còpia no porta el text original
+         * @return Còpia de l'ordre
+         */
+        public Ordre copia() {
+            Ordre copia = new Ordre();
+            copia.operacio = operacio;
+            copia.textos = textos.clone();
+            copia.coordenades = coordenades.clone();
+            copia.reals = reals.clone();
+            copia.enters = enters.clone();
+            copia.booleans = booleans.clone();
+            copia.nTextos = nTextos;
+            copia.nCoordenades = nCoordenades;
+            copia.nReals = nReals;
+            copia.nEnters = nEnters;
+            copia.nBooleans = nBooleans;
+            copia.iTexts = iTexts;
+            copia.iCoordenades = iCoordenades;
+            copia.iReals = iReals;
+            copia.iEnters = iEnters;
+            copia.iBooleans = iBooleans;
+            return copia;
+        }
+
+        private void buidar() {
+            for (int i = 0; i < nTextos; i++) {
+                textos[i] = null;
+            }
+            for (int i = 0; i < nCoordenades; i++) {
+                coordenades[i] = null;
+            }
+            operacio = null;
+            error = null;
+            fi = false;
+            nTextos = nCoordenades = nReals = nEnters = nBooleans = 0;
+            iTexts = iCoordenades = iReals = iEnters = iBooleans = 0;
+            midaText = -1;
+        }
+
+        private void afegirText(String valor) {
+            if (nTextos == textos.length) {
+                textos = Arrays.copyOf(textos, 2 * nTextos);
+            }
+            textos[nTextos++] = valor;
+        }
+
+        private void afegirCoordenades(Coordenades valor) {
+            if (nCoordenades == coordenades.length) {
+                coordenades = Arrays.copyOf(coordenades, 2 * nCoordenades);
+            }
+            coordenades[nCoordenades++] = valor;
+        }
+
+        private void afegirReal(float valor) {
+            if (nReals == reals.length) {
+                reals = Arrays.copyOf(reals, 2 * nReals);
+            }
+            reals[nReals++] = valor;
+        }
+
+        private void afegirEnter(int valor) {
+            if (nEnters == enters.length) {
+                enters = Arrays.copyOf(enters, 2 * nEnters);
+            }
+            enters[nEnters++] = valor;
+        }
+
+        private void afegirBoolea(boolean valor) {
+            if (nBooleans == booleans.length) {
+                booleans = Arrays.copyOf(booleans, 2 * nBooleans);
+            }
+            booleans[nBooleans++] = valor;
+        }
+    }
+
+    /**
+     * @brief Constructor
+     * @pre parametres retorna una seqüència de tipus vàlida per a qualsevol nom d'operació
+     * @post Comença a llegir les operacions de lector en un fil propi
+     * @param lector Lector del guió; el canal el tanca en tancar-se
+     * @param parametres Tipus dels paràmetres de cada operació
+     * @param ambText Operacions de les quals cal guardar el text original, o null si de cap
+     */
+    public CanalOrdres(LectorOrdres lector, Function<String, String> parametres, Predicate<String> ambText) {
+        this(lector, parametres, ambText, Runtime.getRuntime().availableProcessors() > 1);
+    }
+
+    /**
+     * @brief Constructor
+     * @pre parametres retorna una seqüència de tipus vàlida per a qualsevol nom d'operació
+     * @post Si filPropi, comença a llegir les operacions de lector en un fil propi; si no, seguent les llegeix al fil
+     * que la crida
+     * @param lector Lector del guió; el canal el tanca en tancar-se
+     * @param parametres Tipus dels paràmetres de cada operació
+     * @param ambText Operacions de les quals cal guardar el text original, o null si de cap
+     * @param filPropi Si la lectura es fa en un fil propi
+     */
+    public CanalOrdres(LectorOrdres lector, Function<String, String> parametres, Predicate<String> ambText,
+                       boolean filPropi) {
+        this.lector = lector;
+        this.parametres = parametres;
+        this.ambText = ambText;
+        if (!filPropi) {
+            actual = new Ordre();
+            fil = null;
+            return;
+        }
+        for (int i = 0; i < CAPACITAT; i++) {
+            lliures.oferir(new Ordre());
+        }
+        fil = new Thread(this::analitzar, "bewater-lectura");
+        fil.setDaemon(true);
+        fil.start();
+    }
+
+    /**
+     * @brief Retorna l'operació següent del guió
+     * @pre ---
+     * @post Retorna l'operació següent, o null si el guió s'ha acabat. L'ordre retornada abans torna al canal i ja no
+     * s'ha de fer servir
+     * @exception IOException si hi ha hagut un error de lectura en aquesta operació
+     * @exception RuntimeException si l'operació no té el format esperat (NumberFormatException, NoSuchElementException,
+     * IllegalArgumentException), com amb LectorOrdres
+     * @return Operació següent o null
+     */
+    public Ordre seguent() throws IOException {
+        if (fil == null) {
+            actual.buidar();
+            return llegir(actual) ? actual : null;
+        }
+        if (actual != null) {
+            lliures.oferir(actual);
+            actual = null;
+        }
+        Ordre ordre;
+        for (int intents = 0; (ordre = plenes.extreure()) == null; ) {
+            intents = CuaAcotada.esperar(intents);
+        }
+        if (ordre.error != null) {
+            Throwable error = ordre.error;
+            lliures.oferir(ordre);
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            throw (Error) error;
+        }
+        if (ordre.fi) {
+            lliures.oferir(ordre);
+            return null;
+        }
+        actual = ordre;
+        return ordre;
+    }
+
+    /**
+     * @brief Tanca el canal
+     * @pre ---
+     * @post El fil de lectura s'ha aturat i el lector està tancat
+     * @exception IOException si hi ha un error en tancar el lector
+     */
+    @Override
+    public void close() throws IOException {
+        aturat = true;
+        if (fil != null) {
+            try {
+                fil.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lector.close();
+    }
+
+    /**
+     * @brief Cos del fil de lectura
+     * @pre ---
+     * @post Ha passat a plenes una ordre per cada operació del guió i, al final, una ordre amb fi o amb l'error que ha
+     * aturat la lectura; o s'ha aturat perquè s'ha tancat el canal
+     */
+    private void analitzar() {
+        Ordre ordre = null;
+        try {
+            while (true) {
+                ordre = lliure();
+                if (ordre == null) {
+                    return;
+                }
+                if (!llegir(ordre)) {
+                    ordre.fi = true;
+                    publicar(ordre);
+                    return;
+                }
+                publicar(ordre);
+                ordre = null;
+            }
+        } catch (Throwable e) {
+            if (ordre != null) {
+                ordre.error = e;
+                publicar(ordre);
+            }
+        }
+    }
+
+    /**
+     * @brief Llegeix l'operació següent del guió
+     * @pre ordre és buida
+     * @post Si el guió no s'ha acabat, ordre té el nom, els paràmetres i, si cal, el text original de l'operació
+     * següent i retorna true; si no, retorna false
+     */
+    private boolean llegir(Ordre ordre) throws IOException {
+        if (!lector.hiHaLinia()) {
+            return false;
+        }
+        if (ambText != null) {
+            lector.marcar();
+        }
+        ordre.operacio = lector.linia();
+        boolean text = ambText != null && ambText.test(ordre.operacio);
+        if (!text) {
+            lector.desmarcar();
+        }
+        llegir(ordre, parametres.apply(ordre.operacio));
+        if (text) {
+            ordre.midaText = lector.midaMarcats();
+            ordre.text = lector.copiarMarcats(ordre.text);
+            lector.desmarcar();
+        }
+        return true;
+    }
+
+    /**
+     * @brief Llegeix els paràmetres d'una operació
+     * @pre tipus és una seqüència de tipus de paràmetre
+     * @post ordre té els paràmetres llegits del lector, en ordre
+     */
+    private void llegir(Ordre ordre, String tipus) throws IOException {
+        for (int i = 0; i < tipus.length(); i++) {
+            switch (tipus.charAt(i)) {
+                case 'T':
+                    ordre.afegirText(lector.linia());
+                    break;
+                case 'C':
+                    ordre.afegirCoordenades(new Coordenades(lector.liniaCaracters()));
+                    break;
+                case 'R':
+                    ordre.afegirReal(lector.llegirFloat());
+                    break;
+                case 'P':
+                    ordre.afegirReal(lector.llegirPercentatge());
+                    break;
+                case 'E':
+                    ordre.afegirEnter(lector.llegirEnter());
+                    break;
+                case 'B':
+                    ordre.afegirBoolea(lector.llegirBoolea());
+                    break;
+                case '*':
+                    String repeticio = tipus.substring(i + 1);
+                    while (lector.hiHaLinia()) {
+                        llegir(ordre, repeticio);
+                    }
+                    return;
+                default:
+                    throw new IllegalArgumentException("Tipus de paràmetre desconegut: " + tipus.charAt(i));
+            }
+        }
+    }
+
+    private Ordre lliure() {
+        Ordre ordre;
+        for (int intents = 0; (ordre = lliures.extreure()) == null; ) {
+            if (aturat) {
+                return null;
+            }
+            intents = CuaAcotada.esperar(intents);
+        }
+        ordre.buidar();
+        return ordre;
+    }
+
+    private void publicar(Ordre ordre) {
+        for (int intents = 0; !plenes.oferir(ordre); ) {
+            intents = CuaAcotada.esperar(intents);
+        }
+    }
+}
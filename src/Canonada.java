@@ -1,5 +1,3 @@
-import org.graphstream.graph.Node;
-
 /**
  * @class Canonada.java
  * @brief Canonada de la xarxa de distribució d'aigua
@@ -15,7 +13,8 @@ public class Canonada {
     private String id;
 
     private float demandaPropagada;
-
+    private NucliXarxa nucli;
+    private int index = -1;
 
     /**
      * @brief Constructor
@@ -35,6 +34,23 @@ public class Canonada {
         this.capacitat = capacitat;
     }
 
+    /**
+     * @brief Constructor de vista
+     * @pre 0 <= index < nucli.nombreCanonades(), node1 i node2 són els extrems de la canonada index
+     * @post Crea una canonada que llegeix i escriu l'estat de la canonada index de nucli
+     * @param node1 Node d'inici de la canonada
+     * @param node2 Node de destí de la canonada
+     * @param nucli Nucli on es guarda l'estat de la canonada
+     * @param index Índex de la canonada al nucli
+     */
+    Canonada(NodeClass node1, NodeClass node2, NucliXarxa nucli, int index) {
+        id = node1.getId() + node2.getId();
+        this.node1 = node1;
+        this.node2 = node2;
+        this.nucli = nucli;
+        this.index = index;
+    }
+
     /**
      * @brief Retorna el node d'inici de la canonada
      * @pre ---
@@ -71,7 +87,7 @@ public class Canonada {
         //Pre: ---
         //Post: Retorna la capacitat de la canonada
 
-        return capacitat;
+        return nucli != null ? nucli.capacitat(index) : capacitat;
     }
 
     /**
@@ -102,7 +118,11 @@ public class Canonada {
         if (demanda < 0) {
             throw new IllegalArgumentException("La demanda d'aigua ha de ser positiva");
         }
-        demandaPropagada = demanda;
+        if (nucli != null) {
+            nucli.establirCabal(index, demanda);
+        } else {
+            demandaPropagada = demanda;
+        }
     }
 
     /**
@@ -115,7 +135,7 @@ public class Canonada {
         //Pre: ---
         //Post: Retorna la demanda propagada per la canonada
 
-        return demandaPropagada;
+        return nucli != null ? nucli.cabal(index) : demandaPropagada;
     }
 
     /**
@@ -133,8 +153,32 @@ public class Canonada {
         if (capacitat <= 0) {
             throw new IllegalArgumentException("La capacitat ha de ser positiva");
         }
-        this.capacitat = capacitat;
+        if (nucli != null) {
+            nucli.establirCapacitat(index, capacitat);
+        } else {
+            this.capacitat = capacitat;
+        }
+    }
+
+    /**
+     * @brief Compara dues canonades
+     * @pre ---
+     * @post Retorna true si o és una canonada amb els mateixos nodes d'inici i de destí
+     * @param o Objecte a comparar
+     * @return true si les canonades connecten els mateixos nodes en el mateix sentit
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Canonada)) {
+            return false;
+        }
+        Canonada altra = (Canonada) o;
+        return node1.getID().equals(altra.node1.getID()) && node2.getID().equals(altra.node2.getID());
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * node1.getID().hashCode() + node2.getID().hashCode();
+    }
 
 }
\ No newline at end of file
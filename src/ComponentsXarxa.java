@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+/**
+ * @file ComponentsXarxa.java
+ * @brief Components connexes d'una xarxa de distribució d'aigua, mantingudes a mesura que es construeix
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class ComponentsXarxa
+ * @brief Unió-cerca (disjoint-set) de les components connexes d'un nucli, sense tenir en compte el sentit de l'aigua
+ * @details Cada component guarda si té algun cicle i quants nodes sense cap canonada entrant (arrels) conté. Una
+ * canonada entre dos nodes que ja són a la mateixa component hi tanca un cicle; si no, uneix les dues components.
+ * Com que entre dos nodes hi ha com a molt una canonada, una component sense cicles és un arbre, i és un arbre amb
+ * arrel a l'origen si l'origen és la seva única arrel.
+ *
+ * Les components s'actualitzen en temps gairebé constant per cada node o canonada afegits. Si la topologia del nucli
+ * canvia d'una altra manera (per exemple, en desfer operacions), la versió de la topologia ja no coincideix i les
+ * components es reconstrueixen a la consulta següent.
+ */
+public class ComponentsXarxa {
+    //Descripció general: Components connexes d'una xarxa de distribució d'aigua
+
+    private int nombreNodes;
+    private int[] pare = new int[16];
+    private int[] mida = new int[16];          // mida de la component, només vàlida a l'arrel
+    private int[] arrels = new int[16];        // nodes sense canonades entrants, només vàlid a l'arrel
+    private boolean[] cicle = new boolean[16]; // la component té algun cicle, només vàlid a l'arrel
+    private int[] grauEntrada = new int[16];
+    private int versio;                        // versió de la topologia del nucli que reflecteixen les components
+    private boolean compartit;                 // els vectors es comparteixen amb una còpia
+
+    /**
+     * @brief Actualitza les components després d'afegir un node al nucli
+     * @pre nucli.afegirNode s'acaba de cridar
+     * @post Si les components estaven al dia, el nou node és una component sense cicles amb una arrel; si no, es
+     * reconstruiran a la consulta següent
+     * @param nucli Nucli de la xarxa
+     */
+    public void nodeAfegit(NucliXarxa nucli) {
+        if (versio != nucli.versioTopologia() - 1) {
+            return;
+        }
+        separar();
+        afegirNode();
+        versio = nucli.versioTopologia();
+    }
+
+    /**
+     * @brief Actualitza les components després d'afegir una canonada al nucli
+     * @pre nucli.afegirCanonada s'acaba de cridar i ha retornat canonada
+     * @post Si les components estaven al dia, reflecteixen la nova canonada; si no, es reconstruiran a la consulta
+     * següent
+     * @param nucli Nucli de la xarxa
+     * @param canonada Índex de la nova canonada
+     */
+    public void canonadaAfegida(NucliXarxa nucli, int canonada) {
+        if (versio != nucli.versioTopologia() - 1) {
+            return;
+        }
+        separar();
+        afegirCanonada(nucli.origen(canonada), nucli.desti(canonada));
+        versio = nucli.versioTopologia();
+    }
+
+    /**
+     * @brief Diu si la component d'un node té cicles
+     * @pre 0 <= node < nucli.nombreNodes()
+     * @post Retorna true si la component connexa del node, sense tenir en compte el sentit de l'aigua, té algun cicle
+     * @param nucli Nucli de la xarxa
+     * @param node Índex del node
+     * @return true si la component té cicles
+     */
+    public boolean teCicles(NucliXarxa nucli, int node) {
+        sincronitzar(nucli);
+        return cicle[arrel(node)];
+    }
+
+    /**
+     * @brief Diu si la component d'un node és un arbre que penja d'aquest node
+     * @pre 0 <= node < nucli.nombreNodes()
+     * @post Retorna true si la component del node no té cicles, el node no té canonades entrants i tots els altres
+     * nodes de la component en tenen exactament una
+     * @param nucli Nucli de la xarxa
+     * @param node Índex del node arrel
+     * @return true si la component és un arbre amb arrel al node
+     */
+    public boolean esArbre(NucliXarxa nucli, int node) {
+        sincronitzar(nucli);
+        int r = arrel(node);
+        return !cicle[r] && grauEntrada[node] == 0 && arrels[r] == 1;
+    }
+
+    /**
+     * @brief Retorna una còpia independent de les components
+     * @pre ---
+     * @post Retorna unes components amb el mateix contingut, en temps constant; modificar-ne unes no afecta les altres
+     * @return Còpia de les components
+     */
+    public ComponentsXarxa copia() {
+        ComponentsXarxa copia = new ComponentsXarxa();
+        copia.nombreNodes = nombreNodes;
+        copia.pare = pare;
+        copia.mida = mida;
+        copia.arrels = arrels;
+        copia.cicle = cicle;
+        copia.grauEntrada = grauEntrada;
+        copia.versio = versio;
+        copia.compartit = true;
+        compartit = true;
+        return copia;
+    }
+
+    /**
+     * @brief Reconstrueix les components si la topologia del nucli ha canviat
+     * @pre ---
+     * @post Les components corresponen als nodes i canonades actuals del nucli
+     * @param nucli Nucli de la xarxa
+     */
+    public void sincronitzar(NucliXarxa nucli) {
+        if (versio == nucli.versioTopologia()) {
+            return;
+        }
+        compartit = false;
+        int n = nucli.nombreNodes();
+        int capacitat = Math.max(16, n);
+        pare = new int[capacitat];
+        mida = new int[capacitat];
+        arrels = new int[capacitat];
+        cicle = new boolean[capacitat];
+        grauEntrada = new int[capacitat];
+        nombreNodes = 0;
+        for (int v = 0; v < n; v++) {
+            afegirNode();
+        }
+        for (int c = 0; c < nucli.nombreCanonades(); c++) {
+            afegirCanonada(nucli.origen(c), nucli.desti(c));
+        }
+        versio = nucli.versioTopologia();
+    }
+
+    private void afegirNode() {
+        if (nombreNodes == pare.length) {
+            int capacitat = nombreNodes + (nombreNodes >> 1) + 1;
+            pare = Arrays.copyOf(pare, capacitat);
+            mida = Arrays.copyOf(mida, capacitat);
+            arrels = Arrays.copyOf(arrels, capacitat);
+            cicle = Arrays.copyOf(cicle, capacitat);
+            grauEntrada = Arrays.copyOf(grauEntrada, capacitat);
+        }
+        int v = nombreNodes++;
+        pare[v] = v;
+        mida[v] = 1;
+        arrels[v] = 1;
+        cicle[v] = false;
+        grauEntrada[v] = 0;
+    }
+
+    private void afegirCanonada(int origen, int desti) {
+        int a = arrel(origen);
+        int b = arrel(desti);
+        if (grauEntrada[desti]++ == 0) {
+            arrels[b]--;
+        }
+        if (a == b) {
+            cicle[a] = true;
+            return;
+        }
+        // Unió per mida: la component petita penja de la gran
+        if (mida[a] < mida[b]) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        pare[b] = a;
+        mida[a] += mida[b];
+        arrels[a] += arrels[b];
+        cicle[a] |= cicle[b];
+    }
+
+    /**
+     * @brief Retorna el representant de la component d'un node
+     * @pre 0 <= v < nombreNodes
+     * @post Retorna l'arrel de v a l'arbre d'unió-cerca; si els vectors no són compartits, escurça el camí (cada node
+     * passa a penjar del seu avi)
+     */
+    private int arrel(int v) {
+        while (pare[v] != v) {
+            if (!compartit) {
+                pare[v] = pare[pare[v]];
+            }
+            v = pare[v];
+        }
+        return v;
+    }
+
+    private void separar() {
+        if (compartit) {
+            pare = pare.clone();
+            mida = mida.clone();
+            arrels = arrels.clone();
+            cicle = cicle.clone();
+            grauEntrada = grauEntrada.clone();
+            compartit = false;
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.List;
+
 /**
  * @file Coordenades.java
  * @brief Representa les coordenades geogràfiques d'un punt
@@ -12,42 +14,25 @@
 public class Coordenades {
     //Descripció general: Coordenades geogràfiques (latitud, longitud)
 
+    private static final double[] POTENCIES_10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     private float latitud = 0;
     private float longitud = 0;
 
     /**
      * @brief Constructor
-     * @pre input is a valid coordinate string
+     * @pre input té el format "GG:MM:SS.sssN,GGG:MM:SS.sssW" (latitud N o S, longitud E o W)
      * @post Crea unes coordenades amb els valors indicats
-     * @param input String representation of coordinates
+     * @exception IllegalArgumentException si input no té el format esperat o les coordenades no són vàlides
+     * @param input Coordenades en format graus, minuts i segons
      */
-    public Coordenades(String input) {
-        String[] parts = input.split(",");
-        String[] latParts = parts[0].split(":");
-        String[] lonParts = parts[1].split(":");
-
-        float grausLatitud = Integer.parseInt(latParts[0]);
-        float minutsLatitud = Integer.parseInt(latParts[1]);
-        float segonsLatitud = Float.parseFloat(latParts[2].substring(0, latParts[2].length() - 1));
-        char direccioLatitud = latParts[2].charAt(latParts[2].length() - 1);
-
-        float grausLongitud = Integer.parseInt(lonParts[0]);
-        float minutsLongitud = Integer.parseInt(lonParts[1]);
-        float segonsLongitud = Float.parseFloat(lonParts[2].substring(0, lonParts[2].length() - 1));
-        char direccioLongitud = lonParts[2].charAt(lonParts[2].length() - 1);
-
-        float latitud = grausLatitud + (minutsLatitud / 60) + (segonsLatitud / 3600);
-        if (direccioLatitud == 'S') {
-            latitud = -latitud;
-        }
-
-        float longitud = grausLongitud + (minutsLongitud / 60) + (segonsLongitud / 3600);
-        if (direccioLongitud == 'W') {
-            longitud = -longitud;
-        }
-
-        this.latitud = latitud;
-        this.longitud = longitud;
+    public Coordenades(CharSequence input) {
+        long coordenades = analitzar(input, 0, input.length());
+        this.latitud = latitud(coordenades);
+        this.longitud = longitud(coordenades);
 
     }
     //Pre: 0 <= grausLatitud <= 60, 0 <= minutsLatitud <= 60, 0 <= segonsLatitud <= 60, direccioLatitud = 'N' o 'S', 0 <= grausLongitud <= 60, 0 <= minutsLongitud <= 60, 0 <= segonsLongitud <= 60, direccioLatitud = 'E' o 'W'
@@ -76,7 +61,7 @@ public class Coordenades {
     /**
      * @brief Retorna la distància entre aquestes coordenades i c, expressada en km
      * @pre ---
-     * @post Retorna la distància entre aquestes coordenades i c
+     * @post Retorna la distància del cercle màxim entre aquestes coordenades i c
      * @param c Other coordinates
      * @return Distance between this and c
      */
@@ -84,11 +69,164 @@ public class Coordenades {
         //Pre: ---
         //Post: Retorna la distància entre aquestes coordenades i c, expressada en km
 
-            float dx = this.longitud - c.getX();
-            float dy = this.latitud - c.getY();
-            return Math.sqrt(dx * dx + dy * dy);
+        return IndexEspacial.distancia(this.latitud, this.longitud, c.getY(), c.getX());
+    }
+
+
+    /**
+     * @brief Converteix unes coordenades en format graus, minuts i segons a vectors de latituds i longituds
+     * @pre latituds i longituds tenen com a mínim textos.size() posicions
+     * @post latituds[i] i longituds[i] són les coordenades de textos.get(i), per a tot i
+     * @exception IllegalArgumentException si algun text no té el format esperat o les coordenades no són vàlides
+     * @param textos Coordenades en format "GG:MM:SS.sssN,GGG:MM:SS.sssW"
+     * @param latituds Vector on es guarden les latituds
+     * @param longituds Vector on es guarden les longituds
+     */
+    public static void analitzarLot(List<? extends CharSequence> textos, float[] latituds, float[] longituds) {
+        for (int i = 0; i < textos.size(); i++) {
+            analitzar(textos.get(i), latituds, longituds, i);
+        }
+    }
+
+    /**
+     * @brief Converteix unes coordenades en format graus, minuts i segons i les guarda en vectors
+     * @pre 0 <= posicio < latituds.length, longituds.length
+     * @post latituds[posicio] i longituds[posicio] són les coordenades de text
+     * @exception IllegalArgumentException si text no té el format esperat o les coordenades no són vàlides
+     * @param text Coordenades en format "GG:MM:SS.sssN,GGG:MM:SS.sssW"
+     * @param latituds Vector on es guarda la latitud
+     * @param longituds Vector on es guarda la longitud
+     * @param posicio Posició dels vectors on es guarden
+     */
+    public static void analitzar(CharSequence text, float[] latituds, float[] longituds, int posicio) {
+        long coordenades = analitzar(text, 0, text.length());
+        latituds[posicio] = latitud(coordenades);
+        longituds[posicio] = longitud(coordenades);
+    }
+
+    /**
+     * @brief Converteix un tros de text en format graus, minuts i segons a latitud i longitud, en una sola passada
+     * @pre 0 <= inici <= fi <= text.length()
+     * @post Retorna la latitud i la longitud empaquetades en un long (es recuperen amb latitud i longitud), sense
+     * crear cap objecte si el text és correcte
+     * @exception IllegalArgumentException si el text no té el format esperat o les coordenades no són vàlides
+     * @param text Text que conté les coordenades
+     * @param inici Posició inicial del tros
+     * @param fi Posició final (exclosa) del tros
+     * @return Latitud i longitud empaquetades
+     */
+    static long analitzar(CharSequence text, int inici, int fi) {
+        while (inici < fi && text.charAt(inici) <= ' ') {
+            inici++;
+        }
+        while (fi > inici && text.charAt(fi - 1) <= ' ') {
+            fi--;
+        }
+
+        int i = inici;
+        float latitud = 0;
+        float longitud = 0;
+        for (int part = 0; part < 2; part++) {
+            // Graus i minuts: enters acabats en ':'
+            int graus = 0;
+            int minuts = 0;
+            for (int camp = 0; camp < 2; camp++) {
+                int valor = 0;
+                int xifres = 0;
+                while (i < fi && text.charAt(i) >= '0' && text.charAt(i) <= '9' && xifres < 9) {
+                    valor = valor * 10 + (text.charAt(i) - '0');
+                    xifres++;
+                    i++;
+                }
+                if (xifres == 0 || i >= fi || text.charAt(i) != ':') {
+                    throw errorFormat(text, inici, fi);
+                }
+                i++;
+                if (camp == 0) {
+                    graus = valor;
+                } else {
+                    minuts = valor;
+                }
+            }
+
+            // Segons: decimal seguit de la lletra de direcció
+            long mantissa = 0;
+            int decimals = 0;
+            int xifres = 0;
+            boolean punt = false;
+            while (i < fi) {
+                char c = text.charAt(i);
+                if (c >= '0' && c <= '9' && xifres < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    xifres++;
+                    if (punt) {
+                        decimals++;
+                    }
+                } else if (c == '.' && !punt) {
+                    punt = true;
+                } else {
+                    break;
+                }
+                i++;
+            }
+            if (xifres == 0 || i >= fi || decimals > 22) {
+                throw errorFormat(text, inici, fi);
+            }
+            float segons = (float) (mantissa / POTENCIES_10[decimals]);
+            char direccio = text.charAt(i++);
+
+            float valor = graus + ((float) minuts / 60) + (segons / 3600);
+            if (part == 0) {
+                if (direccio != 'N' && direccio != 'S') {
+                    throw errorFormat(text, inici, fi);
+                }
+                latitud = direccio == 'S' ? -valor : valor;
+                if (i >= fi || text.charAt(i) != ',') {
+                    throw errorFormat(text, inici, fi);
+                }
+                i++;
+            } else {
+                if (direccio != 'E' && direccio != 'W') {
+                    throw errorFormat(text, inici, fi);
+                }
+                longitud = direccio == 'W' ? -valor : valor;
+            }
+        }
+        if (i != fi) {
+            throw errorFormat(text, inici, fi);
+        }
+        if (latitud < -90 || latitud > 90 || longitud < -180 || longitud > 180) {
+            throw new IllegalArgumentException("Les coordenades no són vàlides: " + text.subSequence(inici, fi));
+        }
+        return ((long) Float.floatToRawIntBits(latitud) << 32) | (Float.floatToRawIntBits(longitud) & 0xFFFFFFFFL);
     }
 
+    /**
+     * @brief Retorna la latitud d'unes coordenades empaquetades
+     * @pre coordenades l'ha retornat analitzar
+     * @post Retorna la latitud
+     * @param coordenades Coordenades empaquetades
+     * @return Latitud
+     */
+    static float latitud(long coordenades) {
+        return Float.intBitsToFloat((int) (coordenades >>> 32));
+    }
+
+    /**
+     * @brief Retorna la longitud d'unes coordenades empaquetades
+     * @pre coordenades l'ha retornat analitzar
+     * @post Retorna la longitud
+     * @param coordenades Coordenades empaquetades
+     * @return Longitud
+     */
+    static float longitud(long coordenades) {
+        return Float.intBitsToFloat((int) coordenades);
+    }
+
+    private static IllegalArgumentException errorFormat(CharSequence text, int inici, int fi) {
+        return new IllegalArgumentException("Format de coordenades incorrecte (s'espera GG:MM:SS.sssN,GGG:MM:SS.sssW): "
+                + text.subSequence(inici, fi));
+    }
 
     /**
      * @brief Retorna la longitud
@@ -0,0 +1,108 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @file CuaAcotada.java
+ * @brief Cua acotada sense bloquejos entre un fil productor i un fil consumidor
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class CuaAcotada
+ * @brief Cua circular de mida fixa per passar objectes d'un sol fil productor a un sol fil consumidor
+ * @details Cada fil només escriu el seu propi índex (el productor, la cua; el consumidor, el cap), amb una escriptura
+ * ordenada i sense cap bloqueig ni operació atòmica de lectura-modificació-escriptura. Cada fil guarda l'últim valor
+ * que ha vist de l'índex de l'altre i només el torna a llegir quan la cua li sembla plena o buida, de manera que en
+ * règim normal no es comparteix cap línia de memòria cau per element.
+ *
+ * oferir i extreure no esperen mai; qui hagi d'esperar ho fa amb esperar, que primer fa voltes actives i després
+ * cedeix el processador amb pauses cada cop més llargues.
+ * @param <T> Tipus dels elements
+ */
+public final class CuaAcotada<T> {
+    //Descripció general: Cua acotada sense bloquejos entre un fil productor i un fil consumidor
+
+    private static final int VOLTES_ACTIVES = 128;
+    private static final long PAUSA_MAXIMA = 1_000_000;  // nanosegons
+
+    private final Object[] elements;
+    private final int mascara;
+    private final AtomicLong cap = new AtomicLong();    // propera posició a extreure; només l'escriu el consumidor
+    private final AtomicLong cua = new AtomicLong();    // propera posició a oferir; només l'escriu el productor
+    private long capVist;                               // del productor
+    private long cuaVista;                              // del consumidor
+
+    /**
+     * @brief Constructor
+     * @pre capacitat > 0
+     * @post Crea una cua buida on caben capacitat elements, arrodonit a la potència de 2 superior
+     * @param capacitat Nombre mínim d'elements que hi caben
+     */
+    public CuaAcotada(int capacitat) {
+        int mida = Integer.highestOneBit(Math.max(1, capacitat - 1)) << 1;
+        elements = new Object[mida];
+        mascara = mida - 1;
+    }
+
+    /**
+     * @brief Afegeix un element si hi cap
+     * @pre Només el fil productor crida oferir; element != null
+     * @post Si la cua no era plena, element n'és l'últim i retorna true; si no, no fa res i retorna false
+     * @param element Element a afegir
+     * @return true si s'ha afegit
+     */
+    public boolean oferir(T element) {
+        long posicio = cua.get();
+        if (posicio - capVist >= elements.length) {
+            capVist = cap.get();
+            if (posicio - capVist >= elements.length) {
+                return false;
+            }
+        }
+        elements[(int) posicio & mascara] = element;
+        cua.lazySet(posicio + 1);
+        return true;
+    }
+
+    /**
+     * @brief Treu el primer element si n'hi ha
+     * @pre Només el fil consumidor crida extreure
+     * @post Si la cua no era buida, retorna el primer element i el treu de la cua; si no, retorna null
+     * @return Primer element o null
+     */
+    @SuppressWarnings("unchecked")
+    public T extreure() {
+        long posicio = cap.get();
+        if (posicio >= cuaVista) {
+            cuaVista = cua.get();
+            if (posicio >= cuaVista) {
+                return null;
+            }
+        }
+        int i = (int) posicio & mascara;
+        T element = (T) elements[i];
+        elements[i] = null;
+        cap.lazySet(posicio + 1);
+        return element;
+    }
+
+    /**
+     * @brief Espera abans de tornar a provar una operació que no s'ha pogut fer
+     * @pre intents és el nombre de vegades seguides que s'ha esperat, començant per 0
+     * @post Ha fet una volta activa, ha cedit el processador o ha dormit una pausa que creix amb intents. Retorna
+     * intents + 1
+     * @param intents Intents fets fins ara
+     * @return Intents fets comptant aquest
+     */
+    public static int esperar(int intents) {
+        if (intents < VOLTES_ACTIVES) {
+            Thread.onSpinWait();
+        } else if (intents < 2 * VOLTES_ACTIVES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(PAUSA_MAXIMA, 1000L << Math.min(20, intents - 2 * VOLTES_ACTIVES)));
+        }
+        return intents + 1;
+    }
+}
@@ -0,0 +1,275 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * @file DiariOperacions.java
+ * @brief Diari de les operacions fetes sobre una xarxa, per poder-les desfer
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class DiariOperacions
+ * @brief Guarda en vectors primitius l'estat anterior a cada operació d'una xarxa, en un buffer circular
+ * @details Cada entrada és un tipus d'operació, l'índex del node (o de la canonada o l'abonament) afectat i el valor
+ * que tenia abans. Les posicions de les entrades són absolutes i creixents; el buffer creix fins a la capacitat màxima
+ * i, a partir d'aquí, cada entrada nova descarta la més antiga.
+ *
+ * El diari també guarda punts de control: còpies de l'estat de la xarxa en una posició. Per desfer moltes operacions
+ * es pot restaurar el punt de control més proper a la posició objectiu i desfer només les entrades que hi ha entre
+ * tots dos.
+ */
+public class DiariOperacions {
+    //Descripció general: Diari de les operacions fetes sobre una xarxa, per poder-les desfer
+
+    public static final byte AIXETA = 0;           // valor: 1 si l'aixeta estava oberta, 0 si no
+    public static final byte CABAL_POTENCIAL = 1;  // valor: cabal potencial anterior de l'origen
+    public static final byte DEMANDA = 2;          // valor: demanda anterior del terminal
+    public static final byte NODE = 3;             // s'ha afegit el node index
+    public static final byte CANONADA = 4;         // s'ha afegit la canonada index
+    public static final byte ABONAMENT = 5;        // s'ha fet l'abonament index
+
+    public static final int CAPACITAT_PER_DEFECTE = 1 << 20;
+
+    private final int capacitatMaxima;
+    private byte[] tipus;
+    private int[] indexos;
+    private float[] valors;
+    private long primera;   // posició de l'entrada més antiga que es conserva
+    private long fi;        // posició de la propera entrada
+
+    private final ArrayDeque<PuntControl> puntsControl = new ArrayDeque<>();
+
+    /**
+     * @class PuntControl
+     * @brief Estat de la xarxa que no es pot recalcular, en una posició del diari
+     */
+    static final class PuntControl {
+        final long posicio;
+        final int nombreNodes;
+        final int nombreCanonades;
+        final int nombreAbonaments;
+        final boolean[] aixetesObertes;
+        final float[] demandes;
+        final float[] cabalsPotencials;
+
+        PuntControl(long posicio, int nombreNodes, int nombreCanonades, int nombreAbonaments,
+                    boolean[] aixetesObertes, float[] demandes, float[] cabalsPotencials) {
+            this.posicio = posicio;
+            this.nombreNodes = nombreNodes;
+            this.nombreCanonades = nombreCanonades;
+            this.nombreAbonaments = nombreAbonaments;
+            this.aixetesObertes = aixetesObertes;
+            this.demandes = demandes;
+            this.cabalsPotencials = cabalsPotencials;
+        }
+    }
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Crea un diari buit amb capacitat CAPACITAT_PER_DEFECTE
+     */
+    public DiariOperacions() {
+        this(CAPACITAT_PER_DEFECTE);
+    }
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Crea un diari buit que conserva com a molt les últimes capacitatMaxima entrades (arrodonit a una potència
+     * de 2)
+     * @exception IllegalArgumentException si capacitatMaxima <= 0
+     * @param capacitatMaxima Nombre màxim d'entrades que es conserven
+     */
+    public DiariOperacions(int capacitatMaxima) {
+        if (capacitatMaxima <= 0) {
+            throw new IllegalArgumentException("La capacitat del diari ha de ser positiva");
+        }
+        this.capacitatMaxima = Integer.highestOneBit(capacitatMaxima) == capacitatMaxima
+                ? capacitatMaxima : Integer.highestOneBit(capacitatMaxima) << 1;
+        int mida = Math.min(16, this.capacitatMaxima);
+        tipus = new byte[mida];
+        indexos = new int[mida];
+        valors = new float[mida];
+    }
+
+    /**
+     * @brief Afegeix una entrada al diari
+     * @pre ---
+     * @post L'entrada és la darrera del diari; si el diari era ple, s'ha descartat la més antiga
+     * @param tipusOperacio Tipus de l'operació
+     * @param index Índex de l'element afectat
+     * @param valorAnterior Valor que tenia l'element abans de l'operació
+     */
+    public void registrar(byte tipusOperacio, int index, float valorAnterior) {
+        if (fi - primera == tipus.length) {
+            if (tipus.length < capacitatMaxima) {
+                creixer();
+            } else {
+                primera++;
+                while (!puntsControl.isEmpty() && puntsControl.peekFirst().posicio < primera) {
+                    puntsControl.pollFirst();
+                }
+            }
+        }
+        int i = (int) fi & (tipus.length - 1);
+        tipus[i] = tipusOperacio;
+        indexos[i] = index;
+        valors[i] = valorAnterior;
+        fi++;
+    }
+
+    /**
+     * @brief Retorna el nombre d'entrades que es poden desfer
+     * @pre ---
+     * @post Retorna el nombre d'entrades que conserva el diari
+     * @return Nombre d'entrades
+     */
+    public int mida() {
+        return (int) (fi - primera);
+    }
+
+    /**
+     * @brief Retorna la posició del diari
+     * @pre ---
+     * @post Retorna la posició absoluta que tindrà la propera entrada
+     * @return Posició del diari
+     */
+    public long posicio() {
+        return fi;
+    }
+
+    /**
+     * @brief Retorna el tipus de la darrera entrada
+     * @pre mida() > 0
+     * @post Retorna el tipus d'operació de la darrera entrada
+     * @return Tipus d'operació
+     */
+    public byte tipusUltima() {
+        return tipus[(int) (fi - 1) & (tipus.length - 1)];
+    }
+
+    /**
+     * @brief Retorna l'índex de l'element afectat per la darrera entrada
+     * @pre mida() > 0
+     * @post Retorna l'índex de la darrera entrada
+     * @return Índex de l'element
+     */
+    public int indexUltima() {
+        return indexos[(int) (fi - 1) & (tipus.length - 1)];
+    }
+
+    /**
+     * @brief Retorna el valor anterior de la darrera entrada
+     * @pre mida() > 0
+     * @post Retorna el valor que tenia l'element abans de la darrera operació
+     * @return Valor anterior
+     */
+    public float valorUltima() {
+        return valors[(int) (fi - 1) & (tipus.length - 1)];
+    }
+
+    /**
+     * @brief Retorna el tipus d'una entrada
+     * @pre posicio() - mida() <= posicio < posicio()
+     * @post Retorna el tipus d'operació de l'entrada de la posició indicada
+     * @param posicio Posició absoluta de l'entrada
+     * @return Tipus d'operació
+     */
+    public byte tipus(long posicio) {
+        return tipus[(int) posicio & (tipus.length - 1)];
+    }
+
+    /**
+     * @brief Retorna l'índex de l'element afectat per una entrada
+     * @pre posicio() - mida() <= posicio < posicio()
+     * @post Retorna l'índex de l'entrada de la posició indicada
+     * @param posicio Posició absoluta de l'entrada
+     * @return Índex de l'element
+     */
+    public int index(long posicio) {
+        return indexos[(int) posicio & (tipus.length - 1)];
+    }
+
+    /**
+     * @brief Retorna el valor anterior d'una entrada
+     * @pre posicio() - mida() <= posicio < posicio()
+     * @post Retorna el valor que tenia l'element abans de l'operació de la posició indicada
+     * @param posicio Posició absoluta de l'entrada
+     * @return Valor anterior
+     */
+    public float valor(long posicio) {
+        return valors[(int) posicio & (tipus.length - 1)];
+    }
+
+    /**
+     * @brief Treu la darrera entrada
+     * @pre mida() > 0
+     * @post La darrera entrada ja no és al diari, ni cap punt de control posterior a la nova posició
+     */
+    public void treureUltima() {
+        descartarFins(fi - 1);
+    }
+
+    /**
+     * @brief Treu totes les entrades posteriors a una posició
+     * @pre posicio() - mida() <= posicio <= posicio()
+     * @post posicio() és posicio; les entrades i els punts de control posteriors s'han descartat
+     * @param posicio Nova posició del diari
+     */
+    public void descartarFins(long posicio) {
+        fi = posicio;
+        while (!puntsControl.isEmpty() && puntsControl.peekLast().posicio > fi) {
+            puntsControl.pollLast();
+        }
+    }
+
+    /**
+     * @brief Afegeix un punt de control
+     * @pre puntControl.posicio == posicio()
+     * @post El punt de control es pot retornar per puntControl
+     * @param puntControl Estat de la xarxa a la posició actual
+     */
+    void afegirPuntControl(PuntControl puntControl) {
+        puntsControl.addLast(puntControl);
+    }
+
+    /**
+     * @brief Retorna el punt de control més antic que no és anterior a una posició
+     * @pre ---
+     * @post Retorna el punt de control amb la posició més petita >= desde, o null si no n'hi ha cap
+     * @param desde Posició mínima
+     * @return Punt de control o null
+     */
+    PuntControl puntControl(long desde) {
+        Iterator<PuntControl> it = puntsControl.descendingIterator();
+        PuntControl millor = null;
+        while (it.hasNext()) {
+            PuntControl puntControl = it.next();
+            if (puntControl.posicio < desde) {
+                break;
+            }
+            millor = puntControl;
+        }
+        return millor;
+    }
+
+    private void creixer() {
+        int mida = tipus.length;
+        int novaMida = mida * 2;
+        byte[] nousTipus = new byte[novaMida];
+        int[] nousIndexos = new int[novaMida];
+        float[] nousValors = new float[novaMida];
+        for (long p = primera; p < fi; p++) {
+            int i = (int) p & (mida - 1);
+            int j = (int) p & (novaMida - 1);
+            nousTipus[j] = tipus[i];
+            nousIndexos[j] = indexos[i];
+            nousValors[j] = valors[i];
+        }
+        tipus = nousTipus;
+        indexos = nousIndexos;
+        valors = nousValors;
+    }
+}
@@ -0,0 +1,156 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * @file EsdevenimentsJfr.java
+ * @brief Esdeveniments propis del simulador per a Java Flight Recorder
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class EsdevenimentsJfr
+ * @brief Esdeveniments JFR de les fases del simulador: operacions del guió, càlcul i propagació de cabals, i flux
+ * màxim amb cadascuna de les seves fases
+ * @details Cada esdeveniment porta la mida de la xarxa (nodes i canonades) i el que ha fet la fase, de manera que en un
+ * enregistrament es poden relacionar amb la recollida de brossa i les assignacions de memòria. Tots es registren amb el
+ * patró habitual de JFR:
+ *
+ *     EsdevenimentsJfr.CalculCabals e = new EsdevenimentsJfr.CalculCabals();
+ *     e.begin();
+ *     ...
+ *     if (e.shouldCommit()) { ...camps...; e.commit(); }
+ *
+ * Quan no s'enregistra, shouldCommit retorna false sense llegir cap rellotge i el compilador JIT elimina l'objecte
+ * (no escapa del mètode), de manera que el cost és pràcticament nul. Cap esdeveniment guarda la pila de crides, que
+ * seria el cost més gran. Les operacions del guió i les propagacions, que poden ser milions, només es registren si
+ * duren més de 100 µs, llevat que la configuració de l'enregistrament indiqui un altre llindar. Es poden activar amb:
+ *
+ *     java -XX:StartFlightRecording=filename=bewater.jfr,settings=profile BeWater entrada.txt sortida.txt
+ */
+public final class EsdevenimentsJfr {
+    //Descripció general: Esdeveniments propis del simulador per a Java Flight Recorder
+
+    private EsdevenimentsJfr() {
+    }
+
+    /**
+     * @class Ordre
+     * @brief Lectura i execució d'una operació del guió de SimuladorModeText
+     */
+    @Name("bewater.Ordre")
+    @Threshold("100 us")
+    @Label("Operació del guió")
+    @Category({"BeWater", "Simulador"})
+    @Description("Lectura dels paràmetres i execució d'una operació del fitxer d'entrada")
+    @StackTrace(false)
+    public static class Ordre extends Event {
+        @Label("Operació")
+        public String operacio;
+
+        @Label("Nodes")
+        public int nodes;
+
+        @Label("Canonades")
+        public int canonades;
+    }
+
+    /**
+     * @class CalculCabals
+     * @brief Càlcul complet dels cabals de la xarxa (MotorCabals.resoldre)
+     */
+    @Name("bewater.CalculCabals")
+    @Label("Càlcul de cabals")
+    @Category({"BeWater", "Cabals"})
+    @Description("Càlcul de la demanda i el cabal de tots els nodes i canonades de la xarxa")
+    @StackTrace(false)
+    public static class CalculCabals extends Event {
+        @Label("Nodes")
+        public int nodes;
+
+        @Label("Canonades")
+        public int canonades;
+
+        @Label("Nodes en cicles")
+        @Description("Nodes sense ordre topològic, que es processen fins que els cabals convergeixen")
+        public int nodesCiclics;
+
+        @Label("Passades")
+        public int passades;
+    }
+
+    /**
+     * @class PropagacioCabals
+     * @brief Actualització dels cabals després de canviar l'estat d'un o més nodes (MotorCabals.propagar)
+     */
+    @Name("bewater.PropagacioCabals")
+    @Threshold("100 us")
+    @Label("Propagació de cabals")
+    @Category({"BeWater", "Cabals"})
+    @Description("Recàlcul dels cabals de la regió afectada per un canvi de demanda, aixeta o cabal potencial")
+    @StackTrace(false)
+    public static class PropagacioCabals extends Event {
+        @Label("Nodes")
+        public int nodes;
+
+        @Label("Canonades")
+        public int canonades;
+
+        @Label("Nodes canviats")
+        public int nodesCanviats;
+
+        @Label("Nodes processats")
+        public long nodesProcessats;
+    }
+
+    /**
+     * @class FluxMaxim
+     * @brief Càlcul sencer d'un flux màxim amb l'algorisme de Dinic
+     */
+    @Name("bewater.FluxMaxim")
+    @Label("Flux màxim")
+    @Category({"BeWater", "Flux màxim"})
+    @Description("Càlcul del flux màxim entre una font i un pou de la xarxa residual")
+    @StackTrace(false)
+    public static class FluxMaxim extends Event {
+        @Label("Nodes")
+        public int nodes;
+
+        @Label("Arestes residuals")
+        public int arestes;
+
+        @Label("Fases")
+        public int fases;
+
+        @Label("Camins augmentants")
+        public long camins;
+
+        @Label("Flux")
+        public double flux;
+    }
+
+    /**
+     * @class FaseFluxMaxim
+     * @brief Una fase de Dinic: recorregut en amplada per construir el graf de nivells i camins augmentants dins seu
+     */
+    @Name("bewater.FaseFluxMaxim")
+    @Label("Fase de flux màxim")
+    @Category({"BeWater", "Flux màxim"})
+    @Description("Recorregut en amplada des de la font i cerca de camins augmentants en el graf de nivells")
+    @StackTrace(false)
+    public static class FaseFluxMaxim extends Event {
+        @Label("Nodes visitats")
+        public int nodesVisitats;
+
+        @Label("Nivell del pou")
+        public int nivellPou;
+
+        @Label("Camins augmentants")
+        public int camins;
+    }
+}
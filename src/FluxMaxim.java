@@ -0,0 +1,379 @@
+import java.util.Arrays;
+
+/**
+ * @file FluxMaxim.java
+ * @brief Càlcul del flux màxim d'una xarxa de distribució d'aigua amb l'algorisme de Dinic
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class FluxMaxim
+ * @brief Calcula el flux màxim entre dos nodes d'un nucli de xarxa amb l'algorisme de Dinic
+ * @details La xarxa residual es guarda en vectors primitius: cada canonada c dona les arestes 2c (directa, amb la
+ * capacitat de la canonada) i 2c + 1 (inversa, amb capacitat 0), de manera que el flux que ha passat per la canonada
+ * és el residual de l'aresta inversa. Les canonades que toquen un node amb l'aixeta tancada tenen capacitat 0. Els
+ * vectors només creixen i es reaprofiten d'un càlcul al següent.
+ *
+ * Per al flux màxim de tot el sistema s'afegeixen dos nodes: una superfont amb una aresta cap a cada origen obert
+ * (de capacitat el seu cabal potencial) i un superpou amb una aresta des de cada terminal obert (de capacitat la seva
+ * demanda). Així n'hi ha prou amb un sol càlcul per a tots els orígens i terminals.
+ */
+public class FluxMaxim {
+    //Descripció general: Calcula el flux màxim entre dos nodes d'un nucli de xarxa amb l'algorisme de Dinic
+
+    private static final double EPSILON = 1e-9;
+
+    private int nombreNodes;
+    private int nombreArestes;
+    private int nombreCanonades;
+
+    // Arestes residuals: destí i capacitat residual; l'aresta inversa de e és e ^ 1
+    private int[] desti = new int[0];
+    private double[] residual = new double[0];
+    private double[] capacitatInicial = new double[0];
+
+    // Adjacència CSR de les arestes residuals per node d'origen
+    private int[] inici = new int[1];
+    private int[] adjacents = new int[0];
+
+    // Aresta cap al superpou de cada terminal en l'últim càlcul del sistema, o -1
+    private int[] arestaTerminal = new int[0];
+
+    // Comptadors acumulats des que es va crear el motor
+    private long calculs;
+    private long fases;
+    private long camins;
+    private long nodesVisitats;
+
+    // Buffers de Dinic
+    private int[] nivell = new int[0];
+    private int[] seguent = new int[0];
+    private int[] cua = new int[0];
+    private int[] cami = new int[0];
+
+    /**
+     * @brief Calcula el flux màxim entre dos nodes
+     * @pre 0 <= font, pou < nucli.nombreNodes()
+     * @post Retorna el flux màxim de font a pou respectant la capacitat de les canonades i les aixetes tancades.
+     * Després de la crida, flux(c) retorna el flux que passa per cada canonada c
+     * @param nucli Nucli de la xarxa
+     * @param font Índex del node d'on surt l'aigua
+     * @param pou Índex del node on arriba l'aigua
+     * @return Flux màxim de font a pou
+     */
+    public double calcular(NucliXarxa nucli, int font, int pou) {
+        preparar(nucli, 0);
+        return dinic(font, pou);
+    }
+
+    /**
+     * @brief Calcula el flux màxim que el sistema pot lliurar des de tots els orígens a tots els terminals
+     * @pre ---
+     * @post Retorna el flux màxim des d'una superfont que alimenta cada origen obert fins al seu cabal potencial cap a
+     * un superpou que rep de cada terminal obert fins a la seva demanda. Després de la crida, fluxTerminal(t) retorna el
+     * flux que arriba a cada terminal t i flux(c) el de cada canonada c
+     * @param nucli Nucli de la xarxa
+     * @return Flux màxim del sistema
+     */
+    public double calcularSistema(NucliXarxa nucli) {
+        int n = nucli.nombreNodes();
+        preparar(nucli, 2);
+        int superfont = n;
+        int superpou = n + 1;
+        if (arestaTerminal.length < n) {
+            arestaTerminal = new int[n];
+        }
+        Arrays.fill(arestaTerminal, 0, n, -1);
+        for (int v = 0; v < n; v++) {
+            if (!nucli.aixetaOberta(v)) {
+                continue;
+            }
+            if (nucli.tipus(v) == NucliXarxa.ORIGEN) {
+                afegirAresta(superfont, v, nucli.cabalPotencial(v));
+            } else if (nucli.tipus(v) == NucliXarxa.TERMINAL) {
+                arestaTerminal[v] = afegirAresta(v, superpou, nucli.demanda(v));
+            }
+        }
+        return dinic(superfont, superpou);
+    }
+
+    /**
+     * @brief Retorna el flux que arriba a un terminal en l'últim càlcul del sistema
+     * @pre calcularSistema s'ha cridat; terminal és un índex de node del nucli d'aquell càlcul
+     * @post Retorna el flux que el terminal rep, o 0 si no és un terminal obert
+     * @param terminal Índex del terminal
+     * @return Flux que arriba al terminal
+     */
+    public float fluxTerminal(int terminal) {
+        int e = arestaTerminal[terminal];
+        return e < 0 ? 0 : (float) fluxAresta(e);
+    }
+
+    /**
+     * @brief Retorna el flux que passa per una canonada en l'últim càlcul
+     * @pre 0 <= canonada < nombre de canonades del nucli de l'últim càlcul
+     * @post Retorna el flux de la canonada segons l'últim flux màxim calculat
+     * @param canonada Índex de la canonada
+     * @return Flux de la canonada
+     */
+    public float flux(int canonada) {
+        return (float) residual[2 * canonada + 1];
+    }
+
+    /**
+     * @brief Retorna el nombre de càlculs de flux màxim
+     * @pre ---
+     * @post Retorna quantes vegades aquest motor ha calculat un flux màxim entre dos nodes diferents
+     * @return Nombre de càlculs
+     */
+    public long calculs() {
+        return calculs;
+    }
+
+    /**
+     * @brief Retorna el nombre de fases de Dinic
+     * @pre ---
+     * @post Retorna quants grafs de nivells amb camí fins al pou s'han construït, sumant tots els càlculs
+     * @return Nombre de fases
+     */
+    public long fases() {
+        return fases;
+    }
+
+    /**
+     * @brief Retorna el nombre de camins augmentants
+     * @pre ---
+     * @post Retorna quants camins augmentants s'han trobat, sumant tots els càlculs
+     * @return Nombre de camins augmentants
+     */
+    public long camins() {
+        return camins;
+    }
+
+    /**
+     * @brief Retorna el nombre de nodes visitats pels recorreguts en amplada
+     * @pre ---
+     * @post Retorna la suma dels nodes assolits en cada recorregut en amplada des de la font
+     * @return Nombre de nodes visitats
+     */
+    public long nodesVisitats() {
+        return nodesVisitats;
+    }
+
+    /**
+     * @brief Prepara la xarxa residual a partir d'un nucli
+     * @pre nodesExtra >= 0
+     * @post La xarxa residual té els nodes del nucli més nodesExtra nodes addicionals, amb índexs a partir de
+     * nucli.nombreNodes(), i una parella d'arestes per cada canonada
+     * @param nucli Nucli de la xarxa
+     * @param nodesExtra Nombre de nodes addicionals
+     */
+    void preparar(NucliXarxa nucli, int nodesExtra) {
+        nombreNodes = nucli.nombreNodes() + nodesExtra;
+        nombreCanonades = nucli.nombreCanonades();
+        nombreArestes = 0;
+        reservarArestes(2 * nombreCanonades);
+        if (nivell.length < nombreNodes) {
+            nivell = new int[nombreNodes];
+            seguent = new int[nombreNodes];
+            cua = new int[nombreNodes];
+            cami = new int[nombreNodes];
+        }
+        for (int c = 0; c < nombreCanonades; c++) {
+            boolean oberta = nucli.aixetaOberta(nucli.origen(c)) && nucli.aixetaOberta(nucli.desti(c));
+            afegirAresta(nucli.origen(c), nucli.desti(c), oberta ? nucli.capacitat(c) : 0);
+        }
+    }
+
+    /**
+     * @brief Afegeix una aresta a la xarxa residual
+     * @pre preparar s'ha cridat; 0 <= u, v < nombre de nodes de la xarxa residual
+     * @post S'ha afegit l'aresta u -> v amb capacitat cap i la seva inversa amb capacitat 0. Retorna l'índex de
+     * l'aresta directa
+     * @param u Node d'origen
+     * @param v Node de destí
+     * @param cap Capacitat de l'aresta
+     * @return Índex de l'aresta directa
+     */
+    int afegirAresta(int u, int v, double cap) {
+        reservarArestes(nombreArestes + 2);
+        int e = nombreArestes;
+        desti[e] = v;
+        residual[e] = cap;
+        capacitatInicial[e] = cap;
+        desti[e + 1] = u;
+        residual[e + 1] = 0;
+        capacitatInicial[e + 1] = 0;
+        nombreArestes += 2;
+        return e;
+    }
+
+    /**
+     * @brief Retorna el flux que passa per una aresta de la xarxa residual
+     * @pre e és l'índex d'una aresta directa
+     * @post Retorna el flux de l'aresta segons l'últim càlcul
+     * @param e Índex de l'aresta
+     * @return Flux de l'aresta
+     */
+    double fluxAresta(int e) {
+        return residual[e ^ 1] - capacitatInicial[e ^ 1];
+    }
+
+    /**
+     * @brief Executa l'algorisme de Dinic sobre la xarxa residual preparada
+     * @pre preparar s'ha cridat i s'hi han afegit totes les arestes
+     * @post Retorna el flux màxim de font a pou; les capacitats residuals queden actualitzades
+     * @param font Node d'on surt l'aigua
+     * @param pou Node on arriba l'aigua
+     * @return Flux màxim
+     */
+    double dinic(int font, int pou) {
+        if (font == pou) {
+            return 0;
+        }
+        EsdevenimentsJfr.FluxMaxim esdeveniment = new EsdevenimentsJfr.FluxMaxim();
+        esdeveniment.begin();
+        construirAdjacencies();
+        calculs++;
+        long fasesAbans = fases;
+        long caminsAbans = camins;
+
+        double total = 0;
+        EsdevenimentsJfr.FaseFluxMaxim fase = new EsdevenimentsJfr.FaseFluxMaxim();
+        fase.begin();
+        long visitatsAbans = nodesVisitats;
+        while (nivells(font, pou)) {
+            fases++;
+            int nivellPou = nivell[pou];
+            long caminsFase = camins;
+            System.arraycopy(inici, 0, seguent, 0, nombreNodes);
+            double f;
+            while ((f = augmentar(font, pou)) > 0) {
+                total += f;
+                camins++;
+            }
+            if (fase.shouldCommit()) {
+                fase.nodesVisitats = (int) (nodesVisitats - visitatsAbans);
+                fase.nivellPou = nivellPou;
+                fase.camins = (int) (camins - caminsFase);
+                fase.commit();
+            }
+            fase = new EsdevenimentsJfr.FaseFluxMaxim();
+            fase.begin();
+            visitatsAbans = nodesVisitats;
+        }
+
+        if (esdeveniment.shouldCommit()) {
+            esdeveniment.nodes = nombreNodes;
+            esdeveniment.arestes = nombreArestes;
+            esdeveniment.fases = (int) (fases - fasesAbans);
+            esdeveniment.camins = camins - caminsAbans;
+            esdeveniment.flux = total;
+            esdeveniment.commit();
+        }
+        return total;
+    }
+
+    /**
+     * @brief Calcula el graf de nivells amb un recorregut en amplada des de la font
+     * @pre ---
+     * @post nivell[v] és la distància de font a v per arestes amb capacitat residual, o -1. Retorna si pou és accessible
+     */
+    private boolean nivells(int font, int pou) {
+        Arrays.fill(nivell, 0, nombreNodes, -1);
+        int cap = 0;
+        int fi = 0;
+        cua[fi++] = font;
+        nivell[font] = 0;
+        while (cap < fi) {
+            int u = cua[cap++];
+            for (int k = inici[u]; k < inici[u + 1]; k++) {
+                int e = adjacents[k];
+                int v = desti[e];
+                if (nivell[v] < 0 && residual[e] > EPSILON) {
+                    nivell[v] = nivell[u] + 1;
+                    cua[fi++] = v;
+                }
+            }
+        }
+        nodesVisitats += fi;
+        return nivell[pou] >= 0;
+    }
+
+    /**
+     * @brief Cerca un camí augmentant dins el graf de nivells i hi fa passar el màxim flux possible
+     * @pre nivells(font, pou) ha retornat cert
+     * @post Retorna el flux afegit, o 0 si ja no hi ha cap camí augmentant en el graf de nivells
+     */
+    private double augmentar(int font, int pou) {
+        int profunditat = 0;
+        int u = font;
+        while (true) {
+            if (u == pou) {
+                double f = Double.MAX_VALUE;
+                for (int i = 0; i < profunditat; i++) {
+                    f = Math.min(f, residual[cami[i]]);
+                }
+                for (int i = 0; i < profunditat; i++) {
+                    residual[cami[i]] -= f;
+                    residual[cami[i] ^ 1] += f;
+                }
+                return f;
+            }
+
+            boolean avancat = false;
+            while (seguent[u] < inici[u + 1]) {
+                int e = adjacents[seguent[u]];
+                int v = desti[e];
+                if (residual[e] > EPSILON && nivell[v] == nivell[u] + 1) {
+                    cami[profunditat++] = e;
+                    u = v;
+                    avancat = true;
+                    break;
+                }
+                seguent[u]++;
+            }
+
+            if (!avancat) {
+                // Carreró sense sortida: es descarta u i es torna enrere
+                nivell[u] = -1;
+                if (profunditat == 0) {
+                    return 0;
+                }
+                u = desti[cami[--profunditat] ^ 1];
+                seguent[u]++;
+            }
+        }
+    }
+
+    private void construirAdjacencies() {
+        if (inici.length < nombreNodes + 1) {
+            inici = new int[nombreNodes + 1];
+        } else {
+            Arrays.fill(inici, 0, nombreNodes + 1, 0);
+        }
+        if (adjacents.length < nombreArestes) {
+            adjacents = new int[desti.length];
+        }
+        for (int e = 0; e < nombreArestes; e++) {
+            inici[desti[e ^ 1] + 1]++;
+        }
+        for (int v = 0; v < nombreNodes; v++) {
+            inici[v + 1] += inici[v];
+        }
+        System.arraycopy(inici, 0, seguent, 0, nombreNodes);
+        for (int e = 0; e < nombreArestes; e++) {
+            adjacents[seguent[desti[e ^ 1]]++] = e;
+        }
+    }
+
+    private void reservarArestes(int mida) {
+        if (desti.length < mida) {
+            int novaMida = Math.max(mida, desti.length + (desti.length >> 1) + 2);
+            desti = Arrays.copyOf(desti, novaMida);
+            residual = Arrays.copyOf(residual, novaMida);
+            capacitatInicial = Arrays.copyOf(capacitatInicial, novaMida);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * @file GeneradorXarxes.java
+ * @brief Generador de guions de xarxes de distribució d'aigua per a proves de mida i de càrrega
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class GeneradorXarxes
+ * @brief Escriu, en el format de SimuladorModeText, xarxes sintètiques i seqüències d'operacions sobre elles
+ * @details Amb la mateixa llavor, la mateixa forma i la mateixa mida, el guió generat és sempre el mateix. Hi ha tres
+ * formes:
+ *  - ARBRE: un sol origen. Cada connexió nova penja d'una de les últimes connexions (com els carrers d'un barri, que
+ *    es van estenent) i cada terminal és una escomesa d'una connexió recent. És un arbre: no té cicles ni cap node amb
+ *    dues canonades entrants.
+ *  - MALLA: l'arbre anterior més una canonada per cada deu nodes entre dues connexions, sempre de la més antiga a la
+ *    més nova. Té cicles, però cap cicle dirigit.
+ *  - GRAELLA: connexions en una graella on l'aigua va cap a l'est i cap al sud, alimentada per diversos orígens a la
+ *    fila superior, i terminals penjats de cel·les a l'atzar.
+ *
+ * El generador només guarda vectors de tipus primitius: el tipus de cada node, els índexs dels terminals i, per a
+ * cada connexió, l'índex, les coordenades i la connexió de la qual penja. Són uns deu bytes per node, de manera que pot
+ * escriure xarxes de desenes de milions de nodes. Els identificadors són la lletra del tipus (O, C o T) seguida de l'índex.
+ * Després de la xarxa es pot escriure una seqüència d'operacions demanda, obrir i tancar sobre els seus nodes.
+ */
+public class GeneradorXarxes {
+    //Descripció general: Generador de guions de xarxes de distribució d'aigua per a proves de mida i de càrrega
+
+    public static final String ARBRE = "arbre";
+    public static final String MALLA = "malla";
+    public static final String GRAELLA = "graella";
+
+    private static final int FINESTRA_CONNEXIONS = 1000; // connexions recents de les quals pot penjar un node nou
+    private static final int COLUMNES_PER_ORIGEN = 64;   // a la graella, un origen cada tantes columnes
+    private static final String CABAL_ORIGEN = "1000000000";
+
+    private final SplittableRandom aleatori;
+    private byte[] tipus = new byte[0];          // tipus de cada node (NucliXarxa.ORIGEN, CONNEXIO o TERMINAL)
+    private int generats;                        // nodes generats
+    private int[] terminals = new int[0];        // índex de node de cada terminal
+    private int nombreTerminals;
+    private int[] connexions = new int[0];       // índex de node de cada connexió
+    private float[] latituds = new float[0];     // coordenades de cada connexió
+    private float[] longituds = new float[0];
+    private int[] pareConnexio = new int[0];     // a l'arbre, connexió de la qual penja cada connexió, o -1
+    private int nombreConnexions;
+    private int[] tancades = new int[0];         // aixetes tancades per les operacions generades
+    private int nombreTancades;
+    private final StringBuilder linia = new StringBuilder(64);
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Crea un generador amb la llavor indicada
+     * @param llavor Llavor del generador aleatori
+     */
+    public GeneradorXarxes(long llavor) {
+        aleatori = new SplittableRandom(llavor);
+    }
+
+    /**
+     * @brief Escriu el guió que construeix una xarxa
+     * @pre nombreNodes >= 2
+     * @post sortida conté les ordres origen, connexio, terminal, connectar i cabal que construeixen una xarxa de
+     * nombreNodes nodes de la forma indicada
+     * @exception IllegalArgumentException si la forma no és ARBRE, MALLA ni GRAELLA, si nombreNodes < 2 o si la forma
+     * és GRAELLA i nombreNodes < 6
+     * @exception IOException si hi ha un error d'escriptura
+     * @param forma Forma de la xarxa
+     * @param nombreNodes Nombre de nodes
+     * @param sortida On s'escriu el guió
+     */
+    public void xarxa(String forma, int nombreNodes, Appendable sortida) throws IOException {
+        if (nombreNodes < 2) {
+            throw new IllegalArgumentException("La xarxa ha de tenir com a mínim 2 nodes");
+        }
+        generats = 0;
+        nombreTerminals = 0;
+        nombreConnexions = 0;
+        nombreTancades = 0;
+        tipus = new byte[nombreNodes];
+        switch (forma) {
+            case ARBRE:
+                arbre(nombreNodes, sortida);
+                break;
+            case MALLA:
+                arbre(nombreNodes, sortida);
+                malla(nombreNodes / 10, sortida);
+                break;
+            case GRAELLA:
+                graella(nombreNodes, sortida);
+                break;
+            default:
+                throw new IllegalArgumentException("Forma de xarxa desconeguda: " + forma);
+        }
+    }
+
+    /**
+     * @brief Escriu una seqüència d'operacions sobre l'última xarxa generada
+     * @pre xarxa s'ha cridat
+     * @post sortida conté nombreOperacions ordres: la meitat, canvis de demanda d'un terminal; la resta, tancar l'aixeta
+     * d'un terminal o d'una connexió o tornar a obrir una aixeta tancada abans
+     * @exception IOException si hi ha un error d'escriptura
+     * @param nombreOperacions Nombre d'operacions
+     * @param sortida On s'escriuen les operacions
+     */
+    public void operacions(int nombreOperacions, Appendable sortida) throws IOException {
+        for (int k = 0; k < nombreOperacions; k++) {
+            int tria = aleatori.nextInt(4);
+            if (tria < 2 && nombreTerminals > 0) {
+                ordre(sortida, "demanda");
+                id(sortida, terminals[aleatori.nextInt(nombreTerminals)]);
+                valor(sortida, 1 + aleatori.nextInt(50));
+            } else if (tria == 2 || nombreTancades == 0) {
+                // Es tanca sobretot l'aixeta de terminals, i de tant en tant la d'una connexió
+                boolean terminal = nombreConnexions == 0 || (nombreTerminals > 0 && aleatori.nextInt(4) > 0);
+                int v = terminal ? terminals[aleatori.nextInt(nombreTerminals)]
+                        : connexions[aleatori.nextInt(nombreConnexions)];
+                if (nombreTancades == tancades.length) {
+                    tancades = Arrays.copyOf(tancades, creixer(tancades.length));
+                }
+                tancades[nombreTancades++] = v;
+                ordre(sortida, "tancar");
+                id(sortida, v);
+            } else {
+                // Es reobre una de les aixetes tancades, de manera que en una prova llarga no es tanca tota la xarxa
+                int i = aleatori.nextInt(nombreTancades);
+                ordre(sortida, "obrir");
+                id(sortida, tancades[i]);
+                tancades[i] = tancades[--nombreTancades];
+            }
+        }
+    }
+
+    /**
+     * @brief Genera un guió des de la línia d'ordres
+     * @pre args és forma nombreNodes nombreOperacions llavor [fitxer]
+     * @post S'ha escrit el guió al fitxer, o a la sortida estàndard si no se n'indica cap
+     * @param args Arguments del programa
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Ús: GeneradorXarxes arbre|malla|graella nombreNodes nombreOperacions llavor [fitxer]");
+            return;
+        }
+        GeneradorXarxes generador = new GeneradorXarxes(Long.parseLong(args[3]));
+        try (Writer sortida = args.length > 4
+                ? Files.newBufferedWriter(Paths.get(args[4]), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            generador.xarxa(args[0], Integer.parseInt(args[1]), sortida);
+            generador.operacions(Integer.parseInt(args[2]), sortida);
+        }
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Formes
+    //-------------------------------------------------------------------------------------------------
+
+    private void arbre(int n, Appendable sortida) throws IOException {
+        float latOrigen = 41 + aleatori.nextFloat();
+        float lonOrigen = 2 + aleatori.nextFloat();
+        int origen = afegir(NucliXarxa.ORIGEN, latOrigen, lonOrigen, sortida);
+        cabal(origen, sortida);
+        for (int i = 1; i < n; i++) {
+            // Les primeres connexions fan de tronc; després, sis de cada deu nodes són terminals
+            byte t = i > 3 && aleatori.nextInt(10) < 6 ? NucliXarxa.TERMINAL : NucliXarxa.CONNEXIO;
+            int pare = nombreConnexions == 0 ? -1
+                    : nombreConnexions - 1 - aleatori.nextInt(Math.min(nombreConnexions, FINESTRA_CONNEXIONS));
+            // Cada node queda a prop del seu pare, a uns pocs centenars de metres
+            float lat = (pare < 0 ? latOrigen : latituds[pare]) + desplacament();
+            float lon = (pare < 0 ? lonOrigen : longituds[pare]) + desplacament();
+            int v = afegir(t, lat, lon, sortida);
+            if (t == NucliXarxa.CONNEXIO) {
+                pareConnexio[nombreConnexions - 1] = pare;
+            }
+            connectar(pare < 0 ? origen : connexions[pare], v, 10 + aleatori.nextInt(91), sortida);
+        }
+    }
+
+    private void malla(int canonadesExtra, Appendable sortida) throws IOException {
+        if (nombreConnexions < 2) {
+            return;
+        }
+        // Parells ja connectats per no repetir canonades: la clau és (connexió antiga, connexió nova)
+        long[] parells = new long[Integer.highestOneBit(Math.max(2, canonadesExtra)) << 2];
+        Arrays.fill(parells, -1);
+        for (int k = 0; k < canonadesExtra; k++) {
+            int a = aleatori.nextInt(nombreConnexions);
+            int b = aleatori.nextInt(nombreConnexions);
+            // Sempre d'una connexió antiga a una de més nova: la malla té cicles però no cicles dirigits
+            int antiga = Math.min(a, b);
+            int nova = Math.max(a, b);
+            if (a == b || pareConnexio[nova] == antiga || !afegirParell(parells, (long) antiga << 32 | nova)) {
+                continue;
+            }
+            connectar(connexions[antiga], connexions[nova], 10 + aleatori.nextInt(91), sortida);
+        }
+    }
+
+    private void graella(int n, Appendable sortida) throws IOException {
+        if (n < 6) {
+            throw new IllegalArgumentException("Una graella ha de tenir com a mínim 6 nodes");
+        }
+        // Unes quatre desenes de cada cent nodes són cel·les; la resta, orígens i terminals
+        int costat = Math.max(2, (int) Math.sqrt(n * 0.4));
+        while (costat > 2 && costat * costat + origensGraella(costat) >= n) {
+            costat--;
+        }
+        float pas = 0.002f; // uns 200 metres entre cel·les
+        for (int f = 0; f < costat; f++) {
+            for (int c = 0; c < costat; c++) {
+                // Les cel·les són els primers nodes: la cel·la f * costat + c és el node i la connexió amb aquest índex
+                int v = afegir(NucliXarxa.CONNEXIO, 41.5f - f * pas, 2.5f + c * pas, sortida);
+                if (c > 0) {
+                    connectar(v - 1, v, 50 + aleatori.nextInt(51), sortida);
+                }
+                if (f > 0) {
+                    connectar(v - costat, v, 50 + aleatori.nextInt(51), sortida);
+                }
+            }
+        }
+        for (int k = 0; k < origensGraella(costat); k++) {
+            int columna = Math.min(costat - 1, k * COLUMNES_PER_ORIGEN);
+            int origen = afegir(NucliXarxa.ORIGEN, 41.5f + pas, 2.5f + columna * pas, sortida);
+            cabal(origen, sortida);
+            connectar(origen, columna, 500, sortida);
+        }
+        while (generats < n) {
+            int cella = aleatori.nextInt(costat * costat);
+            int v = afegir(NucliXarxa.TERMINAL, latituds[cella] + desplacament(), longituds[cella] + desplacament(),
+                    sortida);
+            connectar(cella, v, 10 + aleatori.nextInt(41), sortida);
+        }
+    }
+
+    private static int origensGraella(int costat) {
+        return (costat + COLUMNES_PER_ORIGEN - 1) / COLUMNES_PER_ORIGEN;
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Escriptura
+    //-------------------------------------------------------------------------------------------------
+
+    /**
+     * @brief Escriu l'ordre que afegeix un node
+     * @pre Queda espai a tipus
+     * @post S'ha escrit l'ordre origen, connexio o terminal (amb una demanda a l'atzar); retorna l'índex del node
+     */
+    private int afegir(byte t, float lat, float lon, Appendable sortida) throws IOException {
+        int v = generats++;
+        tipus[v] = t;
+        if (t == NucliXarxa.TERMINAL) {
+            if (nombreTerminals == terminals.length) {
+                terminals = Arrays.copyOf(terminals, creixer(terminals.length));
+            }
+            terminals[nombreTerminals++] = v;
+            ordre(sortida, "terminal");
+        } else if (t == NucliXarxa.CONNEXIO) {
+            if (nombreConnexions == connexions.length) {
+                int capacitat = creixer(connexions.length);
+                connexions = Arrays.copyOf(connexions, capacitat);
+                latituds = Arrays.copyOf(latituds, capacitat);
+                longituds = Arrays.copyOf(longituds, capacitat);
+                pareConnexio = Arrays.copyOf(pareConnexio, capacitat);
+            }
+            connexions[nombreConnexions] = v;
+            latituds[nombreConnexions] = lat;
+            longituds[nombreConnexions] = lon;
+            pareConnexio[nombreConnexions++] = -1;
+            ordre(sortida, "connexio");
+        } else {
+            ordre(sortida, "origen");
+        }
+        id(sortida, v);
+        coordenades(sortida, lat, lon);
+        if (t == NucliXarxa.TERMINAL) {
+            valor(sortida, 1 + aleatori.nextInt(50));
+        }
+        return v;
+    }
+
+    private void connectar(int origen, int desti, int capacitat, Appendable sortida) throws IOException {
+        ordre(sortida, "connectar");
+        id(sortida, origen);
+        id(sortida, desti);
+        valor(sortida, capacitat);
+    }
+
+    private void cabal(int origen, Appendable sortida) throws IOException {
+        ordre(sortida, "cabal");
+        id(sortida, origen);
+        sortida.append(CABAL_ORIGEN).append('\n');
+    }
+
+    private static void ordre(Appendable sortida, String ordre) throws IOException {
+        sortida.append(ordre).append('\n');
+    }
+
+    private void id(Appendable sortida, int v) throws IOException {
+        linia.setLength(0);
+        linia.append(tipus[v] == NucliXarxa.ORIGEN ? 'O' : tipus[v] == NucliXarxa.CONNEXIO ? 'C' : 'T').append(v)
+                .append('\n');
+        sortida.append(linia);
+    }
+
+    private void valor(Appendable sortida, int valor) throws IOException {
+        linia.setLength(0);
+        linia.append(valor).append('\n');
+        sortida.append(linia);
+    }
+
+    /**
+     * @brief Escriu unes coordenades en el format GG:MM:SS.ssN,GGG:MM:SS.ssE
+     * @pre -90 <= lat <= 90, -180 <= lon <= 180
+     */
+    private void coordenades(Appendable sortida, double lat, double lon) throws IOException {
+        linia.setLength(0);
+        graus(Math.abs(lat), lat < 0 ? 'S' : 'N');
+        linia.append(',');
+        graus(Math.abs(lon), lon < 0 ? 'W' : 'E');
+        linia.append('\n');
+        sortida.append(linia);
+    }
+
+    private void graus(double valor, char hemisferi) {
+        long centesimes = Math.round(valor * 360000); // centèsimes de segon
+        long graus = centesimes / 360000;
+        long minuts = centesimes / 6000 % 60;
+        long segons = centesimes / 100 % 60;
+        long fraccio = centesimes % 100;
+        linia.append(graus).append(':').append(minuts).append(':').append(segons).append('.');
+        if (fraccio < 10) {
+            linia.append('0');
+        }
+        linia.append(fraccio).append(hemisferi);
+    }
+
+    private float desplacament() {
+        return (aleatori.nextFloat() - 0.5f) * 0.005f;
+    }
+
+    private static int creixer(int capacitat) {
+        return Math.max(16, capacitat + (capacitat >> 1));
+    }
+
+    /**
+     * @brief Afegeix una clau a un conjunt d'adreçament obert
+     * @pre El conjunt té posicions lliures (-1)
+     * @post Retorna true si la clau no hi era i s'hi ha afegit
+     */
+    private static boolean afegirParell(long[] parells, long clau) {
+        int mascara = parells.length - 1;
+        long h = clau * 0x9E3779B97F4A7C15L;
+        for (int i = (int) (h ^ (h >>> 32)) & mascara; ; i = (i + 1) & mascara) {
+            if (parells[i] == clau) {
+                return false;
+            }
+            if (parells[i] == -1) {
+                parells[i] = clau;
+                return true;
+            }
+        }
+    }
+}
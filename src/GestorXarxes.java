@@ -1,7 +1,7 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.*;
 import java.util.stream.Collectors;
-import org.graphstream.graph.Node;
-import org.graphstream.graph.Edge;
 
 /**
  * @file GestorXarxes.java
@@ -25,50 +25,15 @@ public class GestorXarxes {
         // Pre: nodeOrigen pertany a la xarxa x.
         // Post: Diu si la component connexa de la xarxa x que conté nodeOrigen té cicles.
 
-        Set<NodeClass> visitats = new HashSet<>();
-        Queue<NodeClass> cua = new LinkedList<>();
-        Map<NodeClass, NodeClass> pares = new HashMap<>();
-        NodeClass origen = x.getNode(nodeOrigen.getID());
-
-        cua.add(origen);
-        visitats.add(origen);
-        pares.put(origen, null);
-
-        while (!cua.isEmpty()) {
-            NodeClass actual = cua.poll();
-            List<Node> veins = x.getNeighbors(x.node(actual.getID()));
-
-            for (Node vei : veins) {
-                NodeClass veiClasse = x.getNode(vei.getId());
-
-                if (!visitats.contains(veiClasse)) {
-                    visitats.add(veiClasse);
-                    pares.put(veiClasse, actual);
-                    cua.add(veiClasse);
-                } else if (!veiClasse.equals(pares.get(actual))) {
-                    return true; // S'ha trobat un cicle.
-                }
-            }
-        }
-        return false; // No s'han trobat cicles.
+        return x.teCicles(nodeOrigen);
     }
 
     public static boolean esArbre(Xarxa x, NodeClass nodeOrigen) {
-        // Comprova que el node origen no té cap canonada entrant
-        if (x.getInDegree(nodeOrigen) <= 0) {
-            // Per cada node restant, comprova que només té una canonada entrant
-            List<NodeClass> nodes = x.getNodesConnectats(nodeOrigen);
-            for (NodeClass node : nodes) {
-                if (node != nodeOrigen && x.getInDegree(node) > 1) {
-                    return false;
-                }
-            }
-        }
-        else {
-            return false;
-        }
-        // Si tots els nodes compleixen les condicions, la xarxa és un arbre
-        return true;
+        // Pre: nodeOrigen pertany a la xarxa x.
+        // Post: Diu si la component connexa de nodeOrigen és un arbre amb arrel a nodeOrigen: l'origen no té cap
+        // canonada entrant i tots els altres nodes en tenen exactament una.
+
+        return x.esArbre(nodeOrigen);
     }
 
 
@@ -103,53 +68,49 @@ public class GestorXarxes {
      * @param aiguaArriba Mapa que indica si arriba aigua a cada terminal
      * @return Conjunt de nodes que s'han de tancar perquè la situació actual de la xarxa sigui coherent
      */
-    public static Set<Node> aixetesTancar(Xarxa x, Map<Terminal, Boolean> aiguaArriba) {
+    public static Set<NodeClass> aixetesTancar(Xarxa x, Map<Terminal, Boolean> aiguaArriba) {
         // Pre: Tots els terminals de aiguaArriba pertanyen a la xarxa x, aiguaArriba.get(t) indica si arriba aigua a t,
         // i la xarxa x té forma d'arbre.
         // Post: Retorna el conjunt de nodes que s'han de tancar perquè la situació actual de la xarxa sigui coherent.
 
-        Set<Node> nodesTancar = new HashSet<>();
+        Set<NodeClass> nodesTancar = new HashSet<>();
 
         for (Map.Entry<Terminal, Boolean> entrada : aiguaArriba.entrySet()) {
             Terminal terminal = entrada.getKey();
             boolean arribaAigua = entrada.getValue();
 
-            Node node = x.node(terminal.getID());
-            NodeClass nodeClasse = x.getNode(node.getId());
+            NodeClass nodeClasse = x.getNode(terminal.getID());
 
             if (!arribaAigua && nodeClasse.aixetaOberta()) {
-                nodesTancar.add(node);
+                nodesTancar.add(nodeClasse);
             }
         }
 
         return nodesTancar;
     }
-/*
-    public static List<Node> nodesOrdenats(Coordenades c, Set<Node> cjtNodes) {
-        // Pre: ---
-        // Post: Retorna els nodes de cjtNodes ordenats segons la seva distància a c i, en cas d'empat, per identificador.
-
-        return cjtNodes.stream()
-                .sorted(Comparator
-                        .comparingDouble(node -> {
-                            // Obtenim l'objecte `NodeClass` associat al node
-                            NodeClass nodeClass = node.getAttribute("node", NodeClass.class);
-
-                            // Si el nodeClass és nul (pot ser per falta de l'atribut), evitem errors retornant una gran distància
-                            if (nodeClass == null) {
-                                return Double.MAX_VALUE;
-                            }
-
-                            // Obtenim les coordenades associades al node
-                            Coordenades coordenadesNode = nodeClass.getCoordenades();
-
-                            // Calculem la distància a les coordenades de referència
-                            return c.distancia(coordenadesNode);
-                        })
-                        // En cas d'empat en la distància, s'ordenen per identificador
-                        .thenComparing(Node::getId))
-                .collect(Collectors.toList());
-    }*/
+    /**
+     * @brief Retorna els n nodes de la xarxa més propers a unes coordenades
+     * @pre n >= 0
+     * @post Retorna els min(n, nombre de nodes) nodes de x més propers a c, ordenats segons la seva distància
+     * geodèsica a c i, en cas d'empat, per identificador
+     * @param x Xarxa on es fa la cerca
+     * @param c Coordenades de referència
+     * @param n Nombre de nodes a retornar
+     * @return Llista dels nodes més propers a c
+     */
+    public static List<NodeClass> nodesOrdenats(Xarxa x, Coordenades c, int n) {
+        // Pre: n >= 0
+        // Post: Retorna els n nodes més propers a c ordenats segons la seva distància a c i, en cas d'empat, per
+        // identificador.
+
+        // L'índex desempata per ordre d'inserció: se li demanen també els nodes empatats amb l'últim i es retallen
+        // després d'ordenar-los per identificador
+        List<NodeClass> nodes = x.nodesMesPropersAmbEmpats(c, n);
+        nodes.sort(Comparator
+                .comparingDouble((NodeClass node) -> c.distancia(node.getCoordenades()))
+                .thenComparing(NodeClass::getID));
+        return nodes.size() > n ? new ArrayList<>(nodes.subList(0, n)) : nodes;
+    }
 
 
     /**
@@ -174,150 +135,89 @@ public class GestorXarxes {
             return -1; //La xarxa no es un arbre o l'origen no esta obert
         }
 
-        Set<NodeClass> visitats = new HashSet<>();
-        Queue<NodeClass> cua = new LinkedList<>();
-        NodeClass origen = x.getNode(nodeOrigen.getID());
-
-        cua.add(origen);
-        visitats.add(origen);
-
-        float cabalMinim = 0;
-
-        while (!cua.isEmpty()) {
-            NodeClass actual = cua.poll();
-            List<Node> veins = x.getNeighbors(x.node(actual.getID()));
-
-            for (Node vei : veins) {
-                NodeClass veiClasse = x.getNode(vei.getId());
-
-                // Check if the node is open
-                if (!veiClasse.aixetaOberta()) {
-                    continue;
-                }
-
-                if (!visitats.contains(veiClasse)) {
-                    visitats.add(veiClasse);
-                    cua.add(veiClasse);
-                }
-
-                if (veiClasse.getId().startsWith("T")) {
-                    float demanda = veiClasse.getDemanda();
-                    cabalMinim += (percentatgeDemandaSatisfet / 100) * demanda;
-                }
-            }
-        }
-
-        return cabalMinim;
+        // La demanda dels terminals accessibles per aixetes obertes es manté indexada a la xarxa
+        return (percentatgeDemandaSatisfet / 100) * (float) x.demandaSubarbre(nodeOrigen);
     }
 
     /**
-     * @brief Calcula el flux màxim utilitzant l'algorisme de Ford-Fulkerson
+     * @brief Calcula el flux màxim des d'un origen fins al primer terminal de la xarxa
      * @pre ---
-     * @post Visualitza la xarxa amb el flux màxim i imprimeix el flux màxim
+     * @post Imprimeix el flux màxim i, si la xarxa té visualitzador, hi dibuixa el flux
      * @param x Xarxa on es realitza la comprovació
      * @param nodeOrigen Node origen de la comprovació
      */
     public static void fluxMaxim(Xarxa x, Origen nodeOrigen) {
+        StringWriter resultat = new StringWriter();
+        fluxMaxim(x, nodeOrigen, new PrintWriter(resultat));
+        System.out.print(resultat);
+    }
+
+    /**
+     * @brief Calcula el flux màxim des d'un origen fins al primer terminal de la xarxa
+     * @pre ---
+     * @post Escriu el flux màxim a sortida i, si la xarxa té visualitzador, hi dibuixa el flux
+     * @param x Xarxa on es realitza la comprovació
+     * @param nodeOrigen Node origen de la comprovació
+     * @param sortida On s'escriu el resultat
+     */
+    public static void fluxMaxim(Xarxa x, Origen nodeOrigen, PrintWriter sortida) {
 
-        x.calcularCabals();
-        x.establirDemandaICabalConnexions();
-        x.calcularCabals();
-        x.establirDemandaICabalConnexions();
-        x.calcularCabals();
-        x.establirDemandaICabalConnexions();
+        // Dinic només fa servir les capacitats i les aixetes: no cal recalcular els cabals, que ja estan al dia
         // Troba el node terminal
         Terminal nodeTerminal = x.buscarTerminal();
 
-        // Calcula el flux màxim utilitzant l'algorisme de Ford-Fulkerson
-        float maxFlow = edmondsKarp(x, nodeOrigen, nodeTerminal);
+        if (x.getNode(nodeOrigen.getID()) == null || nodeTerminal == null) {
+            sortida.println("No es pot calcular el flux màxim: falta l'origen o un terminal");
+            return;
+        }
+
+        // Calcula el flux màxim utilitzant l'algorisme de Dinic
+        float maxFlow = fluxMaxim(x, nodeOrigen, nodeTerminal);
 
         // Visualitza la xarxa amb el flux màxim
 
         x.dibuixarFlux();
 
-        System.out.println("Flux màxim: " + maxFlow);
+        sortida.println("Flux màxim: " + maxFlow);
 
     }
 
     /**
-     * @brief Calcula el flux màxim utilitzant l'algorisme de Edmonds-Karp
-     * @pre ---
-     * @post Retorna el flux màxim
+     * @brief Calcula el flux màxim entre dos nodes utilitzant l'algorisme de Dinic
+     * @pre source i sink pertanyen a la xarxa x
+     * @post Retorna el flux màxim de source a sink, respectant la capacitat de les canonades i les aixetes tancades
      * @param x Xarxa on es realitza la comprovació
      * @param source Node origen de la comprovació
      * @param sink Node destí de la comprovació
      * @return Flux màxim
      */
-    public static float edmondsKarp(Xarxa x, Origen source, Terminal sink) {
-        float maxFlow = 0;
-
-        // Crea un graf residual i omple'l amb les capacitats donades en el graf original
-        Xarxa residualGraph = x.clonar();
-
-        residualGraph.calcularCabals();
-        residualGraph.establirDemandaICabalConnexions();
-        residualGraph.calcularCabals();
-        residualGraph.establirDemandaICabalConnexions();
-        residualGraph.calcularCabals();
-        residualGraph.establirDemandaICabalConnexions();
-
-        Map<NodeClass, NodeClass> previousNode = new HashMap<>();
-
-        // Comença des de l'origen i explora el graf residual utilitzant Breadth-First Search
-        while (BFS(residualGraph, source, sink, previousNode)) {
-            // Troba el flux màxim a través del camí trobat
-            float pathFlow = Float.MAX_VALUE;
-            for (NodeClass v = sink; v != source; v = previousNode.get(v)) {
-                NodeClass u = previousNode.get(v);
-                Canonada canonada = residualGraph.getCanonada(u, v);
-                pathFlow = Math.min(pathFlow, canonada.getDemanda());
-            }
-
-            // Actualitza les capacitats residuals de les arestes i les arestes inverses al llarg del camí
-            for (NodeClass v = sink; v != source; v = previousNode.get(v)) {
-                NodeClass u = previousNode.get(v);
-                Edge edge = residualGraph.getEdgeFromCanonada(new Canonada(u, v, 0f));
-                Canonada canonada = edge.getAttribute("canonada", Canonada.class);
-                canonada.setCapacitat(canonada.getCapacitat() - pathFlow);
-                edge.setAttribute("canonada", canonada);
-            }
-
-            // Afegeix el flux del camí al flux total
-            maxFlow += pathFlow;
-        }
-
-        // Retorna el flux màxim
-        return maxFlow;
+    public static float fluxMaxim(Xarxa x, NodeClass source, NodeClass sink) {
+        return (float) x.motorFluxMaxim().calcular(x.nucli(), x.index(source.getID()), x.index(sink.getID()));
     }
 
-    private static boolean BFS(Xarxa residualGraph, Origen source, Terminal sink, Map<NodeClass, NodeClass> previousNode) {
-        Set<NodeClass> visited = new HashSet<>();
-        Queue<NodeClass> queue = new LinkedList<>();
-        queue.add(source);
-        visited.add(source);
-
-        residualGraph.dibuixar();
-
-        while (!queue.isEmpty()) {
-            NodeClass node = queue.poll();
-            for (Node neighbor : residualGraph.getNeighbors(residualGraph.node(node.getID()))) {
-                NodeClass neighborNode = residualGraph.getNode(neighbor.getId());
-                Canonada canonada = residualGraph.getCanonada(node, neighborNode);
-                if (canonada != null && canonada.getCapacitat() > 0.00 && !visited.contains(neighborNode)) {
-                    System.out.println("Entra");
-                    previousNode.put(neighborNode, node);
-                    visited.add(neighborNode);
-                    queue.add(neighborNode);
-                    if (neighborNode.getID().equals(sink.getID())) {
-                        return true;
-                    }
-                }
+    /**
+     * @brief Calcula el flux màxim que la xarxa pot lliurar des de tots els orígens a tots els terminals
+     * @pre ---
+     * @post Retorna el flux que arriba a cada terminal obert quan la xarxa lliura el màxim flux total, amb els
+     * orígens oberts limitats pel seu cabal potencial i els terminals per la seva demanda. Els terminals apareixen en
+     * ordre d'inserció a la xarxa
+     * @param x Xarxa on es realitza el càlcul
+     * @return Flux que arriba a cada terminal
+     */
+    public static Map<Terminal, Float> fluxMaximSistema(Xarxa x) {
+        NucliXarxa nucli = x.nucli();
+        FluxMaxim motor = x.motorFluxMaxim();
+        motor.calcularSistema(nucli);
+
+        Map<Terminal, Float> fluxTerminals = new LinkedHashMap<>();
+        for (int v = 0; v < nucli.nombreNodes(); v++) {
+            if (nucli.tipus(v) == NucliXarxa.TERMINAL && nucli.aixetaOberta(v)) {
+                fluxTerminals.put(x.terminal(x.idNode(v)), motor.fluxTerminal(v));
             }
         }
-        return false;
+        return fluxTerminals;
     }
 
-
     /**
      * @brief Troba un camí residual des del node d'origen fins a qualsevol node terminal
      * @pre ---
@@ -327,37 +227,35 @@ public class GestorXarxes {
      * @param fluxArestes Mapa de fluxos per cada aresta
      * @return Mapa que representa un camí residual des del node d'origen fins a qualsevol node terminal, o null si no n'hi ha cap
      */
-    private static Map<Edge, Float> buscarCamiResidual(Xarxa x, NodeClass origen, Map<Edge, Float> fluxArestes) {
-        Map<NodeClass, Edge> previ = new HashMap<>();
+    private static Map<Canonada, Float> buscarCamiResidual(Xarxa x, NodeClass origen, Map<Canonada, Float> fluxArestes) {
+        Map<NodeClass, Canonada> previ = new HashMap<>();
         Queue<NodeClass> cua = new LinkedList<>();
         cua.add(origen);
         previ.put(origen, null);
 
         while (!cua.isEmpty()) {
             NodeClass actual = cua.poll();
-            List<Node> veins = x.getNeighbors(x.node(actual.getID()));
 
-            for (Node vei : veins) {
-                NodeClass veiClasse = x.getNode(vei.getId());
-                Edge aresta = x.getEdgeFromCanonada(new Canonada(actual, veiClasse, 0f));
-                float capacitat = aresta.getAttribute("canonada", Canonada.class).getCapacitat();
-                float fluxActual = fluxArestes.getOrDefault(aresta, 0f);
+            for (Canonada canonada : x.getCanonadesSortints(actual)) {
+                NodeClass veiClasse = canonada.node2();
+                float capacitat = canonada.getCapacitat();
+                float fluxActual = fluxArestes.getOrDefault(canonada, 0f);
 
                 // Comprova si el camí és residual
                 if (!previ.containsKey(veiClasse) && fluxActual < capacitat) {
-                    previ.put(veiClasse, aresta);
+                    previ.put(veiClasse, canonada);
                     cua.add(veiClasse);
 
                     // Si és un terminal, es pot finalitzar la cerca
-                    if (veiClasse instanceof Terminal) {
-                        Map<Edge, Float> camiResidual = new HashMap<>();
+                    if (veiClasse.getID().startsWith("T")) {
+                        Map<Canonada, Float> camiResidual = new HashMap<>();
                         NodeClass node = veiClasse;
-                        while (node != origen) {
-                            Edge arestaResidual = previ.get(node);
-                            float capacitatResidual = arestaResidual.getAttribute("canonada", Canonada.class).getCapacitat();
-                            float fluxResidual = capacitatResidual - fluxArestes.getOrDefault(arestaResidual, 0f);
-                            camiResidual.put(arestaResidual, fluxResidual);
-                            node = arestaResidual.getSourceNode().getAttribute("node", NodeClass.class);
+                        while (!node.equals(origen)) {
+                            Canonada canonadaResidual = previ.get(node);
+                            float capacitatResidual = canonadaResidual.getCapacitat();
+                            float fluxResidual = capacitatResidual - fluxArestes.getOrDefault(canonadaResidual, 0f);
+                            camiResidual.put(canonadaResidual, fluxResidual);
+                            node = canonadaResidual.node1();
                         }
                         return camiResidual;
                     }
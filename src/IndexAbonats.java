@@ -0,0 +1,495 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * @file IndexAbonats.java
+ * @brief Abonaments dels clients als terminals d'una xarxa de distribució d'aigua
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class IndexAbonats
+ * @brief Guarda en vectors primitius els abonaments (client, terminal) i el consum de cada client
+ * @details Els clients tenen un índex propi, assignat per ordre d'arribada. Els abonaments es numeren en l'ordre en
+ * què es fan i formen dues llistes encadenades: la dels abonaments de cada client i la dels clients de cada terminal,
+ * totes dues amb l'abonament més recent al capdavant. Una taula de dispersió oberta (client, terminal) -> abonament
+ * detecta els abonaments repetits en temps constant.
+ *
+ * El consum de cada client és la suma de les demandes dels seus terminals i s'actualitza quan canvia una demanda,
+ * recorrent només els clients d'aquell terminal. Els clients també formen un monticle indexat per consum, de manera
+ * que els k clients amb més consum s'obtenen en temps O(k log k). Quan canvia la demanda d'un terminal amb tants
+ * clients que reordenar-los un a un costaria més que refer el monticle, es refà sencer, en temps lineal, a la consulta
+ * següent.
+ *
+ * Només es pot desfer l'últim abonament; si el client es queda sense abonaments, també és l'últim client i
+ * desapareix.
+ */
+public class IndexAbonats {
+    //Descripció general: Abonaments dels clients als terminals d'una xarxa de distribució d'aigua
+
+    private static final int CAPACITAT_INICIAL = 16;
+
+    private TaulaIdentificadors clients = new TaulaIdentificadors();
+    private double[] consum = new double[CAPACITAT_INICIAL];          // suma de demandes de cada client
+    private int[] primerDelClient = new int[CAPACITAT_INICIAL];       // abonament més recent de cada client
+
+    private int nombreAbonaments;
+    private int[] clientAbonament = new int[CAPACITAT_INICIAL];
+    private int[] terminalAbonament = new int[CAPACITAT_INICIAL];
+    private int[] seguentDelClient = new int[CAPACITAT_INICIAL];      // abonament anterior del mateix client, o -1
+    private int[] seguentDelTerminal = new int[CAPACITAT_INICIAL];    // abonament anterior al mateix terminal, o -1
+    private int[] primerDelTerminal = new int[0];                     // abonament més recent de cada terminal, o -1
+
+    // Taula de dispersió oberta (client, terminal) -> abonament; -1 indica una posició buida
+    private long[] claus = new long[2 * CAPACITAT_INICIAL];
+    private int[] abonamentsTaula = new int[2 * CAPACITAT_INICIAL];
+
+    // Monticle de clients: el de més consum a l'arrel; posicioMonticle[c] és la posició del client c
+    private int[] monticle = new int[CAPACITAT_INICIAL];
+    private int[] posicioMonticle = new int[CAPACITAT_INICIAL];
+    private int midaMonticle;
+    private boolean monticleOrdenat = true; // si és fals, es reordena sencer a la propera consulta
+    private int[] clientsDelTerminal = new int[0];
+
+    private boolean compartit; // els vectors es comparteixen amb una còpia
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Crea un índex sense abonaments
+     */
+    public IndexAbonats() {
+        Arrays.fill(abonamentsTaula, -1);
+    }
+
+    /**
+     * @brief Abona un client a un terminal
+     * @pre terminal >= 0; demanda és la demanda actual del terminal
+     * @post Si el client no estava abonat al terminal, ara ho està, el seu consum inclou demanda i retorna true; si ja
+     * ho estava, no fa res i retorna false
+     * @param idClient Identificador del client
+     * @param terminal Índex del terminal al nucli
+     * @param demanda Demanda actual del terminal
+     * @return true si s'ha fet l'abonament
+     */
+    public boolean abonar(String idClient, int terminal, float demanda) {
+        int client = clients.index(idClient);
+        if (client != -1 && cercar(client, terminal) != -1) {
+            return false;
+        }
+        separar();
+        if (client == -1) {
+            client = afegirClient(idClient);
+        }
+
+        int a = nombreAbonaments++;
+        if (a == clientAbonament.length) {
+            int capacitat = a + (a >> 1) + 1;
+            clientAbonament = Arrays.copyOf(clientAbonament, capacitat);
+            terminalAbonament = Arrays.copyOf(terminalAbonament, capacitat);
+            seguentDelClient = Arrays.copyOf(seguentDelClient, capacitat);
+            seguentDelTerminal = Arrays.copyOf(seguentDelTerminal, capacitat);
+        }
+        if (terminal >= primerDelTerminal.length) {
+            int mida = primerDelTerminal.length;
+            primerDelTerminal = Arrays.copyOf(primerDelTerminal, Math.max(terminal + 1, mida + (mida >> 1) + 1));
+            Arrays.fill(primerDelTerminal, mida, primerDelTerminal.length, -1);
+            clientsDelTerminal = Arrays.copyOf(clientsDelTerminal, primerDelTerminal.length);
+        }
+        clientsDelTerminal[terminal]++;
+        clientAbonament[a] = client;
+        terminalAbonament[a] = terminal;
+        seguentDelClient[a] = primerDelClient[client];
+        primerDelClient[client] = a;
+        seguentDelTerminal[a] = primerDelTerminal[terminal];
+        primerDelTerminal[terminal] = a;
+
+        if (2 * nombreAbonaments > claus.length) {
+            claus = new long[claus.length * 2];
+            abonamentsTaula = new int[claus.length];
+            Arrays.fill(abonamentsTaula, -1);
+            for (int b = 0; b < nombreAbonaments; b++) {
+                inserir(b);
+            }
+        } else {
+            inserir(a);
+        }
+
+        consum[client] += demanda;
+        pujar(posicioMonticle[client]);
+        return true;
+    }
+
+    /**
+     * @brief Desfà l'últim abonament
+     * @pre nombreAbonaments() > 0; demanda és la demanda actual del terminal de l'últim abonament
+     * @post L'últim abonament ja no hi és; si el client no en tenia cap altre, el client tampoc
+     * @param demanda Demanda actual del terminal de l'últim abonament
+     */
+    public void eliminarUltim(float demanda) {
+        separar();
+        int a = --nombreAbonaments;
+        int client = clientAbonament[a];
+        int terminal = terminalAbonament[a];
+        eliminarDeTaula(a);
+        primerDelClient[client] = seguentDelClient[a];
+        primerDelTerminal[terminal] = seguentDelTerminal[a];
+        clientsDelTerminal[terminal]--;
+
+        if (primerDelClient[client] == -1) {
+            // El primer abonament d'un client el dona d'alta: si no en té cap més, és l'últim client
+            treureDelMonticle(client);
+            clients.eliminarUltim();
+        } else {
+            consum[client] -= demanda;
+            baixar(posicioMonticle[client]);
+        }
+    }
+
+    /**
+     * @brief Actualitza el consum dels clients d'un terminal després de canviar-ne la demanda
+     * @pre ---
+     * @post El consum de cada client abonat al terminal reflecteix la nova demanda
+     * @param terminal Índex del terminal
+     * @param anterior Demanda anterior del terminal
+     * @param nova Demanda nova del terminal
+     */
+    public void demandaCanviada(int terminal, float anterior, float nova) {
+        if (terminal >= primerDelTerminal.length || primerDelTerminal[terminal] == -1 || anterior == nova) {
+            return;
+        }
+        separar();
+        double diferencia = (double) nova - anterior;
+        // Si el terminal té tants clients que reordenar-los un a un costaria més que refer el monticle, es refà a la
+        // propera consulta
+        if ((long) clientsDelTerminal[terminal] * (32 - Integer.numberOfLeadingZeros(midaMonticle)) > midaMonticle) {
+            monticleOrdenat = false;
+        }
+        for (int a = primerDelTerminal[terminal]; a != -1; a = seguentDelTerminal[a]) {
+            int client = clientAbonament[a];
+            consum[client] += diferencia;
+            if (!monticleOrdenat) {
+                continue;
+            }
+            if (diferencia > 0) {
+                pujar(posicioMonticle[client]);
+            } else {
+                baixar(posicioMonticle[client]);
+            }
+        }
+    }
+
+    /**
+     * @brief Retorna el consum d'un client
+     * @pre ---
+     * @post Retorna la suma de les demandes dels terminals als quals està abonat el client, o 0 si no és client
+     * @param idClient Identificador del client
+     * @return Consum del client
+     */
+    public double consum(String idClient) {
+        int client = clients.index(idClient);
+        return client == -1 ? 0 : consum[client];
+    }
+
+    /**
+     * @brief Retorna els clients abonats a un terminal
+     * @pre terminal >= 0
+     * @post Retorna els identificadors dels clients abonats al terminal, del més recent al més antic
+     * @param terminal Índex del terminal
+     * @return Clients del terminal
+     */
+    public List<String> clientsTerminal(int terminal) {
+        List<String> resultat = new ArrayList<>();
+        if (terminal < primerDelTerminal.length) {
+            for (int a = primerDelTerminal[terminal]; a != -1; a = seguentDelTerminal[a]) {
+                resultat.add(clients.id(clientAbonament[a]));
+            }
+        }
+        return resultat;
+    }
+
+    /**
+     * @brief Ordena el monticle de consums si no ho està
+     * @pre ---
+     * @post El monticle de consums està ordenat i mesConsum ja no l'ha d'ordenar
+     */
+    public void ordenar() {
+        if (!monticleOrdenat) {
+            separar();
+            monticleOrdenat = true;
+            for (int p = midaMonticle / 2 - 1; p >= 0; p--) {
+                baixar(p);
+            }
+        }
+    }
+
+    /**
+     * @brief Retorna els clients amb més consum
+     * @pre k >= 0
+     * @post Retorna com a molt k identificadors de clients, de més a menys consum; a igual consum, primer el client
+     * més antic
+     * @param k Nombre de clients
+     * @return Clients amb més consum
+     */
+    public List<String> mesConsum(int k) {
+        int n = midaMonticle;
+        List<String> resultat = new ArrayList<>(Math.min(k, n));
+        if (k <= 0 || n == 0) {
+            return resultat;
+        }
+        ordenar();
+        // Recorregut del monticle per ordre de consum: la frontera conté posicions del monticle
+        PriorityQueue<Integer> frontera = new PriorityQueue<>(
+                (p, q) -> p.equals(q) ? 0 : (major(monticle[p], monticle[q]) ? -1 : 1));
+        frontera.add(0);
+        while (!frontera.isEmpty() && resultat.size() < k) {
+            int p = frontera.poll();
+            resultat.add(clients.id(monticle[p]));
+            if (2 * p + 1 < n) {
+                frontera.add(2 * p + 1);
+            }
+            if (2 * p + 2 < n) {
+                frontera.add(2 * p + 2);
+            }
+        }
+        return resultat;
+    }
+
+    /**
+     * @brief Retorna el nombre d'abonaments
+     * @pre ---
+     * @post Retorna el nombre d'abonaments fets
+     * @return Nombre d'abonaments
+     */
+    public int nombreAbonaments() {
+        return nombreAbonaments;
+    }
+
+    /**
+     * @brief Retorna el terminal de l'últim abonament
+     * @pre nombreAbonaments() > 0
+     * @post Retorna l'índex del terminal de l'últim abonament fet
+     * @return Índex del terminal
+     */
+    public int terminalUltim() {
+        return terminalAbonament[nombreAbonaments - 1];
+    }
+
+    /**
+     * @brief Retorna el client d'un abonament
+     * @pre 0 <= abonament < nombreAbonaments()
+     * @post Retorna l'identificador del client de l'abonament, comptant els abonaments en l'ordre en què es van fer
+     * @param abonament Índex de l'abonament
+     * @return Identificador del client
+     */
+    public String client(int abonament) {
+        return clients.id(clientAbonament[abonament]);
+    }
+
+    /**
+     * @brief Retorna el terminal d'un abonament
+     * @pre 0 <= abonament < nombreAbonaments()
+     * @post Retorna l'índex al nucli del terminal de l'abonament
+     * @param abonament Índex de l'abonament
+     * @return Índex del terminal
+     */
+    public int terminal(int abonament) {
+        return terminalAbonament[abonament];
+    }
+
+    /**
+     * @brief Retorna una còpia independent de l'índex
+     * @pre ---
+     * @post Retorna un índex amb el mateix contingut, en temps constant; modificar-ne un no afecta l'altre
+     * @return Còpia de l'índex
+     */
+    public IndexAbonats copia() {
+        IndexAbonats copia = new IndexAbonats();
+        copia.clients = clients.copia();
+        copia.consum = consum;
+        copia.primerDelClient = primerDelClient;
+        copia.nombreAbonaments = nombreAbonaments;
+        copia.clientAbonament = clientAbonament;
+        copia.terminalAbonament = terminalAbonament;
+        copia.seguentDelClient = seguentDelClient;
+        copia.seguentDelTerminal = seguentDelTerminal;
+        copia.primerDelTerminal = primerDelTerminal;
+        copia.claus = claus;
+        copia.abonamentsTaula = abonamentsTaula;
+        copia.monticle = monticle;
+        copia.posicioMonticle = posicioMonticle;
+        copia.midaMonticle = midaMonticle;
+        copia.monticleOrdenat = monticleOrdenat;
+        copia.clientsDelTerminal = clientsDelTerminal;
+        copia.compartit = true;
+        compartit = true;
+        return copia;
+    }
+
+    private int afegirClient(String idClient) {
+        int client = clients.afegir(idClient);
+        if (client == consum.length) {
+            int capacitat = client + (client >> 1) + 1;
+            consum = Arrays.copyOf(consum, capacitat);
+            primerDelClient = Arrays.copyOf(primerDelClient, capacitat);
+            monticle = Arrays.copyOf(monticle, capacitat);
+            posicioMonticle = Arrays.copyOf(posicioMonticle, capacitat);
+        }
+        consum[client] = 0;
+        primerDelClient[client] = -1;
+        colocar(midaMonticle, client);
+        pujar(midaMonticle++);
+        return client;
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Monticle de clients
+    //-------------------------------------------------------------------------------------------------
+
+    /**
+     * @brief Diu si un client va abans que un altre al monticle
+     * @pre ---
+     * @post Retorna true si a té més consum que b, o el mateix consum i és més antic
+     */
+    private boolean major(int a, int b) {
+        return consum[a] > consum[b] || (consum[a] == consum[b] && a < b);
+    }
+
+    private void pujar(int p) {
+        if (!monticleOrdenat) {
+            return;
+        }
+        int client = monticle[p];
+        while (p > 0) {
+            int pare = (p - 1) >>> 1;
+            if (!major(client, monticle[pare])) {
+                break;
+            }
+            colocar(p, monticle[pare]);
+            p = pare;
+        }
+        colocar(p, client);
+    }
+
+    private void baixar(int p) {
+        if (!monticleOrdenat) {
+            return;
+        }
+        int n = midaMonticle;
+        int client = monticle[p];
+        while (2 * p + 1 < n) {
+            int fill = 2 * p + 1;
+            if (fill + 1 < n && major(monticle[fill + 1], monticle[fill])) {
+                fill++;
+            }
+            if (!major(monticle[fill], client)) {
+                break;
+            }
+            colocar(p, monticle[fill]);
+            p = fill;
+        }
+        colocar(p, client);
+    }
+
+    private void colocar(int p, int client) {
+        monticle[p] = client;
+        posicioMonticle[client] = p;
+    }
+
+    /**
+     * @brief Treu un client del monticle
+     * @pre client és al monticle
+     * @post El monticle conté la resta de clients
+     */
+    private void treureDelMonticle(int client) {
+        int p = posicioMonticle[client];
+        int ultima = --midaMonticle;
+        if (p != ultima) {
+            int substitut = monticle[ultima];
+            colocar(p, substitut);
+            pujar(p);
+            baixar(posicioMonticle[substitut]);
+        }
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Taula (client, terminal)
+    //-------------------------------------------------------------------------------------------------
+
+    private static long clau(int client, int terminal) {
+        return ((long) client << 32) | (terminal & 0xFFFFFFFFL);
+    }
+
+    private static int dispersio(long clau) {
+        long h = clau * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int cercar(int client, int terminal) {
+        long c = clau(client, terminal);
+        int mascara = claus.length - 1;
+        for (int i = dispersio(c) & mascara; abonamentsTaula[i] != -1; i = (i + 1) & mascara) {
+            if (claus[i] == c) {
+                return abonamentsTaula[i];
+            }
+        }
+        return -1;
+    }
+
+    private void inserir(int a) {
+        long c = clau(clientAbonament[a], terminalAbonament[a]);
+        int mascara = claus.length - 1;
+        int i = dispersio(c) & mascara;
+        while (abonamentsTaula[i] != -1) {
+            i = (i + 1) & mascara;
+        }
+        claus[i] = c;
+        abonamentsTaula[i] = a;
+    }
+
+    /**
+     * @brief Treu un abonament de la taula d'adreçament obert
+     * @pre L'abonament a és a la taula
+     * @post L'abonament ja no hi és; les entrades següents del mateix grup es desplacen enrere perquè es continuïn
+     * trobant
+     */
+    private void eliminarDeTaula(int a) {
+        int mascara = claus.length - 1;
+        int i = dispersio(clau(clientAbonament[a], terminalAbonament[a])) & mascara;
+        while (abonamentsTaula[i] != a) {
+            i = (i + 1) & mascara;
+        }
+        abonamentsTaula[i] = -1;
+        for (int j = (i + 1) & mascara; abonamentsTaula[j] != -1; j = (j + 1) & mascara) {
+            int ideal = dispersio(claus[j]) & mascara;
+            // L'entrada de j es pot moure al forat i si la seva posició ideal no és dins de (i, j]
+            if (((j - ideal) & mascara) >= ((j - i) & mascara)) {
+                claus[i] = claus[j];
+                abonamentsTaula[i] = abonamentsTaula[j];
+                abonamentsTaula[j] = -1;
+                i = j;
+            }
+        }
+    }
+
+    private void separar() {
+        if (compartit) {
+            consum = consum.clone();
+            primerDelClient = primerDelClient.clone();
+            clientAbonament = clientAbonament.clone();
+            terminalAbonament = terminalAbonament.clone();
+            seguentDelClient = seguentDelClient.clone();
+            seguentDelTerminal = seguentDelTerminal.clone();
+            primerDelTerminal = primerDelTerminal.clone();
+            claus = claus.clone();
+            abonamentsTaula = abonamentsTaula.clone();
+            monticle = monticle.clone();
+            posicioMonticle = posicioMonticle.clone();
+            clientsDelTerminal = clientsDelTerminal.clone();
+            compartit = false;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+
+/**
+ * @file IndexDemandes.java
+ * @brief Índex de la demanda dels terminals que pengen de cada node d'una xarxa de distribució d'aigua
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class IndexDemandes
+ * @brief Arbre de segments sobre un recorregut en profunditat (Euler) de les canonades d'un nucli
+ * @details Els nodes es numeren en preordre recorrent les canonades sortints des de cada node sense canonades
+ * entrants, de manera que, en una component que és un arbre, els nodes que pengen d'un node v ocupen les posicions
+ * [posicio[v], fi[v]). Cada fulla de l'arbre de segments guarda la demanda del terminal d'aquella posició (0 si no és un
+ * terminal) i quantes aixetes tancades hi ha al camí des de l'arrel fins al node, inclòs. Cada segment guarda el mínim
+ * d'aquest comptador i la suma de demandes de les fulles que l'assoleixen; tancar l'aixeta de v suma 1 al comptador de
+ * tot el rang de v.
+ *
+ * Així, la demanda que arriba per aixetes obertes als terminals que pengen de v és la suma de les fulles del seu rang
+ * amb comptador 0, en temps O(log n). Canviar una demanda o una aixeta també costa O(log n). Si la topologia del nucli
+ * canvia, l'índex es reconstrueix sencer a la consulta següent.
+ */
+public class IndexDemandes {
+    //Descripció general: Índex de la demanda dels terminals que pengen de cada node d'una xarxa
+
+    private int nombreNodes;
+    private int versio = -1;                  // versió de la topologia del nucli indexada, o -1
+    private int[] posicio = new int[0];       // posició en preordre de cada node
+    private int[] fi = new int[0];            // final (exclòs) del rang dels nodes que pengen de cada node
+
+    // Arbre de segments: el segment s té fills 2s i 2s + 1; l'arrel és el segment 1
+    private int[] minim = new int[0];         // mínim del comptador d'aixetes tancades, inclòs pendent[s]
+    private int[] pendent = new int[0];       // aixetes tancades comunes a tot el segment
+    private double[] suma = new double[0];    // suma de les demandes de les fulles que assoleixen el mínim
+    private boolean compartit;                // els vectors es comparteixen amb una còpia
+
+    /**
+     * @brief Retorna la demanda que reben els terminals que pengen d'un node
+     * @pre 0 <= arrel < nucli.nombreNodes(); la component d'arrel és un arbre amb arrel a arrel
+     * @post Retorna la suma de les demandes dels terminals de la component d'arrel, sense comptar arrel, als quals
+     * arriba l'aigua sense passar per cap aixeta tancada, o 0 si l'aixeta d'arrel està tancada
+     * @param nucli Nucli de la xarxa
+     * @param arrel Índex del node arrel
+     * @return Demanda total dels terminals que pengen de l'arrel
+     */
+    public double demandaSubarbre(NucliXarxa nucli, int arrel) {
+        sincronitzar(nucli);
+        return suma(1, 0, nombreNodes, posicio[arrel] + 1, fi[arrel], 0);
+    }
+
+    /**
+     * @brief Actualitza l'índex després de canviar la demanda d'un terminal
+     * @pre 0 <= node < nucli.nombreNodes() i node és un terminal
+     * @post Si l'índex està al dia, la fulla del node té la nova demanda; si no, es reconstruirà a la consulta següent
+     * @param nucli Nucli de la xarxa
+     * @param node Índex del terminal
+     * @param demanda Nova demanda
+     */
+    public void demandaCanviada(NucliXarxa nucli, int node, float demanda) {
+        if (versio != nucli.versioTopologia() || node >= nombreNodes) {
+            return;
+        }
+        separar();
+        establirFulla(1, 0, nombreNodes, posicio[node], demanda);
+    }
+
+    /**
+     * @brief Actualitza l'índex després d'obrir o tancar una aixeta
+     * @pre 0 <= node < nucli.nombreNodes() i l'aixeta del node ha canviat d'estat
+     * @post Si l'índex està al dia, el comptador d'aixetes tancades del rang del node reflecteix el canvi; si no, es
+     * reconstruirà a la consulta següent
+     * @param nucli Nucli de la xarxa
+     * @param node Índex del node
+     * @param oberta Nou estat de l'aixeta
+     */
+    public void aixetaCanviada(NucliXarxa nucli, int node, boolean oberta) {
+        if (versio != nucli.versioTopologia() || node >= nombreNodes) {
+            return;
+        }
+        separar();
+        sumarRang(1, 0, nombreNodes, posicio[node], fi[node], oberta ? -1 : 1);
+    }
+
+    /**
+     * @brief Retorna una còpia independent de l'índex
+     * @pre ---
+     * @post Retorna un índex amb el mateix contingut, en temps constant; modificar-ne un no afecta l'altre
+     * @return Còpia de l'índex
+     */
+    public IndexDemandes copia() {
+        IndexDemandes copia = new IndexDemandes();
+        copia.nombreNodes = nombreNodes;
+        copia.versio = versio;
+        copia.posicio = posicio;
+        copia.fi = fi;
+        copia.minim = minim;
+        copia.pendent = pendent;
+        copia.suma = suma;
+        copia.compartit = true;
+        compartit = true;
+        return copia;
+    }
+
+    /**
+     * @brief Reconstrueix l'índex si la topologia del nucli ha canviat
+     * @pre ---
+     * @post L'índex correspon als nodes, canonades, demandes i aixetes actuals del nucli
+     */
+    private void sincronitzar(NucliXarxa nucli) {
+        if (versio == nucli.versioTopologia()) {
+            return;
+        }
+        int n = nucli.nombreNodes();
+        nombreNodes = n;
+        compartit = false;
+        posicio = new int[n];
+        fi = new int[n];
+        int[] tancades = new int[n];          // aixetes tancades des de l'arrel, per posició
+        double[] demandes = new double[n];    // demanda de cada posició
+        Arrays.fill(posicio, -1);
+
+        // Recorregut en profunditat iteratiu: pila de nodes i de la propera sortida a visitar de cadascun
+        int[] pila = new int[n];
+        int[] seguent = new int[n];
+        int p = 0;
+        for (int pas = 0; pas < 2; pas++) {
+            for (int r = 0; r < n; r++) {
+                // Primer les arrels; després els nodes que només són accessibles des d'un cicle
+                if (posicio[r] >= 0 || (pas == 0 && nucli.grauEntrada(r) > 0)) {
+                    continue;
+                }
+                int cim = 0;
+                p = visitar(nucli, r, -1, p, tancades, demandes);
+                pila[cim] = r;
+                seguent[cim++] = nucli.iniciSortides(r);
+                while (cim > 0) {
+                    int u = pila[cim - 1];
+                    if (seguent[cim - 1] == nucli.fiSortides(u)) {
+                        fi[u] = p;
+                        cim--;
+                        continue;
+                    }
+                    int v = nucli.desti(nucli.sortida(seguent[cim - 1]++));
+                    if (posicio[v] < 0) {
+                        p = visitar(nucli, v, posicio[u], p, tancades, demandes);
+                        pila[cim] = v;
+                        seguent[cim++] = nucli.iniciSortides(v);
+                    }
+                }
+            }
+        }
+
+        int segments = 1;
+        while (segments < n) {
+            segments <<= 1;
+        }
+        minim = new int[2 * segments];
+        pendent = new int[2 * segments];
+        suma = new double[2 * segments];
+        if (n > 0) {
+            construir(1, 0, n, tancades, demandes);
+        }
+        versio = nucli.versioTopologia();
+    }
+
+    /**
+     * @brief Assigna la propera posició del preordre a un node
+     * @pre posicioPare és la posició del pare de v en el recorregut, o -1 si v és una arrel
+     * @post posicio[v] és p, i tancades i demandes tenen els valors de la fulla p. Retorna p + 1
+     */
+    private int visitar(NucliXarxa nucli, int v, int posicioPare, int p, int[] tancades, double[] demandes) {
+        posicio[v] = p;
+        tancades[p] = (posicioPare < 0 ? 0 : tancades[posicioPare]) + (nucli.aixetaOberta(v) ? 0 : 1);
+        demandes[p] = nucli.tipus(v) == NucliXarxa.TERMINAL ? nucli.demanda(v) : 0;
+        return p + 1;
+    }
+
+    private void construir(int s, int inici, int fiSegment, int[] tancades, double[] demandes) {
+        if (fiSegment - inici == 1) {
+            minim[s] = tancades[inici];
+            pendent[s] = tancades[inici];
+            suma[s] = demandes[inici];
+            return;
+        }
+        int mig = (inici + fiSegment) >>> 1;
+        construir(2 * s, inici, mig, tancades, demandes);
+        construir(2 * s + 1, mig, fiSegment, tancades, demandes);
+        combinar(s);
+    }
+
+    /**
+     * @brief Recalcula un segment a partir dels seus fills
+     * @pre Els fills de s estan al dia
+     * @post minim[s] i suma[s] corresponen als fills i a pendent[s]
+     */
+    private void combinar(int s) {
+        int a = minim[2 * s];
+        int b = minim[2 * s + 1];
+        minim[s] = pendent[s] + Math.min(a, b);
+        suma[s] = (a <= b ? suma[2 * s] : 0) + (b <= a ? suma[2 * s + 1] : 0);
+    }
+
+    private void establirFulla(int s, int inici, int fiSegment, int p, double demanda) {
+        if (fiSegment - inici == 1) {
+            suma[s] = demanda;
+            return;
+        }
+        int mig = (inici + fiSegment) >>> 1;
+        if (p < mig) {
+            establirFulla(2 * s, inici, mig, p, demanda);
+        } else {
+            establirFulla(2 * s + 1, mig, fiSegment, p, demanda);
+        }
+        combinar(s);
+    }
+
+    private void sumarRang(int s, int inici, int fiSegment, int desde, int fins, int delta) {
+        if (fins <= inici || fiSegment <= desde) {
+            return;
+        }
+        if (desde <= inici && fiSegment <= fins) {
+            minim[s] += delta;
+            pendent[s] += delta;
+            return;
+        }
+        int mig = (inici + fiSegment) >>> 1;
+        sumarRang(2 * s, inici, mig, desde, fins, delta);
+        sumarRang(2 * s + 1, mig, fiSegment, desde, fins, delta);
+        combinar(s);
+    }
+
+    /**
+     * @brief Suma les demandes de les fulles d'un rang amb cap aixeta tancada
+     * @pre acumulat és la suma de pendent dels segments que contenen s, sense comptar s
+     * @post Retorna la suma de les demandes de les fulles de [desde, fins) dins el segment s amb comptador 0
+     */
+    private double suma(int s, int inici, int fiSegment, int desde, int fins, int acumulat) {
+        if (fins <= inici || fiSegment <= desde || minim[s] + acumulat > 0) {
+            return 0;
+        }
+        if (desde <= inici && fiSegment <= fins) {
+            return suma[s];
+        }
+        int mig = (inici + fiSegment) >>> 1;
+        acumulat += pendent[s];
+        return suma(2 * s, inici, mig, desde, fins, acumulat) + suma(2 * s + 1, mig, fiSegment, desde, fins, acumulat);
+    }
+
+    private void separar() {
+        if (compartit) {
+            minim = minim.clone();
+            pendent = pendent.clone();
+            suma = suma.clone();
+            compartit = false;
+        }
+    }
+}
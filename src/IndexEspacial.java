@@ -0,0 +1,459 @@
+import java.util.Arrays;
+
+/**
+ * @file IndexEspacial.java
+ * @brief Índex espacial dels nodes d'una xarxa per a consultes de proximitat
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class IndexEspacial
+ * @brief Respon consultes dels nodes més propers a un punt i dels nodes dins d'un radi, amb distància geodèsica
+ * @details Cada node es guarda com un vector unitari (x, y, z) sobre l'esfera: la distància en línia recta entre dos
+ * vectors (la corda) creix amb la distància geodèsica, de manera que es pot cercar amb un arbre k-d de tres
+ * dimensions sense cap problema al meridià 180 ni als pols.
+ *
+ * Els nodes s'indexen en l'ordre en què s'afegeixen. Amb n nodes hi ha un arbre k-d estàtic i equilibrat per cada bit
+ * a 1 de n: el bit 2^k correspon a un bloc consecutiu de 2^k nodes. Afegir un node només reconstrueix el bloc que
+ * correspon al bit més baix del nou nombre de nodes, de manera que cada node es reconstrueix com a molt log n vegades.
+ * Una consulta recorre com a molt log n arbres, cadascun en temps logarítmic. Les còpies comparteixen els vectors
+ * fins que un dels dos índexs s'ha de modificar.
+ */
+public class IndexEspacial {
+    //Descripció general: Índex espacial dels nodes d'una xarxa per a consultes de proximitat
+
+    public static final double RADI_TERRA = 6371.0088; // radi mitjà de la Terra, en km
+    private static final double MARGE_EMPAT = 1e-6; // error relatiu que es considera empat de distàncies
+
+    private int mida;
+    private double[] punts = new double[0];   // x, y, z del node v a 3v, 3v + 1, 3v + 2
+    private int[] arbres = new int[0];        // arbres k-d implícits: la mediana de [inici, fi) és a (inici + fi) / 2
+    private byte[] eixos = new byte[0];       // eix pel qual separa el node de cada posició de arbres
+    private boolean compartit;                // els vectors es comparteixen amb una còpia
+    private boolean pendent;                  // els blocs d'afegirTots encara no s'han construït
+
+    // Estat d'una consulta
+    private final double[] consulta = new double[3];
+    private long[] resultats = new long[16];
+    private int nombreResultats;
+    private int maxResultats;
+    private double limit;
+
+    /**
+     * @brief Afegeix un punt a l'índex
+     * @pre -90 <= latitud <= 90, -180 <= longitud <= 180
+     * @post El punt queda indexat amb l'índex mida() anterior a la crida
+     * @param latitud Latitud del punt, en graus
+     * @param longitud Longitud del punt, en graus
+     */
+    public void afegir(float latitud, float longitud) {
+        construirPendents();
+        if (3 * mida + 3 > punts.length) {
+            int capacitat = Math.max(16, mida + (mida >> 1));
+            punts = Arrays.copyOf(punts, 3 * capacitat);
+            arbres = Arrays.copyOf(arbres, capacitat);
+            eixos = Arrays.copyOf(eixos, capacitat);
+            compartit = false;
+        }
+        separar();
+        vector(latitud, longitud, punts, 3 * mida);
+        mida++;
+
+        // El nou bit més baix de mida agrupa els blocs més petits i el node nou en un sol bloc
+        int inici = mida - Integer.lowestOneBit(mida);
+        for (int i = inici; i < mida; i++) {
+            arbres[i] = i;
+        }
+        construir(inici, mida);
+    }
+
+    /**
+     * @brief Afegeix tots els nodes d'un nucli a l'índex
+     * @pre mida() == 0
+     * @post L'índex conté les coordenades dels nodes del nucli, amb els seus índexs, igual que si s'haguessin afegit un
+     * a un. Els blocs es construeixen a la primera consulta o modificació, una sola vegada cadascun, de manera que
+     * carregar una xarxa no paga l'índex si no es consulta
+     * @param nucli Nucli de la xarxa
+     */
+    public void afegirTots(NucliXarxa nucli) {
+        int n = nucli.nombreNodes();
+        int capacitat = Math.max(16, n);
+        punts = new double[3 * capacitat];
+        arbres = new int[capacitat];
+        eixos = new byte[capacitat];
+        compartit = false;
+        for (int v = 0; v < n; v++) {
+            vector(nucli.latitud(v), nucli.longitud(v), punts, 3 * v);
+            arbres[v] = v;
+        }
+        mida = n;
+        pendent = true;
+    }
+
+    /**
+     * @brief Construeix els blocs que afegirTots ha deixat pendents
+     * @pre ---
+     * @post Cada bloc (un per cada bit a 1 de la mida, del més gran al més petit) és un arbre k-d
+     */
+    public void construirPendents() {
+        if (!pendent) {
+            return;
+        }
+        separar();
+        for (int inici = 0; inici < mida; ) {
+            int fi = inici + Integer.highestOneBit(mida - inici);
+            construir(inici, fi);
+            inici = fi;
+        }
+        pendent = false;
+    }
+
+    /**
+     * @brief Elimina l'últim punt afegit
+     * @pre mida() > 0
+     * @post L'índex conté els punts 0 .. mida() - 2. Només es reconstrueixen els blocs que canvien: els que
+     * corresponen als bits a 1 de la nova mida per sota del bit més baix de la mida anterior
+     */
+    public void eliminarUltim() {
+        construirPendents();
+        separar();
+        int inici = mida - Integer.lowestOneBit(mida);
+        mida--;
+        while (inici < mida) {
+            int fi = inici + Integer.highestOneBit(mida - inici);
+            for (int i = inici; i < fi; i++) {
+                arbres[i] = i;
+            }
+            construir(inici, fi);
+            inici = fi;
+        }
+    }
+
+    /**
+     * @brief Retorna el nombre de punts indexats
+     * @pre ---
+     * @post Retorna el nombre de punts indexats
+     * @return Nombre de punts
+     */
+    public int mida() {
+        return mida;
+    }
+
+    /**
+     * @brief Retorna els punts més propers a unes coordenades
+     * @pre n >= 0
+     * @post Retorna els índexs dels min(n, mida()) punts més propers a (latitud, longitud), ordenats per distància
+     * geodèsica i, en cas d'empat, per índex
+     * @param latitud Latitud de la consulta, en graus
+     * @param longitud Longitud de la consulta, en graus
+     * @param n Nombre de punts a retornar
+     * @return Índexs dels punts més propers
+     */
+    public int[] mesPropers(float latitud, float longitud, int n) {
+        construirPendents();
+        vector(latitud, longitud, consulta, 0);
+        nombreResultats = 0;
+        maxResultats = Math.min(n, mida);
+        limit = Double.POSITIVE_INFINITY;
+        reservarResultats(maxResultats);
+        if (maxResultats > 0) {
+            cercarBlocs();
+        }
+        return ordenarResultats();
+    }
+
+    /**
+     * @brief Retorna els punts més propers a unes coordenades i els que empaten amb l'últim
+     * @pre n >= 0
+     * @post Retorna els índexs dels min(n, mida()) punts més propers a (latitud, longitud) i, a més, dels punts que són
+     * a la mateixa distància que l'últim d'aquests, amb un marge per als errors d'arrodoniment; ordenats per distància
+     * i, en cas d'empat, per índex. Qui els ordeni amb un altre criteri de desempat pot quedar-se amb els n primers
+     * @param latitud Latitud de la consulta, en graus
+     * @param longitud Longitud de la consulta, en graus
+     * @param n Nombre de punts a retornar sense comptar els empats
+     * @return Índexs dels punts més propers i dels empatats
+     */
+    public int[] mesPropersAmbEmpats(float latitud, float longitud, int n) {
+        int[] propers = mesPropers(latitud, longitud, n);
+        if (propers.length == 0 || propers.length == mida) {
+            return propers;
+        }
+        int v = propers[propers.length - 1];
+        double dx = consulta[0] - punts[3 * v];
+        double dy = consulta[1] - punts[3 * v + 1];
+        double dz = consulta[2] - punts[3 * v + 2];
+        nombreResultats = 0;
+        maxResultats = Integer.MAX_VALUE;
+        limit = (dx * dx + dy * dy + dz * dz) * (1 + MARGE_EMPAT);
+        cercarBlocs();
+        return ordenarResultats();
+    }
+
+    /**
+     * @brief Retorna els punts que són dins d'un radi al voltant d'unes coordenades
+     * @pre radi >= 0
+     * @post Retorna els índexs dels punts a distància geodèsica com a molt radi de (latitud, longitud), ordenats per
+     * distància i, en cas d'empat, per índex
+     * @param latitud Latitud del centre, en graus
+     * @param longitud Longitud del centre, en graus
+     * @param radi Radi de la consulta, en km
+     * @return Índexs dels punts dins del radi
+     */
+    public int[] dinsRadi(float latitud, float longitud, double radi) {
+        construirPendents();
+        vector(latitud, longitud, consulta, 0);
+        nombreResultats = 0;
+        maxResultats = Integer.MAX_VALUE;
+        double corda = 2 * Math.sin(Math.min(radi / RADI_TERRA, Math.PI) / 2);
+        limit = corda * corda * (1 + 1e-12);
+        cercarBlocs();
+        return ordenarResultats();
+    }
+
+    /**
+     * @brief Retorna una còpia independent de l'índex
+     * @pre ---
+     * @post Retorna un índex amb els mateixos punts, en temps constant; afegir-ne a un no afecta l'altre
+     * @return Còpia de l'índex
+     */
+    public IndexEspacial copia() {
+        IndexEspacial copia = new IndexEspacial();
+        copia.mida = mida;
+        copia.punts = punts;
+        copia.arbres = arbres;
+        copia.eixos = eixos;
+        copia.pendent = pendent;
+        copia.compartit = true;
+        compartit = true;
+        return copia;
+    }
+
+    private void separar() {
+        if (compartit) {
+            punts = punts.clone();
+            arbres = arbres.clone();
+            eixos = eixos.clone();
+            compartit = false;
+        }
+    }
+
+    /**
+     * @brief Calcula la distància geodèsica entre dos punts de la Terra
+     * @pre ---
+     * @post Retorna la distància del cercle màxim entre els dos punts, en km (fórmula de l'haversinus)
+     * @param latitud1 Latitud del primer punt, en graus
+     * @param longitud1 Longitud del primer punt, en graus
+     * @param latitud2 Latitud del segon punt, en graus
+     * @param longitud2 Longitud del segon punt, en graus
+     * @return Distància en km
+     */
+    public static double distancia(double latitud1, double longitud1, double latitud2, double longitud2) {
+        double sinLatitud = Math.sin(Math.toRadians(latitud2 - latitud1) / 2);
+        double sinLongitud = Math.sin(Math.toRadians(longitud2 - longitud1) / 2);
+        double h = sinLatitud * sinLatitud
+                + Math.cos(Math.toRadians(latitud1)) * Math.cos(Math.toRadians(latitud2)) * sinLongitud * sinLongitud;
+        return 2 * RADI_TERRA * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    private static void vector(double latitud, double longitud, double[] desti, int posicio) {
+        double phi = Math.toRadians(latitud);
+        double lambda = Math.toRadians(longitud);
+        desti[posicio] = Math.cos(phi) * Math.cos(lambda);
+        desti[posicio + 1] = Math.cos(phi) * Math.sin(lambda);
+        desti[posicio + 2] = Math.sin(phi);
+    }
+
+    /**
+     * @brief Construeix l'arbre k-d implícit de arbres[inici, fi)
+     * @pre arbres[inici, fi) conté índexs de punts
+     * @post El punt de la posició central separa la meitat esquerra de la dreta per l'eix on els punts estan més
+     * escampats (els punts d'una zona petita són gairebé en un pla), recursivament
+     */
+    private void construir(int inici, int fi) {
+        while (fi - inici > 1) {
+            int eix = eixMesAmple(inici, fi);
+            int mig = (inici + fi) >>> 1;
+            seleccionar(inici, fi - 1, mig, eix);
+            eixos[mig] = (byte) eix;
+            construir(inici, mig);
+            inici = mig + 1;
+        }
+    }
+
+    private int eixMesAmple(int inici, int fi) {
+        double[] minim = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] maxim = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = inici; i < fi; i++) {
+            int p = 3 * arbres[i];
+            for (int eix = 0; eix < 3; eix++) {
+                minim[eix] = Math.min(minim[eix], punts[p + eix]);
+                maxim[eix] = Math.max(maxim[eix], punts[p + eix]);
+            }
+        }
+        int millor = 0;
+        for (int eix = 1; eix < 3; eix++) {
+            if (maxim[eix] - minim[eix] > maxim[millor] - minim[millor]) {
+                millor = eix;
+            }
+        }
+        return millor;
+    }
+
+    /**
+     * @brief Col·loca a arbres[k] el punt que hi aniria si arbres[esquerra, dreta] estigués ordenat per l'eix
+     * @pre esquerra <= k <= dreta
+     * @post Els punts de arbres[esquerra, k) no superen arbres[k] per l'eix, ni arbres[k] els de arbres(k, dreta]
+     */
+    private void seleccionar(int esquerra, int dreta, int k, int eix) {
+        while (dreta > esquerra) {
+            double pivot = punts[3 * arbres[(esquerra + dreta) >>> 1] + eix];
+            int i = esquerra;
+            int j = dreta;
+            while (i <= j) {
+                while (punts[3 * arbres[i] + eix] < pivot) {
+                    i++;
+                }
+                while (punts[3 * arbres[j] + eix] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = arbres[i];
+                    arbres[i] = arbres[j];
+                    arbres[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                dreta = j;
+            } else if (k >= i) {
+                esquerra = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @brief Cerca en tots els blocs, del més gran al més petit perquè el límit es redueixi com més aviat millor
+     * @pre consulta, limit i maxResultats estan inicialitzats
+     * @post S'han afegit als resultats els punts de l'índex que hi pertanyen
+     */
+    private void cercarBlocs() {
+        int inici = 0;
+        for (int resta = mida; resta > 0; resta -= Integer.highestOneBit(resta)) {
+            int fi = inici + Integer.highestOneBit(resta);
+            cercar(inici, fi);
+            inici = fi;
+        }
+    }
+
+    /**
+     * @brief Cerca dins l'arbre k-d de arbres[inici, fi) els punts a corda al quadrat com a molt limit
+     * @pre consulta, limit i maxResultats estan inicialitzats
+     * @post S'han afegit als resultats els punts del subarbre que hi pertanyen
+     */
+    private void cercar(int inici, int fi) {
+        while (inici < fi) {
+            int mig = (inici + fi) >>> 1;
+            int v = arbres[mig];
+            double dx = consulta[0] - punts[3 * v];
+            double dy = consulta[1] - punts[3 * v + 1];
+            double dz = consulta[2] - punts[3 * v + 2];
+            double d = dx * dx + dy * dy + dz * dz;
+            if (d <= limit) {
+                afegirResultat(v, d);
+            }
+            if (fi - inici == 1) {
+                return;
+            }
+
+            int eix = eixos[mig];
+            double diferencia = consulta[eix] - punts[3 * v + eix];
+            if (diferencia < 0) {
+                cercar(inici, mig);
+                if (diferencia * diferencia > limit) {
+                    return;
+                }
+                inici = mig + 1;
+            } else {
+                cercar(mig + 1, fi);
+                if (diferencia * diferencia > limit) {
+                    return;
+                }
+                fi = mig;
+            }
+        }
+    }
+
+    /**
+     * @brief Afegeix un punt als resultats de la consulta actual
+     * @pre d <= limit
+     * @post Si la consulta té un màxim de resultats, els resultats formen un monticle on el primer és el pitjor i
+     * limit és la seva distància quan el monticle és ple
+     */
+    private void afegirResultat(int v, double d) {
+        long clau = clau(v, d);
+        if (maxResultats == Integer.MAX_VALUE) {
+            reservarResultats(nombreResultats + 1);
+            resultats[nombreResultats++] = clau;
+            return;
+        }
+        if (nombreResultats == maxResultats) {
+            if (clau >= resultats[0]) {
+                return;
+            }
+            enfonsar(clau);
+        } else {
+            int i = nombreResultats++;
+            while (i > 0 && resultats[(i - 1) >> 1] < clau) {
+                resultats[i] = resultats[(i - 1) >> 1];
+                i = (i - 1) >> 1;
+            }
+            resultats[i] = clau;
+        }
+        if (nombreResultats == maxResultats) {
+            limit = Math.nextUp(Float.intBitsToFloat((int) (resultats[0] >>> 32)));
+        }
+    }
+
+    private void enfonsar(long clau) {
+        int i = 0;
+        while (2 * i + 1 < nombreResultats) {
+            int fill = 2 * i + 1;
+            if (fill + 1 < nombreResultats && resultats[fill + 1] > resultats[fill]) {
+                fill++;
+            }
+            if (resultats[fill] <= clau) {
+                break;
+            }
+            resultats[i] = resultats[fill];
+            i = fill;
+        }
+        resultats[i] = clau;
+    }
+
+    /**
+     * @brief Combina la distància i l'índex d'un punt en una clau que s'ordena per distància i després per índex
+     * @details Els bits d'un float no negatiu s'ordenen igual que el seu valor.
+     */
+    private static long clau(int v, double d) {
+        return ((long) Float.floatToRawIntBits((float) d) << 32) | v;
+    }
+
+    private int[] ordenarResultats() {
+        Arrays.sort(resultats, 0, nombreResultats);
+        int[] indexos = new int[nombreResultats];
+        for (int i = 0; i < nombreResultats; i++) {
+            indexos[i] = (int) resultats[i];
+        }
+        return indexos;
+    }
+
+    private void reservarResultats(int mida) {
+        if (resultats.length < mida) {
+            resultats = Arrays.copyOf(resultats, Math.max(mida, 2 * resultats.length));
+        }
+    }
+}
@@ -0,0 +1,574 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * @file Instantania.java
+ * @brief Format binari de les instantànies d'una xarxa de distribució d'aigua
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class Instantania
+ * @brief Fitxer binari versionat amb seccions de vectors primitius, que s'escriu i es llegeix amb projeccions a memòria
+ * @details El fitxer comença amb una capçalera de MIDA_CAPCALERA bytes:
+ *
+ *     0  int   MAGIC ("BWXS")
+ *     4  int   VERSIO del format
+ *     8  int   nombre de nodes
+ *     12 int   nombre de canonades
+ *     16 int   nombre d'abonaments
+ *     24 long  mida del contingut, en bytes
+ *     32 long  CRC-32C del contingut
+ *     40 long  darrera operació del registre d'operacions inclosa a la instantània, o 0 (des de la versió 2)
+ *     48 long  CRC-32C dels bytes 0 .. 47 de la capçalera (des de la versió 3)
+ *
+ * Després vénen les seccions, en l'ordre en què les escriu qui desa la instantània. Cada secció comença en una posició
+ * múltiple de 8 i és un vector de bytes, enters, reals o long en ordre little-endian, o una llista de textos (la
+ * longitud UTF-8 de cadascun seguida dels seus bytes). Els vectors es copien sencers entre la projecció i el vector
+ * de Java, sense cap conversió element a element. Les seccions de més de MIDA_FRAGMENT bytes es projecten a trossos.
+ *
+ * L'escriptor escriu en un fitxer temporal del mateix directori, el força a disc i el mou al destí de manera atòmica:
+ * una instantània a mig escriure no substitueix mai l'anterior. El lector comprova la capçalera, que els comptadors
+ * càpiguen en el contingut i el CRC del contingut abans de donar-ne cap secció, de manera que una instantània malmesa
+ * no arriba a construir cap xarxa.
+ */
+public final class Instantania {
+    //Descripció general: Format binari de les instantànies d'una xarxa de distribució d'aigua
+
+    public static final int MAGIC = 0x53585742; // "BWXS" en little-endian
+    public static final int VERSIO = 3;
+    public static final int MIDA_CAPCALERA = 64;
+
+    private static final long MIDA_FRAGMENT = 1L << 30;
+    private static final byte[] ALINEACIO = new byte[7];
+
+    private Instantania() {
+    }
+
+    /**
+     * @class Escriptor
+     * @brief Escriu les seccions d'una instantània
+     */
+    public static final class Escriptor implements Closeable {
+        private final Path desti;
+        private final Path temporal;
+        private final FileChannel canal;
+        private final CRC32C crc = new CRC32C();
+        private final int nombreNodes;
+        private final int nombreCanonades;
+        private final int nombreAbonaments;
+        private long operacio;
+        private long posicio = MIDA_CAPCALERA;
+        private boolean confirmat;
+
+        /**
+         * @brief Constructor
+         * @pre ---
+         * @post Crea un fitxer temporal al directori de desti on s'escriuran les seccions
+         * @exception IOException si no es pot crear el fitxer
+         * @param desti Fitxer de la instantània
+         * @param nombreNodes Nombre de nodes de la xarxa
+         * @param nombreCanonades Nombre de canonades de la xarxa
+         * @param nombreAbonaments Nombre d'abonaments de la xarxa
+         */
+        public Escriptor(Path desti, int nombreNodes, int nombreCanonades, int nombreAbonaments) throws IOException {
+            this.desti = desti;
+            this.nombreNodes = nombreNodes;
+            this.nombreCanonades = nombreCanonades;
+            this.nombreAbonaments = nombreAbonaments;
+            temporal = Files.createTempFile(desti.toAbsolutePath().getParent(), desti.getFileName().toString(), ".tmp");
+            canal = FileChannel.open(temporal, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * @brief Estableix la darrera operació del registre d'operacions que inclou la instantània
+         * @pre operacio >= 0
+         * @post La capçalera tindrà operacio; per defecte és 0
+         */
+        public void establirOperacio(long operacio) {
+            this.operacio = operacio;
+        }
+
+        /**
+         * @brief Escriu una secció de bytes
+         * @pre 0 <= n <= v.length
+         * @post La secció conté v[0 .. n)
+         */
+        public void bytes(byte[] v, int n) throws IOException {
+            for (int i = 0; i < n; ) {
+                int k = (int) Math.min(n - i, MIDA_FRAGMENT);
+                MappedByteBuffer regio = projectar(k);
+                regio.put(v, i, k).flip();
+                tancar(regio);
+                i += k;
+            }
+            alinear();
+        }
+
+        /**
+         * @brief Escriu una secció d'enters
+         * @pre 0 <= n <= v.length
+         * @post La secció conté v[0 .. n)
+         */
+        public void ints(int[] v, int n) throws IOException {
+            for (int i = 0; i < n; ) {
+                int k = (int) Math.min(n - i, MIDA_FRAGMENT / Integer.BYTES);
+                MappedByteBuffer regio = projectar((long) k * Integer.BYTES);
+                regio.asIntBuffer().put(v, i, k);
+                tancar(regio);
+                i += k;
+            }
+            alinear();
+        }
+
+        /**
+         * @brief Escriu una secció de reals
+         * @pre 0 <= n <= v.length
+         * @post La secció conté v[0 .. n)
+         */
+        public void floats(float[] v, int n) throws IOException {
+            for (int i = 0; i < n; ) {
+                int k = (int) Math.min(n - i, MIDA_FRAGMENT / Float.BYTES);
+                MappedByteBuffer regio = projectar((long) k * Float.BYTES);
+                regio.asFloatBuffer().put(v, i, k);
+                tancar(regio);
+                i += k;
+            }
+            alinear();
+        }
+
+        /**
+         * @brief Escriu una secció de long
+         * @pre 0 <= n <= v.length
+         * @post La secció conté v[0 .. n)
+         */
+        public void longs(long[] v, int n) throws IOException {
+            for (int i = 0; i < n; ) {
+                int k = (int) Math.min(n - i, MIDA_FRAGMENT / Long.BYTES);
+                MappedByteBuffer regio = projectar((long) k * Long.BYTES);
+                regio.asLongBuffer().put(v, i, k);
+                tancar(regio);
+                i += k;
+            }
+            alinear();
+        }
+
+        /**
+         * @brief Escriu una llista de textos
+         * @pre n >= 0
+         * @post La secció conté la longitud UTF-8 dels textos text(0) .. text(n - 1) i després els seus bytes
+         * @param text Text de cada posició
+         * @param n Nombre de textos
+         */
+        public void textos(IntFunction<String> text, int n) throws IOException {
+            int[] longituds = new int[n];
+            for (int i = 0; i < n; i++) {
+                longituds[i] = longitudUtf8(text.apply(i));
+            }
+            ints(longituds, n);
+            int i = 0;
+            while (i < n) {
+                // Tants textos sencers com càpiguen en un fragment
+                long mida = 0;
+                int fi = i;
+                while (fi < n && (fi == i || mida + longituds[fi] <= MIDA_FRAGMENT)) {
+                    mida += longituds[fi++];
+                }
+                MappedByteBuffer regio = projectar(mida);
+                for (; i < fi; i++) {
+                    escriureUtf8(regio, text.apply(i));
+                }
+                regio.flip();
+                tancar(regio);
+            }
+            alinear();
+        }
+
+        /**
+         * @brief Acaba la instantània
+         * @pre Totes les seccions s'han escrit
+         * @post La capçalera té els comptadors i els CRC, el fitxer és a disc i ha substituït desti
+         * @exception IOException si hi ha un error d'escriptura
+         */
+        public void confirmar() throws IOException {
+            MappedByteBuffer capcalera = canal.map(FileChannel.MapMode.READ_WRITE, 0, MIDA_CAPCALERA);
+            capcalera.order(ByteOrder.LITTLE_ENDIAN);
+            capcalera.putInt(0, MAGIC).putInt(4, VERSIO).putInt(8, nombreNodes).putInt(12, nombreCanonades)
+                    .putInt(16, nombreAbonaments).putLong(24, posicio - MIDA_CAPCALERA).putLong(32, crc.getValue())
+                    .putLong(40, operacio).putLong(48, crcCapcalera(capcalera));
+            capcalera.force();
+            if (canal.size() < posicio) {
+                // Els bytes d'alineació de l'última secció
+                canal.write(ByteBuffer.allocate(1), posicio - 1);
+            }
+            canal.force(true);
+            canal.close();
+            Files.move(temporal, desti, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            confirmat = true;
+        }
+
+        /**
+         * @brief Tanca l'escriptor
+         * @pre ---
+         * @post Si no s'ha confirmat la instantània, s'esborra el fitxer temporal i desti no canvia
+         */
+        @Override
+        public void close() throws IOException {
+            if (!confirmat) {
+                canal.close();
+                Files.deleteIfExists(temporal);
+            }
+        }
+
+        private MappedByteBuffer projectar(long mida) throws IOException {
+            MappedByteBuffer regio = canal.map(FileChannel.MapMode.READ_WRITE, posicio, mida);
+            regio.order(ByteOrder.LITTLE_ENDIAN);
+            posicio += mida;
+            return regio;
+        }
+
+        /**
+         * @brief Acaba d'escriure una regió
+         * @pre La posició de regio és 0 i el límit, el final de les dades escrites
+         * @post El CRC inclou la regió i la regió és a disc
+         */
+        private void tancar(MappedByteBuffer regio) {
+            crc.update(regio);
+            regio.force();
+        }
+
+        private void alinear() {
+            long alineada = (posicio + 7) & ~7L;
+            // Els bytes d'alineació són zeros i, des de la versió 3, el CRC els inclou: cobreix tot el contingut
+            crc.update(ALINEACIO, 0, (int) (alineada - posicio));
+            posicio = alineada;
+        }
+    }
+
+    /**
+     * @class Lector
+     * @brief Llegeix les seccions d'una instantània en el mateix ordre en què es van escriure
+     */
+    public static final class Lector implements Closeable {
+        private final FileChannel canal;
+        private final int nombreNodes;
+        private final int nombreCanonades;
+        private final int nombreAbonaments;
+        private final long midaContingut;
+        private final long operacio;
+        private final CRC32C crc;           // CRC de les seccions llegides en les versions 1 i 2, o null
+        private final long crcEsperat;
+        private long posicio = MIDA_CAPCALERA;
+
+        /**
+         * @brief Constructor
+         * @pre ---
+         * @post Obre la instantània, en llegeix la capçalera i comprova que el contingut no està malmès (en les versions
+         * 1 i 2, el CRC del contingut es comprova a verificar)
+         * @exception IOException si no es pot llegir, no és una instantània d'aquesta versió o està malmesa
+         * @param fitxer Fitxer de la instantània
+         */
+        public Lector(Path fitxer) throws IOException {
+            this(fitxer, true);
+        }
+
+        /**
+         * @brief Constructor
+         * @pre ---
+         * @post Obre la instantània i en llegeix la capçalera; si verificarContingut, comprova també el CRC del
+         * contingut
+         * @exception IOException si no es pot llegir, no és una instantània d'aquesta versió o està malmesa
+         */
+        private Lector(Path fitxer, boolean verificarContingut) throws IOException {
+            canal = FileChannel.open(fitxer, StandardOpenOption.READ);
+            try {
+                if (canal.size() < MIDA_CAPCALERA) {
+                    throw new IOException("El fitxer no és una instantània de xarxa: " + fitxer);
+                }
+                MappedByteBuffer capcalera = canal.map(FileChannel.MapMode.READ_ONLY, 0, MIDA_CAPCALERA);
+                capcalera.order(ByteOrder.LITTLE_ENDIAN);
+                if (capcalera.getInt(0) != MAGIC) {
+                    throw new IOException("El fitxer no és una instantània de xarxa: " + fitxer);
+                }
+                int versio = capcalera.getInt(4);
+                if (versio < 1 || versio > VERSIO) {
+                    throw new IOException("Versió d'instantània no suportada: " + versio);
+                }
+                if (versio >= 3 && capcalera.getLong(48) != crcCapcalera(capcalera)) {
+                    throw new IOException("La instantània està malmesa: " + fitxer);
+                }
+                nombreNodes = capcalera.getInt(8);
+                nombreCanonades = capcalera.getInt(12);
+                nombreAbonaments = capcalera.getInt(16);
+                midaContingut = capcalera.getLong(24);
+                operacio = versio >= 2 ? capcalera.getLong(40) : 0;
+                if (canal.size() != MIDA_CAPCALERA + midaContingut) {
+                    throw new IOException("La instantània està incompleta: " + fitxer);
+                }
+                // Cada node, canonada i abonament ocupa com a mínim un byte del contingut
+                if (!caben(nombreNodes) || !caben(nombreCanonades) || !caben(nombreAbonaments)) {
+                    throw new IOException("La instantània està malmesa: " + fitxer);
+                }
+                crcEsperat = capcalera.getLong(32);
+                if (versio < 3) {
+                    // El CRC no inclou els bytes d'alineació: es calcula a mesura que es llegeixen les seccions
+                    crc = new CRC32C();
+                } else if (verificarContingut && crcContingut() != crcEsperat) {
+                    throw new IOException("La instantània està malmesa: " + fitxer);
+                } else {
+                    crc = null;
+                }
+            } catch (IOException e) {
+                canal.close();
+                throw e;
+            }
+        }
+
+        // Comptadors de la capçalera
+        public int nombreNodes() {
+            return nombreNodes;
+        }
+
+        public int nombreCanonades() {
+            return nombreCanonades;
+        }
+
+        public int nombreAbonaments() {
+            return nombreAbonaments;
+        }
+
+        public long operacio() {
+            return operacio;
+        }
+
+        /**
+         * @brief Llegeix una secció de bytes
+         * @pre capacitat >= n; la secció següent és un vector de n bytes
+         * @post Retorna un vector de mida capacitat amb els n bytes de la secció al principi
+         */
+        public byte[] bytes(int n, int capacitat) throws IOException {
+            comprovarSeccio(n, 1);
+            byte[] v = new byte[capacitat];
+            for (int i = 0; i < n; ) {
+                int k = (int) Math.min(n - i, MIDA_FRAGMENT);
+                projectar(k).get(v, i, k);
+                i += k;
+            }
+            alinear();
+            return v;
+        }
+
+        /**
+         * @brief Llegeix una secció d'enters
+         * @pre capacitat >= n; la secció següent és un vector de n enters
+         * @post Retorna un vector de mida capacitat amb els n valors de la secció al principi
+         */
+        public int[] ints(int n, int capacitat) throws IOException {
+            comprovarSeccio(n, Integer.BYTES);
+            int[] v = new int[capacitat];
+            for (int i = 0; i < n; ) {
+                int k = (int) Math.min(n - i, MIDA_FRAGMENT / Integer.BYTES);
+                projectar((long) k * Integer.BYTES).asIntBuffer().get(v, i, k);
+                i += k;
+            }
+            alinear();
+            return v;
+        }
+
+        /**
+         * @brief Llegeix una secció de reals
+         * @pre capacitat >= n; la secció següent és un vector de n reals
+         * @post Retorna un vector de mida capacitat amb els n valors de la secció al principi
+         */
+        public float[] floats(int n, int capacitat) throws IOException {
+            comprovarSeccio(n, Float.BYTES);
+            float[] v = new float[capacitat];
+            for (int i = 0; i < n; ) {
+                int k = (int) Math.min(n - i, MIDA_FRAGMENT / Float.BYTES);
+                projectar((long) k * Float.BYTES).asFloatBuffer().get(v, i, k);
+                i += k;
+            }
+            alinear();
+            return v;
+        }
+
+        /**
+         * @brief Llegeix una secció de long
+         * @pre capacitat >= n; la secció següent és un vector de n long
+         * @post Retorna un vector de mida capacitat amb els n valors de la secció al principi
+         */
+        public long[] longs(int n, int capacitat) throws IOException {
+            comprovarSeccio(n, Long.BYTES);
+            long[] v = new long[capacitat];
+            for (int i = 0; i < n; ) {
+                int k = (int) Math.min(n - i, MIDA_FRAGMENT / Long.BYTES);
+                projectar((long) k * Long.BYTES).asLongBuffer().get(v, i, k);
+                i += k;
+            }
+            alinear();
+            return v;
+        }
+
+        /**
+         * @brief Llegeix una llista de textos
+         * @pre La secció següent és una llista de n textos
+         * @post S'ha cridat consumidor amb cada text, en ordre
+         */
+        public void textos(int n, Consumer<String> consumidor) throws IOException {
+            int[] longituds = ints(n, n);
+            byte[] text = new byte[64];
+            int i = 0;
+            while (i < n) {
+                long mida = 0;
+                int fi = i;
+                while (fi < n && (fi == i || mida + longituds[fi] <= MIDA_FRAGMENT)) {
+                    if (longituds[fi] < 0) {
+                        throw new IOException("La instantània està malmesa");
+                    }
+                    mida += longituds[fi++];
+                }
+                MappedByteBuffer regio = projectar(mida);
+                for (; i < fi; i++) {
+                    if (longituds[i] > text.length) {
+                        text = new byte[Math.max(longituds[i], 2 * text.length)];
+                    }
+                    regio.get(text, 0, longituds[i]);
+                    consumidor.accept(new String(text, 0, longituds[i], StandardCharsets.UTF_8));
+                }
+            }
+            alinear();
+        }
+
+        /**
+         * @brief Comprova que s'ha llegit tota la instantània
+         * @pre Totes les seccions s'han llegit
+         * @post Si les seccions llegides ocupen tot el contingut i, en les versions 1 i 2, el seu CRC coincideix amb el
+         * de la capçalera no fa res
+         * @exception IOException si la instantània està malmesa
+         */
+        public void verificar() throws IOException {
+            if (posicio != MIDA_CAPCALERA + midaContingut || (crc != null && crc.getValue() != crcEsperat)) {
+                throw new IOException("La instantània està malmesa");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            canal.close();
+        }
+
+        /**
+         * @brief Projecta la regió següent del fitxer
+         * @pre ---
+         * @post Retorna la regió de mida bytes a partir de la posició actual, ja inclosa al CRC si cal
+         */
+        private MappedByteBuffer projectar(long mida) throws IOException {
+            if (posicio + mida > MIDA_CAPCALERA + midaContingut) {
+                throw new IOException("La instantània està malmesa");
+            }
+            MappedByteBuffer regio = canal.map(FileChannel.MapMode.READ_ONLY, posicio, mida);
+            regio.order(ByteOrder.LITTLE_ENDIAN);
+            if (crc != null) {
+                crc.update(regio.duplicate());
+            }
+            posicio += mida;
+            return regio;
+        }
+
+        /**
+         * @brief Comprova que una secció cap en el contingut que queda per llegir
+         * @pre ---
+         * @post Si n elements de mida bytes caben entre la posició actual i el final del contingut no fa res
+         * @exception IOException si no hi caben, abans de reservar cap vector per a la secció
+         */
+        private void comprovarSeccio(int n, int mida) throws IOException {
+            if (n < 0 || (long) n * mida > MIDA_CAPCALERA + midaContingut - posicio) {
+                throw new IOException("La instantània està malmesa");
+            }
+        }
+
+        private boolean caben(int n) {
+            return n >= 0 && n <= midaContingut;
+        }
+
+        /**
+         * @brief Calcula el CRC del contingut
+         * @pre midaContingut és la mida del contingut del fitxer
+         * @post Retorna el CRC-32C de tot el contingut, llegit per fragments
+         */
+        private long crcContingut() throws IOException {
+            CRC32C crc = new CRC32C();
+            for (long i = 0; i < midaContingut; ) {
+                long k = Math.min(midaContingut - i, MIDA_FRAGMENT);
+                crc.update(canal.map(FileChannel.MapMode.READ_ONLY, MIDA_CAPCALERA + i, k));
+                i += k;
+            }
+            return crc.getValue();
+        }
+
+        private void alinear() {
+            posicio = (posicio + 7) & ~7L;
+        }
+    }
+
+    /**
+     * @brief Retorna la darrera operació del registre d'operacions inclosa en una instantània
+     * @pre ---
+     * @post Retorna el valor de la capçalera de fitxer, sense llegir-ne ni verificar-ne el contingut
+     * @exception IOException si el fitxer no es pot llegir o no és una instantània
+     * @param fitxer Fitxer de la instantània
+     * @return Número de la darrera operació inclosa, o 0
+     */
+    public static long operacio(Path fitxer) throws IOException {
+        try (Lector lector = new Lector(fitxer, false)) {
+            return lector.operacio();
+        }
+    }
+
+    /**
+     * @brief Calcula el CRC de la capçalera
+     * @pre capcalera és la capçalera d'una instantània, en little-endian
+     * @post Retorna el CRC-32C dels bytes 0 .. 47 de capcalera
+     */
+    private static long crcCapcalera(ByteBuffer capcalera) {
+        CRC32C crc = new CRC32C();
+        crc.update(capcalera.duplicate().position(0).limit(48));
+        return crc.getValue();
+    }
+
+    private static int longitudUtf8(String s) {
+        int longitud = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return s.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return longitud;
+    }
+
+    private static void escriureUtf8(ByteBuffer desti, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                desti.put(s.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        for (int i = 0; i < s.length(); i++) {
+            desti.put((byte) s.charAt(i));
+        }
+    }
+}
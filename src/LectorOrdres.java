@@ -0,0 +1,482 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * @file LectorOrdres.java
+ * @brief Lector en streaming dels fitxers d'operacions del simulador
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class LectorOrdres
+ * @brief Llegeix un fitxer d'operacions línia a línia sobre un canal NIO amb un buffer gran
+ * @details Les línies es delimiten directament sobre els bytes del buffer, sense copiar-les. Els números es
+ * llegeixen dels bytes sense crear cap String. Les línies de text es retornen a través d'una memòria cau de mida
+ * fixa: les que es repeteixen (noms d'operació i identificadors) no tornen a crear cap String. Les línies acaben amb
+ * "\n", "\r\n" o "\r", igual que amb Scanner.nextLine().
+ *
+ * Es pot marcar l'inici d'una operació per recuperar després els bytes exactes que n'han llegit les línies, tal com
+ * eren al fitxer; mentre hi ha una marca, el buffer conserva aquests bytes.
+ */
+public class LectorOrdres implements Closeable {
+    //Descripció general: Lector en streaming dels fitxers d'operacions del simulador
+
+    private static final int MIDA_BUFFER = 1 << 20;
+    private static final int MIDA_CAU = 4096;          // potència de 2
+    private static final int MAX_BYTES_CAU = 64;
+    private static final double[] POTENCIES_10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final ReadableByteChannel canal;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private int posicio;       // primer byte no consumit
+    private int limit;         // primer byte no llegit del canal
+    private boolean finalCanal;
+
+    private int iniciLinia;
+    private int fiLinia;
+    private int marca = -1;    // primer byte marcat, o -1 si no hi ha marca
+
+    // Memòria cau de correspondència directa de línies curtes a String
+    private final String[] cau = new String[MIDA_CAU];
+    private final byte[][] clausCau = new byte[MIDA_CAU][];
+
+    private final LiniaActual liniaActual = new LiniaActual();
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Obre el fitxer per llegir-ne les línies
+     * @exception IOException si el fitxer no es pot obrir
+     * @param fitxer Nom del fitxer d'entrada
+     */
+    public LectorOrdres(String fitxer) throws IOException {
+        this(FileChannel.open(Paths.get(fitxer), StandardOpenOption.READ));
+    }
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Crea un lector de les línies que es llegeixen de canal, que es tancarà en tancar el lector
+     * @param canal Canal d'on es llegeixen les operacions
+     */
+    public LectorOrdres(ReadableByteChannel canal) {
+        this.canal = canal;
+        bytes = new byte[MIDA_BUFFER];
+        buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * @brief Diu si queda alguna línia per llegir
+     * @pre ---
+     * @post Retorna true si queda alguna línia per llegir, false en cas contrari
+     * @exception IOException si hi ha un error de lectura
+     * @return true si queda alguna línia
+     */
+    public boolean hiHaLinia() throws IOException {
+        return posicio < limit || omplir();
+    }
+
+    /**
+     * @brief Llegeix la línia següent com a text
+     * @pre ---
+     * @post Retorna la línia següent sense el delimitador; les línies curtes repetides retornen la mateixa String
+     * @exception IOException si hi ha un error de lectura
+     * @exception NoSuchElementException si no queda cap línia
+     * @return Línia llegida
+     */
+    public String linia() throws IOException {
+        avancar();
+        int longitud = fiLinia - iniciLinia;
+        if (longitud > MAX_BYTES_CAU) {
+            return new String(bytes, iniciLinia, longitud, StandardCharsets.UTF_8);
+        }
+        int h = 1;
+        for (int i = iniciLinia; i < fiLinia; i++) {
+            h = 31 * h + bytes[i];
+        }
+        int posicioCau = (h ^ (h >>> 16)) & (MIDA_CAU - 1);
+        byte[] clau = clausCau[posicioCau];
+        if (clau != null && clau.length == longitud && iguals(clau)) {
+            return cau[posicioCau];
+        }
+        clau = new byte[longitud];
+        System.arraycopy(bytes, iniciLinia, clau, 0, longitud);
+        clausCau[posicioCau] = clau;
+        cau[posicioCau] = new String(clau, StandardCharsets.UTF_8);
+        return cau[posicioCau];
+    }
+
+    /**
+     * @brief Llegeix la línia següent com a seqüència de caràcters, sense copiar-la
+     * @pre La línia només conté caràcters ASCII
+     * @post Retorna una vista de la línia següent sense el delimitador. La vista és sempre el mateix objecte i només és
+     * vàlida fins a la propera lectura; si se n'ha de guardar el contingut, cal cridar-ne toString
+     * @exception IOException si hi ha un error de lectura
+     * @exception NoSuchElementException si no queda cap línia
+     * @return Vista de la línia llegida
+     */
+    public CharSequence liniaCaracters() throws IOException {
+        avancar();
+        return liniaActual;
+    }
+
+    /**
+     * @brief Llegeix la línia següent com a número real
+     * @pre ---
+     * @post Retorna el valor de la línia, amb el mateix format que accepta Float.parseFloat
+     * @exception IOException si hi ha un error de lectura
+     * @exception NoSuchElementException si no queda cap línia
+     * @exception NumberFormatException si la línia no és un número
+     * @return Valor llegit
+     */
+    public float llegirFloat() throws IOException {
+        avancar();
+        return analitzarFloat(iniciLinia, fiLinia);
+    }
+
+    /**
+     * @brief Llegeix la línia següent com a percentatge
+     * @pre ---
+     * @post Retorna el valor de la línia, ignorant un símbol "%" final
+     * @exception IOException si hi ha un error de lectura
+     * @exception NoSuchElementException si no queda cap línia
+     * @exception NumberFormatException si la línia no és un número
+     * @return Valor llegit
+     */
+    public float llegirPercentatge() throws IOException {
+        avancar();
+        int fi = fiLinia;
+        while (fi > iniciLinia && bytes[fi - 1] <= ' ') {
+            fi--;
+        }
+        if (fi > iniciLinia && bytes[fi - 1] == '%') {
+            fi--;
+        }
+        return analitzarFloat(iniciLinia, fi);
+    }
+
+    /**
+     * @brief Llegeix la línia següent com a enter
+     * @pre ---
+     * @post Retorna el valor de la línia
+     * @exception IOException si hi ha un error de lectura
+     * @exception NoSuchElementException si no queda cap línia
+     * @exception NumberFormatException si la línia no és un enter
+     * @return Valor llegit
+     */
+    public int llegirEnter() throws IOException {
+        avancar();
+        int i = iniciLinia;
+        int fi = fiLinia;
+        boolean negatiu = false;
+        if (i < fi && (bytes[i] == '-' || bytes[i] == '+')) {
+            negatiu = bytes[i] == '-';
+            i++;
+        }
+        if (i == fi || fi - i > 9) {
+            return Integer.parseInt(new String(bytes, iniciLinia, fiLinia - iniciLinia, StandardCharsets.UTF_8));
+        }
+        int valor = 0;
+        for (; i < fi; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(new String(bytes, iniciLinia, fiLinia - iniciLinia, StandardCharsets.UTF_8));
+            }
+            valor = valor * 10 + digit;
+        }
+        return negatiu ? -valor : valor;
+    }
+
+    /**
+     * @brief Llegeix la línia següent com a booleà
+     * @pre ---
+     * @post Retorna true si la línia és "true" sense distingir majúscules, false en cas contrari
+     * @exception IOException si hi ha un error de lectura
+     * @exception NoSuchElementException si no queda cap línia
+     * @return Valor llegit
+     */
+    public boolean llegirBoolea() throws IOException {
+        avancar();
+        if (fiLinia - iniciLinia != 4) {
+            return false;
+        }
+        return (bytes[iniciLinia] | 0x20) == 't' && (bytes[iniciLinia + 1] | 0x20) == 'r'
+                && (bytes[iniciLinia + 2] | 0x20) == 'u' && (bytes[iniciLinia + 3] | 0x20) == 'e';
+    }
+
+    /**
+     * @brief Marca la posició actual
+     * @pre ---
+     * @post Les línies que es llegeixin a partir d'ara formen part dels bytes marcats
+     */
+    public void marcar() {
+        marca = posicio;
+    }
+
+    /**
+     * @brief Treu la marca
+     * @pre ---
+     * @post No hi ha cap marca i el buffer ja no ha de conservar els bytes marcats
+     */
+    public void desmarcar() {
+        marca = -1;
+    }
+
+    /**
+     * @brief Retorna quants bytes s'han llegit des de la marca
+     * @pre Hi ha una marca
+     * @post Retorna la mida dels bytes de les línies llegides des de la marca, delimitadors inclosos
+     * @return Nombre de bytes marcats
+     */
+    public int midaMarcats() {
+        return posicio - marca;
+    }
+
+    /**
+     * @brief Copia els bytes llegits des de la marca
+     * @pre Hi ha una marca
+     * @post Retorna desti, o un vector més gran si no hi cabien, amb els bytes de les línies llegides des de la marca
+     * al principi
+     * @param desti Vector on es copien els bytes
+     * @return Vector amb els bytes marcats
+     */
+    public byte[] copiarMarcats(byte[] desti) {
+        int mida = posicio - marca;
+        if (desti.length < mida) {
+            desti = new byte[Math.max(mida, 2 * desti.length)];
+        }
+        System.arraycopy(bytes, marca, desti, 0, mida);
+        return desti;
+    }
+
+    /**
+     * @brief Tanca el fitxer
+     * @pre ---
+     * @post El fitxer d'entrada està tancat
+     * @exception IOException si hi ha un error en tancar-lo
+     */
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    /**
+     * @brief Delimita la línia següent dins el buffer
+     * @pre ---
+     * @post iniciLinia i fiLinia delimiten la línia següent i posicio és just després del seu delimitador
+     */
+    private void avancar() throws IOException {
+        if (!hiHaLinia()) {
+            throw new NoSuchElementException("No queden línies");
+        }
+        int i = posicio;
+        while (true) {
+            while (i < limit && bytes[i] != '\n' && bytes[i] != '\r') {
+                i++;
+            }
+            if (i < limit || finalCanal) {
+                break;
+            }
+            // La línia continua fora del buffer: es compacta i es torna a omplir
+            int desplacament = posicio;
+            omplir();
+            i -= desplacament - posicio;
+        }
+        iniciLinia = posicio;
+        fiLinia = i;
+        if (i < limit && bytes[i] == '\r') {
+            i++;
+            if (i == limit && !finalCanal) {
+                int desplacament = posicio;
+                omplir();
+                int mogut = desplacament - posicio;
+                i -= mogut;
+                iniciLinia -= mogut;
+                fiLinia -= mogut;
+            }
+            if (i < limit && bytes[i] == '\n') {
+                i++;
+            }
+        } else if (i < limit) {
+            i++;
+        }
+        posicio = i;
+    }
+
+    /**
+     * @brief Compacta el buffer i hi llegeix més bytes del canal
+     * @pre ---
+     * @post Els bytes no consumits i els marcats són a l'inici del buffer, seguits dels nous bytes llegits. Retorna si
+     * queden bytes no consumits
+     */
+    private boolean omplir() throws IOException {
+        if (finalCanal) {
+            return posicio < limit;
+        }
+        // Es conserven els bytes no consumits i, si n'hi ha, els marcats
+        int inici = marca >= 0 ? marca : posicio;
+        int pendents = limit - inici;
+        if (pendents == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            buffer = ByteBuffer.wrap(bytes);
+        } else if (inici > 0) {
+            System.arraycopy(bytes, inici, bytes, 0, pendents);
+        }
+        posicio -= inici;
+        if (marca >= 0) {
+            marca = 0;
+        }
+        limit = pendents;
+        buffer.limit(bytes.length).position(limit);
+        int llegits = canal.read(buffer);
+        while (llegits == 0) {
+            llegits = canal.read(buffer);
+        }
+        if (llegits < 0) {
+            finalCanal = true;
+        } else {
+            limit += llegits;
+        }
+        return posicio < limit;
+    }
+
+    private boolean iguals(byte[] clau) {
+        for (int i = 0; i < clau.length; i++) {
+            if (clau[i] != bytes[iniciLinia + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @brief Converteix un tros del buffer a float sense crear cap objecte
+     * @pre 0 <= inici <= fi <= limit
+     * @post Retorna el valor decimal dels bytes; els formats poc habituals (NaN, Infinity, hexadecimal, més de 18
+     * xifres significatives) es deleguen a Float.parseFloat
+     */
+    private float analitzarFloat(int inici, int fi) {
+        int i = inici;
+        while (i < fi && bytes[i] <= ' ') {
+            i++;
+        }
+        while (fi > i && bytes[fi - 1] <= ' ') {
+            fi--;
+        }
+        boolean negatiu = false;
+        if (i < fi && (bytes[i] == '-' || bytes[i] == '+')) {
+            negatiu = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int xifres = 0;
+        int exponent = 0;
+        boolean algunaXifra = false;
+        boolean punt = false;
+        for (; i < fi; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                algunaXifra = true;
+                if (mantissa == 0 && b == '0') {
+                    if (punt) {
+                        exponent--;
+                    }
+                } else if (xifres < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    xifres++;
+                    if (punt) {
+                        exponent--;
+                    }
+                } else {
+                    return analitzarFloatLent(inici, fi);
+                }
+            } else if (b == '.' && !punt) {
+                punt = true;
+            } else {
+                break;
+            }
+        }
+        if (!algunaXifra) {
+            return analitzarFloatLent(inici, fi);
+        }
+        if (i < fi && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean exponentNegatiu = false;
+            if (i < fi && (bytes[i] == '-' || bytes[i] == '+')) {
+                exponentNegatiu = bytes[i] == '-';
+                i++;
+            }
+            int valorExponent = 0;
+            int xifresExponent = 0;
+            for (; i < fi && bytes[i] >= '0' && bytes[i] <= '9' && xifresExponent < 4; i++, xifresExponent++) {
+                valorExponent = valorExponent * 10 + (bytes[i] - '0');
+            }
+            if (xifresExponent == 0) {
+                return analitzarFloatLent(inici, fi);
+            }
+            exponent += exponentNegatiu ? -valorExponent : valorExponent;
+        }
+        if (i != fi) {
+            return analitzarFloatLent(inici, fi);
+        }
+
+        double valor = mantissa;
+        if (mantissa != 0 && exponent != 0) {
+            if (exponent < 0 && exponent >= -22) {
+                valor /= POTENCIES_10[-exponent];
+            } else if (exponent > 0 && exponent <= 22) {
+                valor *= POTENCIES_10[exponent];
+            } else {
+                return analitzarFloatLent(inici, fi);
+            }
+        }
+        return (float) (negatiu ? -valor : valor);
+    }
+
+    private float analitzarFloatLent(int inici, int fi) {
+        return Float.parseFloat(new String(bytes, inici, fi - inici, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @brief Vista de només lectura dels bytes de la línia actual com a caràcters ASCII
+     */
+    private final class LiniaActual implements CharSequence {
+
+        @Override
+        public int length() {
+            return fiLinia - iniciLinia;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return (char) (bytes[iniciLinia + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, iniciLinia, length(), StandardCharsets.UTF_8);
+        }
+    }
+}
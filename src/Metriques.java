@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @file Metriques.java
+ * @brief Comptadors i histogrames de latència de les operacions del simulador
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class Metriques
+ * @brief Recull, per a cada tipus d'operació, quantes se n'han fet i un histograma del seu temps d'execució, i
+ * comptadors dels motors de càlcul; ho exporta en JSON o en el format de text de Prometheus
+ * @details Cada histograma té un interval per potència de 2 de nanosegons, des d'1 µs (2^10 ns) fins a uns 69 s
+ * (2^36 ns), més un interval per als temps més llargs. Registrar una mesura costa un parell d'operacions sobre
+ * enters, sense crear cap objecte un cop l'operació ja té histograma. Els percentils s'estimen amb el límit superior
+ * de l'interval on cauen, de manera que tenen un error de com a molt el doble.
+ *
+ * El fitxer d'exportació s'escriu primer en un fitxer temporal al mateix directori i després se substitueix, de
+ * manera que qui el llegeix mentre la simulació avança (per exemple, el col·lector de fitxers de text de Prometheus)
+ * mai no en veu un de mig escrit.
+ */
+public class Metriques {
+    //Descripció general: Comptadors i histogrames de latència de les operacions del simulador
+
+    public static final String JSON = "json";
+    public static final String PROMETHEUS = "prometheus";
+
+    private static final int PRIMER_EXPONENT = 10;  // límit superior del primer interval: 2^10 ns
+    private static final int ULTIM_EXPONENT = 36;   // límit superior de l'últim interval finit: 2^36 ns
+    private static final int NOMBRE_INTERVALS = ULTIM_EXPONENT - PRIMER_EXPONENT + 2;
+
+    private final Map<String, Histograma> operacions = new LinkedHashMap<>();
+    private final Map<String, Long> comptadors = new LinkedHashMap<>();
+
+    /**
+     * @class Histograma
+     * @brief Nombre de mesures, suma i intervals de potència de 2 dels temps d'un tipus d'operació
+     */
+    private static class Histograma {
+        private long nombre;
+        private long sumaNanos;
+        private long maximNanos;
+        private final long[] intervals = new long[NOMBRE_INTERVALS];
+
+        private void registrar(long nanos) {
+            nombre++;
+            sumaNanos += nanos;
+            maximNanos = Math.max(maximNanos, nanos);
+            // L'interval i conté els temps fins a 2^(PRIMER_EXPONENT + i) ns
+            int bits = 64 - Long.numberOfLeadingZeros(Math.max(0, nanos - 1));
+            intervals[Math.min(NOMBRE_INTERVALS - 1, Math.max(0, bits - PRIMER_EXPONENT))]++;
+        }
+
+        private double percentilSegons(double p) {
+            long objectiu = (long) Math.ceil(p * nombre);
+            long acumulat = 0;
+            for (int i = 0; i < NOMBRE_INTERVALS - 1; i++) {
+                acumulat += intervals[i];
+                if (acumulat >= objectiu) {
+                    return limitSegons(i);
+                }
+            }
+            return maximNanos / 1e9;
+        }
+    }
+
+    /**
+     * @brief Registra l'execució d'una operació
+     * @pre nanos >= 0
+     * @post L'operació té una mesura més amb temps nanos
+     * @param operacio Nom de l'operació
+     * @param nanos Temps d'execució en nanosegons
+     */
+    public void registrar(String operacio, long nanos) {
+        Histograma h = operacions.get(operacio);
+        if (h == null) {
+            h = new Histograma();
+            operacions.put(operacio, h);
+        }
+        h.registrar(nanos);
+    }
+
+    /**
+     * @brief Estableix el valor d'un comptador
+     * @pre valor >= 0 i no disminueix d'una crida a la següent
+     * @post El comptador nom val valor
+     * @param nom Nom del comptador, en minúscules i amb guions baixos
+     * @param valor Valor acumulat del comptador
+     */
+    public void establirComptador(String nom, long valor) {
+        comptadors.put(nom, valor);
+    }
+
+    /**
+     * @brief Retorna el nombre de mesures d'una operació
+     * @pre ---
+     * @post Retorna quantes vegades s'ha registrat l'operació, o 0 si no s'ha registrat mai
+     * @param operacio Nom de l'operació
+     * @return Nombre de mesures
+     */
+    public long nombre(String operacio) {
+        Histograma h = operacions.get(operacio);
+        return h == null ? 0 : h.nombre;
+    }
+
+    /**
+     * @brief Escriu les mètriques en JSON
+     * @pre ---
+     * @post sortida conté un objecte amb "operacions" (nombre, suma, màxim i percentils 50, 90 i 99 en segons, i els
+     * intervals no buits de l'histograma) i "comptadors"
+     * @exception IOException si hi ha un error d'escriptura
+     * @param sortida On s'escriuen les mètriques
+     */
+    public void escriureJson(Appendable sortida) throws IOException {
+        sortida.append("{\n  \"operacions\": {");
+        boolean primera = true;
+        for (Map.Entry<String, Histograma> entrada : operacions.entrySet()) {
+            Histograma h = entrada.getValue();
+            sortida.append(primera ? "\n" : ",\n");
+            primera = false;
+            sortida.append("    \"").append(entrada.getKey()).append("\": {")
+                    .append("\"nombre\": ").append(Long.toString(h.nombre))
+                    .append(", \"suma_segons\": ").append(decimal(h.sumaNanos / 1e9))
+                    .append(", \"maxim_segons\": ").append(decimal(h.maximNanos / 1e9))
+                    .append(", \"p50_segons\": ").append(decimal(h.percentilSegons(0.50)))
+                    .append(", \"p90_segons\": ").append(decimal(h.percentilSegons(0.90)))
+                    .append(", \"p99_segons\": ").append(decimal(h.percentilSegons(0.99)))
+                    .append(", \"intervals\": {");
+            boolean primerInterval = true;
+            for (int i = 0; i < NOMBRE_INTERVALS; i++) {
+                if (h.intervals[i] > 0) {
+                    sortida.append(primerInterval ? "" : ", ").append('"').append(limit(i)).append("\": ")
+                            .append(Long.toString(h.intervals[i]));
+                    primerInterval = false;
+                }
+            }
+            sortida.append("}}");
+        }
+        sortida.append(primera ? "},\n" : "\n  },\n").append("  \"comptadors\": {");
+        primera = true;
+        for (Map.Entry<String, Long> entrada : comptadors.entrySet()) {
+            sortida.append(primera ? "\n" : ",\n").append("    \"").append(entrada.getKey()).append("\": ")
+                    .append(Long.toString(entrada.getValue()));
+            primera = false;
+        }
+        sortida.append(primera ? "}\n}\n" : "\n  }\n}\n");
+    }
+
+    /**
+     * @brief Escriu les mètriques en el format de text de Prometheus
+     * @pre ---
+     * @post sortida conté l'histograma bewater_operacio_segons amb l'etiqueta operacio i un comptador bewater_<nom>_total
+     * per a cada comptador
+     * @exception IOException si hi ha un error d'escriptura
+     * @param sortida On s'escriuen les mètriques
+     */
+    public void escriurePrometheus(Appendable sortida) throws IOException {
+        sortida.append("# HELP bewater_operacio_segons Temps d'execució de les operacions del simulador\n")
+                .append("# TYPE bewater_operacio_segons histogram\n");
+        for (Map.Entry<String, Histograma> entrada : operacions.entrySet()) {
+            Histograma h = entrada.getValue();
+            String etiqueta = "operacio=\"" + entrada.getKey() + "\"";
+            long acumulat = 0;
+            for (int i = 0; i < NOMBRE_INTERVALS; i++) {
+                acumulat += h.intervals[i];
+                sortida.append("bewater_operacio_segons_bucket{").append(etiqueta).append(",le=\"").append(limit(i))
+                        .append("\"} ").append(Long.toString(acumulat)).append('\n');
+            }
+            sortida.append("bewater_operacio_segons_sum{").append(etiqueta).append("} ")
+                    .append(decimal(h.sumaNanos / 1e9)).append('\n');
+            sortida.append("bewater_operacio_segons_count{").append(etiqueta).append("} ")
+                    .append(Long.toString(h.nombre)).append('\n');
+        }
+        for (Map.Entry<String, Long> entrada : comptadors.entrySet()) {
+            String nom = "bewater_" + entrada.getKey() + "_total";
+            sortida.append("# TYPE ").append(nom).append(" counter\n")
+                    .append(nom).append(' ').append(Long.toString(entrada.getValue())).append('\n');
+        }
+    }
+
+    /**
+     * @brief Exporta les mètriques a un fitxer
+     * @pre format és JSON o PROMETHEUS
+     * @post fitxer conté les mètriques en el format indicat; el fitxer se substitueix sencer d'una sola vegada
+     * @exception IOException si hi ha un error d'escriptura
+     * @param fitxer Fitxer de destí
+     * @param format Format del fitxer
+     */
+    public void exportar(Path fitxer, String format) throws IOException {
+        Path directori = fitxer.toAbsolutePath().getParent();
+        Path temporal = Files.createTempFile(directori, fitxer.getFileName().toString(), ".tmp");
+        try {
+            try (Writer sortida = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+                if (JSON.equals(format)) {
+                    escriureJson(sortida);
+                } else {
+                    escriurePrometheus(sortida);
+                }
+            }
+            Files.move(temporal, fitxer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * @brief Retorna el format d'exportació que correspon a un fitxer
+     * @pre ---
+     * @post Retorna JSON si el nom del fitxer acaba en ".json", o PROMETHEUS en cas contrari
+     * @param fitxer Fitxer de destí
+     * @return Format del fitxer
+     */
+    public static String format(Path fitxer) {
+        return fitxer.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json") ? JSON : PROMETHEUS;
+    }
+
+    private static double limitSegons(int interval) {
+        return (1L << (PRIMER_EXPONENT + interval)) / 1e9;
+    }
+
+    private static String limit(int interval) {
+        return interval == NOMBRE_INTERVALS - 1 ? "+Inf" : decimal(limitSegons(interval));
+    }
+
+    private static String decimal(double valor) {
+        return String.format(Locale.ROOT, "%.9g", valor);
+    }
+}
@@ -0,0 +1,404 @@
+/**
+ * @file MotorCabals.java
+ * @brief Càlcul dels cabals i les demandes d'una xarxa de distribució d'aigua
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class MotorCabals
+ * @brief Reparteix la demanda dels terminals aigües amunt fins als orígens
+ * @details La demanda d'un node obert que no és terminal és la suma dels cabals de les seves canonades sortints, i
+ * es reparteix entre les canonades entrants obertes en proporció a la seva capacitat, sense superar-la. Un node
+ * tancat no demana, no rep ni deixa passar aigua. Els nodes es processen en ordre topològic invers (primer els de més
+ * avall), de manera que en un arbre o un graf acíclic n'hi ha prou amb una sola passada lineal. Els nodes que formen
+ * part d'un cicle, o que en són aigües amunt, es tornen a processar fins que cap cabal canvia més de la tolerància.
+ *
+ * Quan només canvia l'estat d'un node, propagar recalcula només la regió afectada: els nodes immediatament aigües
+ * avall (que reparteixen la demanda entre les seves entrades) i, a partir d'aquí, els nodes aigües amunt dels
+ * cabals que canvien, en el mateix ordre topològic invers. Fora dels cicles es propaga qualsevol canvi, per petit que
+ * sigui, perquè els canvis petits descartats s'acumularien; la tolerància només atura les voltes dins dels cicles.
+ */
+public class MotorCabals {
+    //Descripció general: Reparteix la demanda dels terminals aigües amunt fins als orígens
+
+    public static final float TOLERANCIA = 1e-4f;
+    public static final int MAX_ITERACIONS = 1000;
+
+    private NucliXarxa nucli;
+    private int versio = -1;
+    private int[] ordre = new int[0]; // ordre topològic invers, els nodes cíclics al final
+    private int nombreAciclics;
+    private int[] pendents = new int[0];
+    private int[] rang = new int[0]; // posició de cada node a ordre
+    private boolean ordreCompartit;  // ordre i rang es comparteixen amb un altre motor
+    private int iteracions;
+
+    // Comptadors acumulats des que es va crear el motor
+    private long passades;
+    private long propagacions;
+    private long nodesProcessats;
+
+    // Cua de prioritat per rang dels nodes pendents de propagar
+    private int[] monticle = new int[0];
+    private int midaMonticle;
+    private boolean[] encuat = new boolean[0];
+
+    /**
+     * @brief Calcula els cabals i les demandes de tota la xarxa
+     * @pre ---
+     * @post Cada canonada té el cabal que li correspon i cada node que no és terminal té la seva demanda. Retorna el
+     * nombre de passades fetes: 1 si la xarxa no té cicles, o les necessàries per convergir (com a molt MAX_ITERACIONS)
+     * @param nucli Nucli de la xarxa
+     * @return Nombre de passades fetes
+     */
+    public int resoldre(NucliXarxa nucli) {
+        EsdevenimentsJfr.CalculCabals esdeveniment = new EsdevenimentsJfr.CalculCabals();
+        esdeveniment.begin();
+        actualitzarOrdre(nucli);
+
+        for (int i = 0; i < nombreAciclics; i++) {
+            processar(ordre[i], true);
+        }
+
+        iteracions = 1;
+        if (nombreAciclics < nucli.nombreNodes()) {
+            float canvi = passadaCiclica();
+            while (canvi > 0 && iteracions < MAX_ITERACIONS) {
+                canvi = passadaCiclica();
+                iteracions++;
+            }
+        }
+        passades += iteracions;
+        if (esdeveniment.shouldCommit()) {
+            esdeveniment.nodes = nucli.nombreNodes();
+            esdeveniment.canonades = nucli.nombreCanonades();
+            esdeveniment.nodesCiclics = nucli.nombreNodes() - nombreAciclics;
+            esdeveniment.passades = iteracions;
+            esdeveniment.commit();
+        }
+        return iteracions;
+    }
+
+    /**
+     * @brief Actualitza els cabals després que hagi canviat l'estat d'un node
+     * @pre Només ha canviat l'aixeta, la demanda o el cabal potencial del node v des de l'últim càlcul
+     * @post Els cabals i les demandes són els mateixos que donaria resoldre, havent recalculat només els nodes
+     * afectats. Si la topologia ha canviat des de l'últim càlcul, es resol tota la xarxa
+     * @param nucli Nucli de la xarxa
+     * @param v Índex del node que ha canviat
+     */
+    public void propagar(NucliXarxa nucli, int v) {
+        if (this.nucli != nucli || versio != nucli.versioTopologia()) {
+            resoldre(nucli);
+            return;
+        }
+
+        EsdevenimentsJfr.PropagacioCabals esdeveniment = new EsdevenimentsJfr.PropagacioCabals();
+        esdeveniment.begin();
+        long processatsAbans = nodesProcessats;
+        propagacions++;
+        reservarCua();
+        encuarAfectats(v);
+        buidarCua();
+        registrarPropagacio(esdeveniment, 1, processatsAbans);
+    }
+
+    /**
+     * @brief Actualitza els cabals després que hagi canviat l'estat de diversos nodes
+     * @pre Només ha canviat l'aixeta, la demanda o el cabal potencial dels nodes[0 .. n) des de l'últim càlcul
+     * @post Els cabals i les demandes són els mateixos que donaria resoldre. Tots els nodes canviats es propaguen
+     * alhora, de manera que cada node afectat es processa en ordre topològic invers un sol cop (si no és cíclic)
+     * @param nucli Nucli de la xarxa
+     * @param nodes Índexs dels nodes que han canviat
+     * @param n Nombre de nodes que han canviat
+     */
+    public void propagar(NucliXarxa nucli, int[] nodes, int n) {
+        if (this.nucli != nucli || versio != nucli.versioTopologia()) {
+            resoldre(nucli);
+            return;
+        }
+
+        EsdevenimentsJfr.PropagacioCabals esdeveniment = new EsdevenimentsJfr.PropagacioCabals();
+        esdeveniment.begin();
+        long processatsAbans = nodesProcessats;
+        propagacions++;
+        reservarCua();
+        for (int i = 0; i < n; i++) {
+            encuarAfectats(nodes[i]);
+        }
+        buidarCua();
+        registrarPropagacio(esdeveniment, n, processatsAbans);
+    }
+
+    private void registrarPropagacio(EsdevenimentsJfr.PropagacioCabals esdeveniment, int canviats, long processatsAbans) {
+        if (esdeveniment.shouldCommit()) {
+            esdeveniment.nodes = nucli.nombreNodes();
+            esdeveniment.canonades = nucli.nombreCanonades();
+            esdeveniment.nodesCanviats = canviats;
+            esdeveniment.nodesProcessats = nodesProcessats - processatsAbans;
+            esdeveniment.commit();
+        }
+    }
+
+    private void reservarCua() {
+        if (encuat.length < nucli.nombreNodes()) {
+            monticle = new int[nucli.nombreNodes()];
+            encuat = new boolean[nucli.nombreNodes()];
+        }
+    }
+
+    private void encuarAfectats(int v) {
+        encuar(v);
+        for (int k = nucli.iniciSortides(v); k < nucli.fiSortides(v); k++) {
+            encuar(nucli.desti(nucli.sortida(k)));
+        }
+    }
+
+    private void buidarCua() {
+        // Els nodes cíclics es poden tornar a encuar: es limita el nombre total de passos
+        long passos = (long) MAX_ITERACIONS * nucli.nombreNodes();
+        while (midaMonticle > 0 && passos-- > 0) {
+            int u = desencuar();
+            if (processar(u, rang[u] < nombreAciclics) > 0) {
+                for (int k = nucli.iniciEntrades(u); k < nucli.fiEntrades(u); k++) {
+                    encuar(nucli.origen(nucli.entrada(k)));
+                }
+            }
+        }
+        while (midaMonticle > 0) {
+            encuat[desencuar()] = false;
+        }
+    }
+
+    /**
+     * @brief Retorna un motor per a una còpia del nucli d'aquest motor
+     * @pre copia és una còpia del nucli de l'últim càlcul d'aquest motor, sense modificacions de topologia
+     * @post Retorna un motor que reaprofita l'ordre dels nodes d'aquest, sense copiar-lo, de manera que la primera
+     * propagació sobre la còpia no ha de resoldre tota la xarxa
+     * @param copia Còpia del nucli
+     * @return Motor per a la còpia
+     */
+    public MotorCabals copiaPer(NucliXarxa copia) {
+        MotorCabals motor = new MotorCabals();
+        if (nucli != null && versio == copia.versioTopologia()) {
+            motor.nucli = copia;
+            motor.versio = versio;
+            motor.ordre = ordre;
+            motor.rang = rang;
+            motor.nombreAciclics = nombreAciclics;
+            motor.ordreCompartit = true;
+            ordreCompartit = true;
+        }
+        return motor;
+    }
+
+    /**
+     * @brief Retorna el nombre de passades de l'últim càlcul
+     * @pre ---
+     * @post Retorna el nombre de passades que va fer l'última crida a resoldre
+     * @return Nombre de passades
+     */
+    public int iteracions() {
+        return iteracions;
+    }
+
+    /**
+     * @brief Retorna el nombre total de passades de càlcul complet
+     * @pre ---
+     * @post Retorna la suma de les passades de totes les crides a resoldre d'aquest motor
+     * @return Nombre de passades
+     */
+    public long passades() {
+        return passades;
+    }
+
+    /**
+     * @brief Retorna el nombre de propagacions incrementals
+     * @pre ---
+     * @post Retorna quantes crides a propagar no han hagut de resoldre tota la xarxa
+     * @return Nombre de propagacions
+     */
+    public long propagacions() {
+        return propagacions;
+    }
+
+    /**
+     * @brief Retorna el nombre de nodes processats
+     * @pre ---
+     * @post Retorna quantes vegades s'ha recalculat la demanda d'un node i el cabal de les seves entrades, tant en els
+     * càlculs complets com en les propagacions
+     * @return Nombre de nodes processats
+     */
+    public long nodesProcessats() {
+        return nodesProcessats;
+    }
+
+    /**
+     * @brief Diu si la xarxa té cicles dirigits
+     * @pre ---
+     * @post Retorna true si algun node forma part d'un cicle dirigit o n'és aigües amunt
+     * @param nucli Nucli de la xarxa
+     * @return true si cal iterar per calcular els cabals
+     */
+    public boolean teCiclesDirigits(NucliXarxa nucli) {
+        actualitzarOrdre(nucli);
+        return nombreAciclics < nucli.nombreNodes();
+    }
+
+    /**
+     * @brief Processa una vegada els nodes que no tenen ordre topològic
+     * @pre actualitzarOrdre s'ha cridat amb el nucli actual
+     * @post Retorna 0 si cap cabal ha canviat més de la tolerància, o el canvi màxim en cas contrari
+     * @return Canvi màxim d'un cabal
+     */
+    private float passadaCiclica() {
+        float canvi = 0;
+        for (int i = nombreAciclics; i < nucli.nombreNodes(); i++) {
+            canvi = Math.max(canvi, processar(ordre[i], false));
+        }
+        return canvi;
+    }
+
+    /**
+     * @brief Calcula la demanda d'un node i el cabal de les seves canonades entrants
+     * @pre Els cabals de les canonades sortints del node ja estan calculats
+     * @post La demanda del node (si no és terminal) i el cabal de les canonades entrants estan actualitzats. Retorna
+     * el canvi més gran d'un cabal entrant (si no és exacte, només dels que superen la tolerància relativa), o 0 si
+     * no n'hi ha cap
+     * @param v Índex del node
+     * @param exacte Si compta qualsevol canvi, i no només els que superen la tolerància
+     * @return Canvi més gran d'un cabal entrant
+     */
+    private float processar(int v, boolean exacte) {
+        nodesProcessats++;
+        boolean obert = nucli.aixetaOberta(v);
+        float demanda;
+        if (nucli.tipus(v) == NucliXarxa.TERMINAL) {
+            demanda = obert ? nucli.demanda(v) : 0;
+        } else {
+            demanda = 0;
+            if (obert) {
+                for (int k = nucli.iniciSortides(v); k < nucli.fiSortides(v); k++) {
+                    demanda += nucli.cabal(nucli.sortida(k));
+                }
+            }
+            nucli.establirDemanda(v, demanda);
+            if (nucli.tipus(v) == NucliXarxa.CONNEXIO) {
+                nucli.establirCabalPotencial(v, demanda);
+            }
+        }
+
+        int inici = nucli.iniciEntrades(v);
+        int fi = nucli.fiEntrades(v);
+        double capacitatTotal = 0;
+        for (int k = inici; k < fi; k++) {
+            int canonada = nucli.entrada(k);
+            if (nucli.aixetaOberta(nucli.origen(canonada))) {
+                capacitatTotal += nucli.capacitat(canonada);
+            }
+        }
+
+        float canvi = 0;
+        for (int k = inici; k < fi; k++) {
+            int canonada = nucli.entrada(k);
+            float cabal = 0;
+            if (demanda > 0 && nucli.aixetaOberta(nucli.origen(canonada))) {
+                double cabalAssignat = (nucli.capacitat(canonada) / capacitatTotal) * demanda;
+                cabal = (float) Math.min(cabalAssignat, nucli.capacitat(canonada));  // No excedir la capacitat de la canonada
+            }
+            float diferencia = Math.abs(cabal - nucli.cabal(canonada));
+            if (exacte ? diferencia > 0 : diferencia > TOLERANCIA * Math.max(1, Math.abs(cabal))) {
+                canvi = Math.max(canvi, diferencia);
+            }
+            nucli.establirCabal(canonada, cabal);
+        }
+        return canvi;
+    }
+
+    /**
+     * @brief Recalcula l'ordre dels nodes si la topologia ha canviat
+     * @pre ---
+     * @post ordre conté tots els nodes: primer els acíclics en ordre topològic invers i després la resta per índex
+     * @param nucli Nucli de la xarxa
+     */
+    private void actualitzarOrdre(NucliXarxa nucli) {
+        if (this.nucli == nucli && versio == nucli.versioTopologia()) {
+            return;
+        }
+        this.nucli = nucli;
+        versio = nucli.versioTopologia();
+
+        int n = nucli.nombreNodes();
+        if (ordre.length < n || ordreCompartit) {
+            ordre = new int[n];
+            rang = new int[n];
+            ordreCompartit = false;
+        }
+        if (pendents.length < n) {
+            pendents = new int[n];
+        }
+        reservarCua();
+
+        // Algorisme de Kahn sobre el graf invers: un node està llest quan totes les seves sortides ho estan
+        int cap = 0;
+        for (int v = 0; v < n; v++) {
+            pendents[v] = nucli.grauSortida(v);
+            if (pendents[v] == 0) {
+                ordre[cap++] = v;
+            }
+        }
+        for (int cua = 0; cua < cap; cua++) {
+            int v = ordre[cua];
+            for (int k = nucli.iniciEntrades(v); k < nucli.fiEntrades(v); k++) {
+                int u = nucli.origen(nucli.entrada(k));
+                if (--pendents[u] == 0) {
+                    ordre[cap++] = u;
+                }
+            }
+        }
+        nombreAciclics = cap;
+
+        for (int v = 0; v < n && cap < n; v++) {
+            if (pendents[v] > 0) {
+                ordre[cap++] = v;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            rang[ordre[i]] = i;
+        }
+    }
+
+    private void encuar(int v) {
+        if (encuat[v]) {
+            return;
+        }
+        encuat[v] = true;
+        int i = midaMonticle++;
+        while (i > 0 && rang[monticle[(i - 1) >> 1]] > rang[v]) {
+            monticle[i] = monticle[(i - 1) >> 1];
+            i = (i - 1) >> 1;
+        }
+        monticle[i] = v;
+    }
+
+    private int desencuar() {
+        int v = monticle[0];
+        int ultim = monticle[--midaMonticle];
+        int i = 0;
+        while (2 * i + 1 < midaMonticle) {
+            int fill = 2 * i + 1;
+            if (fill + 1 < midaMonticle && rang[monticle[fill + 1]] < rang[monticle[fill]]) {
+                fill++;
+            }
+            if (rang[monticle[fill]] >= rang[ultim]) {
+                break;
+            }
+            monticle[i] = monticle[fill];
+            i = fill;
+        }
+        monticle[i] = ultim;
+        encuat[v] = false;
+        return v;
+    }
+}
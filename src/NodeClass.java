@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -15,6 +16,8 @@ public class NodeClass {
     private List<Canonada> edges;
     private float demanda;
     private float cabalPotencial;
+    private NucliXarxa nucli;
+    private int index = -1;
 
     /**
      * @brief Constructor
@@ -29,12 +32,41 @@ public class NodeClass {
 
         this.id = id;
         this.c = c;
-        this.edges = new ArrayList<>();
         this.aixetaOberta = true;
         this.demanda = 0;
         this.cabalPotencial = 0;
     }
 
+    /**
+     * @brief Constructor de vista
+     * @pre 0 <= index < nucli.nombreNodes()
+     * @post Crea un node amb identificador id que llegeix i escriu l'estat del node index de nucli
+     * @param id Identificador del node
+     * @param nucli Nucli on es guarda l'estat del node
+     * @param index Índex del node al nucli
+     */
+    NodeClass(String id, NucliXarxa nucli, int index) {
+        this.id = id;
+        this.c = null;
+        this.nucli = nucli;
+        this.index = index;
+    }
+
+    /**
+     * @brief Vincula el node a una posició d'un nucli
+     * @pre 0 <= index < nucli.nombreNodes()
+     * @post L'estat actual del node s'ha copiat al nucli, i a partir d'ara el node llegeix i escriu el nucli
+     * @param nucli Nucli on es guardarà l'estat del node
+     * @param index Índex del node al nucli
+     */
+    void vincular(NucliXarxa nucli, int index) {
+        nucli.establirDemanda(index, demandaActual());
+        nucli.establirCabalPotencial(index, cabalPotencialActual());
+        nucli.establirAixeta(index, aixetaObertaActual());
+        this.nucli = nucli;
+        this.index = index;
+    }
+
     /**
      * @brief Retorna l'identificador del node
      * @pre ---
@@ -56,6 +88,9 @@ public class NodeClass {
      * @param e Canonada a connectar al node
      */
     public void afegirEdge(Canonada e) {
+        if (edges == null) {
+            edges = new ArrayList<>();
+        }
         edges.add(e);
     }
 
@@ -66,7 +101,7 @@ public class NodeClass {
      * @return Llista de canonades connectades al node
      */
     public List<Canonada> getEdges() {
-        return edges;
+        return edges == null ? Collections.emptyList() : edges;
     }
 
     /**
@@ -80,7 +115,7 @@ public class NodeClass {
         //Pre:  ---
         //Post: Diu si l'aixeta del node està oberta
 
-        return aixetaOberta;
+        return aixetaObertaActual();
     }
 
     /**
@@ -93,7 +128,11 @@ public class NodeClass {
         //Pre:  ---
         //Post: L'aixeta del node està oberta
 
-        aixetaOberta = true;
+        if (nucli != null) {
+            nucli.establirAixeta(index, true);
+        } else {
+            aixetaOberta = true;
+        }
     }
 
     /**
@@ -106,7 +145,11 @@ public class NodeClass {
         //Pre:  ---
         //Post: L'aixeta del node està tancada
 
-        aixetaOberta = false;
+        if (nucli != null) {
+            nucli.establirAixeta(index, false);
+        } else {
+            aixetaOberta = false;
+        }
     }
 
     /**
@@ -126,6 +169,9 @@ public class NodeClass {
      * @return Coordenades del node
      */
     public Coordenades getCoordenades() {
+        if (c == null) {
+            return new Coordenades(nucli.latitud(index), nucli.longitud(index));
+        }
         return c;
     }
 
@@ -136,7 +182,7 @@ public class NodeClass {
      * @return Demanda d'aigua del node
      */
     public float getDemanda() {
-        return demanda;
+        return demandaActual();
     }
 
     /**
@@ -146,7 +192,7 @@ public class NodeClass {
      * @return Cabal potencial del node
      */
     public float getCabalPotencial() {
-        return cabalPotencial;
+        return cabalPotencialActual();
     }
 
     /**
@@ -162,7 +208,11 @@ public class NodeClass {
         // Post: El cabal d'aigua que surt de l'origen és cabal
         //Excepcions: IllegalArgumentException si cabal < 0
 
-        this.demanda = demandaPunta;
+        if (nucli != null) {
+            nucli.establirDemanda(index, demandaPunta);
+        } else {
+            this.demanda = demandaPunta;
+        }
     }
 
     /**
@@ -173,6 +223,39 @@ public class NodeClass {
      * @param cabalPotencial Cabal potencial
      */
     public void establirCabalPotencial(float cabalPotencial) {
-        this.cabalPotencial = cabalPotencial;
+        if (nucli != null) {
+            nucli.establirCabalPotencial(index, cabalPotencial);
+        } else {
+            this.cabalPotencial = cabalPotencial;
+        }
+    }
+
+    /**
+     * @brief Compara dos nodes
+     * @pre ---
+     * @post Retorna true si o és un node amb el mateix identificador
+     * @param o Objecte a comparar
+     * @return true si els nodes tenen el mateix identificador
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NodeClass && getID().equals(((NodeClass) o).getID());
+    }
+
+    @Override
+    public int hashCode() {
+        return getID().hashCode();
+    }
+
+    private float demandaActual() {
+        return nucli != null ? nucli.demanda(index) : demanda;
+    }
+
+    private float cabalPotencialActual() {
+        return nucli != null ? nucli.cabalPotencial(index) : cabalPotencial;
+    }
+
+    private boolean aixetaObertaActual() {
+        return nucli != null ? nucli.aixetaOberta(index) : aixetaOberta;
     }
 }
@@ -0,0 +1,800 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @file NucliXarxa.java
+ * @brief Nucli compacte d'una xarxa de distribució d'aigua indexat per enters
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class NucliXarxa
+ * @brief Graf dirigit de nodes i canonades guardat en vectors primitius paral·lels
+ * @details Els nodes i les canonades s'identifiquen pel seu índex d'inserció. Les adjacències es guarden en format
+ * CSR (compressed sparse row) per sortides i per entrades; es reconstrueixen en temps lineal la primera vegada que es
+ * consulten després d'haver afegit canonades. La cerca d'una canonada per parell (origen, destí) és O(1).
+ *
+ * Les còpies es fan en temps constant i comparteixen els vectors amb l'original (còpia en escriptura): els vectors es
+ * divideixen en grups, i la primera escriptura a un grup compartit, des de qualsevol dels nuclis, en fa una còpia
+ * pròpia abans d'escriure-hi. Així cap modificació d'un nucli no és visible des dels altres.
+ */
+public class NucliXarxa {
+    //Descripció general: Graf dirigit de nodes i canonades guardat en vectors primitius paral·lels
+
+    public static final byte ORIGEN = 0;
+    public static final byte CONNEXIO = 1;
+    public static final byte TERMINAL = 2;
+
+    private static final int CAPACITAT_INICIAL = 16;
+
+    private int nombreNodes;
+    private byte[] tipus;
+    private float[] latitud;
+    private float[] longitud;
+    private float[] demanda;
+    private float[] cabalPotencial;
+    private long[] aixetesTancades;
+
+    private int nombreCanonades;
+    private int[] origenCanonada;
+    private int[] destiCanonada;
+    private float[] capacitat;
+    private float[] cabal;
+
+    // Taula de dispersió oberta (origen, destí) -> canonada
+    private long[] clausParells;
+    private int[] canonadesParells;
+
+    // Adjacències CSR
+    private int[] iniciSortides;
+    private int[] sortides;
+    private int[] iniciEntrades;
+    private int[] entrades;
+    private boolean adjacenciesActualitzades;
+    private int versioTopologia;
+    private IndexDemandes indexDemandes = new IndexDemandes();
+
+    // Grups de vectors que es comparteixen amb una altra còpia i s'han de copiar abans d'escriure-hi
+    private boolean nodesCompartits;          // tipus, latitud, longitud
+    private boolean demandaCompartida;
+    private boolean cabalPotencialCompartit;
+    private boolean aixetesCompartides;
+    private boolean canonadesCompartides;     // origenCanonada, destiCanonada, capacitat
+    private boolean cabalCompartit;
+    private boolean parellsCompartits;        // clausParells, canonadesParells
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Crea un nucli de xarxa buit
+     */
+    public NucliXarxa() {
+        //Pre: ---
+        //Post: Crea un nucli de xarxa buit
+
+        tipus = new byte[CAPACITAT_INICIAL];
+        latitud = new float[CAPACITAT_INICIAL];
+        longitud = new float[CAPACITAT_INICIAL];
+        demanda = new float[CAPACITAT_INICIAL];
+        cabalPotencial = new float[CAPACITAT_INICIAL];
+        aixetesTancades = new long[1];
+
+        origenCanonada = new int[CAPACITAT_INICIAL];
+        destiCanonada = new int[CAPACITAT_INICIAL];
+        capacitat = new float[CAPACITAT_INICIAL];
+        cabal = new float[CAPACITAT_INICIAL];
+
+        clausParells = new long[2 * CAPACITAT_INICIAL];
+        canonadesParells = new int[2 * CAPACITAT_INICIAL];
+        Arrays.fill(canonadesParells, -1);
+
+        iniciSortides = new int[1];
+        sortides = new int[0];
+        iniciEntrades = new int[1];
+        entrades = new int[0];
+        adjacenciesActualitzades = true;
+    }
+
+    /**
+     * @brief Constructor de còpia
+     * @pre ---
+     * @post Crea un nucli amb el mateix contingut que original, que en comparteix tots els vectors; original i el nou
+     * nucli en faran una còpia pròpia abans d'escriure-hi
+     * @param original Nucli a copiar
+     */
+    private NucliXarxa(NucliXarxa original) {
+        original.marcarCompartit();
+        marcarCompartit();
+
+        nombreNodes = original.nombreNodes;
+        tipus = original.tipus;
+        latitud = original.latitud;
+        longitud = original.longitud;
+        demanda = original.demanda;
+        cabalPotencial = original.cabalPotencial;
+        aixetesTancades = original.aixetesTancades;
+
+        nombreCanonades = original.nombreCanonades;
+        origenCanonada = original.origenCanonada;
+        destiCanonada = original.destiCanonada;
+        capacitat = original.capacitat;
+        cabal = original.cabal;
+
+        clausParells = original.clausParells;
+        canonadesParells = original.canonadesParells;
+
+        // Les adjacències CSR no es modifiquen mai un cop construïdes: es poden compartir
+        iniciSortides = original.iniciSortides;
+        sortides = original.sortides;
+        iniciEntrades = original.iniciEntrades;
+        entrades = original.entrades;
+        adjacenciesActualitzades = original.adjacenciesActualitzades;
+        versioTopologia = original.versioTopologia;
+        indexDemandes = original.indexDemandes.copia();
+    }
+
+    /**
+     * @brief Retorna una còpia independent del nucli
+     * @pre ---
+     * @post Retorna un nucli amb el mateix contingut, en temps constant. Les modificacions posteriors de qualsevol dels
+     * dos nuclis no són visibles des de l'altre
+     * @return Còpia del nucli
+     */
+    public NucliXarxa copia() {
+        return new NucliXarxa(this);
+    }
+
+    private void marcarCompartit() {
+        nodesCompartits = true;
+        demandaCompartida = true;
+        cabalPotencialCompartit = true;
+        aixetesCompartides = true;
+        canonadesCompartides = true;
+        cabalCompartit = true;
+        parellsCompartits = true;
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Nodes
+    //-------------------------------------------------------------------------------------------------
+
+    /**
+     * @brief Afegeix un node al nucli
+     * @pre tipusNode és ORIGEN, CONNEXIO o TERMINAL
+     * @post S'ha afegit un node amb l'aixeta oberta, demanda i cabal potencial 0
+     * @param tipusNode Tipus del node
+     * @param lat Latitud del node
+     * @param lon Longitud del node
+     * @return Índex del nou node
+     */
+    public int afegirNode(byte tipusNode, float lat, float lon) {
+        if (nombreNodes == tipus.length) {
+            int novaMida = nombreNodes + (nombreNodes >> 1) + 1;
+            tipus = Arrays.copyOf(tipus, novaMida);
+            latitud = Arrays.copyOf(latitud, novaMida);
+            longitud = Arrays.copyOf(longitud, novaMida);
+            demanda = Arrays.copyOf(demanda, novaMida);
+            cabalPotencial = Arrays.copyOf(cabalPotencial, novaMida);
+            nodesCompartits = false;
+            demandaCompartida = false;
+            cabalPotencialCompartit = false;
+        } else if (nodesCompartits) {
+            tipus = tipus.clone();
+            latitud = latitud.clone();
+            longitud = longitud.clone();
+            nodesCompartits = false;
+        }
+        if ((nombreNodes >>> 6) >= aixetesTancades.length) {
+            aixetesTancades = Arrays.copyOf(aixetesTancades, aixetesTancades.length * 2);
+            aixetesCompartides = false;
+        }
+        int node = nombreNodes++;
+        tipus[node] = tipusNode;
+        latitud[node] = lat;
+        longitud[node] = lon;
+        adjacenciesActualitzades = false;
+        versioTopologia++;
+        return node;
+    }
+
+    /**
+     * @brief Elimina l'últim node afegit
+     * @pre nombreNodes() > 0 i cap canonada no toca l'últim node
+     * @post El nucli té un node menys; les vistes que apuntaven a aquest node deixen de ser vàlides
+     */
+    public void eliminarUltimNode() {
+        int node = --nombreNodes;
+        establirDemanda(node, 0);
+        establirCabalPotencial(node, 0);
+        establirAixeta(node, true);
+        adjacenciesActualitzades = false;
+        versioTopologia++;
+    }
+
+    /**
+     * @brief Retorna el nombre de nodes
+     * @pre ---
+     * @post Retorna el nombre de nodes del nucli
+     * @return Nombre de nodes
+     */
+    public int nombreNodes() {
+        return nombreNodes;
+    }
+
+    /**
+     * @brief Retorna el tipus d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna ORIGEN, CONNEXIO o TERMINAL
+     * @param node Índex del node
+     * @return Tipus del node
+     */
+    public byte tipus(int node) {
+        return tipus[node];
+    }
+
+    /**
+     * @brief Retorna la latitud d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna la latitud del node
+     * @param node Índex del node
+     * @return Latitud del node
+     */
+    public float latitud(int node) {
+        return latitud[node];
+    }
+
+    /**
+     * @brief Retorna la longitud d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna la longitud del node
+     * @param node Índex del node
+     * @return Longitud del node
+     */
+    public float longitud(int node) {
+        return longitud[node];
+    }
+
+    /**
+     * @brief Retorna la demanda d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna la demanda del node
+     * @param node Índex del node
+     * @return Demanda del node
+     */
+    public float demanda(int node) {
+        return demanda[node];
+    }
+
+    /**
+     * @brief Estableix la demanda d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post La demanda del node és valor
+     * @param node Índex del node
+     * @param valor Nova demanda
+     */
+    public void establirDemanda(int node, float valor) {
+        if (demandaCompartida) {
+            demanda = demanda.clone();
+            demandaCompartida = false;
+        }
+        demanda[node] = valor;
+        if (tipus[node] == TERMINAL) {
+            indexDemandes.demandaCanviada(this, node, valor);
+        }
+    }
+
+    /**
+     * @brief Retorna el cabal potencial d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna el cabal potencial del node
+     * @param node Índex del node
+     * @return Cabal potencial del node
+     */
+    public float cabalPotencial(int node) {
+        return cabalPotencial[node];
+    }
+
+    /**
+     * @brief Estableix el cabal potencial d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post El cabal potencial del node és valor
+     * @param node Índex del node
+     * @param valor Nou cabal potencial
+     */
+    public void establirCabalPotencial(int node, float valor) {
+        if (cabalPotencialCompartit) {
+            cabalPotencial = cabalPotencial.clone();
+            cabalPotencialCompartit = false;
+        }
+        cabalPotencial[node] = valor;
+    }
+
+    /**
+     * @brief Diu si l'aixeta d'un node està oberta
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna true si l'aixeta del node està oberta, false en cas contrari
+     * @param node Índex del node
+     * @return true si l'aixeta està oberta
+     */
+    public boolean aixetaOberta(int node) {
+        return (aixetesTancades[node >>> 6] & (1L << node)) == 0;
+    }
+
+    /**
+     * @brief Obre o tanca l'aixeta d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post L'aixeta del node està oberta si oberta és cert, tancada altrament
+     * @param node Índex del node
+     * @param oberta Nou estat de l'aixeta
+     */
+    public void establirAixeta(int node, boolean oberta) {
+        if (oberta == aixetaOberta(node)) {
+            return;
+        }
+        if (aixetesCompartides) {
+            aixetesTancades = aixetesTancades.clone();
+            aixetesCompartides = false;
+        }
+        if (oberta) {
+            aixetesTancades[node >>> 6] &= ~(1L << node);
+        } else {
+            aixetesTancades[node >>> 6] |= 1L << node;
+        }
+        indexDemandes.aixetaCanviada(this, node, oberta);
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Canonades
+    //-------------------------------------------------------------------------------------------------
+
+    /**
+     * @brief Afegeix una canonada dirigida d'origen a desti
+     * @pre 0 <= origen, desti < nombreNodes() i no hi ha cap canonada entre origen i desti en cap sentit
+     * @post S'ha afegit la canonada amb cabal 0
+     * @param origen Índex del node d'inici
+     * @param desti Índex del node de destí
+     * @param cap Capacitat de la canonada
+     * @return Índex de la nova canonada
+     */
+    public int afegirCanonada(int origen, int desti, float cap) {
+        if (nombreCanonades == origenCanonada.length) {
+            int novaMida = nombreCanonades + (nombreCanonades >> 1) + 1;
+            origenCanonada = Arrays.copyOf(origenCanonada, novaMida);
+            destiCanonada = Arrays.copyOf(destiCanonada, novaMida);
+            capacitat = Arrays.copyOf(capacitat, novaMida);
+            cabal = Arrays.copyOf(cabal, novaMida);
+            canonadesCompartides = false;
+            cabalCompartit = false;
+        } else {
+            separarCanonades();
+            separarCabal();
+        }
+        int canonada = nombreCanonades++;
+        origenCanonada[canonada] = origen;
+        destiCanonada[canonada] = desti;
+        capacitat[canonada] = cap;
+        cabal[canonada] = 0;
+        if (2 * nombreCanonades > clausParells.length) {
+            redimensionarParells();
+        } else {
+            separarParells();
+        }
+        inserirParell(origen, desti, canonada);
+        adjacenciesActualitzades = false;
+        versioTopologia++;
+        return canonada;
+    }
+
+    /**
+     * @brief Elimina l'última canonada afegida
+     * @pre nombreCanonades() > 0
+     * @post El nucli té una canonada menys; les vistes que apuntaven a aquesta canonada deixen de ser vàlides
+     */
+    public void eliminarUltimaCanonada() {
+        int canonada = --nombreCanonades;
+        separarParells();
+        eliminarParell(origenCanonada[canonada], destiCanonada[canonada]);
+        adjacenciesActualitzades = false;
+        versioTopologia++;
+    }
+
+    /**
+     * @brief Retorna la canonada d'origen a desti
+     * @pre ---
+     * @post Retorna l'índex de la canonada amb sentit de l'aigua d'origen a desti, o -1 si no n'hi ha cap
+     * @param origen Índex del node d'inici
+     * @param desti Índex del node de destí
+     * @return Índex de la canonada o -1
+     */
+    public int canonada(int origen, int desti) {
+        long clau = clauParell(origen, desti);
+        int mascara = clausParells.length - 1;
+        for (int i = dispersio(clau) & mascara; canonadesParells[i] != -1; i = (i + 1) & mascara) {
+            if (clausParells[i] == clau) {
+                return canonadesParells[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @brief Retorna el nombre de canonades
+     * @pre ---
+     * @post Retorna el nombre de canonades del nucli
+     * @return Nombre de canonades
+     */
+    public int nombreCanonades() {
+        return nombreCanonades;
+    }
+
+    /**
+     * @brief Retorna el node d'inici d'una canonada
+     * @pre 0 <= canonada < nombreCanonades()
+     * @post Retorna l'índex del node d'inici de la canonada
+     * @param canonada Índex de la canonada
+     * @return Índex del node d'inici
+     */
+    public int origen(int canonada) {
+        return origenCanonada[canonada];
+    }
+
+    /**
+     * @brief Retorna el node de destí d'una canonada
+     * @pre 0 <= canonada < nombreCanonades()
+     * @post Retorna l'índex del node de destí de la canonada
+     * @param canonada Índex de la canonada
+     * @return Índex del node de destí
+     */
+    public int desti(int canonada) {
+        return destiCanonada[canonada];
+    }
+
+    /**
+     * @brief Retorna la capacitat d'una canonada
+     * @pre 0 <= canonada < nombreCanonades()
+     * @post Retorna la capacitat de la canonada
+     * @param canonada Índex de la canonada
+     * @return Capacitat de la canonada
+     */
+    public float capacitat(int canonada) {
+        return capacitat[canonada];
+    }
+
+    /**
+     * @brief Estableix la capacitat d'una canonada
+     * @pre 0 <= canonada < nombreCanonades()
+     * @post La capacitat de la canonada és valor
+     * @param canonada Índex de la canonada
+     * @param valor Nova capacitat
+     */
+    public void establirCapacitat(int canonada, float valor) {
+        separarCanonades();
+        capacitat[canonada] = valor;
+    }
+
+    /**
+     * @brief Retorna el cabal que circula per una canonada
+     * @pre 0 <= canonada < nombreCanonades()
+     * @post Retorna el cabal de la canonada
+     * @param canonada Índex de la canonada
+     * @return Cabal de la canonada
+     */
+    public float cabal(int canonada) {
+        return cabal[canonada];
+    }
+
+    /**
+     * @brief Estableix el cabal que circula per una canonada
+     * @pre 0 <= canonada < nombreCanonades()
+     * @post El cabal de la canonada és valor
+     * @param canonada Índex de la canonada
+     * @param valor Nou cabal
+     */
+    public void establirCabal(int canonada, float valor) {
+        separarCabal();
+        cabal[canonada] = valor;
+    }
+
+    private void separarCanonades() {
+        if (canonadesCompartides) {
+            origenCanonada = origenCanonada.clone();
+            destiCanonada = destiCanonada.clone();
+            capacitat = capacitat.clone();
+            canonadesCompartides = false;
+        }
+    }
+
+    private void separarCabal() {
+        if (cabalCompartit) {
+            cabal = cabal.clone();
+            cabalCompartit = false;
+        }
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Adjacències
+    //-------------------------------------------------------------------------------------------------
+
+    /**
+     * @brief Retorna la primera posició de les canonades sortints d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Les canonades sortints del node són sortida(k) per a iniciSortides(node) <= k < fiSortides(node)
+     * @param node Índex del node
+     * @return Posició inicial
+     */
+    public int iniciSortides(int node) {
+        actualitzarAdjacencies();
+        return iniciSortides[node];
+    }
+
+    /**
+     * @brief Retorna la posició següent a l'última canonada sortint d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna la posició final (exclosa) de les canonades sortints del node
+     * @param node Índex del node
+     * @return Posició final
+     */
+    public int fiSortides(int node) {
+        actualitzarAdjacencies();
+        return iniciSortides[node + 1];
+    }
+
+    /**
+     * @brief Retorna la canonada sortint de la posició k
+     * @pre iniciSortides(node) <= k < fiSortides(node) per a algun node
+     * @post Retorna l'índex de la canonada
+     * @param k Posició dins les sortides
+     * @return Índex de la canonada
+     */
+    public int sortida(int k) {
+        return sortides[k];
+    }
+
+    /**
+     * @brief Retorna la primera posició de les canonades entrants a un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Les canonades entrants al node són entrada(k) per a iniciEntrades(node) <= k < fiEntrades(node)
+     * @param node Índex del node
+     * @return Posició inicial
+     */
+    public int iniciEntrades(int node) {
+        actualitzarAdjacencies();
+        return iniciEntrades[node];
+    }
+
+    /**
+     * @brief Retorna la posició següent a l'última canonada entrant a un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna la posició final (exclosa) de les canonades entrants al node
+     * @param node Índex del node
+     * @return Posició final
+     */
+    public int fiEntrades(int node) {
+        actualitzarAdjacencies();
+        return iniciEntrades[node + 1];
+    }
+
+    /**
+     * @brief Retorna la canonada entrant de la posició k
+     * @pre iniciEntrades(node) <= k < fiEntrades(node) per a algun node
+     * @post Retorna l'índex de la canonada
+     * @param k Posició dins les entrades
+     * @return Índex de la canonada
+     */
+    public int entrada(int k) {
+        return entrades[k];
+    }
+
+    /**
+     * @brief Retorna el nombre de canonades entrants a un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna el nombre de canonades entrants al node
+     * @param node Índex del node
+     * @return Grau d'entrada del node
+     */
+    public int grauEntrada(int node) {
+        return fiEntrades(node) - iniciEntrades(node);
+    }
+
+    /**
+     * @brief Retorna el nombre de canonades sortints d'un node
+     * @pre 0 <= node < nombreNodes()
+     * @post Retorna el nombre de canonades sortints del node
+     * @param node Índex del node
+     * @return Grau de sortida del node
+     */
+    public int grauSortida(int node) {
+        return fiSortides(node) - iniciSortides(node);
+    }
+
+    /**
+     * @brief Retorna la demanda dels terminals que pengen d'un node
+     * @pre 0 <= node < nombreNodes(); la component del node és un arbre amb arrel al node
+     * @post Retorna la suma de les demandes dels terminals de la component, sense comptar el node, als quals arriba
+     * l'aigua des del node sense passar per cap aixeta tancada, en temps O(log n) si la topologia no ha canviat des de l'última consulta
+     * @param node Índex del node arrel
+     * @return Demanda total dels terminals que pengen del node
+     */
+    public double demandaSubarbre(int node) {
+        return indexDemandes.demandaSubarbre(this, node);
+    }
+
+    /**
+     * @brief Retorna la versió de la topologia
+     * @pre ---
+     * @post Retorna un comptador que augmenta cada vegada que s'afegeix o s'elimina un node o una canonada
+     * @return Versió de la topologia
+     */
+    public int versioTopologia() {
+        return versioTopologia;
+    }
+
+    /**
+     * @brief Reconstrueix les adjacències CSR si s'han afegit nodes o canonades
+     * @pre ---
+     * @post Les adjacències CSR corresponen als nodes i canonades actuals, en ordre d'inserció dins de cada node
+     */
+    private void actualitzarAdjacencies() {
+        if (adjacenciesActualitzades) {
+            return;
+        }
+        iniciSortides = new int[nombreNodes + 1];
+        iniciEntrades = new int[nombreNodes + 1];
+        for (int c = 0; c < nombreCanonades; c++) {
+            iniciSortides[origenCanonada[c] + 1]++;
+            iniciEntrades[destiCanonada[c] + 1]++;
+        }
+        for (int v = 0; v < nombreNodes; v++) {
+            iniciSortides[v + 1] += iniciSortides[v];
+            iniciEntrades[v + 1] += iniciEntrades[v];
+        }
+        sortides = new int[nombreCanonades];
+        entrades = new int[nombreCanonades];
+        int[] posSortida = Arrays.copyOf(iniciSortides, nombreNodes);
+        int[] posEntrada = Arrays.copyOf(iniciEntrades, nombreNodes);
+        for (int c = 0; c < nombreCanonades; c++) {
+            sortides[posSortida[origenCanonada[c]]++] = c;
+            entrades[posEntrada[destiCanonada[c]]++] = c;
+        }
+        adjacenciesActualitzades = true;
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Instantànies
+    //-------------------------------------------------------------------------------------------------
+
+    /**
+     * @brief Escriu el nucli en una instantània
+     * @pre ---
+     * @post escriptor conté les seccions dels nodes (tipus, coordenades, demanda, cabal potencial i aixetes) i de les
+     * canonades (extrems, capacitat i cabal)
+     * @exception IOException si hi ha un error d'escriptura
+     * @param escriptor Escriptor de la instantània
+     */
+    public void desar(Instantania.Escriptor escriptor) throws IOException {
+        escriptor.bytes(tipus, nombreNodes);
+        escriptor.floats(latitud, nombreNodes);
+        escriptor.floats(longitud, nombreNodes);
+        escriptor.floats(demanda, nombreNodes);
+        escriptor.floats(cabalPotencial, nombreNodes);
+        escriptor.longs(aixetesTancades, (nombreNodes + 63) >>> 6);
+        escriptor.ints(origenCanonada, nombreCanonades);
+        escriptor.ints(destiCanonada, nombreCanonades);
+        escriptor.floats(capacitat, nombreCanonades);
+        escriptor.floats(cabal, nombreCanonades);
+    }
+
+    /**
+     * @brief Llegeix un nucli d'una instantània
+     * @pre Les seccions següents de lector són les que escriu desar
+     * @post Retorna un nucli amb els nodes, les canonades, les demandes, les aixetes i els cabals de la instantània. La
+     * taula de parells es refà en temps lineal; les adjacències i els índexs derivats es refan a la primera consulta
+     * @exception IOException si hi ha un error de lectura
+     * @param lector Lector de la instantània
+     * @return Nucli llegit
+     */
+    public static NucliXarxa llegir(Instantania.Lector lector) throws IOException {
+        int n = lector.nombreNodes();
+        int m = lector.nombreCanonades();
+        int capacitatNodes = Math.max(CAPACITAT_INICIAL, n);
+        int capacitatCanonades = Math.max(CAPACITAT_INICIAL, m);
+
+        NucliXarxa nucli = new NucliXarxa();
+        nucli.nombreNodes = n;
+        nucli.tipus = lector.bytes(n, capacitatNodes);
+        nucli.latitud = lector.floats(n, capacitatNodes);
+        nucli.longitud = lector.floats(n, capacitatNodes);
+        nucli.demanda = lector.floats(n, capacitatNodes);
+        nucli.cabalPotencial = lector.floats(n, capacitatNodes);
+        nucli.aixetesTancades = lector.longs((n + 63) >>> 6, Math.max(1, (n + 63) >>> 6));
+
+        nucli.nombreCanonades = m;
+        nucli.origenCanonada = lector.ints(m, capacitatCanonades);
+        nucli.destiCanonada = lector.ints(m, capacitatCanonades);
+        nucli.capacitat = lector.floats(m, capacitatCanonades);
+        nucli.cabal = lector.floats(m, capacitatCanonades);
+
+        int midaParells = 2 * CAPACITAT_INICIAL;
+        while (midaParells < 2 * m) {
+            midaParells *= 2;
+        }
+        nucli.clausParells = new long[midaParells];
+        nucli.canonadesParells = new int[midaParells];
+        Arrays.fill(nucli.canonadesParells, -1);
+        for (int c = 0; c < m; c++) {
+            nucli.inserirParell(nucli.origenCanonada[c], nucli.destiCanonada[c], c);
+        }
+
+        nucli.adjacenciesActualitzades = false;
+        nucli.versioTopologia = n + m;
+        return nucli;
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Taula de parells
+    //-------------------------------------------------------------------------------------------------
+
+    private static long clauParell(int origen, int desti) {
+        return ((long) origen << 32) | (desti & 0xFFFFFFFFL);
+    }
+
+    private static int dispersio(long clau) {
+        long h = clau * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void inserirParell(int origen, int desti, int canonada) {
+        long clau = clauParell(origen, desti);
+        int mascara = clausParells.length - 1;
+        int i = dispersio(clau) & mascara;
+        while (canonadesParells[i] != -1) {
+            i = (i + 1) & mascara;
+        }
+        clausParells[i] = clau;
+        canonadesParells[i] = canonada;
+    }
+
+    /**
+     * @brief Treu un parell de la taula d'adreçament obert
+     * @pre El parell (origen, desti) és a la taula
+     * @post El parell ja no hi és; les entrades següents del mateix grup es desplacen enrere perquè es continuïn trobant
+     */
+    private void eliminarParell(int origen, int desti) {
+        long clau = clauParell(origen, desti);
+        int mascara = clausParells.length - 1;
+        int i = dispersio(clau) & mascara;
+        while (clausParells[i] != clau || canonadesParells[i] == -1) {
+            i = (i + 1) & mascara;
+        }
+        canonadesParells[i] = -1;
+        for (int j = (i + 1) & mascara; canonadesParells[j] != -1; j = (j + 1) & mascara) {
+            int ideal = dispersio(clausParells[j]) & mascara;
+            // L'entrada de j es pot moure al forat i si la seva posició ideal no és dins de (i, j]
+            if (((j - ideal) & mascara) >= ((j - i) & mascara)) {
+                clausParells[i] = clausParells[j];
+                canonadesParells[i] = canonadesParells[j];
+                canonadesParells[j] = -1;
+                i = j;
+            }
+        }
+    }
+
+    private void separarParells() {
+        if (parellsCompartits) {
+            clausParells = clausParells.clone();
+            canonadesParells = canonadesParells.clone();
+            parellsCompartits = false;
+        }
+    }
+
+    private void redimensionarParells() {
+        parellsCompartits = false;
+        clausParells = new long[clausParells.length * 2];
+        canonadesParells = new int[clausParells.length];
+        Arrays.fill(canonadesParells, -1);
+        for (int c = 0; c < nombreCanonades - 1; c++) {
+            inserirParell(origenCanonada[c], destiCanonada[c], c);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.SingleGraph;
+import org.graphstream.ui.view.Viewer;
+
+/**
+ * @file ProjeccioGraphStream.java
+ * @brief Projecció d'una xarxa de distribució d'aigua a un graf de GraphStream per visualitzar-la
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class ProjeccioGraphStream
+ * @brief Visualitzador que construeix un graf de GraphStream a partir del nucli d'una xarxa
+ * @details El graf només es construeix quan es vol dibuixar la xarxa; la simulació no en depèn.
+ */
+public class ProjeccioGraphStream implements Visualitzador {
+    //Descripció general: Visualitzador que projecta una xarxa a un graf de GraphStream
+
+    /**
+     * @brief Construeix el graf de GraphStream d'una xarxa
+     * @pre ---
+     * @post Retorna un graf amb un node per cada node de la xarxa i una aresta dirigida per cada canonada
+     * @param x Xarxa a projectar
+     * @return Graf de GraphStream de la xarxa
+     */
+    public static Graph projectar(Xarxa x) {
+        NucliXarxa nucli = x.nucli();
+        Graph g = new SingleGraph("Xarxa");
+
+        for (int v = 0; v < nucli.nombreNodes(); v++) {
+            Node node = g.addNode(x.idNode(v));
+            node.setAttribute("ui.label", x.idNode(v));
+            node.setAttribute("xy", nucli.longitud(v), nucli.latitud(v));
+            if (nucli.tipus(v) == NucliXarxa.ORIGEN) {
+                node.setAttribute("ui.style", "fill-color: red; size: 25px; text-size: 15;");
+            } else if (nucli.tipus(v) == NucliXarxa.TERMINAL) {
+                node.setAttribute("ui.style", "fill-color: green; size: 25px; text-size: 15;");
+            } else {
+                node.setAttribute("ui.style", "fill-color: blue; size: 25px; text-size: 15;");
+            }
+        }
+
+        for (int c = 0; c < nucli.nombreCanonades(); c++) {
+            String idNode1 = x.idNode(nucli.origen(c));
+            String idNode2 = x.idNode(nucli.desti(c));
+            Edge edge = g.addEdge(idNode1 + idNode2, idNode1, idNode2, true);
+            edge.setAttribute("ui.label", nucli.cabal(c) + " / " + nucli.capacitat(c));
+        }
+
+        return g;
+    }
+
+    /**
+     * @brief Dibuixa una xarxa de distribució d'aigua
+     * @pre ---
+     * @post Mostra la xarxa amb l'estat de les aixetes i la demanda dels terminals
+     * @param x Xarxa a dibuixar
+     */
+    @Override
+    public void dibuixar(Xarxa x) {
+        NucliXarxa nucli = x.nucli();
+        Graph g = projectar(x);
+        String styleSheet =
+                "node {" +
+                        "fill-color: black;" +
+                        "size: 25px;" +
+                        "text-size: 15;" +
+                        "}" +
+                        "node.origen {" +
+                        "fill-color: red;" +
+                        "}" +
+                        "node.terminal {" +
+                        "fill-color: green;" +
+                        "}" +
+                        "node.connexio {" +
+                        "fill-color: blue;" +
+                        "}" +
+                        "edge {" +
+                        "fill-color: grey;" +
+                        "arrow-size: 15px, 3px;" +
+                        "}";
+        g.setAttribute("ui.stylesheet", styleSheet);
+        for (Node node : g) {
+            if (node.getDegree() > 0) {
+                int v = x.index(node.getId());
+                String aixetaEstat = nucli.aixetaOberta(v) ? "Oberta" : "Tancada";
+                String label = node.getId() + " " + aixetaEstat + " " + nucli.longitud(v) + ", " + nucli.latitud(v);
+                if (nucli.tipus(v) == NucliXarxa.TERMINAL) {
+                    label += " Demanda punta: " + nucli.cabalPotencial(v) + " Demanda actual: " + nucli.demanda(v);
+                }
+                node.setAttribute("ui.label", label);
+            }
+        }
+        mostrar(g);
+    }
+
+    /**
+     * @brief Dibuixa el flux d'una xarxa de distribució d'aigua
+     * @pre ---
+     * @post Mostra la xarxa amb el flux i la capacitat de cada canonada
+     * @param x Xarxa a dibuixar
+     */
+    @Override
+    public void dibuixarFlux(Xarxa x) {
+        NucliXarxa nucli = x.nucli();
+        Graph g = projectar(x);
+        for (int c = 0; c < nucli.nombreCanonades(); c++) {
+            Edge edge = g.getEdge(x.idNode(nucli.origen(c)) + x.idNode(nucli.desti(c)));
+            edge.setAttribute("ui.label", "Flux: " + nucli.cabal(c) + "/" + nucli.capacitat(c));
+        }
+        String styleSheet =
+                "node {" +
+                        "   text-mode: normal;" +
+                        "   text-background-mode: rounded-box;" +
+                        "   text-background-color: white;" +
+                        "   text-alignment: above;" +
+                        "}";
+        g.setAttribute("ui.stylesheet", styleSheet);
+        mostrar(g);
+    }
+
+    private static void mostrar(Graph g) {
+        g.setAttribute("ui.quality");
+        g.setAttribute("ui.antialias");
+        System.setProperty("org.graphstream.ui", "swing");
+        Viewer viewer = g.display();
+        viewer.setCloseFramePolicy(Viewer.CloseFramePolicy.HIDE_ONLY);
+    }
+}
@@ -0,0 +1,368 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * @file RegistreOperacions.java
+ * @brief Registre durable de les operacions que modifiquen la xarxa del simulador
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class RegistreOperacions
+ * @brief Fitxer on només s'afegeixen, numerades, les operacions del guió que modifiquen la xarxa, i que es força a
+ * disc per grups
+ * @details El fitxer comença amb una capçalera de MIDA_CAPCALERA bytes (MAGIC i VERSIO) i després té un registre per
+ * operació, en little-endian:
+ *
+ *     0  int   longitud del text de l'operació
+ *     4  int   CRC-32C del número i el text
+ *     8  long  número de l'operació, consecutiu
+ *     16       text de l'operació, tal com era al guió (el nom i els paràmetres, una línia per valor)
+ *
+ * Les operacions s'acumulen en memòria i s'escriuen i es forcen a disc totes juntes (un sol write i un sol force per
+ * grup) quan fa intervalConfirmacio que la primera del grup espera o quan el grup és gran. Si el programa s'atura a
+ * mig grup, com a molt es perden les operacions d'aquest grup: en obrir el registre es descarten els registres
+ * incomplets o malmesos del final.
+ *
+ * El registre treballa amb les instantànies: un punt de control desa la xarxa amb el número de la darrera operació
+ * aplicada i buida el registre. Per recuperar la xarxa es carrega el punt de control i es tornen a executar només
+ * les operacions posteriors, que operacionsDes dona en el mateix format que un fitxer d'operacions.
+ */
+public class RegistreOperacions implements Closeable {
+    //Descripció general: Registre durable de les operacions que modifiquen la xarxa del simulador
+
+    public static final int MAGIC = 0x4C585742; // "BWXL" en little-endian
+    public static final int VERSIO = 1;
+    public static final int MIDA_CAPCALERA = 16;
+    public static final long INTERVAL_PER_DEFECTE = 5;  // mil·lisegons
+
+    private static final int MIDA_CAPCALERA_REGISTRE = 16;
+    private static final int MIDA_GRUP = 1 << 18;       // bytes a partir dels quals es confirma el grup
+
+    private final FileChannel canal;
+    private final long intervalConfirmacio;             // nanosegons
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer pendents = ByteBuffer.allocate(MIDA_GRUP + 4096).order(ByteOrder.LITTLE_ENDIAN);
+    private long primerPendent;                         // System.nanoTime() de la primera operació del grup
+    private long fi;                                    // mida confirmada del fitxer
+    private long darreraOperacio;
+    private long nombreOperacions;                      // operacions al registre des de l'últim buidat
+    private long grups;
+    private long descartats;
+
+    /**
+     * @brief Constructor
+     * @pre intervalMillis >= 0
+     * @post Obre el registre de fitxer, o el crea buit si no existeix. Els registres incomplets o malmesos del final,
+     * que deixa una aturada a mig grup, s'eliminen del fitxer
+     * @exception IOException si no es pot obrir o no és un registre d'operacions
+     * @param fitxer Fitxer del registre
+     * @param intervalMillis Temps màxim, en mil·lisegons, que una operació espera abans de forçar-se a disc; amb 0 es
+     * força cada operació
+     */
+    public RegistreOperacions(Path fitxer, long intervalMillis) throws IOException {
+        intervalConfirmacio = intervalMillis * 1_000_000L;
+        canal = FileChannel.open(fitxer, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            if (canal.size() == 0) {
+                ByteBuffer capcalera = ByteBuffer.allocate(MIDA_CAPCALERA).order(ByteOrder.LITTLE_ENDIAN);
+                capcalera.putInt(0, MAGIC).putInt(4, VERSIO);
+                while (capcalera.hasRemaining()) {
+                    canal.write(capcalera, capcalera.position());
+                }
+                canal.force(true);
+            }
+            fi = recorrer(fitxer);
+            if (canal.size() > fi) {
+                descartats = canal.size() - fi;
+                canal.truncate(fi);
+                canal.force(true);
+            }
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @brief Afegeix una operació
+     * @pre text[0 .. mida) és el text d'una operació sencera, tal com era al guió, i mida > 0
+     * @post L'operació té el número darreraOperacio() + 1 i és al grup pendent; si el grup ja s'ha de confirmar, s'ha
+     * escrit i forçat a disc
+     * @exception IOException si hi ha un error d'escriptura
+     * @param text Bytes de l'operació
+     * @param mida Nombre de bytes de l'operació
+     */
+    public void afegir(byte[] text, int mida) throws IOException {
+        if (pendents.remaining() < MIDA_CAPCALERA_REGISTRE + mida + 1) {
+            ByteBuffer mesGran = ByteBuffer.allocate(2 * pendents.capacity() + mida).order(ByteOrder.LITTLE_ENDIAN);
+            pendents.flip();
+            pendents = mesGran.put(pendents);
+        }
+        if (pendents.position() == 0) {
+            primerPendent = System.nanoTime();
+        }
+        int inici = pendents.position();
+        pendents.position(inici + MIDA_CAPCALERA_REGISTRE);
+        pendents.put(text, 0, mida);
+        byte darrer = pendents.get(pendents.position() - 1);
+        if (darrer != '\n' && darrer != '\r') {
+            // L'última línia del guió no té delimitador; el text de cada operació l'ha de tenir
+            pendents.put((byte) '\n');
+        }
+        int longitud = pendents.position() - inici - MIDA_CAPCALERA_REGISTRE;
+        pendents.putLong(inici + 8, ++darreraOperacio);
+        crc.reset();
+        crc.update(pendents.array(), inici + 8, longitud + Long.BYTES);
+        pendents.putInt(inici, longitud).putInt(inici + 4, (int) crc.getValue());
+        nombreOperacions++;
+        confirmarSiCal();
+    }
+
+    /**
+     * @brief Confirma el grup pendent si ja toca
+     * @pre ---
+     * @post Si la primera operació pendent fa intervalConfirmacio que espera o el grup és gran, el grup és a disc
+     * @exception IOException si hi ha un error d'escriptura
+     */
+    public void confirmarSiCal() throws IOException {
+        if (pendents.position() > 0
+                && (pendents.position() >= MIDA_GRUP || System.nanoTime() - primerPendent >= intervalConfirmacio)) {
+            confirmar();
+        }
+    }
+
+    /**
+     * @brief Confirma el grup pendent
+     * @pre ---
+     * @post Totes les operacions afegides són al fitxer i forçades a disc
+     * @exception IOException si hi ha un error d'escriptura
+     */
+    public void confirmar() throws IOException {
+        if (pendents.position() == 0) {
+            return;
+        }
+        pendents.flip();
+        while (pendents.hasRemaining()) {
+            fi += canal.write(pendents, fi);
+        }
+        canal.force(false);
+        pendents.clear();
+        grups++;
+    }
+
+    /**
+     * @brief Buida el registre després d'un punt de control
+     * @pre La xarxa amb totes les operacions del registre aplicades s'ha desat en una instantània
+     * @post El registre no té cap operació; les següents continuen la numeració
+     * @exception IOException si hi ha un error d'escriptura
+     */
+    public void buidar() throws IOException {
+        confirmar();
+        canal.truncate(MIDA_CAPCALERA);
+        canal.force(true);
+        fi = MIDA_CAPCALERA;
+        nombreOperacions = 0;
+    }
+
+    /**
+     * @brief Continua la numeració a partir d'una operació
+     * @pre ---
+     * @post Les operacions que s'afegeixin tindran números més grans que operacio i que darreraOperacio()
+     * @param operacio Darrera operació inclosa en el punt de control d'on es parteix
+     */
+    public void continuarDes(long operacio) {
+        darreraOperacio = Math.max(darreraOperacio, operacio);
+    }
+
+    /**
+     * @brief Retorna les operacions del registre posteriors a una operació
+     * @pre No s'ha afegit cap operació des que s'ha obert el registre
+     * @post Retorna un canal amb el text de les operacions amb número més gran que operacio, en ordre, que es pot
+     * llegir amb LectorOrdres
+     * @param operacio Darrera operació que no s'ha de tornar a executar
+     * @return Canal de lectura de les operacions
+     */
+    public ReadableByteChannel operacionsDes(long operacio) {
+        return new Operacions(new Entrada(canal, fi), operacio);
+    }
+
+    // Consultors
+    public long darreraOperacio() {
+        return darreraOperacio;
+    }
+
+    public long nombreOperacions() {
+        return nombreOperacions;
+    }
+
+    public long grups() {
+        return grups;
+    }
+
+    public long bytesDescartats() {
+        return descartats;
+    }
+
+    /**
+     * @brief Tanca el registre
+     * @pre ---
+     * @post Les operacions pendents són a disc i el fitxer està tancat
+     * @exception IOException si hi ha un error d'escriptura
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            confirmar();
+        } finally {
+            canal.close();
+        }
+    }
+
+    /**
+     * @brief Comprova la capçalera i els registres del fitxer
+     * @pre ---
+     * @post Retorna la posició on acaba l'últim registre sencer i correcte; darreraOperacio i nombreOperacions en
+     * compten els registres
+     * @exception IOException si el fitxer no és un registre d'operacions o no es pot llegir
+     */
+    private long recorrer(Path fitxer) throws IOException {
+        Entrada entrada = new Entrada(canal, canal.size());
+        entrada.posicio = 0;
+        if (!entrada.garantir(MIDA_CAPCALERA) || entrada.bytes.getInt() != MAGIC) {
+            throw new IOException("El fitxer no és un registre d'operacions: " + fitxer);
+        }
+        int versio = entrada.bytes.getInt();
+        if (versio != VERSIO) {
+            throw new IOException("Versió de registre d'operacions no suportada: " + versio);
+        }
+        entrada.bytes.position(MIDA_CAPCALERA);
+        long valid = MIDA_CAPCALERA;
+        while (entrada.garantir(MIDA_CAPCALERA_REGISTRE)) {
+            int longitud = entrada.bytes.getInt();
+            int crcEsperat = entrada.bytes.getInt();
+            if (longitud < 0 || longitud > entrada.limit - valid || !entrada.garantir(Long.BYTES + longitud)) {
+                break;
+            }
+            ByteBuffer bytes = entrada.bytes;
+            long operacio = bytes.getLong(bytes.position());
+            crc.reset();
+            crc.update(bytes.array(), bytes.position(), Long.BYTES + longitud);
+            if ((int) crc.getValue() != crcEsperat || (nombreOperacions > 0 && operacio != darreraOperacio + 1)) {
+                break;
+            }
+            bytes.position(bytes.position() + Long.BYTES + longitud);
+            darreraOperacio = operacio;
+            nombreOperacions++;
+            valid += MIDA_CAPCALERA_REGISTRE + longitud;
+        }
+        return valid;
+    }
+
+    /**
+     * @class Entrada
+     * @brief Lectura seqüencial d'un tros del fitxer amb un buffer, sense moure la posició del canal
+     */
+    private static final class Entrada {
+        private final FileChannel canal;
+        private final long limit;
+        private ByteBuffer bytes = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN).flip();
+        private long posicio = MIDA_CAPCALERA;  // posició del fitxer del primer byte no llegit al buffer
+
+        private Entrada(FileChannel canal, long limit) {
+            this.canal = canal;
+            this.limit = limit;
+        }
+
+        /**
+         * @brief Garanteix que el buffer té n bytes per consumir
+         * @pre n >= 0
+         * @post Retorna true si els n bytes següents són al buffer a partir de la seva posició, o false si el tros del
+         * fitxer s'acaba abans
+         */
+        private boolean garantir(int n) throws IOException {
+            if (bytes.remaining() >= n) {
+                return true;
+            }
+            if (n > bytes.capacity()) {
+                ByteBuffer mesGran = ByteBuffer.allocate(Math.max(n, 2 * bytes.capacity()));
+                bytes = mesGran.order(ByteOrder.LITTLE_ENDIAN).put(bytes).flip();
+            }
+            bytes.compact();
+            while (bytes.position() < n && posicio < limit) {
+                int maxim = (int) Math.min(bytes.remaining(), limit - posicio);
+                ByteBuffer tros = bytes.duplicate();
+                tros.limit(tros.position() + maxim);
+                int llegits = canal.read(tros, posicio);
+                if (llegits < 0) {
+                    break;
+                }
+                posicio += llegits;
+                bytes.position(bytes.position() + llegits);
+            }
+            bytes.flip();
+            return bytes.remaining() >= n;
+        }
+    }
+
+    /**
+     * @class Operacions
+     * @brief Canal amb el text de les operacions del registre posteriors a una operació
+     * @details Només llegeix la part del fitxer que el constructor del registre ja ha comprovat.
+     */
+    private static final class Operacions implements ReadableByteChannel {
+        private final Entrada entrada;
+        private final long desDe;
+        private int restants;   // bytes del text de l'operació actual que encara no s'han llegit
+        private boolean obert = true;
+
+        private Operacions(Entrada entrada, long desDe) {
+            this.entrada = entrada;
+            this.desDe = desDe;
+        }
+
+        @Override
+        public int read(ByteBuffer desti) throws IOException {
+            while (restants == 0) {
+                if (!entrada.garantir(MIDA_CAPCALERA_REGISTRE)) {
+                    return -1;
+                }
+                int longitud = entrada.bytes.getInt();
+                entrada.bytes.getInt();
+                long operacio = entrada.bytes.getLong();
+                entrada.garantir(longitud);
+                if (operacio <= desDe) {
+                    entrada.bytes.position(entrada.bytes.position() + longitud);
+                } else {
+                    restants = longitud;
+                }
+            }
+            ByteBuffer bytes = entrada.bytes;
+            int n = Math.min(restants, desti.remaining());
+            ByteBuffer tros = bytes.duplicate();
+            tros.limit(tros.position() + n);
+            desti.put(tros);
+            bytes.position(bytes.position() + n);
+            restants -= n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return obert;
+        }
+
+        @Override
+        public void close() {
+            obert = false;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @file ServidorXarxa.java
+ * @brief Servidor que manté una xarxa en memòria i executa les operacions que li envien els clients
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class ServidorXarxa
+ * @brief Manté la xarxa d'un simulador en memòria i executa les operacions que arriben per un sòcol local o per
+ * l'entrada estàndard, amb el mateix format que un guió
+ * @details Les operacions que modifiquen la xarxa s'executen d'una en una, en l'ordre en què arriben, sobre la xarxa
+ * del simulador (amb el registre d'operacions i les mètriques, si n'hi ha). Les consultes s'executen en paral·lel en
+ * un conjunt de fils, cadascuna sobre el seu propi clon d'una instantània de la xarxa: la instantània es fa, en temps
+ * constant, amb totes les modificacions aplicades quan arriba la consulta, i es reutilitza mentre no n'hi ha de noves.
+ * Així una consulta veu sempre un estat coherent i no atura les modificacions ni les altres consultes. Cada fil de
+ * consultes té el seu motor de flux màxim, que fa servir per a tots els clons i els comptadors del qual s'afegeixen a
+ * les mètriques del simulador.
+ *
+ * Cada operació rep com a resposta les línies del seu resultat seguides d'una línia buida, en l'ordre en què s'han
+ * enviat les operacions per la mateixa connexió.
+ */
+public class ServidorXarxa {
+    //Descripció general: Servidor que manté una xarxa en memòria i executa les operacions que li envien els clients
+
+    private static final int RESPOSTES_PENDENTS = 1024;
+    private static final Future<String> FI = CompletableFuture.completedFuture(null);
+
+    private final SimuladorModeText simulador;
+    private final ExecutorService consultes;
+    private final ScheduledExecutorService confirmacions;   // null si no hi ha registre d'operacions
+    private final AtomicInteger connexions = new AtomicInteger();
+    private volatile long modificacions;                    // operacions de modificació executades
+    private volatile Vista vista;                           // darrera instantània publicada, o null
+    private final List<FluxMaxim> motorsFlux = new CopyOnWriteArrayList<>();  // un per fil de consultes
+    private final ThreadLocal<FluxMaxim> motorFlux = ThreadLocal.withInitial(() -> {
+        FluxMaxim motor = new FluxMaxim();
+        motorsFlux.add(motor);
+        return motor;
+    });
+
+    /**
+     * @class Vista
+     * @brief Instantània de la xarxa per a consultes i nombre de modificacions que té aplicades
+     * @details La xarxa no es consulta mai directament: cada consulta en fa un clon, amb el monitor de la vista, perquè
+     * clonar marca les dades de l'original com a compartides.
+     */
+    private static final class Vista {
+        private final Xarxa xarxa;
+        private final long modificacions;
+
+        private Vista(Xarxa xarxa, long modificacions) {
+            this.xarxa = xarxa;
+            this.modificacions = modificacions;
+        }
+    }
+
+    /**
+     * @brief Constructor
+     * @pre intervalRegistre >= 0
+     * @post Crea un servidor de la xarxa de simulador, amb un fil de consultes per processador. Si el simulador té
+     * registre d'operacions, les operacions registrades es forcen a disc com a molt intervalRegistre mil·lisegons
+     * després d'executar-se, encara que no n'arribin de noves
+     * @param simulador Simulador amb la xarxa, el registre i les mètriques
+     * @param intervalRegistre Temps màxim, en mil·lisegons, que una operació espera abans de forçar-se a disc
+     */
+    public ServidorXarxa(SimuladorModeText simulador, long intervalRegistre) {
+        this.simulador = simulador;
+        AtomicInteger fils = new AtomicInteger();
+        consultes = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), tasca -> {
+            Thread fil = new Thread(tasca, "bewater-consulta-" + fils.incrementAndGet());
+            fil.setDaemon(true);
+            return fil;
+        });
+        if (simulador.registre() != null) {
+            confirmacions = Executors.newSingleThreadScheduledExecutor(tasca -> {
+                Thread fil = new Thread(tasca, "bewater-registre");
+                fil.setDaemon(true);
+                return fil;
+            });
+            long periode = Math.max(1, intervalRegistre);
+            confirmacions.scheduleAtFixedRate(() -> {
+                synchronized (simulador) {
+                    simulador.confirmarRegistreSiCal();
+                }
+            }, periode, periode, TimeUnit.MILLISECONDS);
+        } else {
+            confirmacions = null;
+        }
+        simulador.establirMotorsFluxConsultes(motorsFlux);
+    }
+
+    /**
+     * @brief Serveix operacions
+     * @pre adreca és "-" o un número de port
+     * @post Amb "-", ha executat les operacions de l'entrada estàndard, n'ha escrit les respostes a la sortida
+     * estàndard i ha acabat el servei. Amb un port, atén indefinidament les connexions locals a aquest port, cadascuna
+     * en un fil propi; el servei s'acaba en aturar el programa
+     * @exception IOException si no es pot obrir el port
+     * @exception NumberFormatException si adreca no és "-" ni un número
+     * @param adreca "-" o port on s'escolta
+     */
+    public void servir(String adreca) throws IOException {
+        if (adreca.equals("-")) {
+            try {
+                atendre(Channels.newChannel(System.in), System.out);
+            } finally {
+                acabar();
+            }
+            return;
+        }
+        int port = Integer.parseInt(adreca);
+        try (ServerSocket servidor = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                acabar();
+                System.out.flush();
+            }, "bewater-aturada"));
+            System.out.println("Servidor escoltant al port " + servidor.getLocalPort());
+            System.out.flush();
+            while (true) {
+                Socket connexio = servidor.accept();
+                Thread fil = new Thread(() -> atendre(connexio), "bewater-connexio-" + connexions.incrementAndGet());
+                fil.start();
+            }
+        }
+    }
+
+    /**
+     * @brief Atén una connexió
+     * @pre ---
+     * @post S'han executat les operacions rebudes per connexio fins que el client l'ha tancada, se n'han enviat les
+     * respostes i la connexió està tancada
+     */
+    private void atendre(Socket connexio) {
+        try (Socket socol = connexio) {
+            socol.setTcpNoDelay(true);
+            atendre(Channels.newChannel(socol.getInputStream()), socol.getOutputStream());
+        } catch (IOException e) {
+            System.out.println("Error en la connexió: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @brief Executa les operacions d'un canal d'entrada
+     * @pre ---
+     * @post S'han executat les operacions d'entrada fins al final i les respostes, en ordre, són a sortida. Si una
+     * operació no es pot llegir, la resposta és el missatge d'error i no es llegeix res més
+     */
+    private void atendre(ReadableByteChannel entrada, OutputStream sortida) throws IOException {
+        BlockingQueue<Future<String>> respostes = new ArrayBlockingQueue<>(RESPOSTES_PENDENTS);
+        Thread emissor = new Thread(() -> emetre(respostes, sortida), Thread.currentThread().getName() + "-respostes");
+        emissor.start();
+        // El fil de la connexió ja espera les dades del client: el canal no en fa cap altre
+        CanalOrdres canal = new CanalOrdres(new LectorOrdres(entrada), SimuladorModeText::parametres,
+                simulador.registre() != null ? SimuladorModeText::esModificacio : null, false);
+        try {
+            for (CanalOrdres.Ordre ordre = canal.seguent(); ordre != null; ordre = canal.seguent()) {
+                posar(respostes, executar(ordre));
+            }
+        } catch (IOException | RuntimeException e) {
+            posar(respostes, CompletableFuture.completedFuture("Error en llegir l'operació: " + e.getMessage()
+                    + System.lineSeparator()));
+        } finally {
+            posar(respostes, FI);
+            try {
+                emissor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            canal.close();
+        }
+    }
+
+    /**
+     * @brief Executa una operació
+     * @pre ordre és la darrera ordre del canal
+     * @post Si ordre és una consulta, s'està executant en un fil de consultes sobre una instantània que té aplicades
+     * totes les modificacions anteriors; si no, s'ha executat sobre la xarxa del simulador. Retorna el resultat, que
+     * en el primer cas pot no estar disponible encara; si l'operació falla, el resultat és el missatge d'error
+     * @return Resultat de l'operació
+     */
+    private Future<String> executar(CanalOrdres.Ordre ordre) {
+        String operacio = ordre.operacio();
+        if (SimuladorModeText.esConsulta(operacio)) {
+            Vista actual = vistaActual();
+            CanalOrdres.Ordre consulta = ordre.copia();
+            return consultes.submit(() -> consultar(actual, consulta));
+        }
+        String resultat;
+        synchronized (simulador) {
+            try {
+                resultat = simulador.respondre(ordre);
+            } catch (RuntimeException e) {
+                resultat = "Error en executar l'operació: " + e + System.lineSeparator();
+            } finally {
+                if (SimuladorModeText.esModificacio(operacio)) {
+                    modificacions++;
+                }
+            }
+        }
+        return CompletableFuture.completedFuture(resultat);
+    }
+
+    /**
+     * @brief Retorna la instantània de la xarxa amb totes les modificacions executades
+     * @pre ---
+     * @post Si la darrera vista no té totes les modificacions executades, se n'ha publicat una de nova, que es retorna
+     * @return Vista de la xarxa
+     */
+    private Vista vistaActual() {
+        Vista actual = vista;
+        if (actual == null || actual.modificacions != modificacions) {
+            synchronized (simulador) {
+                actual = vista;
+                if (actual == null || actual.modificacions != modificacions) {
+                    actual = new Vista(simulador.instantania(), modificacions);
+                    vista = actual;
+                }
+            }
+        }
+        return actual;
+    }
+
+    /**
+     * @brief Executa una consulta en un fil de consultes
+     * @pre Es crida des d'un fil de consultes
+     * @post Ha executat consulta sobre un clon de actual que fa servir el motor de flux màxim del fil, i en retorna el
+     * resultat. Mentre dura, el motor està bloquejat perquè les mètriques no en llegeixin els comptadors a mig canviar
+     * @return Resultat de la consulta
+     */
+    private String consultar(Vista actual, CanalOrdres.Ordre consulta) {
+        FluxMaxim motor = motorFlux.get();
+        Xarxa xarxa;
+        synchronized (actual) {
+            xarxa = actual.xarxa.clonar(motor);
+        }
+        synchronized (motor) {
+            return SimuladorModeText.consultar(xarxa, consulta);
+        }
+    }
+
+    /**
+     * @brief Cos del fil que envia les respostes d'una connexió
+     * @pre ---
+     * @post Ha escrit a sortida, en ordre, cada resposta de respostes seguida d'una línia buida fins a FI. Si sortida
+     * falla, continua traient les respostes sense escriure-les perquè la connexió no s'aturi esperant lloc a la cua
+     */
+    private void emetre(BlockingQueue<Future<String>> respostes, OutputStream sortida) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(sortida, StandardCharsets.UTF_8), 1 << 16);
+        boolean error = false;
+        try {
+            for (Future<String> resposta = respostes.take(); resposta != FI; resposta = respostes.take()) {
+                String text = resultat(resposta);
+                if (error) {
+                    continue;
+                }
+                try {
+                    writer.write(text);
+                    writer.write(System.lineSeparator());
+                    // Les respostes que ja esperen s'envien juntes
+                    if (respostes.isEmpty()) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    error = true;
+                }
+            }
+            if (!error) {
+                writer.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // El client ja no llegeix les respostes
+        }
+    }
+
+    /**
+     * @brief Espera el resultat d'una operació
+     * @pre ---
+     * @post Retorna el resultat de resposta o, si l'operació ha fallat, el missatge d'error
+     */
+    private static String resultat(Future<String> resposta) throws InterruptedException {
+        try {
+            return resposta.get();
+        } catch (ExecutionException e) {
+            return "Error en la consulta: " + e.getCause() + System.lineSeparator();
+        }
+    }
+
+    private static void posar(BlockingQueue<Future<String>> respostes, Future<String> resposta) {
+        try {
+            respostes.put(resposta);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @brief Acaba el servei
+     * @pre ---
+     * @post Les operacions registrades són a disc i les mètriques exportades, sense esperar les consultes en curs
+     */
+    private void acabar() {
+        if (confirmacions != null) {
+            confirmacions.shutdownNow();
+        }
+        consultes.shutdown();
+        synchronized (simulador) {
+            simulador.acabar();
+        }
+    }
+}
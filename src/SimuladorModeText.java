@@ -5,13 +5,17 @@
  * Pau Domenech Villahermosa
  */
 
-import org.graphstream.graph.Node;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Scanner;
-import java.io.File;
+import java.io.StringWriter;
 import java.io.FileNotFoundException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.util.*;
 
@@ -26,10 +30,33 @@ public class SimuladorModeText {
     //Descripció general: Simula les operacions de construcció, modificació i consulta d'una xarxa de distribució
     // d'aigua a partir d'un fitxer de text
 
-    private final Xarxa x;
+    private Xarxa x;
+
+    private Visualitzador visualitzador;
 
     private final GestorXarxes gestor;
 
+    private final boolean missatgesAlResultat;  // els missatges de les consultes van al resultat i no a la consola
+
+    private StringWriter resposta;                // resultat de respondre, que es reutilitza
+    private PrintWriter writerResposta;
+
+    private Metriques metriques;         // null si no es recullen mètriques
+    private Path fitxerMetriques;
+    private long intervalMetriques;      // nanosegons entre dues exportacions, o 0 per exportar només al final
+    private long properaExportacio;
+
+    private String formatSortida = SortidaResultats.TEXT;
+
+    public static final String FITXER_REGISTRE = "operacions.log";
+    public static final String FITXER_PUNT_CONTROL = "punt-control.bin";
+
+    private RegistreOperacions registre;  // null si no es registren les operacions
+    private Path puntControl;             // instantània del darrer punt de control
+    private long operacionsPuntControl;   // operacions registrades entre dos punts de control, o 0
+    private final StringBuilder desfetes = new StringBuilder();  // entrades que ha desfet el darrer backtrack
+    private List<FluxMaxim> motorsFluxConsultes = List.of();     // motors dels fils de consultes del servidor
+
     /**
      * @brief Constructor
      * @pre ---
@@ -39,6 +66,146 @@ public class SimuladorModeText {
 
         this.gestor = new GestorXarxes();
         this.x = new Xarxa();
+        this.missatgesAlResultat = false;
+    }
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Crea un simulador que consulta x, sense registre ni mètriques, que escriu tots els resultats de les
+     * consultes a la sortida de resultats
+     * @param x Xarxa a consultar
+     */
+    private SimuladorModeText(Xarxa x) {
+        this.gestor = new GestorXarxes();
+        this.x = x;
+        this.missatgesAlResultat = true;
+    }
+
+    /**
+     * @brief Estableix on es dibuixa la xarxa en acabar la simulació
+     * @pre ---
+     * @post La xarxa es dibuixarà a visualitzador; si és null, la simulació no carrega cap interfície gràfica
+     * @param visualitzador Destí on es dibuixa la xarxa, o null
+     */
+    public void establirVisualitzador(Visualitzador visualitzador) {
+        this.visualitzador = visualitzador;
+        x.establirVisualitzador(visualitzador);
+    }
+
+    /**
+     * @brief Substitueix la xarxa del simulador per la d'una instantània
+     * @pre ---
+     * @post Les operacions següents s'apliquen a la xarxa desada a fitxer, que manté el visualitzador establert
+     * @exception IOException si la instantània no es pot llegir o està malmesa
+     * @param fitxer Fitxer de la instantània
+     */
+    public void carregar(Path fitxer) throws IOException {
+        Xarxa carregada = Xarxa.carregar(fitxer);
+        carregada.establirVisualitzador(visualitzador);
+        x = carregada;
+    }
+
+    /**
+     * @brief Desa la xarxa del simulador en una instantània
+     * @pre ---
+     * @post fitxer conté la xarxa actual, amb els cabals calculats
+     * @exception IOException si hi ha un error d'escriptura
+     * @param fitxer Fitxer de la instantània
+     */
+    public void desar(Path fitxer) throws IOException {
+        if (x.carregant()) {
+            x.confirmarCarrega();
+        }
+        x.desar(fitxer);
+    }
+
+    /**
+     * @brief Estableix el format del fitxer de sortida
+     * @pre format és SortidaResultats.TEXT, CSV o JSONL
+     * @post Les simulacions següents escriuen els resultats en format; per defecte, en text
+     * @param format Format dels resultats
+     */
+    public void establirFormatSortida(String format) {
+        formatSortida = format;
+    }
+
+    /**
+     * @brief Activa la recollida de mètriques de la simulació
+     * @pre intervalSegons >= 0
+     * @post Les simulacions mesuren el temps de cada operació i, en acabar (i cada intervalSegons si no és 0),
+     * escriuen les mètriques a fitxer, en JSON si acaba en ".json" o en format de text de Prometheus si no. Si fitxer és
+     * null, no es recull cap mètrica
+     * @param fitxer Fitxer de mètriques, o null
+     * @param intervalSegons Segons entre dues exportacions durant la simulació, o 0
+     */
+    public void establirMetriques(Path fitxer, long intervalSegons) {
+        fitxerMetriques = fitxer;
+        metriques = fitxer == null ? null : new Metriques();
+        intervalMetriques = intervalSegons * 1_000_000_000L;
+    }
+
+    /**
+     * @brief Activa el registre d'operacions i recupera la xarxa que s'hi ha desat
+     * @pre intervalMillis >= 0, operacionsPuntControl >= 0
+     * @post Si directori té un punt de control, la xarxa del simulador és la del punt de control; s'han tornat a
+     * executar les operacions registrades després del punt de control i, si n'hi havia, s'ha fet un punt de control
+     * nou. A partir d'ara cada operació que modifica la xarxa s'afegeix al registre, que es força a disc per grups cada
+     * intervalMillis, i cada operacionsPuntControl operacions (si no és 0) es fa un punt de control. Retorna el nombre
+     * d'operacions recuperades del registre
+     * @exception IOException si el registre o el punt de control no es poden llegir o escriure
+     * @param directori Directori on es guarden el registre (FITXER_REGISTRE) i el punt de control (FITXER_PUNT_CONTROL)
+     * @param intervalMillis Temps màxim, en mil·lisegons, que una operació espera abans de forçar-se a disc
+     * @param operacionsPuntControl Operacions entre dos punts de control, o 0 per fer-ne només en recuperar
+     * @return Nombre d'operacions recuperades
+     */
+    public long establirRegistre(Path directori, long intervalMillis, long operacionsPuntControl) throws IOException {
+        Files.createDirectories(directori);
+        Path instantania = directori.resolve(FITXER_PUNT_CONTROL);
+        boolean hiHaPuntControl = Files.exists(instantania);
+        long base = 0;
+        if (hiHaPuntControl) {
+            base = Instantania.operacio(instantania);
+            carregar(instantania);
+        }
+        RegistreOperacions obert = new RegistreOperacions(directori.resolve(FITXER_REGISTRE), intervalMillis);
+        long recuperades;
+        try (CanalOrdres canal = new CanalOrdres(new LectorOrdres(obert.operacionsDes(base)),
+                SimuladorModeText::parametres, null);
+             PrintWriter descartada = new PrintWriter(Writer.nullWriter())) {
+            recuperades = executar(canal, descartada, null);
+        } catch (IOException | RuntimeException e) {
+            obert.close();
+            throw e;
+        }
+        obert.continuarDes(base);
+        registre = obert;
+        puntControl = instantania;
+        this.operacionsPuntControl = operacionsPuntControl;
+        if (recuperades > 0 || obert.nombreOperacions() > 0 || (!hiHaPuntControl && x.nucli().nombreNodes() > 0)) {
+            ferPuntControl();
+        }
+        return recuperades;
+    }
+
+    /**
+     * @brief Retorna el registre d'operacions
+     * @pre ---
+     * @post Retorna el registre d'operacions del simulador, o null si no s'ha activat
+     * @return Registre d'operacions
+     */
+    public RegistreOperacions registre() {
+        return registre;
+    }
+
+    /**
+     * @brief Retorna les mètriques recollides
+     * @pre ---
+     * @post Retorna les mètriques de les simulacions fetes, o null si no s'han activat
+     * @return Mètriques del simulador
+     */
+    public Metriques metriques() {
+        return metriques;
     }
 
     /*
@@ -67,277 +234,755 @@ public class SimuladorModeText {
         // fitxer. Si alguna operació no es pot realitzar, es mostrarà un missatge d'error per la sortida estàndard.
 
         try {
-            File file = new File(arg);
-            Scanner scanner = new Scanner(file);
-            PrintWriter writer = new PrintWriter(fitxer, "UTF-8");
-
-            while (scanner.hasNextLine()) {
-                String operacio = scanner.nextLine();
-
-                switch (operacio) {
-                    case "terminal":
-                        String idTerminal = scanner.nextLine();
-                        Coordenades cTerminal = new Coordenades(scanner.nextLine());
-                        float demandaPuntaTerminal = Float.parseFloat(scanner.nextLine());
-                        x.afegir(new Terminal(idTerminal, cTerminal, demandaPuntaTerminal));
-                        break;
-                    case "origen":
-                        String idOrigen = scanner.nextLine();
-                        Coordenades cOrigen = new Coordenades(scanner.nextLine());
-                        x.afegir(new Origen(idOrigen, cOrigen));
-                        break;
-                    case "connexio":
-                        String idConnexio = scanner.nextLine();
-                        Coordenades cConnexio = new Coordenades(scanner.nextLine());
-                        x.afegir(new Connexio(idConnexio, cConnexio));
-                        break;
-                    case "connectar":
-                        String id1 = scanner.nextLine();
-                        String id2 = scanner.nextLine();
-                        Node node1 = x.node(id1);
-                        Node node2 = x.node(id2);
-                        NodeClass node1Class;
-                        NodeClass node2Class;
-                        node1Class = x.getNode(id1);
-                        node2Class = x.getNode(id2);
-                        if (x.node(id1) != null && x.node(id2) != null) {
-                            float capacitat = Float.parseFloat(scanner.nextLine());
-
-                            x.connectarAmbCanonada(node1Class, node2Class, capacitat);
-                        } else {
-                            writer.println("No es pot connectar: un o ambdós nodes no existeixen");
-                        }
-                        break;
-                    case "abonar":
-                        String idAbonat = scanner.nextLine();
-                        String idTerminalAbonat = scanner.nextLine();
-                        Terminal node = (Terminal) x.node(idTerminalAbonat).getAttribute("node");
-                        Coordenades c = node.getCoordenades();
-                        float demandaPunta = node.getCabalPotencial();
-                        Terminal terminal = new Terminal(idTerminalAbonat, c, demandaPunta);
-                        if (x.node(idTerminalAbonat) != null) {
-                            if (x.abonar(idAbonat, terminal)) {
-                                writer.println("Abonament realitzat correctament");
-                            } else {
-                                writer.println("No es pot abonar: ja hi ha un abonament a aquest terminal");
-                            }
-                        } else {
-                            writer.println("No es pot abonar: un o ambdós nodes no existeixen");
-                        }
-                        break;
-
-                    case "cabal abonat":
-                        String idAbonatCabal = scanner.nextLine();
-                        writer.println(x.cabalAbonat(idAbonatCabal));
-                        break;
-                    case "obrir":
-                        String idNode = scanner.nextLine();
-                        Node nodeAixeta = x.node(idNode);
-                        if (nodeAixeta != null) {
-                            if (x.obrirAixeta(nodeAixeta)) {
-                                writer.println("L'aixeta ja estava oberta");
-                            } else {
-                                writer.println("L'aixeta s'ha obert");
-                            }
-                        } else {
-                            writer.println("No es pot obrir l'aixeta: el node no existeix");
-                        }
-                        break;
-                    case "tancar":
-                        String idNodeTancar = scanner.nextLine();
-                        Node nodeTancar = x.node(idNodeTancar);
-                        if (nodeTancar != null) {
-                            if (x.tancarAixeta(nodeTancar)) {
-                                writer.println("L'aixeta ja estava tancada");
-                            } else {
-                                writer.println("L'aixeta s'ha tancat");
-                            }
-                        } else {
-                            writer.println("No es pot tancar l'aixeta: el node no existeix");
-                        }
-                        break;
-                    case "cabal":
-                        String idOrigenCabal = scanner.nextLine();
-                        float cabal = Float.parseFloat(scanner.nextLine());
-                        Origen nodeOrigen = new Origen(idOrigenCabal, new Coordenades(0, 0));
-                        if (nodeOrigen != null) {
-                            x.establirCabal(nodeOrigen, cabal);
-                        } else {
-                            writer.println("No es pot establir el cabal: el node no existeix o no és un origen");
-                        }
-                        break;
-                    case "demanda":
-                        String idTerminalDemanda = scanner.nextLine();
-                        float demanda = Float.parseFloat(scanner.nextLine());
-                        Terminal nodeTerminal = new Terminal(idTerminalDemanda, new Coordenades(0, 0), 0);
-                        if (nodeTerminal != null) {
-                            x.establirDemanda(nodeTerminal, demanda);
-                        } else {
-                            writer.println("No es pot establir la demanda: el node no existeix o no és un terminal");
-                        }
-                        break;
-                    case "backtrack":
-                        int num = Integer.parseInt(scanner.nextLine());
-                        x.backtrack(num);
-
-                        break;
-                    case "te cicles":
-                        String idOrigenCicles = scanner.nextLine();
-                        Origen origenCicles = new Origen(idOrigenCicles, new Coordenades(0, 0));  // Pots assumir que ja tens una manera de construir un objecte Origen amb les coordenades necessàries.
-
-                        // Comprova si l'objecte Origen i la seva id existeixen a la xarxa.
-                        if (x.node(idOrigenCicles) != null && origenCicles != null) {
-                            boolean teCicles = GestorXarxes.teCicles(x, origenCicles);
-                            writer.println("La xarxa té cicles: " + teCicles);
-                        } else {
-                            writer.println("No es pot comprovar si hi ha cicles: el node origen no existeix");
-                        }
+            LectorOrdres lector = new LectorOrdres(arg);
+            SortidaResultats sortida = new SortidaResultats(Paths.get(fitxer), formatSortida);
+            CanalOrdres canal = new CanalOrdres(lector, SimuladorModeText::parametres,
+                    registre != null ? SimuladorModeText::esModificacio : null);
+            PrintWriter writer = new PrintWriter(sortida);
+            properaExportacio = System.nanoTime() + intervalMetriques;
+
+            executar(canal, writer, sortida);
+            canal.close();
+            writer.flush();
+            try {
+                sortida.close();
+            } catch (IOException e) {
+                System.out.println("Error en escriure al fitxer: " + fitxer);
+                e.printStackTrace();
+            }
+            if (registre != null) {
+                confirmarRegistre();
+            }
+            if (metriques != null) {
+                exportarMetriques();
+            }
+            x.dibuixar();
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.out.println("Fitxer no trobat: " + fitxer);
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.out.println("Error en crear el fitxer de sortida: " + fitxer);
+            e.printStackTrace();
+        }
+    }
 
-                        break;
-                    case "arbre":
-                        String idOrigenArbre = scanner.nextLine();
-                        Origen origenArbre = new Origen(idOrigenArbre, new Coordenades(0, 0));  // Pots assumir que ja tens una manera de construir un objecte Origen amb les coordenades necessàries.
+    /**
+     * @brief Executa les operacions d'un canal
+     * @pre Si hi ha registre d'operacions, el canal guarda el text original de les operacions que modifiquen la xarxa
+     * @post S'han executat totes les operacions del canal sobre la xarxa i se n'ha escrit el resultat a writer; la
+     * xarxa no queda en mode de càrrega. Retorna el nombre d'operacions executades
+     * @exception IOException si hi ha un error de lectura
+     * @param canal Canal de les operacions
+     * @param writer Sortida dels resultats
+     * @param sortida Sortida on escriu writer, a la qual s'indica cada operació, o null
+     * @return Nombre d'operacions executades
+     */
+    private long executar(CanalOrdres canal, PrintWriter writer, SortidaResultats sortida) throws IOException {
+        long executades = 0;
+        for (CanalOrdres.Ordre ordre = canal.seguent(); ordre != null; ordre = canal.seguent()) {
+            if (sortida != null) {
+                sortida.iniciarOperacio(executades + 1, ordre.operacio());
+            }
+            aplicar(ordre, writer);
+            executades++;
+        }
+        if (x.carregant()) {
+            x.confirmarCarrega();
+        }
+        return executades;
+    }
 
-                        // Comprova si l'objecte Origen i la seva id existeixen a la xarxa.
-                        if (x.node(idOrigenArbre) != null && origenArbre != null) {
-                            boolean esArbre = gestor.esArbre(x, origenArbre);
-                            writer.println("La component connexa de la xarxa és un arbre: " + esArbre);
-                        } else {
-                            writer.println("No es pot comprovar si la component és un arbre: el node origen no existeix");
-                        }
+    /**
+     * @brief Executa una operació
+     * @pre Si hi ha registre d'operacions i ordre modifica la xarxa, ordre en porta el text original
+     * @post S'ha executat ordre sobre la xarxa, se n'ha escrit el resultat a writer i, si cal, s'ha registrat i
+     * mesurat. Les operacions de construcció deixen la xarxa en mode de càrrega fins a la primera operació que no ho és
+     * @param ordre Operació a executar
+     * @param writer Sortida del resultat
+     */
+    private void aplicar(CanalOrdres.Ordre ordre, PrintWriter writer) {
+        String operacio = ordre.operacio();
+        String nomMetrica = operacio;
+        long inici = metriques != null ? System.nanoTime() : 0;
+        EsdevenimentsJfr.Ordre esdeveniment = new EsdevenimentsJfr.Ordre();
+        esdeveniment.begin();
+
+        // Les operacions de construcció seguides es carreguen sense calcular cabals; es calculen un sol cop
+        // abans de la primera operació que no ho és
+        if (esConstruccio(operacio)) {
+            if (!x.carregant()) {
+                x.iniciarCarrega();
+            }
+        } else if (x.carregant()) {
+            x.confirmarCarrega();
+            if (metriques != null) {
+                inici = mesurar("confirmar carrega", inici);
+            }
+        }
 
-                        break;
-                    case "max-flow":
-                        String idOrigenMaxFlow = scanner.nextLine();
-                        Origen origenMaxFlow = new Origen(idOrigenMaxFlow, new Coordenades(0, 0));  // Pots assumir que ja tens una manera de construir un objecte Origen amb les coordenades necessàries.
-                        gestor.fluxMaxim(x, origenMaxFlow);
-
-                        break;
-                    /*
-                    case "exces cabal":
-                        Set<Canonada> canonades = new HashSet<>();
-                        int numCanonades = Integer.parseInt(scanner.nextLine());
-                        for (int i = 0; i < numCanonades; i++) {
-                            String idCanonada = scanner.nextLine();
-                            float capacitat = Float.parseFloat(scanner.nextLine());
-                            Coordenades c1 = new Coordenades(scanner.nextLine());
-                            Coordenades c2 = new Coordenades(scanner.nextLine());
-                            NodeClass node1 = new NodeClass(idCanonada + "1", c1); // Suposant estructura que permet crear nodes temporals
-                            NodeClass node2 = new NodeClass(idCanonada + "2", c2);
-
-                            canonades.add(new Canonada(node1, node2, capacitat));
-                        }
+        switch (operacio) {
+            case "terminal":
+                String idTerminal = ordre.text();
+                Coordenades cTerminal = ordre.coordenades();
+                float demandaPuntaTerminal = ordre.real();
+                x.afegir(new Terminal(idTerminal, cTerminal, demandaPuntaTerminal));
+                break;
+            case "origen":
+                String idOrigen = ordre.text();
+                Coordenades cOrigen = ordre.coordenades();
+                x.afegir(new Origen(idOrigen, cOrigen));
+                break;
+            case "connexio":
+                String idConnexio = ordre.text();
+                Coordenades cConnexio = ordre.coordenades();
+                x.afegir(new Connexio(idConnexio, cConnexio));
+                break;
+            case "connectar":
+                String id1 = ordre.text();
+                String id2 = ordre.text();
+                float capacitat = ordre.real();
+                NodeClass node1Class;
+                NodeClass node2Class;
+                node1Class = x.getNode(id1);
+                node2Class = x.getNode(id2);
+                if (node1Class != null && node2Class != null) {
+                    x.connectarAmbCanonada(node1Class, node2Class, capacitat);
+                } else {
+                    writer.println("No es pot connectar: un o ambdós nodes no existeixen");
+                }
+                break;
+            case "abonar":
+                String idAbonat = ordre.text();
+                String idTerminalAbonat = ordre.text();
+                Terminal node = x.terminal(idTerminalAbonat);
+                Coordenades c = node.getCoordenades();
+                float demandaPunta = node.getCabalPotencial();
+                Terminal terminal = new Terminal(idTerminalAbonat, c, demandaPunta);
+                if (x.getNode(idTerminalAbonat) != null) {
+                    if (x.abonar(idAbonat, terminal)) {
+                        writer.println("Abonament realitzat correctament");
+                    } else {
+                        writer.println("No es pot abonar: ja hi ha un abonament a aquest terminal");
+                    }
+                } else {
+                    writer.println("No es pot abonar: un o ambdós nodes no existeixen");
+                }
+                break;
+
+            case "cabal abonat":
+                String idAbonatCabal = ordre.text();
+                writer.println(x.cabalAbonat(idAbonatCabal));
+                break;
+            case "abonats consum":
+                int nombreAbonats = ordre.enter();
+                writer.println("Abonats amb més consum:");
+                for (String idAbonatConsum : x.abonatsMesConsum(nombreAbonats)) {
+                    writer.println(idAbonatConsum + ": " + x.cabalAbonat(idAbonatConsum));
+                }
+                break;
+            case "obrir":
+                String idNode = ordre.text();
+                NodeClass nodeAixeta = x.getNode(idNode);
+                if (nodeAixeta != null) {
+                    if (x.obrirAixeta(nodeAixeta)) {
+                        writer.println("L'aixeta ja estava oberta");
+                    } else {
+                        writer.println("L'aixeta s'ha obert");
+                    }
+                } else {
+                    writer.println("No es pot obrir l'aixeta: el node no existeix");
+                }
+                break;
+            case "tancar":
+                String idNodeTancar = ordre.text();
+                NodeClass nodeTancar = x.getNode(idNodeTancar);
+                if (nodeTancar != null) {
+                    if (x.tancarAixeta(nodeTancar)) {
+                        writer.println("L'aixeta ja estava tancada");
+                    } else {
+                        writer.println("L'aixeta s'ha tancat");
+                    }
+                } else {
+                    writer.println("No es pot tancar l'aixeta: el node no existeix");
+                }
+                break;
+            case "cabal":
+                String idOrigenCabal = ordre.text();
+                float cabal = ordre.real();
+                x.establirCabal(idOrigenCabal, cabal);
+                break;
+            case "demanda":
+                String idTerminalDemanda = ordre.text();
+                float demanda = ordre.real();
+                x.establirDemanda(idTerminalDemanda, demanda);
+                break;
+            case "backtrack":
+                int num = ordre.enter();
+                if (registre != null) {
+                    desfetes.setLength(0);
+                    x.entradesBacktrack(num, desfetes);
+                }
+                x.backtrack(num);
+
+                break;
+            case "desfer":
+                desfer(ordre.text());
+                break;
+            case "te cicles":
+                String idOrigenCicles = ordre.text();
+                Origen origenCicles = new Origen(idOrigenCicles, new Coordenades(0, 0));  // Pots assumir que ja tens una manera de construir un objecte Origen amb les coordenades necessàries.
+
+                // Comprova si l'objecte Origen i la seva id existeixen a la xarxa.
+                if (x.getNode(idOrigenCicles) != null && origenCicles != null) {
+                    boolean teCicles = GestorXarxes.teCicles(x, origenCicles);
+                    writer.println("La xarxa té cicles: " + teCicles);
+                } else {
+                    writer.println("No es pot comprovar si hi ha cicles: el node origen no existeix");
+                }
 
-                        // Utilitzar el mètode de GestorXarxes per determinar els excesos de cabal
-                        Set<Canonada> excesCabal = GestorXarxes.excesCabal(x, canonades);
-                        if (!excesCabal.isEmpty()) {
-                            writer.println("Canonades amb exces de cabal:");
-                            for (Canonada c : excesCabal) {
-                                writer.println("Canonada entre " + c.getNodeOrigen().getID() + " i " + c.getNodeDesti().getID() + " amb capacitat " + c.getCapacitat());
-                            }
-                        } else {
-                            writer.println("No hi ha exces de cabal en les canonades especificades.");
-                        }
+                break;
+            case "arbre":
+                String idOrigenArbre = ordre.text();
+                Origen origenArbre = new Origen(idOrigenArbre, new Coordenades(0, 0));  // Pots assumir que ja tens una manera de construir un objecte Origen amb les coordenades necessàries.
+
+                // Comprova si l'objecte Origen i la seva id existeixen a la xarxa.
+                if (x.getNode(idOrigenArbre) != null && origenArbre != null) {
+                    boolean esArbre = gestor.esArbre(x, origenArbre);
+                    writer.println("La component connexa de la xarxa és un arbre: " + esArbre);
+                } else {
+                    writer.println("No es pot comprovar si la component és un arbre: el node origen no existeix");
+                }
 
-                        break;
-                    */
-                    case "cabal minim":
-                        String idOrigenCabalMinim = scanner.nextLine();
-                        NodeClass origenCabalMinim = x.getNode(idOrigenCabalMinim);
-                        String percentatgeDemandaSatisfetStr = scanner.nextLine();
+                break;
+            case "max-flow":
+                String idOrigenMaxFlow = ordre.text();
+                Origen origenMaxFlow = new Origen(idOrigenMaxFlow, new Coordenades(0, 0));  // Pots assumir que ja tens una manera de construir un objecte Origen amb les coordenades necessàries.
+                if (missatgesAlResultat) {
+                    gestor.fluxMaxim(x, origenMaxFlow, writer);
+                } else {
+                    gestor.fluxMaxim(x, origenMaxFlow);
+                }
 
-                        float percentatgeDemandaSatisfet = Float.parseFloat(percentatgeDemandaSatisfetStr.replace("%", ""));
+                break;
+            case "max-flow sistema":
+                Map<Terminal, Float> fluxTerminals = GestorXarxes.fluxMaximSistema(x);
+                float fluxSistema = 0;
+                for (float fluxTerminal : fluxTerminals.values()) {
+                    fluxSistema += fluxTerminal;
+                }
+                writer.println("Flux màxim del sistema: " + fluxSistema);
+                for (Map.Entry<Terminal, Float> entrada : fluxTerminals.entrySet()) {
+                    writer.println(entrada.getKey().getID() + ": " + entrada.getValue());
+                }
+                break;
+            /*
+            case "exces cabal":
+                Set<Canonada> canonades = new HashSet<>();
+                int numCanonades = Integer.parseInt(lector.linia());
+                for (int i = 0; i < numCanonades; i++) {
+                    String idCanonada = lector.linia();
+                    float capacitat = lector.llegirFloat();
+                    Coordenades c1 = new Coordenades(lector.liniaCaracters());
+                    Coordenades c2 = new Coordenades(lector.liniaCaracters());
+                    NodeClass node1 = new NodeClass(idCanonada + "1", c1); // Suposant estructura que permet crear nodes temporals
+                    NodeClass node2 = new NodeClass(idCanonada + "2", c2);
+
+                    canonades.add(new Canonada(node1, node2, capacitat));
+                }
 
-                        // Comprova si l'objecte Origen i la seva id existeixen a la xarxa.
-                        if (x.node(idOrigenCabalMinim) != null && origenCabalMinim != null) {
-                            float cabalMinim = gestor.cabalMinim(x, origenCabalMinim, percentatgeDemandaSatisfet);
-                            writer.println("cabal minim");
-                            writer.println(cabalMinim);
-                        } else {
-                            writer.println("No es pot calcular el cabal mínim: el node origen no existeix");
-                        }
+                // Utilitzar el mètode de GestorXarxes per determinar els excesos de cabal
+                Set<Canonada> excesCabal = GestorXarxes.excesCabal(x, canonades);
+                if (!excesCabal.isEmpty()) {
+                    writer.println("Canonades amb exces de cabal:");
+                    for (Canonada c : excesCabal) {
+                        writer.println("Canonada entre " + c.getNodeOrigen().getID() + " i " + c.getNodeDesti().getID() + " amb capacitat " + c.getCapacitat());
+                    }
+                } else {
+                    writer.println("No hi ha exces de cabal en les canonades especificades.");
+                }
 
-                        break;
-                    case "aixetes tancar":
-                        Map<Terminal, Boolean> aiguaArriba = new HashMap<>();
-                        try (Scanner Scanner = new Scanner(new File(arg))) {
-                            while (Scanner.hasNextLine()) {
-                                String idTerminal1 = scanner.nextLine();
-                                boolean arribaAigua = Boolean.parseBoolean(scanner.nextLine());
-                                Terminal terminal1 = (Terminal) x.node(idTerminal1).getAttribute("node");
-
-                                // Comprova si el terminal existeix dins la xarxa abans d'afegir-lo al mapa
-                                if (terminal1 != null) {
-                                    aiguaArriba.put(terminal1, arribaAigua);
-                                } else {
-                                    System.out.println("Terminal no trobat: " + idTerminal1);
-                                }
-                            }
-                        } catch (FileNotFoundException e) {
-                            System.out.println("Fitxer no trobat: " + arg);
-                            e.printStackTrace();
-                        }
+                break;
+            */
+            case "cabal minim":
+                String idOrigenCabalMinim = ordre.text();
+                NodeClass origenCabalMinim = x.getNode(idOrigenCabalMinim);
+                float percentatgeDemandaSatisfet = ordre.real();
+
+                // Comprova si l'objecte Origen i la seva id existeixen a la xarxa.
+                if (x.getNode(idOrigenCabalMinim) != null && origenCabalMinim != null) {
+                    float cabalMinim = gestor.cabalMinim(x, origenCabalMinim, percentatgeDemandaSatisfet);
+                    writer.println("cabal minim");
+                    writer.println(cabalMinim);
+                } else {
+                    writer.println("No es pot calcular el cabal mínim: el node origen no existeix");
+                }
 
-                        // Utilitza el mètode de GestorXarxes per obtenir els nodes que han de tancar les seves aixetes
-                        Set<Node> nodesPerTancar = GestorXarxes.aixetesTancar(x, aiguaArriba);
-                        if (!nodesPerTancar.isEmpty()) {
-                            try (PrintWriter escriure = new PrintWriter(fitxer, "UTF-8")) {
-                                for (Node aixetaNode : nodesPerTancar) {  // Canviat 'node' per 'aixetaNode' per evitar conflictes
-                                    NodeClass nodeClass = x.getNode(aixetaNode.getId());  // Assumeix que pots obtenir un NodeClass des d'un Node
-                                    if (nodeClass != null) {
-                                        escriure.println("Tancar aixeta del node: " + nodeClass.getId());
-                                    } else {
-                                        escriure.println("Informació no disponible per al node: " + aixetaNode.getId());
-                                    }
-                                }
-                            } catch (IOException e) {
-                                System.out.println("Error en escriure al fitxer: " + fitxer);
-                                e.printStackTrace();
-                            }
+                break;
+            case "aixetes tancar":
+                Map<Terminal, Boolean> aiguaArriba = new HashMap<>();
+                while (ordre.quedenTextos()) {
+                    String idTerminal1 = ordre.text();
+                    boolean arribaAigua = ordre.boolea();
+                    Terminal terminal1 = x.terminal(idTerminal1);
+
+                    // Comprova si el terminal existeix dins la xarxa abans d'afegir-lo al mapa
+                    if (terminal1 != null) {
+                        aiguaArriba.put(terminal1, arribaAigua);
+                    } else {
+                        System.out.println("Terminal no trobat: " + idTerminal1);
+                    }
+                }
+
+                // Utilitza el mètode de GestorXarxes per obtenir els nodes que han de tancar les seves aixetes
+                Set<NodeClass> nodesPerTancar = GestorXarxes.aixetesTancar(x, aiguaArriba);
+                // Els resultats s'afegeixen a la mateixa sortida que la resta d'operacions
+                if (!nodesPerTancar.isEmpty()) {
+                    for (NodeClass aixetaNode : nodesPerTancar) {  // Canviat 'node' per 'aixetaNode' per evitar conflictes
+                        NodeClass nodeClass = x.getNode(aixetaNode.getId());
+                        if (nodeClass != null) {
+                            writer.println("Tancar aixeta del node: " + nodeClass.getId());
                         } else {
-                            System.out.println("No hi ha aixetes per tancar.");
+                            writer.println("Informació no disponible per al node: " + aixetaNode.getId());
                         }
-                        break;
+                    }
+                } else {
+                    writer.println("No hi ha aixetes per tancar.");
+                }
+                break;
+
+            case "desar":
+                String fitxerDesar = ordre.text();
+                try {
+                    desar(Paths.get(fitxerDesar));
+                    writer.println("Xarxa desada a " + fitxerDesar);
+                } catch (IOException e) {
+                    writer.println("No es pot desar la xarxa: " + e.getMessage());
+                }
+                break;
+            case "carregar":
+                String fitxerCarregar = ordre.text();
+                try {
+                    carregar(Paths.get(fitxerCarregar));
+                    writer.println("Xarxa carregada de " + fitxerCarregar);
+                } catch (IOException e) {
+                    writer.println("No es pot carregar la xarxa: " + e.getMessage());
+                }
+                break;
+            case "nodes propers":
+                Coordenades cPropers = ordre.coordenades();
+                int nombrePropers = ordre.enter();
+                writer.println("Nodes més propers:");
+                for (NodeClass nodePropers : GestorXarxes.nodesOrdenats(x, cPropers, nombrePropers)) {
+                    writer.println(nodePropers.getID() + ": " + (float) cPropers.distancia(nodePropers.getCoordenades()) + " km");
+                }
+                break;
+            case "nodes radi":
+                Coordenades cRadi = ordre.coordenades();
+                float radi = ordre.real();
+                writer.println("Nodes a menys de " + radi + " km:");
+                for (NodeClass nodeRadi : x.nodesDinsRadi(cRadi, radi)) {
+                    writer.println(nodeRadi.getID() + ": " + (float) cRadi.distancia(nodeRadi.getCoordenades()) + " km");
+                }
+                break;
+            /*
+            case "buscar cami":
+                String idOrigen = lector.linia();  // Llegir l'ID del node origen
+                NodeClass origen = x.getNode(idOrigen);
+
+                if (origen == null) {
+                    System.out.println("El node origen no existeix.");
+                    break;
+                }
 
-                    /*
-                    case "buscar cami":
-                        String idOrigen = scanner.nextLine();  // Llegir l'ID del node origen
-                        NodeClass origen = x.getNode(idOrigen);
+                // Suposem que tenim una estructura inicialitzada de fluxArestes per a tots els edges.
+                Map<Edge, Float> fluxArestes = inicialitzarFluxArestes(x);
 
-                        if (origen == null) {
-                            System.out.println("El node origen no existeix.");
-                            break;
-                        }
+                // Cridar la funció per buscar un camí residual
+                Map<Edge, Float> camiResidual = buscarCamiResidual(x, origen, fluxArestes);
+
+                if (camiResidual != null && !camiResidual.isEmpty()) {
+                    System.out.println("S'ha trobat un camí residual. Detalls del camí:");
+                    for (Map.Entry<Edge, Float> entry : camiResidual.entrySet()) {
+                        System.out.println("Aresta: " + entry.getKey().getId() + ", Flux Residual: " + entry.getValue());
+                    }
+                } else {
+                    System.out.println("No s'ha trobat cap camí residual des de " + idOrigen);
+                }
+                break;
+            */
+            default:
+                nomMetrica = "desconeguda";
+                writer.println("Operació no reconeguda: " + operacio);
+        }
+        if (registre != null) {
+            registrar(ordre);
+        }
+        if (metriques != null) {
+            mesurar(nomMetrica, inici);
+        }
+        if (esdeveniment.shouldCommit()) {
+            esdeveniment.operacio = nomMetrica;
+            esdeveniment.nodes = x.nucli().nombreNodes();
+            esdeveniment.canonades = x.nucli().nombreCanonades();
+            esdeveniment.commit();
+        }
+    }
+
+    /**
+     * @brief Executa una operació i en retorna el resultat
+     * @pre Si hi ha registre d'operacions i ordre modifica la xarxa, ordre en porta el text original
+     * @post S'ha executat ordre sobre la xarxa com en una simulació i retorna el text que ha escrit
+     * @param ordre Operació a executar
+     * @return Resultat de l'operació
+     */
+    String respondre(CanalOrdres.Ordre ordre) {
+        if (resposta == null) {
+            resposta = new StringWriter();
+            writerResposta = new PrintWriter(resposta);
+        }
+        resposta.getBuffer().setLength(0);
+        aplicar(ordre, writerResposta);
+        writerResposta.flush();
+        return resposta.toString();
+    }
 
-                        // Suposem que tenim una estructura inicialitzada de fluxArestes per a tots els edges.
-                        Map<Edge, Float> fluxArestes = inicialitzarFluxArestes(x);
+    /**
+     * @brief Executa una consulta sobre una xarxa
+     * @pre esConsulta(ordre.operacio()); cap altre fil fa servir xarxa
+     * @post Retorna el resultat de la consulta; també hi és el flux màxim, que una simulació escriu a la consola
+     * @param xarxa Xarxa a consultar
+     * @param ordre Consulta
+     * @return Resultat de la consulta
+     */
+    static String consultar(Xarxa xarxa, CanalOrdres.Ordre ordre) {
+        return new SimuladorModeText(xarxa).respondre(ordre);
+    }
 
-                        // Cridar la funció per buscar un camí residual
-                        Map<Edge, Float> camiResidual = buscarCamiResidual(x, origen, fluxArestes);
+    /**
+     * @brief Estableix els motors de flux màxim amb què es fan consultes fora de la xarxa del simulador
+     * @pre Cada motor es bloqueja mentre es fa servir
+     * @post Els comptadors de flux màxim de les mètriques inclouen els de motors, que pot créixer mentre la simulació
+     * continua
+     * @param motors Motors de flux màxim de les consultes
+     */
+    void establirMotorsFluxConsultes(List<FluxMaxim> motors) {
+        motorsFluxConsultes = motors;
+    }
 
-                        if (camiResidual != null && !camiResidual.isEmpty()) {
-                            System.out.println("S'ha trobat un camí residual. Detalls del camí:");
-                            for (Map.Entry<Edge, Float> entry : camiResidual.entrySet()) {
-                                System.out.println("Aresta: " + entry.getKey().getId() + ", Flux Residual: " + entry.getValue());
-                            }
-                        } else {
-                            System.out.println("No s'ha trobat cap camí residual des de " + idOrigen);
-                        }
-                        break;
-                    */
-                    default:
-                        writer.println("Operació no reconeguda: " + operacio);
+    /**
+     * @brief Retorna un clon de la xarxa preparat per a consultes
+     * @pre ---
+     * @post La xarxa té fets tots els càlculs pendents i retorna un clon seu, en temps constant, que les operacions
+     * següents no modifiquen
+     * @return Clon de la xarxa
+     */
+    Xarxa instantania() {
+        x.prepararConsultes();
+        return x.clonar();
+    }
+
+    /**
+     * @brief Força a disc les operacions del registre que ja fa prou que esperen
+     * @pre ---
+     * @post Si hi ha registre, el grup pendent s'ha confirmat si ja tocava; si no es pot, es mostra un missatge per la
+     * sortida estàndard i es continua sense registre
+     */
+    void confirmarRegistreSiCal() {
+        if (registre == null) {
+            return;
+        }
+        try {
+            registre.confirmarSiCal();
+        } catch (IOException e) {
+            abandonarRegistre(e);
+        }
+    }
+
+    /**
+     * @brief Acaba el servei d'operacions
+     * @pre ---
+     * @post La xarxa no queda en mode de càrrega, totes les operacions registrades són a disc i, si es recullen
+     * mètriques, s'han exportat
+     */
+    void acabar() {
+        if (x.carregant()) {
+            x.confirmarCarrega();
+        }
+        if (registre != null) {
+            confirmarRegistre();
+        }
+        if (metriques != null) {
+            exportarMetriques();
+        }
+    }
+
+    /**
+     * @brief Afegeix una operació al registre d'operacions
+     * @pre registre != null; ordre ja s'ha executat i, si modifica la xarxa, en porta el text original
+     * @post Si operacio modifica la xarxa, és al registre i, si toca, s'ha fet un punt de control; un backtrack hi és
+     * com una operació desfer amb les entrades que ha desfet. El grup pendent del registre s'ha confirmat si ja tocava.
+     * Si el registre no es pot escriure, es mostra un missatge per la sortida estàndard i la simulació continua sense
+     * registre
+     */
+    private void registrar(CanalOrdres.Ordre ordre) {
+        try {
+            String operacio = ordre.operacio();
+            boolean backtrack = operacio.equals("backtrack");
+            if (ordre.teText() && !(backtrack && desfetes.length() == 0)) {
+                if (backtrack) {
+                    // El que desfà "backtrack n" depèn del diari, que no es desa al punt de control: tornat a executar
+                    // després de recuperar-lo desfaria menys operacions. Es registra què ha desfet
+                    byte[] text = ("desfer\n" + desfetes + "\n").getBytes(StandardCharsets.US_ASCII);
+                    registre.afegir(text, text.length);
+                } else {
+                    registre.afegir(ordre.textGuio(), ordre.midaTextGuio());
+                }
+                // Una xarxa carregada d'un fitxer no es pot reconstruir amb el registre: es desa en un punt de control
+                if (operacio.equals("carregar")
+                        || (operacionsPuntControl > 0 && registre.nombreOperacions() >= operacionsPuntControl)) {
+                    ferPuntControl();
                 }
+            } else {
+                registre.confirmarSiCal();
             }
-            scanner.close();
-            writer.close();
-            x.dibuixar();
-        } catch (FileNotFoundException e) {
-            System.out.println("Fitxer no trobat: " + fitxer);
-            e.printStackTrace();
         } catch (IOException e) {
-            System.out.println("Error en crear el fitxer de sortida: " + fitxer);
-            e.printStackTrace();
+            abandonarRegistre(e);
+        }
+    }
+
+    /**
+     * @brief Executa una operació desfer
+     * @pre entrades és el text que escriu Xarxa.entradesBacktrack
+     * @post S'han desfet les entrades sobre la xarxa
+     * @exception NumberFormatException si entrades no té el format esperat
+     */
+    private void desfer(String entrades) {
+        String[] camps = entrades.trim().split(" +");
+        int n = camps.length / 3;
+        byte[] tipus = new byte[n];
+        int[] indexos = new int[n];
+        float[] valors = new float[n];
+        for (int i = 0; i < n; i++) {
+            tipus[i] = Byte.parseByte(camps[3 * i]);
+            indexos[i] = Integer.parseInt(camps[3 * i + 1]);
+            valors[i] = Float.parseFloat(camps[3 * i + 2]);
+        }
+        x.desfer(tipus, indexos, valors, n);
+    }
+
+    /**
+     * @brief Força a disc les operacions pendents del registre d'operacions
+     * @pre registre != null
+     * @post Totes les operacions registrades són a disc; si no es pot, es mostra un missatge per la sortida estàndard i
+     * la simulació continua sense registre
+     */
+    private void confirmarRegistre() {
+        try {
+            registre.confirmar();
+        } catch (IOException e) {
+            abandonarRegistre(e);
+        }
+    }
+
+    /**
+     * @brief Fa un punt de control
+     * @pre registre != null
+     * @post puntControl conté la xarxa amb totes les operacions registrades aplicades i el registre és buit
+     * @exception IOException si hi ha un error d'escriptura
+     */
+    private void ferPuntControl() throws IOException {
+        registre.confirmar();
+        if (x.carregant()) {
+            x.confirmarCarrega();
+        }
+        x.desar(puntControl, registre.darreraOperacio());
+        registre.buidar();
+    }
+
+    private void abandonarRegistre(IOException e) {
+        System.out.println("Error en escriure el registre d'operacions: " + e.getMessage());
+        try {
+            registre.close();
+        } catch (IOException ignorada) {
+            // El registre ja no es fa servir
+        }
+        registre = null;
+    }
+
+    /**
+     * @brief Registra el temps d'una operació
+     * @pre metriques != null; inici és el valor de System.nanoTime() a l'inici de l'operació
+     * @post S'ha registrat l'operació i, si ha passat l'interval d'exportació, s'han exportat les mètriques. Retorna el
+     * moment en què s'ha acabat de mesurar
+     */
+    private long mesurar(String operacio, long inici) {
+        long ara = System.nanoTime();
+        metriques.registrar(operacio, ara - inici);
+        if (intervalMetriques > 0 && ara - properaExportacio >= 0) {
+            exportarMetriques();
+            properaExportacio = System.nanoTime() + intervalMetriques;
+        }
+        return ara;
+    }
+
+    /**
+     * @brief Escriu les mètriques al fitxer de mètriques
+     * @pre metriques != null
+     * @post Els comptadors dels motors de càlcul estan al dia i el fitxer conté totes les mètriques. Si no es pot
+     * escriure, es mostra un missatge per la sortida estàndard i la simulació continua
+     */
+    private void exportarMetriques() {
+        MotorCabals motor = x.motorCabals();
+        FluxMaxim flux = x.motorFluxMaxim();
+        long calculs = flux.calculs();
+        long fases = flux.fases();
+        long camins = flux.camins();
+        long nodesVisitats = flux.nodesVisitats();
+        for (FluxMaxim consultes : motorsFluxConsultes) {
+            synchronized (consultes) {
+                calculs += consultes.calculs();
+                fases += consultes.fases();
+                camins += consultes.camins();
+                nodesVisitats += consultes.nodesVisitats();
+            }
+        }
+        metriques.establirComptador("passades_cabals", motor.passades());
+        metriques.establirComptador("propagacions_cabals", motor.propagacions());
+        metriques.establirComptador("nodes_processats_cabals", motor.nodesProcessats());
+        metriques.establirComptador("calculs_flux_maxim", calculs);
+        metriques.establirComptador("fases_flux_maxim", fases);
+        metriques.establirComptador("camins_augmentants_flux_maxim", camins);
+        metriques.establirComptador("nodes_visitats_flux_maxim", nodesVisitats);
+        if (registre != null) {
+            metriques.establirComptador("operacions_registre", registre.darreraOperacio());
+            metriques.establirComptador("grups_registre", registre.grups());
+        }
+        try {
+            metriques.exportar(fitxerMetriques, Metriques.format(fitxerMetriques));
+        } catch (IOException e) {
+            System.out.println("Error en escriure les mètriques: " + fitxerMetriques);
+        }
+    }
+
+    /**
+     * @brief Diu si una operació només construeix la xarxa
+     * @pre ---
+     * @post Retorna true si operacio afegeix nodes o canonades i no consulta cap cabal
+     * @param operacio Nom de l'operació
+     * @return true si és una operació de construcció
+     */
+    private static boolean esConstruccio(String operacio) {
+        switch (operacio) {
+            case "terminal":
+            case "origen":
+            case "connexio":
+            case "connectar":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @brief Retorna els tipus dels paràmetres d'una operació
+     * @pre ---
+     * @post Retorna un caràcter per paràmetre de operacio, en l'ordre del guió, amb el format de CanalOrdres; una
+     * operació desconeguda no en té cap
+     * @param operacio Nom de l'operació
+     * @return Tipus dels paràmetres
+     */
+    static String parametres(String operacio) {
+        switch (operacio) {
+            case "terminal":
+                return "TCR";
+            case "origen":
+            case "connexio":
+                return "TC";
+            case "connectar":
+                return "TTR";
+            case "abonar":
+                return "TT";
+            case "cabal":
+            case "demanda":
+                return "TR";
+            case "cabal minim":
+                return "TP";
+            case "desfer":
+                return "T";
+            case "cabal abonat":
+            case "obrir":
+            case "tancar":
+            case "te cicles":
+            case "arbre":
+            case "max-flow":
+            case "desar":
+            case "carregar":
+                return "T";
+            case "abonats consum":
+            case "backtrack":
+                return "E";
+            case "nodes propers":
+                return "CE";
+            case "nodes radi":
+                return "CR";
+            case "aixetes tancar":
+                // Parells de terminal i si hi arriba aigua, fins al final del fitxer
+                return "*TB";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * @brief Diu si una operació només consulta la xarxa
+     * @pre ---
+     * @post Retorna true si operacio no modifica la xarxa ni escriu cap fitxer, de manera que es pot executar sobre un
+     * clon de la xarxa
+     * @param operacio Nom de l'operació
+     * @return true si és una consulta
+     */
+    static boolean esConsulta(String operacio) {
+        switch (operacio) {
+            case "cabal abonat":
+            case "abonats consum":
+            case "te cicles":
+            case "arbre":
+            case "max-flow":
+            case "max-flow sistema":
+            case "cabal minim":
+            case "aixetes tancar":
+            case "nodes propers":
+            case "nodes radi":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @brief Diu si una operació modifica la xarxa
+     * @pre ---
+     * @post Retorna true si operacio canvia la xarxa o el seu estat i, per tant, s'ha de guardar al registre
+     * d'operacions
+     * @param operacio Nom de l'operació
+     * @return true si és una operació de modificació
+     */
+    static boolean esModificacio(String operacio) {
+        if (esConstruccio(operacio)) {
+            return true;
+        }
+        switch (operacio) {
+            case "abonar":
+            case "obrir":
+            case "tancar":
+            case "cabal":
+            case "demanda":
+            case "backtrack":
+            case "desfer":
+            case "carregar":
+                return true;
+            default:
+                return false;
         }
     }
 }
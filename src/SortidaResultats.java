@@ -0,0 +1,408 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * @file SortidaResultats.java
+ * @brief Fitxer de resultats del simulador, escrit per lots en un fil a part
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class SortidaResultats
+ * @brief Writer dels resultats de les operacions que acumula el text en lots i els codifica i escriu al fitxer des
+ * d'un fil propi, en text lliure, CSV o JSON Lines
+ * @details És l'última etapa de la simulació. El fil que simula només afegeix caràcters a un lot en memòria i hi
+ * anota on comença cada operació; quan el lot és ple, el passa al fil d'escriptura per una CuaAcotada i continua amb
+ * un lot buit reciclat. El fil d'escriptura dona el format als registres, els codifica i els escriu. Si el disc va
+ * més lent que la simulació, no queden lots buits i el simulador espera, de manera que la memòria ocupada és com a
+ * molt LOTS lots.
+ *
+ * En format TEXT el fitxer és el mateix que escriuria un PrintWriter. En format CSV o JSONL cada línia de resultat és
+ * un registre amb el número de l'operació del guió que l'ha produïda, el nom de l'operació i el text de la línia:
+ *
+ *     numero,operacio,resultat
+ *     12,cabal minim,37.5
+ *
+ *     {"numero":12,"operacio":"cabal minim","resultat":"37.5"}
+ *
+ * Els errors d'escriptura del fil es tornen a llançar al fil que simula en el lot següent o en tancar. Amb un sol
+ * processador no es crea el fil i cada lot s'escriu, en omplir-se, des del fil que simula.
+ */
+public class SortidaResultats extends Writer {
+    //Descripció general: Fitxer de resultats del simulador, escrit per lots en un fil a part
+
+    public static final String TEXT = "text";
+    public static final String CSV = "csv";
+    public static final String JSONL = "jsonl";
+
+    private static final int MIDA_LOT = 1 << 16;    // caràcters
+    private static final int LOTS = 4;
+
+    private final String format;
+    private final Writer desti;
+    private final CuaAcotada<Lot> plens = new CuaAcotada<>(LOTS);
+    private final CuaAcotada<Lot> buits = new CuaAcotada<>(LOTS);
+    private final Thread fil;                       // null si s'escriu des del fil que simula
+    private volatile IOException error;
+    private Lot lot = new Lot();
+    private boolean tancada;
+
+    // Del fil d'escriptura
+    private char[] caracters = new char[MIDA_LOT];
+    private final StringBuilder linia = new StringBuilder();
+    private final StringBuilder registres = new StringBuilder(2 * MIDA_LOT);
+    private long numero;
+    private String operacio = "";
+
+    /**
+     * @class Lot
+     * @brief Text dels resultats i posicions del text on comença cada operació
+     */
+    private static final class Lot {
+        private final StringBuilder text = new StringBuilder(MIDA_LOT + 256);
+        private int[] inicis = new int[64];
+        private long[] numeros = new long[64];
+        private String[] operacions = new String[64];
+        private int nombreOperacions;
+        private boolean fi;
+
+        private void anotar(long numero, String operacio) {
+            if (nombreOperacions == inicis.length) {
+                inicis = Arrays.copyOf(inicis, 2 * nombreOperacions);
+                numeros = Arrays.copyOf(numeros, 2 * nombreOperacions);
+                operacions = Arrays.copyOf(operacions, 2 * nombreOperacions);
+            }
+            inicis[nombreOperacions] = text.length();
+            numeros[nombreOperacions] = numero;
+            operacions[nombreOperacions++] = operacio;
+        }
+
+        private void buidar() {
+            text.setLength(0);
+            Arrays.fill(operacions, 0, nombreOperacions, null);
+            nombreOperacions = 0;
+        }
+    }
+
+    /**
+     * @brief Constructor
+     * @pre format és TEXT, CSV o JSONL
+     * @post Crea o buida fitxer i hi escriurà els resultats en el format indicat; en CSV, el fitxer comença amb la
+     * fila de noms de columna
+     * @exception IOException si el fitxer no es pot crear
+     * @param fitxer Fitxer de resultats
+     * @param format Format dels resultats
+     */
+    public SortidaResultats(Path fitxer, String format) throws IOException {
+        this.format = format;
+        desti = new OutputStreamWriter(new BufferedOutputStream(Files.newOutputStream(fitxer), 1 << 16),
+                StandardCharsets.UTF_8);
+        if (CSV.equals(format)) {
+            registres.append("numero,operacio,resultat\n");
+        }
+        if (Runtime.getRuntime().availableProcessors() == 1) {
+            fil = null;
+            return;
+        }
+        for (int i = 1; i < LOTS; i++) {
+            buits.oferir(new Lot());
+        }
+        fil = new Thread(this::escriure, "bewater-sortida");
+        fil.setDaemon(true);
+        fil.start();
+    }
+
+    /**
+     * @brief Indica l'operació del guió que produeix els resultats següents
+     * @pre ---
+     * @post Les línies que s'acabin a partir d'ara porten numero i operacio en els formats estructurats
+     * @param numero Número de l'operació dins el guió, des d'1
+     * @param operacio Nom de l'operació
+     */
+    public void iniciarOperacio(long numero, String operacio) {
+        if (!TEXT.equals(format)) {
+            lot.anotar(numero, operacio);
+        }
+    }
+
+    @Override
+    public void write(char[] text, int inici, int longitud) throws IOException {
+        lot.text.append(text, inici, longitud);
+        if (lot.text.length() >= MIDA_LOT) {
+            enviar();
+        }
+    }
+
+    @Override
+    public void write(String text, int inici, int longitud) throws IOException {
+        lot.text.append(text, inici, inici + longitud);
+        if (lot.text.length() >= MIDA_LOT) {
+            enviar();
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        lot.text.append((char) c);
+        if (lot.text.length() >= MIDA_LOT) {
+            enviar();
+        }
+    }
+
+    /**
+     * @brief Passa el lot actual al fil d'escriptura
+     * @pre ---
+     * @post El text escrit fins ara s'escriurà al fitxer, sense esperar que s'hagi escrit
+     * @exception IOException si el fil d'escriptura ha trobat un error
+     */
+    @Override
+    public void flush() throws IOException {
+        enviar();
+    }
+
+    /**
+     * @brief Tanca la sortida
+     * @pre ---
+     * @post Tot el text escrit és al fitxer, que està tancat, i el fil d'escriptura ha acabat; una línia sense acabar
+     * dels formats estructurats es desa com un registre més
+     * @exception IOException si hi ha hagut un error d'escriptura
+     */
+    @Override
+    public void close() throws IOException {
+        if (tancada) {
+            return;
+        }
+        tancada = true;
+        lot.fi = true;
+        if (fil == null) {
+            bolcar(lot);
+            tancarDesti();
+            if (error != null) {
+                throw error;
+            }
+            return;
+        }
+        publicar(lot);
+        lot = null;
+        try {
+            fil.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("S'ha interromput l'escriptura dels resultats", e);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @brief Retorna el format que correspon a un nom de format
+     * @pre ---
+     * @post Retorna TEXT, CSV o JSONL segons nom, sense distingir majúscules
+     * @exception IllegalArgumentException si nom no és cap format
+     * @param nom Nom del format
+     * @return Format
+     */
+    public static String format(String nom) {
+        switch (nom.toLowerCase(Locale.ROOT)) {
+            case TEXT:
+                return TEXT;
+            case CSV:
+                return CSV;
+            case JSONL:
+                return JSONL;
+            default:
+                throw new IllegalArgumentException("Format de sortida desconegut: " + nom);
+        }
+    }
+
+    /**
+     * @brief Passa el lot al fil d'escriptura i en pren un de buit
+     * @pre ---
+     * @post lot és buit; si el lot anterior tenia text o operacions, és a la cua del fil d'escriptura
+     */
+    private void enviar() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        if (lot.text.length() == 0 && lot.nombreOperacions == 0) {
+            return;
+        }
+        if (fil == null) {
+            bolcar(lot);
+            lot.buidar();
+            if (error != null) {
+                throw error;
+            }
+            return;
+        }
+        publicar(lot);
+        Lot buit;
+        for (int intents = 0; (buit = buits.extreure()) == null; ) {
+            intents = CuaAcotada.esperar(intents);
+        }
+        lot = buit;
+    }
+
+    private void publicar(Lot ple) {
+        for (int intents = 0; !plens.oferir(ple); ) {
+            intents = CuaAcotada.esperar(intents);
+        }
+    }
+
+    /**
+     * @brief Cos del fil d'escriptura
+     * @pre ---
+     * @post Ha escrit al fitxer tots els lots rebuts fins al que té fi, i l'ha tancat. Després d'un error, continua
+     * retornant els lots sense escriure'ls perquè el simulador no s'aturi esperant-ne un de buit
+     */
+    private void escriure() {
+        boolean fi = false;
+        while (!fi) {
+            Lot ple;
+            for (int intents = 0; (ple = plens.extreure()) == null; ) {
+                intents = CuaAcotada.esperar(intents);
+            }
+            fi = ple.fi;
+            bolcar(ple);
+            ple.buidar();
+            if (!fi) {
+                buits.oferir(ple);
+            }
+        }
+        tancarDesti();
+    }
+
+    /**
+     * @brief Escriu un lot al fitxer
+     * @pre ---
+     * @post Si no hi havia cap error, el text del lot, amb el format de la sortida, és al fitxer o error és l'error
+     * que s'ha produït en escriure'l
+     */
+    private void bolcar(Lot ple) {
+        if (error != null) {
+            return;
+        }
+        try {
+            StringBuilder text = ple.text;
+            if (!TEXT.equals(format)) {
+                formatar(ple);
+                if (ple.fi && linia.length() > 0) {
+                    afegirRegistre();
+                }
+                text = registres;
+            }
+            if (text.length() > caracters.length) {
+                caracters = new char[text.length()];
+            }
+            text.getChars(0, text.length(), caracters, 0);
+            desti.write(caracters, 0, text.length());
+            registres.setLength(0);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    private void tancarDesti() {
+        try {
+            desti.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * @brief Converteix el text d'un lot en registres
+     * @pre El format és CSV o JSONL
+     * @post registres té un registre per cada línia acabada dins el lot, amb l'operació vigent quan s'acaba; la línia
+     * que queda sense acabar continua al lot següent
+     */
+    private void formatar(Lot ple) {
+        StringBuilder text = ple.text;
+        int seguent = 0;
+        for (int i = 0; i < text.length(); i++) {
+            for (; seguent < ple.nombreOperacions && ple.inicis[seguent] <= i; seguent++) {
+                numero = ple.numeros[seguent];
+                operacio = ple.operacions[seguent];
+            }
+            char c = text.charAt(i);
+            if (c == '\n') {
+                afegirRegistre();
+            } else if (c != '\r') {
+                linia.append(c);
+            }
+        }
+        for (; seguent < ple.nombreOperacions; seguent++) {
+            numero = ple.numeros[seguent];
+            operacio = ple.operacions[seguent];
+        }
+    }
+
+    /**
+     * @brief Afegeix als registres el de la línia acumulada
+     * @pre El format és CSV o JSONL
+     * @post registres acaba amb el registre i la línia acumulada és buida
+     */
+    private void afegirRegistre() {
+        if (CSV.equals(format)) {
+            registres.append(numero).append(',');
+            afegirCsv(operacio);
+            registres.append(',');
+            afegirCsv(linia);
+        } else {
+            registres.append("{\"numero\":").append(numero).append(",\"operacio\":");
+            afegirJson(operacio);
+            registres.append(",\"resultat\":");
+            afegirJson(linia);
+            registres.append('}');
+        }
+        registres.append('\n');
+        linia.setLength(0);
+    }
+
+    private void afegirCsv(CharSequence camp) {
+        boolean cometes = false;
+        for (int i = 0; i < camp.length() && !cometes; i++) {
+            char c = camp.charAt(i);
+            cometes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!cometes) {
+            registres.append(camp);
+            return;
+        }
+        registres.append('"');
+        for (int i = 0; i < camp.length(); i++) {
+            char c = camp.charAt(i);
+            registres.append(c);
+            if (c == '"') {
+                registres.append('"');
+            }
+        }
+        registres.append('"');
+    }
+
+    private void afegirJson(CharSequence camp) {
+        registres.append('"');
+        for (int i = 0; i < camp.length(); i++) {
+            char c = camp.charAt(i);
+            if (c == '"' || c == '\\') {
+                registres.append('\\').append(c);
+            } else if (c < 0x20) {
+                registres.append(String.format("\\u%04x", (int) c));
+            } else {
+                registres.append(c);
+            }
+        }
+        registres.append('"');
+    }
+}
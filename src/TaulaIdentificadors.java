@@ -0,0 +1,197 @@
+import java.util.Arrays;
+
+/**
+ * @file TaulaIdentificadors.java
+ * @brief Correspondència compacta entre identificadors de node i índexs enters
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class TaulaIdentificadors
+ * @brief Assigna índexs consecutius a identificadors i els cerca en temps constant
+ * @details Els identificadors es guarden en un vector per índex, i una taula de dispersió oberta de només enters
+ * indexa aquest vector, de manera que no cal cap objecte per entrada. Les còpies comparteixen els vectors fins que
+ * una de les dues taules s'ha de modificar.
+ */
+public class TaulaIdentificadors {
+    //Descripció general: Correspondència compacta entre identificadors de node i índexs enters
+
+    private String[] identificadors;
+    private int mida;
+    private int[] taula; // índex + 1, 0 indica posició buida
+    private boolean compartida; // els vectors es comparteixen amb una còpia
+
+    /**
+     * @brief Constructor
+     * @pre ---
+     * @post Crea una taula d'identificadors buida
+     */
+    public TaulaIdentificadors() {
+        identificadors = new String[16];
+        taula = new int[32];
+    }
+
+    /**
+     * @brief Constructor de còpia
+     * @pre ---
+     * @post Crea una taula amb els mateixos identificadors que original, independent d'aquesta
+     * @param original Taula a copiar
+     */
+    private TaulaIdentificadors(TaulaIdentificadors original) {
+        identificadors = original.identificadors;
+        mida = original.mida;
+        taula = original.taula;
+        compartida = true;
+        original.compartida = true;
+    }
+
+    /**
+     * @brief Crea una taula amb uns identificadors donats
+     * @pre identificadors[0 .. mida) són diferents entre si
+     * @post Retorna una taula on identificadors[i] té l'índex i, per a 0 <= i < mida. La taula de dispersió es
+     * dimensiona un sol cop, sense comprovar duplicats ni redimensionar-la
+     * @param identificadors Identificadors en ordre d'índex; la taula se'l queda
+     * @param mida Nombre d'identificadors
+     * @return Taula d'identificadors
+     */
+    public static TaulaIdentificadors deVector(String[] identificadors, int mida) {
+        TaulaIdentificadors taula = new TaulaIdentificadors();
+        int midaTaula = 32;
+        while (midaTaula < 2 * mida) {
+            midaTaula *= 2;
+        }
+        taula.identificadors = identificadors.length > 0 ? identificadors : taula.identificadors;
+        taula.mida = mida;
+        taula.taula = new int[midaTaula];
+        for (int i = 0; i < mida; i++) {
+            taula.inserir(i);
+        }
+        return taula;
+    }
+
+    /**
+     * @brief Retorna una còpia independent de la taula
+     * @pre ---
+     * @post Retorna una taula amb els mateixos identificadors i índexs, en temps constant
+     * @return Còpia de la taula
+     */
+    public TaulaIdentificadors copia() {
+        return new TaulaIdentificadors(this);
+    }
+
+    /**
+     * @brief Afegeix un identificador nou
+     * @pre id no és a la taula
+     * @post id té assignat l'índex mida() anterior
+     * @exception IllegalArgumentException si id ja és a la taula
+     * @param id Identificador a afegir
+     * @return Índex assignat
+     */
+    public int afegir(String id) {
+        if (index(id) != -1) {
+            throw new IllegalArgumentException("L'identificador " + id + " ja existeix");
+        }
+        separar();
+        if (mida == identificadors.length) {
+            identificadors = Arrays.copyOf(identificadors, mida + (mida >> 1) + 1);
+        }
+        int index = mida++;
+        identificadors[index] = id;
+        if (2 * mida > taula.length) {
+            taula = new int[taula.length * 2];
+            for (int i = 0; i < mida; i++) {
+                inserir(i);
+            }
+        } else {
+            inserir(index);
+        }
+        return index;
+    }
+
+    /**
+     * @brief Elimina l'últim identificador afegit
+     * @pre mida() > 0
+     * @post La taula ja no conté l'identificador amb índex mida() - 1
+     */
+    public void eliminarUltim() {
+        separar();
+        int index = --mida;
+        int mascara = taula.length - 1;
+        int i = posicio(identificadors[index], mascara);
+        while (taula[i] != index + 1) {
+            i = (i + 1) & mascara;
+        }
+        taula[i] = 0;
+        identificadors[index] = null;
+        for (int j = (i + 1) & mascara; taula[j] != 0; j = (j + 1) & mascara) {
+            int ideal = posicio(identificadors[taula[j] - 1], mascara);
+            // L'entrada de j es pot moure al forat i si la seva posició ideal no és dins de (i, j]
+            if (((j - ideal) & mascara) >= ((j - i) & mascara)) {
+                taula[i] = taula[j];
+                taula[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * @brief Retorna l'índex d'un identificador
+     * @pre ---
+     * @post Retorna l'índex assignat a id, o -1 si no és a la taula
+     * @param id Identificador a cercar
+     * @return Índex de id o -1
+     */
+    public int index(String id) {
+        int mascara = taula.length - 1;
+        for (int i = posicio(id, mascara); taula[i] != 0; i = (i + 1) & mascara) {
+            if (identificadors[taula[i] - 1].equals(id)) {
+                return taula[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @brief Retorna l'identificador d'un índex
+     * @pre 0 <= index < mida()
+     * @post Retorna l'identificador amb índex index
+     * @param index Índex de l'identificador
+     * @return Identificador
+     */
+    public String id(int index) {
+        return identificadors[index];
+    }
+
+    /**
+     * @brief Retorna el nombre d'identificadors
+     * @pre ---
+     * @post Retorna el nombre d'identificadors de la taula
+     * @return Nombre d'identificadors
+     */
+    public int mida() {
+        return mida;
+    }
+
+    private void separar() {
+        if (compartida) {
+            identificadors = identificadors.clone();
+            taula = taula.clone();
+            compartida = false;
+        }
+    }
+
+    private static int posicio(String id, int mascara) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mascara;
+    }
+
+    private void inserir(int index) {
+        int mascara = taula.length - 1;
+        int i = posicio(identificadors[index], mascara);
+        while (taula[i] != 0) {
+            i = (i + 1) & mascara;
+        }
+        taula[i] = index + 1;
+    }
+}
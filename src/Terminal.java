@@ -1,4 +1,3 @@
-import org.graphstream.graph.Edge;
 import java.util.List;
 
 /**
@@ -0,0 +1,53 @@
+/**
+ * @file Visualitzador.java
+ * @brief Destí opcional on es dibuixa una xarxa de distribució d'aigua
+ *
+ * Pau Domenech Villahermosa
+ */
+
+/**
+ * @class Visualitzador
+ * @brief Destí opcional on es dibuixa una xarxa de distribució d'aigua
+ * @details Una xarxa sense visualitzador funciona en mode sense pantalla: no es carrega cap classe d'interfície gràfica.
+ */
+public interface Visualitzador {
+    //Descripció general: Destí opcional on es dibuixa una xarxa de distribució d'aigua
+
+    /**
+     * @brief Nom de la classe del visualitzador amb GraphStream
+     * @details Es carrega per nom perquè el mode sense pantalla no en depengui.
+     */
+    String GRAPHSTREAM = "ProjeccioGraphStream";
+
+    /**
+     * @brief Dibuixa una xarxa de distribució d'aigua
+     * @pre ---
+     * @post Mostra la xarxa amb l'estat de les aixetes i la demanda dels terminals
+     * @param x Xarxa a dibuixar
+     */
+    void dibuixar(Xarxa x);
+
+    /**
+     * @brief Dibuixa el flux d'una xarxa de distribució d'aigua
+     * @pre ---
+     * @post Mostra la xarxa amb el flux i la capacitat de cada canonada
+     * @param x Xarxa a dibuixar
+     */
+    void dibuixarFlux(Xarxa x);
+
+    /**
+     * @brief Crea un visualitzador a partir del nom de la seva classe
+     * @pre ---
+     * @post Retorna una instància de la classe nomClasse, que ha d'implementar Visualitzador
+     * @exception IllegalArgumentException si la classe no es pot carregar o no és un visualitzador
+     * @param nomClasse Nom de la classe del visualitzador
+     * @return Visualitzador creat
+     */
+    static Visualitzador carregar(String nomClasse) {
+        try {
+            return (Visualitzador) Class.forName(nomClasse).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            throw new IllegalArgumentException("No es pot carregar el visualitzador " + nomClasse + ": " + e, e);
+        }
+    }
+}
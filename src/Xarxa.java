@@ -5,12 +5,9 @@
  * Pau Domenech Villahermosa
  */
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import org.graphstream.graph.*;
-import org.graphstream.graph.implementations.SingleGraph;
-import org.graphstream.graph.Node;
-import org.graphstream.ui.view.Viewer;
-import org.graphstream.graph.Edge;
 
 /**
  * @file Xarxa.java
@@ -20,12 +17,23 @@ import org.graphstream.graph.Edge;
  */
 
 public class Xarxa {
-
-    private Map<String, List<Terminal>> abonats;
-    private List<Canonada> canonades;
-    private Map<String, NodeClass> nodes;
-    private Graph g;
-    private Stack<ArrayList<Object>> pilaOperacions = new Stack<>();
+    //Descripció general: Façana sobre un NucliXarxa. Els nodes i canonades que retorna són vistes sobre el nucli:
+    // llegeixen i escriuen directament els seus vectors primitius.
+
+    private IndexAbonats abonats;
+    private NucliXarxa nucli;
+    private TaulaIdentificadors identificadors;
+    private DiariOperacions diari = new DiariOperacions();
+    private int operacionsSensePuntControl;
+    private int[] nodesTocats = new int[16];
+    private Visualitzador visualitzador;
+    private MotorCabals motor = new MotorCabals();
+    private FluxMaxim fluxMaxim = new FluxMaxim();
+    private IndexEspacial indexEspacial;
+    private ComponentsXarxa components;
+    private boolean carregant; // els cabals no es recalculen fins a confirmarCarrega
+
+    private static final int INTERVAL_PUNTS_CONTROL = 4096; // operacions mínimes entre dos punts de control
 
     /**
      * @brief Constructor
@@ -35,37 +43,42 @@ public class Xarxa {
     public Xarxa() {
         //Pre: ---
         //Post: Crea una xarxa de distribució d'aigua buida
-        System.setProperty("org.graphstream.ui", "swing");
-        g = new SingleGraph("Xarxa");
-        abonats = new HashMap<>();
-        canonades = new Vector<>();
-        nodes = new HashMap<>();
+        abonats = new IndexAbonats();
+        nucli = new NucliXarxa();
+        identificadors = new TaulaIdentificadors();
+        indexEspacial = new IndexEspacial();
+        components = new ComponentsXarxa();
     }
 
     /**
-     * @brief Retorna el node de la xarxa amb identificador id
+     * @brief Constructor de clons
      * @pre ---
-     * @post Retorna el node de la xarxa amb identificador id
-     * @param id Identificador del node
-     * @return Node de la xarxa amb identificador id
+     * @post Crea una xarxa sobre les dades indicades, sense copiar-les
      */
-    public Node node(String id) {
-        //Pre: ---
-        //Post: Retorna el node de la xarxa amb identificador id
-        return g.getNode(id);
+    private Xarxa(IndexAbonats abonats, NucliXarxa nucli, TaulaIdentificadors identificadors,
+                  IndexEspacial indexEspacial, ComponentsXarxa components) {
+        this.abonats = abonats;
+        this.nucli = nucli;
+        this.identificadors = identificadors;
+        this.indexEspacial = indexEspacial;
+        this.components = components;
     }
 
     /**
      * @brief Retorna el terminal de la xarxa amb identificador id
      * @pre ---
-     * @post Retorna el terminal de la xarxa amb identificador id
+     * @post Retorna el terminal de la xarxa amb identificador id, o null si no hi és o no és un terminal
      * @param id Identificador del terminal
      * @return Terminal de la xarxa amb identificador id
      */
     public Terminal terminal(String id) {
         //Pre: ---
         //Post: Retorna el terminal de la xarxa amb identificador id
-        return g.getNode(id).getAttribute("node", Terminal.class);
+        int index = identificadors.index(id);
+        if (index == -1 || nucli.tipus(index) != NucliXarxa.TERMINAL) {
+            return null;
+        }
+        return new Terminal(vistaNode(index));
     }
 
     /**
@@ -75,10 +88,10 @@ public class Xarxa {
      * @param node Node de la xarxa
      * @return Iterador de canonades que surten del node
      */
-    public String sortides(Node node) {
+    public Iterator<Canonada> sortides(NodeClass node) {
         //Pre: node pertany a la xarxa
         //Post: Retorna un iterador que permet recórrer totes les canonades que surten del node
-        return node.getId().intern();
+        return getCanonadesSortints(node).iterator();
     }
 
     /**
@@ -88,61 +101,60 @@ public class Xarxa {
      * @param node Node de la xarxa
      * @return Iterador de canonades que entren al node
      */
-    public int entrades(Node node) {
+    public Iterator<Canonada> entrades(NodeClass node) {
         //Pre: node pertany a la xarxa
         //Post: Retorna un iterador que permet recórrer totes les canonades que entren al node
-        return node.getIndex();
+        return getCanonadesEntrants(node).iterator();
     }
 
     /**
      * @brief Afegeix un node origen a la xarxa
      * @pre ---
      * @post El node origen ha estat afegit a la xarxa
+     * @exception IllegalArgumentException si ja hi ha un node amb el mateix identificador
      * @param nodeOrigen Node origen a afegir
      */
     public void afegir(Origen nodeOrigen) {
-        Coordenades c = nodeOrigen.getCoordenades();
-        Node node = g.addNode(nodeOrigen.getID());
-        node.setAttribute("ui.label", nodeOrigen.getID());
-        node.setAttribute("xy", c.getX(), c.getY());
-        node.setAttribute("origen", nodeOrigen.getNode());
-        node.setAttribute("ui.style", "fill-color: red; size: 25px; text-size: 15;");
-        nodes.put(nodeOrigen.getID(), nodeOrigen.getNode());
-        establirDemandaICabalConnexions();
+        afegirNode(nodeOrigen.getNode(), NucliXarxa.ORIGEN);
     }
 
     /**
      * @brief Afegeix un node terminal a la xarxa
      * @pre ---
      * @post El node terminal ha estat afegit a la xarxa
+     * @exception IllegalArgumentException si ja hi ha un node amb el mateix identificador
      * @param nodeTerminal Node terminal a afegir
      */
     public void afegir(Terminal nodeTerminal) {
-        Coordenades c = nodeTerminal.getCoordenades();
-        Node node = g.addNode(nodeTerminal.getID());
-        node.setAttribute("ui.label", nodeTerminal.getID());
-        node.setAttribute("xy", c.getX(), c.getY());
-        node.setAttribute("node", nodeTerminal);
-        node.setAttribute("ui.style", "fill-color: green; size: 25px; text-size: 15;");
-        nodes.put(nodeTerminal.getID(), nodeTerminal.getNode());
+        afegirNode(nodeTerminal.getNode(), NucliXarxa.TERMINAL);
     }
 
     /**
      * @brief Afegeix un node connexió a la xarxa
      * @pre ---
      * @post El node connexió ha estat afegit a la xarxa
+     * @exception IllegalArgumentException si ja hi ha un node amb el mateix identificador
      * @param nodeConnexio Node connexió a afegir
      */
     public void afegir(Connexio nodeConnexio) {
-        Coordenades c = nodeConnexio.getCoordenades();
-        Node node = g.addNode(nodeConnexio.getID());
-        node.setAttribute("ui.label", nodeConnexio.getID());
-        node.setAttribute("xy", c.getX(), c.getY());
-        node.setAttribute("ui.style", "fill-color: blue; size: 25px; text-size: 15;");
-        node.setAttribute("node", nodeConnexio);
-        nodes.put(nodeConnexio.getID(), nodeConnexio.getNode());
-        establirDemandaICabalConnexions();
+        afegirNode(nodeConnexio.getNode(), NucliXarxa.CONNEXIO);
+    }
 
+    /**
+     * @brief Afegeix un node al nucli i el vincula a la xarxa
+     * @pre ---
+     * @post El node té un índex al nucli amb el seu estat actual, i a partir d'ara llegeix i escriu el nucli
+     * @param node Node a afegir
+     * @param tipus Tipus del node al nucli
+     */
+    private void afegirNode(NodeClass node, byte tipus) {
+        Coordenades c = node.getCoordenades();
+        int index = identificadors.afegir(node.getID());
+        nucli.afegirNode(tipus, c.getY(), c.getX());
+        components.nodeAfegit(nucli);
+        indexEspacial.afegir(c.getY(), c.getX());
+        node.vincular(nucli, index);
+        registrar(DiariOperacions.NODE, index, 0);
     }
 
     /**
@@ -161,29 +173,17 @@ public class Xarxa {
         //Excepcions: NoSuchElementException node1 o node2 no pertanyen a la xarxa
         //            IllegalArgumentException els nodes ja estan connectats o node1 és un node terminal
 
-        String idCanonada = node1.getID() + node2.getID();
-        String idNode1 = node1.getID();
-        String idNode2 = node2.getID();
+        int index1 = node1 == null ? -1 : identificadors.index(node1.getID());
+        int index2 = node2 == null ? -1 : identificadors.index(node2.getID());
 
-        Node node1_ = g.getNode(idNode1);
-        Node node2_ = g.getNode(idNode2);
-
-        Canonada canonada = new Canonada(node1, node2, c);
-
-        if(node1_ != null && node2_ != null) {
-            if (!node1_.hasEdgeBetween(node2_)) {
-                canonades.add(canonada);
-                Edge edge = g.addEdge(idCanonada, idNode1, idNode2, true);
-                edge.setAttribute("ui.label", 0 + " / " + c);
-                edge.setAttribute("canonada", canonada);
-
-                // Comprovem si estem connectant dos nodes d'origen
-                if (node1_.getAttribute("node") instanceof Origen && node2_.getAttribute("node") instanceof Origen) {
-                    // Canviem el tipus del segon node a "connexio"
-                    node2_.setAttribute("ui.style", "fill-color: blue; size: 25px; text-size: 15;");
+        if(index1 != -1 && index2 != -1) {
+            if (nucli.canonada(index1, index2) == -1 && nucli.canonada(index2, index1) == -1) {
+                int canonada = nucli.afegirCanonada(index1, index2, c);
+                components.canonadaAfegida(nucli, canonada);
+                registrar(DiariOperacions.CANONADA, canonada, 0);
+                if (!carregant) {
+                    calcularCabals();
                 }
-
-                calcularCabals();
             } else {
                 System.out.println("Els nodes ja estan connectats");
             }
@@ -197,84 +197,84 @@ public class Xarxa {
      * @brief Abona un client a un terminal
      * @pre ---
      * @post Si el client no estava abonat a aquest terminal, ara ho està i retorna true. Si ja estava abonat, no fa res i retorna false.
+     * Si el node no és un terminal de la xarxa, s'informa per la sortida estàndard i retorna false.
      * @param idClient Identificador del client
      * @param nodeTerminal Terminal al qual abonar el client
      * @return true si el client s'ha abonat, false si ja estava abonat
      */
     public boolean abonar(String idClient, Terminal nodeTerminal) {
-
-        if (abonats.containsKey(idClient)) {
-            // El client ja està abonat, però potser no a aquesta terminal
-            List<Terminal> terminals = abonats.get(idClient);
-            if (terminals.contains(nodeTerminal) && !terminals.isEmpty()) {
-                // El client ja està abonat a aquesta terminal
-                return false;
-            } else {
-                // Abonem el client a aquesta terminal
-                terminals.add(nodeTerminal);
-                abonats.put(idClient, terminals);
-                return true;
-            }
-        } else {
-            // Abonem el client
-            List<Terminal> terminals = new ArrayList<>();
-            terminals.add(nodeTerminal);
-            abonats.put(idClient, terminals);
-            return true;
+        int index = identificadors.index(nodeTerminal.getID());
+        if (index == -1 || nucli.tipus(index) != NucliXarxa.TERMINAL) {
+            System.out.println("El node no és un terminal");
+            return false;
+        }
+        if (!abonats.abonar(idClient, index, nucli.demanda(index))) {
+            // El client ja està abonat a aquest terminal
+            return false;
         }
+        registrar(DiariOperacions.ABONAMENT, abonats.nombreAbonaments() - 1, 0);
+        return true;
     }
 
     /**
      * @brief Calcula el cabal que rep un client
      * @pre ---
-     * @post Retorna el cabal que rep el client amb identificador idClient
+     * @post Retorna el cabal que rep el client amb identificador idClient. El consum de cada client es manté a mesura
+     * que canvien les demandes dels seus terminals, i la consulta és en temps constant
      * @param idClient Identificador del client
      * @return Cabal que rep el client
      */
     public float cabalAbonat(String idClient) {
+        return (float) abonats.consum(idClient);
+    }
 
-        if (abonats.containsKey(idClient)) {
-            List<Terminal> terminals = abonats.get(idClient);
-            float cabal = 0;
-            for (Terminal terminal : terminals) {
-                cabal += terminal.getDemanda();
-            }
-            return cabal;
-        } else {
-            return 0;
-        }
+    /**
+     * @brief Retorna els clients abonats a un terminal
+     * @pre ---
+     * @post Retorna els identificadors dels clients abonats al terminal, del més recent al més antic; si el terminal no
+     * pertany a la xarxa, la llista és buida
+     * @param nodeTerminal Terminal
+     * @return Clients abonats al terminal
+     */
+    public List<String> abonatsTerminal(Terminal nodeTerminal) {
+        int index = identificadors.index(nodeTerminal.getID());
+        return index == -1 ? new ArrayList<>() : abonats.clientsTerminal(index);
+    }
+
+    /**
+     * @brief Retorna els clients que reben més cabal
+     * @pre k >= 0
+     * @post Retorna com a molt k identificadors de clients, de més a menys cabal abonat; a igual cabal, primer el
+     * client que es va abonar abans. Cost O(k log k)
+     * @param k Nombre de clients
+     * @return Clients amb més cabal abonat
+     */
+    public List<String> abonatsMesConsum(int k) {
+        return abonats.mesConsum(k);
     }
 
     /**
      * @brief Obre l'aixeta d'un node
      * @pre ---
-     * @post Si el node no és null i té una aixeta, aquesta s'obre i retorna true. Si el node és null o no té aixeta, no fa res i retorna false.
+     * @post Si el node pertany a la xarxa, la seva aixeta queda oberta. Retorna true si ja estava oberta, false en cas contrari. Els cabals afectats queden actualitzats.
      * @param node Node del qual obrir l'aixeta
-     * @return true si s'ha obert l'aixeta, false en cas contrari
+     * @return true si l'aixeta ja estava oberta, false en cas contrari
      */
-    public boolean obrirAixeta(Node node) {
+    public boolean obrirAixeta(NodeClass node) {
 
         if (node != null) {
-            NodeClass nodeClass = (NodeClass) node.getAttribute("node");
-            if (nodeClass != null) {
+            int index = identificadors.index(node.getID());
+            if (index != -1) {
+                NodeClass nodeClass = vistaNode(index);
                 if (nodeClass.aixetaOberta()) {
                     // L'aixeta ja està oberta
-                    ArrayList<Object> operacio = new ArrayList<>();
-                    operacio.add(nodeClass);
-                    operacio.add(true);
-                    pilaOperacions.push(operacio);
+                    registrar(DiariOperacions.AIXETA, index, 1);
                     return true;
                 } else {
                     // Obrim l'aixeta
                     nodeClass.obrirAixeta();
-                    nodes.remove(nodeClass.getId());
-                    nodes.put(nodeClass.getId(), nodeClass);
-                    node.setAttribute("node", nodeClass);
-                    ArrayList<Object> operacio = new ArrayList<>();
-                    operacio.add(nodeClass);
-                    operacio.add(false);
-                    pilaOperacions.push(operacio);
-
+                    propagar(index);
+                    registrar(DiariOperacions.AIXETA, index, 0);
                     return false;
                 }
             }
@@ -286,32 +286,26 @@ public class Xarxa {
     /**
      * @brief Tanca l'aixeta d'un node
      * @pre ---
-     * @post Si el node no és null i té una aixeta, aquesta es tanca i retorna true. Si el node és null o no té aixeta, no fa res i retorna false.
+     * @post Si el node pertany a la xarxa, la seva aixeta queda tancada. Retorna true si ja estava tancada, false en cas contrari. Els cabals afectats queden actualitzats.
      * @param node Node del qual tancar l'aixeta
-     * @return true si s'ha tancat l'aixeta, false en cas contrari
+     * @return true si l'aixeta ja estava tancada, false en cas contrari
      */
-    public boolean tancarAixeta(Node node) {
+    public boolean tancarAixeta(NodeClass node) {
 
         if (node != null) {
-            NodeClass nodeClass = nodes.get(node.getId());
+            int index = identificadors.index(node.getID());
 
-            if (nodeClass != null) {
+            if (index != -1) {
+                NodeClass nodeClass = vistaNode(index);
                 if (!nodeClass.aixetaOberta()) {
                     // L'aixeta ja està tancada
-                    ArrayList<Object> operacio = new ArrayList<>();
-                    operacio.add(nodeClass);
-                    operacio.add(false);
-                    pilaOperacions.push(operacio);
+                    registrar(DiariOperacions.AIXETA, index, 0);
                     return true;
                 } else {
                     // Tanquem l'aixeta
                     nodeClass.tancarAixeta();
-                    nodes.remove(nodeClass.getId());
-                    nodes.put(nodeClass.getId(), nodeClass);
-                    ArrayList<Object> operacio = new ArrayList<>();
-                    operacio.add(nodeClass);
-                    operacio.add(true);
-                    pilaOperacions.push(operacio);
+                    propagar(index);
+                    registrar(DiariOperacions.AIXETA, index, 1);
                     return false;
                 }
             }
@@ -334,17 +328,25 @@ public class Xarxa {
         //Excepcions: NoSuchElementException si nodeOrigen no pertany a la xarxa
         //            IllegalArgumentException si nodeOrigen no és un node d'origen
 
-        Node node = g.getNode(nodeOrigen.getID());
-
-        NodeClass nodeClass = nodes.get(nodeOrigen.getID());
+        establirCabal(nodeOrigen.getID(), cabal);
+    }
 
-        if (nodeClass.getId().startsWith("O")) {
-            nodeClass.establirCabalPotencial(cabal);
-            node.setAttribute("node", nodeClass);
-            nodes.remove(nodeClass.getId());
-            nodes.put(nodeClass.getId(), nodeClass);
-            NodeClass nodeProva = nodes.get(nodeOrigen.getID());
-            System.out.println(nodeProva.getCabalPotencial());
+    /**
+     * @brief Estableix el cabal potencial d'un node origen a partir del seu identificador
+     * @pre ---
+     * @post Si id és un origen de la xarxa, el seu cabal potencial és cabal; si no, s'informa per la sortida estàndard
+     * @param id Identificador del node origen
+     * @param cabal Cabal potencial a establir
+     */
+    public void establirCabal(String id, float cabal) {
+        int index = identificadors.index(id);
+
+        if (index != -1 && nucli.tipus(index) == NucliXarxa.ORIGEN) {
+            float anterior = nucli.cabalPotencial(index);
+            nucli.establirCabalPotencial(index, cabal);
+            propagar(index);
+            // Es registra amb el valor ja canviat: si el diari hi guarda un punt de control, ha d'incloure l'operació
+            registrar(DiariOperacions.CABAL_POTENCIAL, index, anterior);
         } else {
             System.out.println("El node no és un origen");
         }
@@ -353,7 +355,7 @@ public class Xarxa {
     /**
      * @brief Estableix la demanda d'aigua d'un node terminal
      * @pre nodeTerminal pertany a la xarxa
-     * @post Estableix la demanda d'aigua del node terminal a demanda
+     * @post Estableix la demanda d'aigua del node terminal a demanda i actualitza els cabals afectats
      * @exception NoSuchElementException si nodeTerminal no pertany a la xarxa
      * @exception IllegalArgumentException si nodeTerminal no és un node terminal
      * @param nodeTerminal Node terminal
@@ -365,248 +367,347 @@ public class Xarxa {
         //Excepcions: NoSuchElementException si nodeTerminal no pertany a la xarxa
         //            IllegalArgumentException si nodeTerminal no és un node terminal
 
-        Node node = g.getNode(nodeTerminal.getID());
+        establirDemanda(nodeTerminal.getID(), demanda);
+    }
 
-        if (node.getAttribute("node") instanceof Terminal) {
-            NodeClass newNode = nodes.get(nodeTerminal.getID());
-            nodeTerminal.setNode(newNode);
-            nodeTerminal.establirDemanda(demanda);
-            node.setAttribute("node", nodeTerminal);
-            nodes.remove(nodeTerminal.getID());
-            nodes.put(nodeTerminal.getID(), nodeTerminal.getNode());
+    /**
+     * @brief Estableix la demanda d'aigua d'un node terminal a partir del seu identificador
+     * @pre ---
+     * @post Si id és un terminal de la xarxa, la seva demanda és demanda i els cabals afectats queden actualitzats; si
+     * no, s'informa per la sortida estàndard
+     * @param id Identificador del node terminal
+     * @param demanda Demanda d'aigua a establir
+     */
+    public void establirDemanda(String id, float demanda) {
+        int index = identificadors.index(id);
+
+        if (index != -1 && nucli.tipus(index) == NucliXarxa.TERMINAL) {
+            float anterior = nucli.demanda(index);
+            canviarDemanda(index, demanda);
+            propagar(index);
+            registrar(DiariOperacions.DEMANDA, index, anterior);
         } else {
             System.out.println("El node no és un terminal");
         }
     }
 
     /**
-     * @brief Estableix la demanda d'aigua d'un node terminal
-     * @pre nodeTerminal pertany a la xarxa
-     * @post Estableix la demanda d'aigua del node terminal a demanda
-     * @exception NoSuchElementException si nodeTerminal no pertany a la xarxa
-     * @exception IllegalArgumentException si nodeTerminal no és un node terminal
-     * @param nodeTerminal Node terminal
-     * @param demanda Demanda d'aigua a establir
+     * @brief Retorna el cabal que arriba a un node
+     * @pre node pertany a la xarxa
+     * @post Retorna la suma dels cabals de les canonades que entren al node
+     * @param node Node del qual obtenir el cabal
+     * @return Cabal que arriba al node
      */
-    public float cabal(Node node) {
-
-        return (float) node.getAttribute("cabal");
+    public float cabal(NodeClass node) {
+        int index = identificadors.index(node.getID());
+        float cabal = 0;
+        for (int k = nucli.iniciEntrades(index); k < nucli.fiEntrades(index); k++) {
+            cabal += nucli.cabal(nucli.entrada(k));
+        }
+        return cabal;
     }
 
     /**
      * @brief Retorna la demanda d'un node
-     * @pre ---
+     * @pre node pertany a la xarxa
      * @post Retorna la demanda del node
      * @param node Node del qual obtenir la demanda
      * @return Demanda del node
      */
-    public float demanda(Node node) {
+    public float demanda(NodeClass node) {
 
-        return (float) node.getAttribute("demanda");
+        return nucli.demanda(identificadors.index(node.getID()));
     }
 
     /**
      * @brief Desfà les últimes n operacions
      * @pre ---
-     * @post S'han desfet les últimes n operacions
+     * @post S'han desfet les últimes n operacions que modifiquen la xarxa (afegir nodes i canonades, abonar, obrir i
+     * tancar aixetes, establir cabals i demandes), o totes les que conserva el diari si n'hi ha menys, i els cabals
+     * afectats queden actualitzats. Les vistes de nodes i canonades que s'han desfet deixen de ser vàlides
      * @param n Número d'operacions a desfer
      */
     public void backtrack(int n) {
-        for (int i = 0; i < n; i++) {
-            if (!pilaOperacions.isEmpty()) {
-                ArrayList<Object> operacio = pilaOperacions.pop();
-                NodeClass node = (NodeClass) operacio.get(0);
-                boolean estatAnterior = (boolean) operacio.get(1);
-                if (estatAnterior) {
-                    node.obrirAixeta();
-                } else {
-                    node.tancarAixeta();
-                }
+        long objectiu = diari.posicio() - Math.min(Math.max(n, 0), diari.mida());
+        boolean recalcularTot = false;
+        int nombreTocats = 0;
+
+        // Si hi ha un punt de control entre l'objectiu i la posició actual i restaurar-lo és més barat que desfer
+        // les entrades que se salta, es comença des d'allà
+        DiariOperacions.PuntControl puntControl = diari.puntControl(objectiu);
+        if (puntControl != null && diari.posicio() - puntControl.posicio >= nucli.nombreNodes()) {
+            restaurar(puntControl);
+            diari.descartarFins(puntControl.posicio);
+            recalcularTot = true;
+        }
+
+        while (diari.posicio() > objectiu) {
+            byte tipus = diari.tipusUltima();
+            int index = diari.indexUltima();
+            float valor = diari.valorUltima();
+            diari.treureUltima();
+            recalcularTot |= desferEntrada(tipus, index, valor);
+            if (!recalcularTot && tipus <= DiariOperacions.DEMANDA) {
+                nombreTocats = tocar(index, nombreTocats);
             }
         }
+        operacionsSensePuntControl = 0;
+        actualitzarDesfetes(recalcularTot, nombreTocats);
     }
 
     /**
-     * @brief Dibuixa la xarxa de distribució d'aigua
+     * @brief Escriu les entrades del diari que desfaria un backtrack
      * @pre ---
-     * @post Dibuixa la xarxa de distribució d'aigua
+     * @post text acaba amb el tipus, l'índex i el valor anterior de les entrades que desfaria backtrack(n), de la més
+     * nova a la més antiga, separats per espais. Retorna el nombre d'entrades escrites
+     * @param n Número d'operacions a desfer
+     * @param text On s'escriuen les entrades
+     * @return Nombre d'entrades
      */
-    public void dibuixar() {
-        //Pre: ---
-        //Post: Dibuixa la xarxa de distribució d'aigua
-        calcularCabals();
-        establirDemandaICabalConnexions();
-        calcularCabals();
-        establirDemandaICabalConnexions();
-        calcularCabals();
-        establirDemandaICabalConnexions();
-        calcularCabals();
-        establirDemandaICabalConnexions();
-        g.setAttribute("ui.quality");
-        g.setAttribute("ui.antialias");
-        g.setAttribute("ui.stylesheet", "edge { text-alignment: under; text-size: 14; }");
-        System.setProperty("org.graphstream.ui", "swing");
-        String styleSheet =
-                "node {" +
-                        "fill-color: black;" +
-                        "size: 25px;" +
-                        "text-size: 15;" +
-                        "}" +
-                        "node.origen {" +
-                        "fill-color: red;" +
-                        "}" +
-                        "node.terminal {" +
-                        "fill-color: green;" +
-                        "}" +
-                        "node.connexio {" +
-                        "fill-color: blue;" +
-                        "}" +
-                        "edge {" +
-                        "fill-color: grey;" +
-                        "arrow-size: 15px, 3px;" +
-                        "}";
-        g.setAttribute("ui.stylesheet", styleSheet);
-        for (Node node : g) {
-            if (node.getDegree() > 0) {
-                NodeClass nodeClass = nodes.get(node.getId());
-                String aixetaEstat = nodeClass.aixetaOberta() ? "Oberta" : "Tancada";
-                String coordenadesX = String.valueOf(nodeClass.getCoordenades().getX());
-                String coordenadesY = String.valueOf(nodeClass.getCoordenades().getY());
-                node.setAttribute("ui.label", node.getId() + " " + aixetaEstat + " " + coordenadesX + ", " + coordenadesY);
-                if (node.getId().startsWith("T")) {
-                    node.setAttribute("ui.label", node.getAttribute("ui.label") + " Demanda punta: " + nodeClass.getDemanda() + " Demanda actual: " + nodeClass.getDemanda());
-                }
+    public int entradesBacktrack(int n, StringBuilder text) {
+        int k = Math.min(Math.max(n, 0), diari.mida());
+        for (long p = diari.posicio() - 1; p >= diari.posicio() - k; p--) {
+            if (p < diari.posicio() - 1) {
+                text.append(' ');
             }
+            text.append(diari.tipus(p)).append(' ').append(diari.index(p)).append(' ').append(diari.valor(p));
         }
-        Viewer viewer = g.display();
-        ((Viewer) viewer).setCloseFramePolicy(Viewer.CloseFramePolicy.HIDE_ONLY);
-
+        return k;
     }
 
     /**
-     * @brief Retorna el conjunt de nodes veïns d'un node
-     * @pre ---
-     * @post Retorna el conjunt de nodes veïns del node
-     * @param node Node del qual obtenir els veïns
-     * @return Conjunt de nodes veïns del node
+     * @brief Desfà unes entrades del diari escrites per entradesBacktrack
+     * @pre tipus, indexos i valors descriuen n entrades de la més nova a la més antiga, i les darreres entrades del
+     * diari, fins a n, són les primeres d'aquestes
+     * @post La xarxa és la que hi havia abans de les operacions de les entrades, encara que el diari no les conservi
+     * totes (per exemple, si la xarxa s'ha carregat d'un punt de control posterior a les més antigues), i els cabals
+     * afectats queden actualitzats
+     * @param tipus Tipus de cada entrada
+     * @param indexos Índex de l'element afectat per cada entrada
+     * @param valors Valor anterior de cada entrada
+     * @param n Nombre d'entrades
      */
-    public Set<Node> getNeighborSet(Node node) {
-        // Crea un conjunt per emmagatzemar els veïns
-        Set<Node> neighborsSet = new HashSet<>();
-
-        // Obté el grau del node (nombre d'arestes)
-        int degree = node.getDegree();
+    public void desfer(byte[] tipus, int[] indexos, float[] valors, int n) {
+        // Les més noves són al diari i es desfan igual que amb backtrack; la resta es desfan amb els valors escrits
+        int alDiari = Math.min(n, diari.mida());
+        backtrack(alDiari);
+        boolean recalcularTot = false;
+        int nombreTocats = 0;
+        for (int i = alDiari; i < n; i++) {
+            recalcularTot |= desferEntrada(tipus[i], indexos[i], valors[i]);
+            if (!recalcularTot && tipus[i] <= DiariOperacions.DEMANDA) {
+                nombreTocats = tocar(indexos[i], nombreTocats);
+            }
+        }
+        actualitzarDesfetes(recalcularTot, nombreTocats);
+    }
 
-        // Itera sobre les arestes del node
-        for (int i = 0; i < degree; i++) {
-            // Obtenim l'aresta
-            Edge edge = node.getEdge(i);
+    /**
+     * @brief Desfà una entrada del diari
+     * @pre L'entrada és l'última operació que encara no s'ha desfet
+     * @post La xarxa és la que hi havia abans de l'operació. Retorna true si l'operació afegia un node o una canonada
+     * i, per tant, cal recalcular tots els cabals
+     */
+    private boolean desferEntrada(byte tipus, int index, float valor) {
+        switch (tipus) {
+            case DiariOperacions.AIXETA:
+                nucli.establirAixeta(index, valor != 0);
+                return false;
+            case DiariOperacions.CABAL_POTENCIAL:
+                nucli.establirCabalPotencial(index, valor);
+                return false;
+            case DiariOperacions.DEMANDA:
+                canviarDemanda(index, valor);
+                return false;
+            case DiariOperacions.NODE:
+                eliminarUltimNode();
+                return true;
+            case DiariOperacions.CANONADA:
+                nucli.eliminarUltimaCanonada();
+                return true;
+            default:
+                eliminarUltimAbonament();
+                return false;
+        }
+    }
 
-            // Obtenim el veí de l'aresta
-            Node neighbor = edge.getOpposite(node);
+    private int tocar(int index, int nombreTocats) {
+        if (nombreTocats == nodesTocats.length) {
+            nodesTocats = Arrays.copyOf(nodesTocats, 2 * nombreTocats);
+        }
+        nodesTocats[nombreTocats] = index;
+        return nombreTocats + 1;
+    }
 
-            // Afegeix el vei al conjunt
-            neighborsSet.add(neighbor);
+    /**
+     * @brief Actualitza els cabals després de desfer operacions
+     * @pre nodesTocats[0 .. nombreTocats) són els nodes amb l'estat canviat, si no cal recalcularTot
+     * @post Si la xarxa no està en una càrrega massiva, els cabals estan al dia
+     */
+    private void actualitzarDesfetes(boolean recalcularTot, int nombreTocats) {
+        if (carregant) {
+            return;
         }
+        if (recalcularTot || nombreTocats > nucli.nombreNodes() / 8) {
+            calcularCabals();
+        } else if (nombreTocats > 0) {
+            motor.propagar(nucli, nodesTocats, nombreTocats);
+        }
+    }
 
-        // Retorna el conjunt de veïns
-        return neighborsSet;
+    /**
+     * @brief Afegeix una operació al diari
+     * @pre L'operació ja s'ha aplicat a la xarxa
+     * @post L'operació es pot desfer amb backtrack; si fa prou operacions de l'últim punt de control, se'n guarda un
+     * de nou
+     * @param tipus Tipus de l'operació
+     * @param index Índex de l'element afectat
+     * @param valorAnterior Valor que tenia l'element abans de l'operació
+     */
+    private void registrar(byte tipus, int index, float valorAnterior) {
+        diari.registrar(tipus, index, valorAnterior);
+        // L'interval creix amb la xarxa perquè el cost de guardar els punts de control quedi repartit entre les
+        // operacions
+        if (++operacionsSensePuntControl >= Math.max(INTERVAL_PUNTS_CONTROL, nucli.nombreNodes())) {
+            operacionsSensePuntControl = 0;
+            int n = nucli.nombreNodes();
+            boolean[] aixetesObertes = new boolean[n];
+            float[] demandes = new float[n];
+            float[] cabalsPotencials = new float[n];
+            for (int v = 0; v < n; v++) {
+                aixetesObertes[v] = nucli.aixetaOberta(v);
+                demandes[v] = nucli.demanda(v);
+                cabalsPotencials[v] = nucli.cabalPotencial(v);
+            }
+            diari.afegirPuntControl(new DiariOperacions.PuntControl(diari.posicio(), n, nucli.nombreCanonades(),
+                    abonats.nombreAbonaments(), aixetesObertes, demandes, cabalsPotencials));
+        }
     }
 
     /**
-     * @brief Retorna la llista de nodes veïns d'un node
-     * @pre ---
-     * @post Retorna la llista de nodes veïns del node
-     * @param node Node del qual obtenir els veïns
-     * @return Llista de nodes veïns del node
+     * @brief Canvia la demanda d'un node al nucli
+     * @pre 0 <= index < nucli.nombreNodes()
+     * @post La demanda del node és demanda; si és un terminal, el consum dels seus clients ho reflecteix
      */
-    public List<Node> getNeighbors(Node node) {
-        // Crea una llista per emmagatzemar els veïns
-        List<Node> neighborsList = new ArrayList<>();
+    private void canviarDemanda(int index, float demanda) {
+        float anterior = nucli.demanda(index);
+        nucli.establirDemanda(index, demanda);
+        if (nucli.tipus(index) == NucliXarxa.TERMINAL) {
+            abonats.demandaCanviada(index, anterior, demanda);
+        }
+    }
 
-        // Obté el conjunt de nodes veïns
-        Set<? extends Node> neighborSet = getNeighborSet(node);
+    /**
+     * @brief Torna la xarxa a l'estat d'un punt de control
+     * @pre puntControl és d'aquesta xarxa i no és posterior a la posició del diari
+     * @post Els nodes, canonades, abonaments, aixetes, demandes i cabals potencials són els del punt de control; cal
+     * recalcular els cabals
+     */
+    private void restaurar(DiariOperacions.PuntControl puntControl) {
+        // Els abonaments es desfan primer, mentre els seus terminals encara tenen la demanda actual
+        while (abonats.nombreAbonaments() > puntControl.nombreAbonaments) {
+            eliminarUltimAbonament();
+        }
+        while (nucli.nombreCanonades() > puntControl.nombreCanonades) {
+            nucli.eliminarUltimaCanonada();
+        }
+        while (nucli.nombreNodes() > puntControl.nombreNodes) {
+            eliminarUltimNode();
+        }
+        for (int v = 0; v < puntControl.nombreNodes; v++) {
+            nucli.establirAixeta(v, puntControl.aixetesObertes[v]);
+            canviarDemanda(v, puntControl.demandes[v]);
+            nucli.establirCabalPotencial(v, puntControl.cabalsPotencials[v]);
+        }
+    }
 
-        // Afegeix tots els veïns a la llista
-        neighborsList.addAll(neighborSet);
+    private void eliminarUltimNode() {
+        nucli.eliminarUltimNode();
+        identificadors.eliminarUltim();
+        indexEspacial.eliminarUltim();
+    }
 
-        // Retorna la llista de veïns
-        return neighborsList;
+    private void eliminarUltimAbonament() {
+        abonats.eliminarUltim(nucli.demanda(abonats.terminalUltim()));
     }
 
     /**
-     * @brief Retorna l'aresta corresponent a una canonada
+     * @brief Estableix on es dibuixa la xarxa
      * @pre ---
-     * @post Retorna l'aresta corresponent a la canonada
-     * @param canonada Canonada de la qual obtenir l'aresta
-     * @return Aresta corresponent a la canonada
+     * @post La xarxa es dibuixarà a visualitzador; si és null, la xarxa treballa sense pantalla i no dibuixa res
+     * @param visualitzador Destí on es dibuixa la xarxa, o null
      */
-    public Edge getEdgeFromCanonada(Canonada canonada) {
-        Node node1 = g.getNode(canonada.node1().getId());
-        Node node2 = g.getNode(canonada.node2().getId());
-        return node1.getEdgeBetween(node2);
+    public void establirVisualitzador(Visualitzador visualitzador) {
+        this.visualitzador = visualitzador;
     }
 
     /**
-     * @brief Retorna la llista d'arestes corresponents a les canonades
+     * @brief Dibuixa la xarxa de distribució d'aigua
      * @pre ---
-     * @post Retorna la llista d'arestes corresponents a les canonades
-     * @return Llista d'arestes corresponents a les canonades
+     * @post Si la xarxa té visualitzador, hi dibuixa la xarxa de distribució d'aigua; si no, no fa res
      */
-    public List<Edge> getEdgesFromCanonades() {
-        List<Edge> edges = new ArrayList<>();
-        for (Canonada canonada : canonades) {
-            edges.add(getEdgeFromCanonada(canonada));
+    public void dibuixar() {
+        //Pre: ---
+        //Post: Si la xarxa té visualitzador, hi dibuixa la xarxa de distribució d'aigua; si no, no fa res
+        if (visualitzador == null) {
+            return;
         }
-        return edges;
+        calcularCabals();
+        visualitzador.dibuixar(this);
     }
 
-    //-------------------------------------------------------------------------------------------------
-    //                                Repartir cabal i demanda
-    //-------------------------------------------------------------------------------------------------
-
     /**
-     * @brief Estableix la demanda i el cabal de les connexions
-     * @pre ---
-     * @post S'ha establert la demanda i el cabal de les connexions
+     * @brief Retorna el conjunt de nodes veïns d'un node
+     * @pre node pertany a la xarxa
+     * @post Retorna el conjunt de nodes veïns del node
+     * @param node Node del qual obtenir els veïns
+     * @return Conjunt de nodes veïns del node
      */
-    public void establirDemandaICabalConnexions() {
-        // Creem una copia del mapa
-        Map<String, NodeClass> nodesCopy = new HashMap<>(nodes);
-
-        // Recorrem la copia del mapa
-        for (NodeClass node : nodesCopy.values()) {
-            // Si el node no és un terminal i l'aixeta està oberta
-            if (!node.getId().startsWith("T") && node.aixetaOberta()) {
-                // Obtenim totes les canonades que arriben al node
-                List<Canonada> canonadesEntrants = getCanonadesSortints(node);
+    public Set<NodeClass> getNeighborSet(NodeClass node) {
+        return new HashSet<>(getNeighbors(node));
+    }
 
-                // Inicialitzem la demanda a 0
-                float demanda = 0;
+    /**
+     * @brief Retorna la llista de nodes veïns d'un node
+     * @pre node pertany a la xarxa
+     * @post Retorna la llista de nodes veïns del node: primer els destins de les canonades sortints i després els orígens de les entrants
+     * @param node Node del qual obtenir els veïns
+     * @return Llista de nodes veïns del node
+     */
+    public List<NodeClass> getNeighbors(NodeClass node) {
+        // Dos nodes no poden estar connectats en els dos sentits, per tant els veïns no es repeteixen
+        int index = identificadors.index(node.getID());
+        List<NodeClass> neighborsList = new ArrayList<>(nucli.grauSortida(index) + nucli.grauEntrada(index));
 
-                // Sumem la demanda de totes les canonades entrants
-                for (Canonada canonada : canonadesEntrants) {
-                    demanda += canonada.getDemanda();
-                }
+        for (int k = nucli.iniciSortides(index); k < nucli.fiSortides(index); k++) {
+            neighborsList.add(vistaNode(nucli.desti(nucli.sortida(k))));
+        }
+        for (int k = nucli.iniciEntrades(index); k < nucli.fiEntrades(index); k++) {
+            neighborsList.add(vistaNode(nucli.origen(nucli.entrada(k))));
+        }
 
-                // Establim la demanda del node
-                node.establirDemanda(demanda);
+        // Retorna la llista de veïns
+        return neighborsList;
+    }
 
-                // Si el node és una connexió, establim el seu cabal igual a la seva demanda
-                if (node.getId().startsWith("C")) {
-                    node.establirCabalPotencial(demanda);
-                }
-                nodes.remove(node.getId());
-                nodes.put(node.getId(), node);
-            } else if (!node.aixetaOberta()) {
-                // Si l'aixeta està tancada, establim la demanda i el cabal a 0
-                node.establirDemanda(0);
-                nodes.remove(node.getId());
-                nodes.put(node.getId(), node);
-            }
+    /**
+     * @brief Retorna totes les canonades de la xarxa
+     * @pre ---
+     * @post Retorna una llista de totes les canonades de la xarxa, en ordre de connexió
+     * @return Llista de canonades de la xarxa
+     */
+    public List<Canonada> getCanonades() {
+        List<Canonada> canonades = new ArrayList<>(nucli.nombreCanonades());
+        for (int c = 0; c < nucli.nombreCanonades(); c++) {
+            canonades.add(vistaCanonada(c));
         }
+        return canonades;
     }
 
+    //-------------------------------------------------------------------------------------------------
+    //                                Repartir cabal i demanda
+    //-------------------------------------------------------------------------------------------------
+
     /**
      * @brief Ajusta la capacitat d'un origen si és necessari
      * @pre ---
@@ -614,147 +715,118 @@ public class Xarxa {
      * @param origen Origen del qual ajustar la capacitat
      */
     public void ajustarCapacitatOrigenSiNecessari(NodeClass origen) {
-        // Obtenim totes les canonades que surten de l'origen
-        List<Canonada> canonadesSortints = getCanonadesSortints(origen);
+        int index = identificadors.index(origen.getID());
 
-        // Si no hi ha cap canonada sortint, no fem res
-        if (canonadesSortints.isEmpty()) {
-            return;
+        // Trobem la canonada sortint amb la major capacitat
+        float majorCapacitat = -1;
+        for (int k = nucli.iniciSortides(index); k < nucli.fiSortides(index); k++) {
+            majorCapacitat = Math.max(majorCapacitat, nucli.capacitat(nucli.sortida(k)));
         }
 
-        // Trobem la canonada amb la major capacitat
-        Canonada canonadaAmbMajorCapacitat = canonadesSortints.get(0);
-        for (Canonada canonada : canonadesSortints) {
-            if (canonada.getCapacitat() > canonadaAmbMajorCapacitat.getCapacitat()) {
-                canonadaAmbMajorCapacitat = canonada;
-            }
+        // Si no hi ha cap canonada sortint, no fem res
+        if (majorCapacitat < 0) {
+            return;
         }
 
         // Si la capacitat de l'origen és menor que la capacitat de la canonada amb major capacitat,
         // establim la capacitat de l'origen com a la capacitat de la canonada amb major capacitat
-        if (origen.getCabalPotencial() < canonadaAmbMajorCapacitat.getCapacitat()) {
-            origen.establirCabalPotencial(canonadaAmbMajorCapacitat.getCapacitat());
-            NodeClass nouOrigen = nodes.get(origen.getID());
-            nouOrigen.establirCabalPotencial(canonadaAmbMajorCapacitat.getCapacitat());
-            nodes.remove(origen.getID());
-            nodes.put(origen.getID(), nouOrigen);
+        if (nucli.cabalPotencial(index) < majorCapacitat) {
+            float anterior = nucli.cabalPotencial(index);
+            nucli.establirCabalPotencial(index, majorCapacitat);
+            registrar(DiariOperacions.CABAL_POTENCIAL, index, anterior);
         }
     }
 
     /**
      * @brief Calcula els cabals de la xarxa
      * @pre ---
-     * @post Els cabals de la xarxa han estat calculats
+     * @post Els cabals de les canonades i les demandes dels nodes que no són terminals han estat calculats. Retorna el
+     * nombre de passades fetes: 1 si la xarxa no té cicles dirigits
+     * @return Nombre de passades fetes
      */
-    public void calcularCabals() {
-        calcularCabalsAscendent();
-        calcularCabalsDescendent();
+    public int calcularCabals() {
+        return motor.resoldre(nucli);
     }
 
     /**
-     * @brief Calcula els cabals ascendent de la xarxa
+     * @brief Comença una càrrega massiva de la xarxa
      * @pre ---
-     * @post Els cabals ascendent de la xarxa han estat calculats
+     * @post Fins a confirmarCarrega, afegir nodes, connectar-los i modificar-ne l'estat no recalcula cabals, de manera
+     * que construir una xarxa té un cost lineal en la seva mida. Mentrestant, els cabals i les demandes dels nodes que
+     * no són terminals no estan actualitzats
      */
-    private void calcularCabalsAscendent() {
-        // Recorrem totes les canonades
-        for (Canonada canonada : canonades) {
-            // Obtenim el node d'origen de la canonada
-            NodeClass nodeOrigen = canonada.node1();
+    public void iniciarCarrega() {
+        carregant = true;
+    }
 
-            // Si el node d'origen és un origen, la seva demanda serà la demanda punta
-            if (nodeOrigen.getId().startsWith("O")) {
-                canonada.setDemanda(nodeOrigen.getDemanda());
-            }
-            // Si el node d'origen és una connexió, la seva demanda serà la suma de les demandes de les canonades que li arriben
-            else if (nodeOrigen.getId().startsWith("C")) {
-                float demanda = 0;
-                for (Canonada canonadaEntrant : getCanonadesEntrants(nodeOrigen)) {
-                    demanda += canonadaEntrant.getDemanda();
-                }
-                canonada.setDemanda(demanda);
-            }
-        }
+    /**
+     * @brief Acaba una càrrega massiva de la xarxa
+     * @pre ---
+     * @post Els cabals de tota la xarxa s'han calculat una sola vegada i les operacions tornen a actualitzar els
+     * cabals afectats. Retorna el nombre de passades fetes
+     * @return Nombre de passades fetes
+     */
+    public int confirmarCarrega() {
+        carregant = false;
+        return calcularCabals();
     }
 
     /**
-     * @brief Retorna les canonades sortints d'un node
+     * @brief Diu si la xarxa està en una càrrega massiva
      * @pre ---
-     * @post Retorna una llista de les canonades sortints del node
-     * @param node Node del qual obtenir les canonades sortints
-     * @return Llista de canonades sortints del node
+     * @post Retorna true si s'ha cridat iniciarCarrega i encara no confirmarCarrega
+     * @return true si la xarxa s'està carregant
      */
-    private List<Canonada> getCanonadesSortints(NodeClass node) {
-        // Creem una llista buida per emmagatzemar les canonades sortints
-        List<Canonada> canonadesSortints = new ArrayList<>();
+    public boolean carregant() {
+        return carregant;
+    }
 
-        // Recorrem totes les canonades
-        for (Canonada canonada : canonades) {
-            // Si el node d'origen de la canonada és el node que es passa per referència, l'afegim a la llista
-            if (canonada.node1().equals(node)) {
-                canonadesSortints.add(canonada);
-            }
+    private void propagar(int index) {
+        if (!carregant) {
+            motor.propagar(nucli, index);
         }
-
-        // Retornem la llista de canonades sortints
-        return canonadesSortints;
     }
 
     /**
-     * @brief Retorna les canonades entrants a un node
+     * @brief Retorna el nombre de passades de l'últim càlcul de cabals
      * @pre ---
-     * @post Retorna una llista de les canonades entrants al node
-     * @param node Node del qual obtenir les canonades entrants
-     * @return Llista de canonades entrants al node
+     * @post Retorna el nombre de passades que va fer l'últim càlcul de cabals
+     * @return Nombre de passades
      */
-    private List<Canonada> getCanonadesEntrants(NodeClass node) {
-        // Creem una llista buida per emmagatzemar les canonades sortints
-        List<Canonada> canonadesSortints = new ArrayList<>();
+    public int iteracionsCabals() {
+        return motor.iteracions();
+    }
 
-        // Recorrem totes les canonades
-        for (Canonada canonada : canonades) {
-            // Si el node d'origen de la canonada és el node que es passa per referència, l'afegim a la llista
-            if (canonada.node2().equals(node)) {
-                canonadesSortints.add(canonada);
-            }
+    /**
+     * @brief Retorna les canonades sortints d'un node
+     * @pre ---
+     * @post Retorna una llista de les canonades sortints del node, en ordre de connexió
+     * @param node Node del qual obtenir les canonades sortints
+     * @return Llista de canonades sortints del node
+     */
+    public List<Canonada> getCanonadesSortints(NodeClass node) {
+        int index = identificadors.index(node.getID());
+        List<Canonada> sortints = new ArrayList<>(nucli.grauSortida(index));
+        for (int k = nucli.iniciSortides(index); k < nucli.fiSortides(index); k++) {
+            sortints.add(vistaCanonada(nucli.sortida(k)));
         }
-
-        // Retornem la llista de canonades sortints
-        return canonadesSortints;
+        return sortints;
     }
 
     /**
-     * @brief Calcula els cabals descendent de la xarxa
+     * @brief Retorna les canonades entrants a un node
      * @pre ---
-     * @post Els cabals descendent de la xarxa han estat calculats
+     * @post Retorna una llista de les canonades entrants al node, en ordre de connexió
+     * @param node Node del qual obtenir les canonades entrants
+     * @return Llista de canonades entrants al node
      */
-    private void calcularCabalsDescendent() {
-        for (NodeClass node : nodes.values()) {
-            // Comprova si el node està obert
-            if (node.aixetaOberta()) {
-                double demandaTotal = node.getDemanda(); // Aquesta demanda ha estat establerta en l'ascendent
-                double capacitatTotal = getCanonadesEntrants(node).stream()
-                        .mapToDouble(Canonada::getCapacitat).sum();
-
-                for (Canonada canonada : getCanonadesEntrants(node)) {
-                    if (demandaTotal > 0) {
-                        double cabalAssignat = (canonada.getCapacitat() / capacitatTotal) * demandaTotal;
-                        cabalAssignat = Math.min(cabalAssignat, canonada.getCapacitat());  // No excedir la capacitat de la canonada
-                        canonada.setDemanda((float) cabalAssignat);
-                        Edge edge = g.getEdge(canonada.node1().getId() + canonada.node2().getId());
-                        edge.setAttribute("ui.label", cabalAssignat + " / " + canonada.getCapacitat());
-
-                    } else {
-                        canonada.setDemanda(0);
-                    }
-                }
-            } else {
-                // Si el node està tancat, establim la demanda de les canonades entrants a 0
-                for (Canonada canonada : getCanonadesEntrants(node)) {
-                    canonada.setDemanda(0);
-                }
-            }
+    public List<Canonada> getCanonadesEntrants(NodeClass node) {
+        int index = identificadors.index(node.getID());
+        List<Canonada> entrants = new ArrayList<>(nucli.grauEntrada(index));
+        for (int k = nucli.iniciEntrades(index); k < nucli.fiEntrades(index); k++) {
+            entrants.add(vistaCanonada(nucli.entrada(k)));
         }
+        return entrants;
     }
 
     //------------------------------------------------------------------------------------------------
@@ -762,29 +834,109 @@ public class Xarxa {
     /**
      * @brief Retorna el node de la xarxa amb identificador id
      * @pre ---
-     * @post Retorna el node de la xarxa amb identificador id
+     * @post Retorna el node de la xarxa amb identificador id, o null si no n'hi ha cap
      * @param id Identificador del node
      * @return Node de la xarxa amb identificador id
      */
     public NodeClass getNode(String id) {
-        return nodes.get(id);
+        int index = identificadors.index(id);
+        return index == -1 ? null : vistaNode(index);
     }
 
     /**
-     * @brief Retorna el terminal de la xarxa amb identificador id
+     * @brief Retorna la canonada que va de node1 a node2
      * @pre ---
-     * @post Retorna el terminal de la xarxa amb identificador id
-     * @param id Identificador del terminal
-     * @return Terminal de la xarxa amb identificador id
+     * @post Retorna la canonada amb sentit de l'aigua de node1 a node2, o null si no n'hi ha cap
+     * @param node1 Node d'inici de la canonada
+     * @param node2 Node de destí de la canonada
+     * @return Canonada de node1 a node2, o null si no existeix
      */
     public Canonada getCanonada(NodeClass node1, NodeClass node2){
-        for (Canonada canonada : canonades) {
-            if (canonada.node1().getId().equals(node1.getId()) && canonada.node2().getId().equals(node2.getId())) {
-                System.out.println("Canonada trobada entre " + node1.getId() + " i " + node2.getId());
-                return canonada;
-            }
+        int index1 = identificadors.index(node1.getID());
+        int index2 = identificadors.index(node2.getID());
+        if (index1 == -1 || index2 == -1) {
+            return null;
         }
-        return null;
+        int canonada = nucli.canonada(index1, index2);
+        return canonada == -1 ? null : vistaCanonada(canonada);
+    }
+
+    //-------------------------------------------------------------------------------------------------
+    //                                Accés al nucli
+    //-------------------------------------------------------------------------------------------------
+
+    /**
+     * @brief Retorna el nucli de la xarxa
+     * @pre ---
+     * @post Retorna el nucli primitiu sobre el qual treballa aquesta façana
+     * @return Nucli de la xarxa
+     */
+    NucliXarxa nucli() {
+        return nucli;
+    }
+
+    /**
+     * @brief Retorna el motor de càlcul de cabals de la xarxa
+     * @pre ---
+     * @post Retorna el motor que calcula i propaga els cabals
+     * @return Motor de càlcul de cabals
+     */
+    MotorCabals motorCabals() {
+        return motor;
+    }
+
+    /**
+     * @brief Retorna el motor de flux màxim de la xarxa
+     * @pre ---
+     * @post Retorna el motor de flux màxim, que reaprofita els seus vectors d'un càlcul al següent
+     * @return Motor de flux màxim
+     */
+    FluxMaxim motorFluxMaxim() {
+        return fluxMaxim;
+    }
+
+    /**
+     * @brief Retorna l'índex al nucli d'un node
+     * @pre ---
+     * @post Retorna l'índex del node amb identificador id, o -1 si no pertany a la xarxa
+     * @param id Identificador del node
+     * @return Índex del node o -1
+     */
+    int index(String id) {
+        return identificadors.index(id);
+    }
+
+    /**
+     * @brief Retorna l'identificador d'un node a partir del seu índex
+     * @pre 0 <= index < nucli().nombreNodes()
+     * @post Retorna l'identificador del node
+     * @param index Índex del node
+     * @return Identificador del node
+     */
+    String idNode(int index) {
+        return identificadors.id(index);
+    }
+
+    /**
+     * @brief Retorna una vista d'un node del nucli
+     * @pre 0 <= index < nucli().nombreNodes()
+     * @post Retorna un node que llegeix i escriu l'estat del node index del nucli
+     * @param index Índex del node
+     * @return Vista del node
+     */
+    NodeClass vistaNode(int index) {
+        return new NodeClass(identificadors.id(index), nucli, index);
+    }
+
+    /**
+     * @brief Retorna una vista d'una canonada del nucli
+     * @pre 0 <= index < nucli().nombreCanonades()
+     * @post Retorna una canonada que llegeix i escriu l'estat de la canonada index del nucli
+     * @param index Índex de la canonada
+     * @return Vista de la canonada
+     */
+    Canonada vistaCanonada(int index) {
+        return new Canonada(vistaNode(nucli.origen(index)), vistaNode(nucli.desti(index)), nucli, index);
     }
 
     //-------------------------------------------------------------------------------------------------
@@ -794,33 +946,112 @@ public class Xarxa {
     /**
      * @brief Clona la xarxa de distribució d'aigua
      * @pre ---
-     * @post Retorna un clon de la xarxa de distribució d'aigua
+     * @post Retorna un clon de la xarxa de distribució d'aigua, independent de l'original, en temps constant. El clon
+     * comparteix les dades amb l'original fins que un dels dos les modifica (còpia en escriptura), i té el diari
+     * d'operacions buit
      * @return Clon de la xarxa de distribució d'aigua
      */
     public Xarxa clonar() {
-        Xarxa xarxa = new Xarxa();
-        for (NodeClass node : nodes.values()) {
-            if (node.getId().startsWith("O")) {
-                Origen origen = new Origen(node);
-                xarxa.afegir(origen);
-            } else if (node.getId().startsWith("T")) {
-                Terminal terminal = new Terminal(node);
-                xarxa.afegir(terminal);
-            } else if (node.getId().startsWith("C")) {
-                Connexio connexio = new Connexio(node);
-                xarxa.afegir(connexio);
+        Xarxa xarxa = new Xarxa(abonats.copia(), nucli.copia(), identificadors.copia(), indexEspacial.copia(),
+                components.copia());
+        xarxa.motor = motor.copiaPer(xarxa.nucli);
+        return xarxa;
+    }
+
+    /**
+     * @brief Clona la xarxa de distribució d'aigua amb un motor de flux màxim donat
+     * @pre fluxMaxim només el fa servir un fil alhora
+     * @post Retorna un clon com clonar(), que calcula els fluxos màxims amb fluxMaxim en lloc d'un motor nou: els
+     * vectors i els comptadors del motor es reaprofiten d'un clon al següent
+     * @param fluxMaxim Motor de flux màxim del clon
+     * @return Clon de la xarxa de distribució d'aigua
+     */
+    public Xarxa clonar(FluxMaxim fluxMaxim) {
+        Xarxa xarxa = clonar();
+        xarxa.fluxMaxim = fluxMaxim;
+        return xarxa;
+    }
+
+    /**
+     * @brief Fa els càlculs pendents que les consultes farien el primer cop
+     * @pre ---
+     * @post La càrrega massiva, si n'hi havia, està confirmada i els índexs i les components estan construïts, de
+     * manera que els clons que se'n facin no repeteixen aquesta feina cadascun. Fora d'una càrrega massiva els cabals
+     * ja estan al dia, perquè cada modificació els propaga, i no es tornen a calcular
+     */
+    public void prepararConsultes() {
+        if (carregant) {
+            confirmarCarrega();
+        }
+        indexEspacial.construirPendents();
+        components.sincronitzar(nucli);
+        abonats.ordenar();
+    }
+
+    /**
+     * @brief Desa la xarxa en una instantània binària
+     * @pre La xarxa no s'està carregant
+     * @post fitxer conté els nodes, les canonades, les demandes, les aixetes, els cabals calculats i els abonaments de
+     * la xarxa; si ja existia, se substitueix d'una sola vegada. El diari d'operacions no es desa
+     * @exception IOException si hi ha un error d'escriptura
+     * @param fitxer Fitxer de la instantània
+     */
+    public void desar(Path fitxer) throws IOException {
+        desar(fitxer, 0);
+    }
+
+    /**
+     * @brief Desa la xarxa en una instantània que correspon a una operació del registre d'operacions
+     * @pre operacio >= 0; la xarxa no està en mode de càrrega
+     * @post fitxer conté la xarxa, com amb desar(fitxer), i té operacio com a darrera operació del registre inclosa
+     * @exception IOException si hi ha un error d'escriptura
+     * @param fitxer Fitxer de la instantània
+     * @param operacio Número de la darrera operació del registre aplicada a la xarxa
+     */
+    public void desar(Path fitxer, long operacio) throws IOException {
+        try (Instantania.Escriptor escriptor = new Instantania.Escriptor(fitxer, nucli.nombreNodes(),
+                nucli.nombreCanonades(), abonats.nombreAbonaments())) {
+            escriptor.establirOperacio(operacio);
+            nucli.desar(escriptor);
+            escriptor.textos(identificadors::id, identificadors.mida());
+            escriptor.textos(abonats::client, abonats.nombreAbonaments());
+            int[] terminals = new int[abonats.nombreAbonaments()];
+            for (int a = 0; a < terminals.length; a++) {
+                terminals[a] = abonats.terminal(a);
             }
+            escriptor.ints(terminals, terminals.length);
+            escriptor.confirmar();
         }
-        for (Canonada canonada : canonades) {
-            NodeClass node1 = canonada.node1();
-            NodeClass node2 = canonada.node2();
-            if (node1 != null && node2 != null) {
-                xarxa.connectarAmbCanonada(node1, node2, canonada.getCapacitat());
-            } else {
-                System.out.println("Error: Un dels nodes és null");
+    }
+
+    /**
+     * @brief Carrega una xarxa d'una instantània binària
+     * @pre ---
+     * @post Retorna una xarxa igual a la que es va desar a fitxer, amb els cabals ja calculats i el diari d'operacions
+     * buit, sense haver de tornar a calcular cap cabal
+     * @exception IOException si no es pot llegir o la instantània està malmesa o és d'una altra versió
+     * @param fitxer Fitxer de la instantània
+     * @return Xarxa carregada
+     */
+    public static Xarxa carregar(Path fitxer) throws IOException {
+        try (Instantania.Lector lector = new Instantania.Lector(fitxer)) {
+            NucliXarxa nucli = NucliXarxa.llegir(lector);
+            List<String> ids = new ArrayList<>(lector.nombreNodes());
+            lector.textos(lector.nombreNodes(), ids::add);
+            List<String> clients = new ArrayList<>(lector.nombreAbonaments());
+            lector.textos(lector.nombreAbonaments(), clients::add);
+            int[] terminals = lector.ints(lector.nombreAbonaments(), lector.nombreAbonaments());
+            lector.verificar();
+
+            IndexAbonats abonats = new IndexAbonats();
+            for (int a = 0; a < terminals.length; a++) {
+                abonats.abonar(clients.get(a), terminals[a], nucli.demanda(terminals[a]));
             }
+            TaulaIdentificadors identificadors = TaulaIdentificadors.deVector(ids.toArray(new String[0]), ids.size());
+            IndexEspacial indexEspacial = new IndexEspacial();
+            indexEspacial.afegirTots(nucli);
+            return new Xarxa(abonats, nucli, identificadors, indexEspacial, new ComponentsXarxa());
         }
-        return xarxa;
     }
 
     /**
@@ -830,10 +1061,10 @@ public class Xarxa {
      * @return Terminal si es troba, null en cas contrari
      */
     public Terminal buscarTerminal() {
-        for (NodeClass node : nodes.values()) {
-            if (node.getId().startsWith("T")) {
+        for (int v = 0; v < nucli.nombreNodes(); v++) {
+            if (nucli.tipus(v) == NucliXarxa.TERMINAL) {
                 Terminal terminal = new Terminal();
-                terminal.setNode(node);
+                terminal.setNode(vistaNode(v));
                 return terminal;
             }
         }
@@ -843,61 +1074,119 @@ public class Xarxa {
     /**
      * @brief Dibuixa el flux de la xarxa de distribució d'aigua
      * @pre ---
-     * @post El flux de la xarxa de distribució d'aigua ha estat dibuixat
+     * @post Si la xarxa té visualitzador, el flux de la xarxa de distribució d'aigua hi ha estat dibuixat; si no, no fa res
      */
     public void dibuixarFlux(){
+        if (visualitzador == null) {
+            return;
+        }
 
         calcularCabals();
-        establirDemandaICabalConnexions();
-        calcularCabals();
-        establirDemandaICabalConnexions();
-        calcularCabals();
-        establirDemandaICabalConnexions();
+        visualitzador.dibuixarFlux(this);
+    }
 
-        for (Canonada canonada : canonades) {
-            float flux = canonada.getDemanda();
-            Edge edge = getEdgeFromCanonada(canonada);
-            edge.setAttribute("ui.label", "Flux: " + flux + "/" + canonada.getCapacitat());
-        }
+    /**
+     * @brief Retorna els nodes més propers a unes coordenades
+     * @pre n >= 0
+     * @post Retorna els min(n, nombre de nodes) nodes més propers a c, ordenats per distància geodèsica i, en cas
+     * d'empat, per ordre d'inserció
+     * @param c Coordenades de referència
+     * @param n Nombre de nodes a retornar
+     * @return Llista dels nodes més propers a c
+     */
+    public List<NodeClass> nodesMesPropers(Coordenades c, int n) {
+        return vistesNodes(indexEspacial.mesPropers(c.getY(), c.getX(), n));
+    }
+
+    /**
+     * @brief Retorna els nodes més propers a unes coordenades i els que hi empaten
+     * @pre n >= 0
+     * @post Retorna els min(n, nombre de nodes) nodes més propers a c i, a més, els que són a la mateixa distància
+     * que l'últim d'aquests, de manera que es poden desempatar amb un altre criteri abans de quedar-se'n n
+     * @param c Coordenades de referència
+     * @param n Nombre de nodes a retornar sense comptar els empats
+     * @return Llista dels nodes més propers a c i dels empatats
+     */
+    public List<NodeClass> nodesMesPropersAmbEmpats(Coordenades c, int n) {
+        return vistesNodes(indexEspacial.mesPropersAmbEmpats(c.getY(), c.getX(), n));
+    }
 
-        g.setAttribute("ui.quality");
-        g.setAttribute("ui.antialias");
-        g.setAttribute("ui.stylesheet", "edge { text-alignment: under; text-size: 14; }");
-        System.setProperty("org.graphstream.ui", "swing");
-        String styleSheet =
-                "node {" +
-                        "   text-mode: normal;" +
-                        "   text-background-mode: rounded-box;" +
-                        "   text-background-color: white;" +
-                        "   text-alignment: above;" +
-                        "}";
-        g.setAttribute("ui.stylesheet", styleSheet);
-        for (Node node : g) {
-            node.setAttribute("ui.label", node.getId());
+    /**
+     * @brief Retorna els nodes que són dins d'un radi al voltant d'unes coordenades
+     * @pre radi >= 0
+     * @post Retorna els nodes a distància geodèsica com a molt radi de c, ordenats per distància i, en cas d'empat,
+     * per ordre d'inserció
+     * @param c Coordenades del centre
+     * @param radi Radi, en km
+     * @return Llista dels nodes dins del radi
+     */
+    public List<NodeClass> nodesDinsRadi(Coordenades c, double radi) {
+        return vistesNodes(indexEspacial.dinsRadi(c.getY(), c.getX(), radi));
+    }
+
+    private List<NodeClass> vistesNodes(int[] indexos) {
+        List<NodeClass> nodes = new ArrayList<>(indexos.length);
+        for (int v : indexos) {
+            nodes.add(vistaNode(v));
         }
-        Viewer viewer = g.display();
-        ((Viewer) viewer).setCloseFramePolicy(Viewer.CloseFramePolicy.HIDE_ONLY);
+        return nodes;
+    }
+
+    /**
+     * @brief Retorna la demanda dels terminals que pengen d'un node
+     * @pre node pertany a la xarxa i la seva component és un arbre amb arrel a node
+     * @post Retorna la suma de les demandes dels terminals, sense comptar node, als quals arriba l'aigua des de node
+     * sense passar per cap aixeta tancada. La consulta és O(log n); canviar una demanda o una aixeta manté l'índex en O(log n)
+     * @param node Node arrel
+     * @return Demanda total dels terminals que pengen de node
+     */
+    public double demandaSubarbre(NodeClass node) {
+        return nucli.demandaSubarbre(identificadors.index(node.getID()));
     }
 
     //-------------------------------------------------------------------------------------------------------
     //                        Mètodes per a la implementació de l'algorisme esArbre
     //-------------------------------------------------------------------------------------------------------
 
+    /**
+     * @brief Diu si la component connexa d'un node té cicles
+     * @pre node pertany a la xarxa
+     * @post Retorna true si la component connexa que conté node, sense tenir en compte el sentit de l'aigua, té algun
+     * cicle. Les components es mantenen a mesura que es connecten nodes, i la consulta és en temps gairebé constant
+     * @param node Node de la component
+     * @return true si la component té cicles
+     */
+    public boolean teCicles(NodeClass node) {
+        return components.teCicles(nucli, identificadors.index(node.getID()));
+    }
+
+    /**
+     * @brief Diu si la component connexa d'un node és un arbre amb arrel en aquest node
+     * @pre node pertany a la xarxa
+     * @post Retorna true si node no té canonades entrants, la seva component no té cicles i tots els altres nodes de la
+     * component tenen exactament una canonada entrant; és a dir, si l'aigua arriba a cada node per un sol camí des de
+     * node
+     * @param node Node arrel
+     * @return true si la component és un arbre amb arrel a node
+     */
+    public boolean esArbre(NodeClass node) {
+        return components.esArbre(nucli, identificadors.index(node.getID()));
+    }
+
     /**
      * @brief Retorna el nombre de Canonades Entrants d'un node
-     * @pre ---
+     * @pre node pertany a la xarxa
      * @post Retorna el nombre de Canonades Entrants d'un node
      * @param node
      * @return Nombre de Canonades Entrants d'un node
      */
     public int getInDegree(NodeClass node){
-        Node node_ = g.getNode(node.getId());
-        return node_.getInDegree();
+        return nucli.grauEntrada(identificadors.index(node.getID()));
     }
 
     /**
      * @brief Retorna una llista de nodes connectats a un node específic
-     * @pre ---
+     * @pre nodeEspecific pertany a la xarxa
      * @post Retorna una llista de nodes que estan connectats al node específic
      * @param nodeEspecific Node específic del qual obtenir els nodes connectats
      * @return Llista de nodes connectats al node específic
@@ -908,25 +1197,26 @@ public class Xarxa {
         List<NodeClass> descendents = new ArrayList<>();
 
         // Creem una pila per emmagatzemar els nodes a visitar
-        Stack<NodeClass> stack = new Stack<>();
-        stack.push(nodeEspecific);
+        int inici = identificadors.index(nodeEspecific.getID());
+        int[] pila = new int[nucli.nombreNodes()];
+        int cim = 0;
+        pila[cim++] = inici;
 
-        // Creem un conjunt per emmagatzemar els nodes visitats
-        Set<NodeClass> visited = new HashSet<>();
-        visited.add(nodeEspecific);
+        // Creem un vector per marcar els nodes visitats
+        boolean[] visitat = new boolean[nucli.nombreNodes()];
+        visitat[inici] = true;
 
-        while (!stack.isEmpty()) {
-            NodeClass actual = stack.pop();
+        while (cim > 0) {
+            int actual = pila[--cim];
 
-            // Obtenim tots els fills del node actual
-            List<NodeClass> fills = getChildren(actual);
-
-            for (NodeClass fill : fills) {
+            // Recorrem tots els fills del node actual
+            for (int k = nucli.iniciSortides(actual); k < nucli.fiSortides(actual); k++) {
+                int fill = nucli.desti(nucli.sortida(k));
                 // Si el fill no ha estat visitat, l'afegim a la pila i a la llista de descendents
-                if (!visited.contains(fill)) {
-                    stack.push(fill);
-                    descendents.add(fill);
-                    visited.add(fill);
+                if (!visitat[fill]) {
+                    pila[cim++] = fill;
+                    descendents.add(vistaNode(fill));
+                    visitat[fill] = true;
                 }
             }
         }
@@ -936,23 +1226,4 @@ public class Xarxa {
 
     }
 
-    /**
-     * @brief Retorna una llista de fills d'un node específic
-     * @pre ---
-     * @post Retorna una llista de nodes que són fills del node específic
-     * @param pare Node específic del qual obtenir els fills
-     * @return Llista de fills del node específic
-     */
-    private List<NodeClass> getChildren(NodeClass pare) {
-        List<NodeClass> fills = new ArrayList<>();
-        for (Canonada canonada : canonades) {
-            if (canonada.node1().getId().equals(pare.getId())) {
-                fills.add(canonada.node2());
-            }
-        }
-        return fills;
-    }
-
 }
-    
-
@@ -0,0 +1,40 @@
+#!/bin/bash
+# Comprova que la propagació incremental dels cabals dona el mateix resultat que el càlcul complet.
+# Cada guió acaba desant la xarxa (cabals propagats), forçant un càlcul complet amb una operació de construcció i
+# tornant-la a desar; les dues instantànies han de ser idèntiques.
+# Ús: test/propagacio.sh [classpath]   (per defecte, el JAR de simulador/target)
+CP=${1:-simulador/target/bewater-1.0-SNAPSHOT.jar}
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+
+comprovar() {
+    local nom=$1 guio=$2
+    printf 'desar\n%s\nconnectar\nNO_EXISTEIX_1\nNO_EXISTEIX_2\n1\ndesar\n%s\n' "$DIR/propagat.bin" "$DIR/complet.bin" >> "$guio"
+    java -cp "$CP" BeWater "$guio" "$DIR/sortida.txt" > /dev/null
+    if cmp -s "$DIR/propagat.bin" "$DIR/complet.bin"; then
+        echo "$nom: correcte"
+    else
+        echo "$nom: ERROR, la propagació no coincideix amb el càlcul complet"
+        FALLADES=1
+    fi
+}
+
+FALLADES=0
+
+# Molts canvis petits de demanda en una cadena: cap no supera la tolerància relativa per si sol
+{
+    printf 'origen\nO1\n41:58:00N,2:49:00E\n'
+    printf 'connexio\nC1\n41:58:01N,2:49:01E\n'
+    printf 'terminal\nT1\n41:58:02N,2:49:02E\n10000\n'
+    printf 'connectar\nO1\nC1\n100000\nconnectar\nC1\nT1\n100000\n'
+    for i in $(seq 1 200); do
+        printf 'demanda\nT1\n%s\n' "$(awk "BEGIN { print 10000 + $i * 0.5 }")"
+    done
+} > "$DIR/cadena.txt"
+comprovar cadena "$DIR/cadena.txt"
+
+# Arbre generat amb canvis de demanda i d'aixetes
+java -cp "$CP" GeneradorXarxes arbre 20000 20000 11 "$DIR/arbre.txt"
+comprovar arbre "$DIR/arbre.txt"
+
+exit $FALLADES
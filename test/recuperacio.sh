@@ -0,0 +1,55 @@
+#!/bin/bash
+# Comprova que una xarxa recuperada del registre d'operacions és la mateixa que si la simulació no s'hagués aturat.
+# Cada cas és un guió partit en dues parts: la primera s'executa amb un registre i s'atura sense fer cap punt de
+# control final, i la segona es torna a començar amb el mateix registre, de manera que primer recupera la xarxa. El
+# guió sencer s'executa d'una vegada amb un registre nou. Les dues execucions desen la xarxa en una instantània en
+# el punt on s'ha aturat la primera i al final, i les instantànies han de ser idèntiques.
+# Ús: test/recuperacio.sh [classpath]   (per defecte, el JAR de simulador/target)
+CP=${1:-simulador/target/bewater-1.0-SNAPSHOT.jar}
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+
+comprovar() {
+    local nom=$1 primera=$2 segona=$3
+    shift 3
+    rm -rf "$DIR/aturat" "$DIR/seguit"
+    { printf 'desar\n%s\n' "$DIR/recuperat1.bin"; cat "$segona"; printf 'desar\n%s\n' "$DIR/recuperat2.bin"; } \
+        > "$DIR/segona.txt"
+    cat "$primera" "$DIR/segona.txt" | sed "s|$DIR/recuperat|$DIR/seguit|" > "$DIR/sencer.txt"
+    java -cp "$CP" BeWater "$primera" "$DIR/sortida.txt" --registre "$DIR/aturat" "$@" > /dev/null
+    java -cp "$CP" BeWater "$DIR/segona.txt" "$DIR/sortida.txt" --registre "$DIR/aturat" "$@" > /dev/null
+    java -cp "$CP" BeWater "$DIR/sencer.txt" "$DIR/sortida.txt" --registre "$DIR/seguit" "$@" > /dev/null
+    if cmp -s "$DIR/recuperat1.bin" "$DIR/seguit1.bin" && cmp -s "$DIR/recuperat2.bin" "$DIR/seguit2.bin"; then
+        echo "$nom: correcte"
+    else
+        echo "$nom: ERROR, la xarxa recuperada no coincideix amb la de la simulació sense aturar"
+        FALLADES=1
+    fi
+}
+
+FALLADES=0
+
+# Un backtrack just després d'un punt de control: ha de desfer també les operacions anteriors al punt de control
+printf 'origen\nO1\n41:58:00N,2:49:00E\nterminal\nT1\n41:58:01N,2:49:01E\n10\nconnectar\nO1\nT1\n100\n' > "$DIR/a1.txt"
+printf 'tancar\nO1\nbacktrack\n2\n' >> "$DIR/a1.txt"
+printf 'obrir\nO1\n' > "$DIR/a2.txt"
+comprovar backtrack "$DIR/a1.txt" "$DIR/a2.txt" --punt-control 4
+
+# Arbre generat amb canvis de demanda i d'aixetes i un backtrack cada 100 operacions, aturat just després del de
+# l'operació 1500. El punt de control de cada 919 operacions cau just abans d'aquest backtrack (4000 operacions de
+# construcció, 1500 canvis i 14 backtracks en són 6 × 919): en recuperar la xarxa, el diari no en té cap entrada
+java -cp "$CP" GeneradorXarxes arbre 2000 0 7 "$DIR/xarxa.txt"
+java -cp "$CP" GeneradorXarxes arbre 2000 3000 7 "$DIR/complet.txt"
+tail -n +$(($(wc -l < "$DIR/xarxa.txt") + 1)) "$DIR/complet.txt" | awk -v b1="$DIR/b1.txt" -v b2="$DIR/b2.txt" '
+    function fi_ordre() {
+        n++
+        if (n % 100 == 0) printf "backtrack\n%d\n", 1 + (n / 100) % 7 > (n <= 1500 ? b1 : b2)
+    }
+    resta == 0 && $0 == "demanda" { resta = 3 }
+    resta == 0 && ($0 == "tancar" || $0 == "obrir") { resta = 2 }
+    { print > (n < 1500 ? b1 : b2); if (--resta == 0) fi_ordre() }
+'
+cat "$DIR/xarxa.txt" "$DIR/b1.txt" > "$DIR/b1x.txt"
+comprovar arbre "$DIR/b1x.txt" "$DIR/b2.txt" --punt-control 919
+
+exit $FALLADES